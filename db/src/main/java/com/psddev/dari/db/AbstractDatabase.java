@@ -1,17 +1,22 @@
 package com.psddev.dari.db;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 
 import org.slf4j.Logger;
@@ -21,6 +26,7 @@ import com.psddev.dari.util.CompactMap;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
 import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.SettingsException;
 import com.psddev.dari.util.SparseSet;
 
 /**
@@ -60,6 +66,7 @@ import com.psddev.dari.util.SparseSet;
  * <li>{@link #commitTransaction}</li>
  * <li>{@link #rollbackTransaction}</li>
  * <li>{@link #endTransaction}</li>
+ * <li>{@link #afterWrites}</li>
  * </ul>
  *
  * @param C Type of the implementation-specific connection object that's
@@ -71,16 +78,46 @@ public abstract class AbstractDatabase<C> implements Database {
     public static final String NULL_TYPE_QUERY_OPTION = "db.nullType";
     public static final String GROUPS_SUB_SETTING = "groups";
     public static final String READ_TIMEOUT_SUB_SETTING = "readTimeout";
+    public static final String GROUP_COMMIT_SUB_SETTING = "groupCommit";
+    public static final String GROUP_COMMIT_WINDOW_SUB_SETTING = "groupCommitWindow";
+    public static final String GROUP_COMMIT_SIZE_SUB_SETTING = "groupCommitSize";
+    public static final String WRITE_BEHIND_SPOOL_SUB_SETTING = "writeBehindSpool";
+    public static final String WRITE_BEHIND_SPOOL_SIZE_SUB_SETTING = "writeBehindSpoolSize";
+    public static final String WRITE_BEHIND_BATCH_SIZE_SUB_SETTING = "writeBehindBatchSize";
+    public static final String ASYNC_QUERY_THREADS_SUB_SETTING = "asyncQueryThreads";
+    public static final String ASYNC_QUERY_QUEUE_SIZE_SUB_SETTING = "asyncQueryQueueSize";
     public static final String TRIGGER_EXTRA_PREFIX = "db.trigger.";
 
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW = 5L;
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 100;
+    public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 500;
+    public static final String WRITE_BEHIND_TASK_EXECUTOR_NAME = "Database Write-Behind";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractDatabase.class);
 
     private volatile String name;
     private transient volatile DatabaseEnvironment environment;
     private volatile Set<String> groups;
     private volatile double readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile boolean groupCommit;
+    private volatile long groupCommitWindow = DEFAULT_GROUP_COMMIT_WINDOW;
+    private volatile int groupCommitSize = DEFAULT_GROUP_COMMIT_SIZE;
+    private transient volatile WriteBehindSpool writeBehindSpool;
+    private transient volatile WriteBehindTask writeBehindTask;
+    private volatile int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+    private volatile int asyncQueryThreads = AsyncQueryExecutor.DEFAULT_THREADS;
+    private volatile int asyncQueryQueueSize = AsyncQueryExecutor.DEFAULT_QUEUE_SIZE;
+    private transient volatile AsyncQueryExecutor asyncQueryExecutor;
 
     private final transient ThreadLocal<Deque<Writes>> writesQueueLocal = new ThreadLocal<Deque<Writes>>();
+    private final transient GroupCommit groupCommitter = new GroupCommit();
+
+    // Number of writes to each object in the write-behind spool, and how
+    // many of those were overtaken by immediate saves or deletes, so that
+    // the spooled writes can't be applied out of order.
+    private final transient Map<UUID, Integer> spooledCounts = new HashMap<UUID, Integer>();
+    private final transient Map<UUID, Integer> supersededCounts = new HashMap<UUID, Integer>();
+    private final transient ReentrantLock spoolOrderLock = new ReentrantLock();
 
     private static class Writes {
 
@@ -293,6 +330,198 @@ public abstract class AbstractDatabase<C> implements Database {
         this.readTimeout = readTimeout;
     }
 
+    /**
+     * Returns {@code true} if concurrent immediate writes should be merged
+     * into a single transaction.
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Sets whether concurrent immediate writes should be merged into
+     * a single transaction.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Returns how long the first write in a group waits for others
+     * to join it, in milliseconds.
+     */
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * Sets how long the first write in a group waits for others
+     * to join it, in milliseconds. The write doesn't wait if no others
+     * are pending when it starts, so a lone writer isn't slowed down.
+     *
+     * @param groupCommitWindow May be less than or equal to {@code 0}
+     *        to only group the writes that are already waiting.
+     */
+    public void setGroupCommitWindow(long groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+
+    /**
+     * Returns the maximum number of writes that can be merged into
+     * a single transaction.
+     */
+    public int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    /**
+     * Sets the maximum number of writes that can be merged into
+     * a single transaction.
+     */
+    public void setGroupCommitSize(int groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    /**
+     * Returns the spool that holds the {@linkplain #commitWritesEventually
+     * eventual writes} until they're applied in the background.
+     *
+     * @return May be {@code null} if the eventual writes are applied
+     *         immediately.
+     */
+    public WriteBehindSpool getWriteBehindSpool() {
+        return writeBehindSpool;
+    }
+
+    /**
+     * Sets the spool that holds the {@linkplain #commitWritesEventually
+     * eventual writes} until they're applied in the background, and starts
+     * applying any that are already in it.
+     *
+     * <p>Eventual writes are validated immediately, but are applied later,
+     * in order, with repeated writes to the same object combined. Writes
+     * with {@linkplain State#getAtomicOperations atomic operations} or to
+     * objects with unique indexes are always applied immediately. A
+     * spooled write is never applied after a later immediate save or
+     * delete of the same object.</p>
+     *
+     * @param writeBehindSpool May be {@code null} to apply the eventual
+     *        writes immediately.
+     */
+    public synchronized void setWriteBehindSpool(WriteBehindSpool writeBehindSpool) {
+        spoolOrderLock.lock();
+
+        try {
+            synchronized (spooledCounts) {
+                spooledCounts.clear();
+                supersededCounts.clear();
+
+                if (writeBehindSpool != null) {
+                    for (WriteBehindSpool.Entry entry : writeBehindSpool.read(Integer.MAX_VALUE)) {
+                        increment(spooledCounts, entry.getId());
+                    }
+                }
+            }
+
+            this.writeBehindSpool = writeBehindSpool;
+
+        } finally {
+            spoolOrderLock.unlock();
+        }
+
+        if (writeBehindSpool != null && writeBehindTask == null) {
+            writeBehindTask = new WriteBehindTask();
+            writeBehindTask.scheduleWithFixedDelay(1.0, 0.1);
+        }
+    }
+
+    /**
+     * Returns the maximum number of spooled writes that are applied
+     * in a single transaction.
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of spooled writes that are applied
+     * in a single transaction.
+     */
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+    /**
+     * Returns the maximum number of threads used to run the asynchronous
+     * queries against this database.
+     */
+    public int getAsyncQueryThreads() {
+        return asyncQueryThreads;
+    }
+
+    /**
+     * Sets the maximum number of threads used to run the asynchronous
+     * queries against this database.
+     *
+     * @param asyncQueryThreads Must be greater than {@code 0}.
+     */
+    public synchronized void setAsyncQueryThreads(int asyncQueryThreads) {
+        if (asyncQueryThreads <= 0) {
+            throw new IllegalArgumentException("Threads must be greater than 0!");
+        }
+
+        this.asyncQueryThreads = asyncQueryThreads;
+
+        if (asyncQueryExecutor != null) {
+            asyncQueryExecutor.setThreads(asyncQueryThreads);
+        }
+    }
+
+    /**
+     * Returns the maximum number of asynchronous queries that can wait
+     * for a thread before they run in the calling thread instead.
+     */
+    public int getAsyncQueryQueueSize() {
+        return asyncQueryQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of asynchronous queries that can wait
+     * for a thread before they run in the calling thread instead. This
+     * only takes effect before the first asynchronous query runs.
+     *
+     * @param asyncQueryQueueSize Must be greater than {@code 0}.
+     */
+    public void setAsyncQueryQueueSize(int asyncQueryQueueSize) {
+        if (asyncQueryQueueSize <= 0) {
+            throw new IllegalArgumentException("Queue size must be greater than 0!");
+        }
+
+        this.asyncQueryQueueSize = asyncQueryQueueSize;
+    }
+
+    /**
+     * Returns the executor used to run the asynchronous queries against
+     * this database.
+     *
+     * @return Never {@code null}.
+     * @see Query#selectAsync
+     */
+    public AsyncQueryExecutor getAsyncQueryExecutor() {
+        if (asyncQueryExecutor == null) {
+            synchronized (this) {
+                if (asyncQueryExecutor == null) {
+                    asyncQueryExecutor = new AsyncQueryExecutor(
+                            "Async Queries: " + getName(),
+                            asyncQueryThreads,
+                            asyncQueryQueueSize);
+                }
+            }
+        }
+
+        return asyncQueryExecutor;
+    }
+
     /**
      * Opens an implementation-specific connection to the underlying
      * database. Once opened, the connection should be closed with
@@ -361,7 +590,51 @@ public abstract class AbstractDatabase<C> implements Database {
             setReadTimeout(readTimeout);
         }
 
+        setGroupCommit(ObjectUtils.to(boolean.class, settings.get(GROUP_COMMIT_SUB_SETTING)));
+
+        Long groupCommitWindow = ObjectUtils.to(Long.class, settings.get(GROUP_COMMIT_WINDOW_SUB_SETTING));
+        if (groupCommitWindow != null) {
+            setGroupCommitWindow(groupCommitWindow);
+        }
+
+        Integer groupCommitSize = ObjectUtils.to(Integer.class, settings.get(GROUP_COMMIT_SIZE_SUB_SETTING));
+        if (groupCommitSize != null) {
+            setGroupCommitSize(groupCommitSize);
+        }
+
+        Integer writeBehindBatchSize = ObjectUtils.to(Integer.class, settings.get(WRITE_BEHIND_BATCH_SIZE_SUB_SETTING));
+        if (writeBehindBatchSize != null) {
+            setWriteBehindBatchSize(writeBehindBatchSize);
+        }
+
+        Integer asyncQueryThreads = ObjectUtils.to(Integer.class, settings.get(ASYNC_QUERY_THREADS_SUB_SETTING));
+        if (asyncQueryThreads != null) {
+            setAsyncQueryThreads(asyncQueryThreads);
+        }
+
+        Integer asyncQueryQueueSize = ObjectUtils.to(Integer.class, settings.get(ASYNC_QUERY_QUEUE_SIZE_SUB_SETTING));
+        if (asyncQueryQueueSize != null) {
+            setAsyncQueryQueueSize(asyncQueryQueueSize);
+        }
+
         doInitialize(settingsKey, settings);
+
+        String writeBehindSpoolPath = ObjectUtils.to(String.class, settings.get(WRITE_BEHIND_SPOOL_SUB_SETTING));
+        if (!ObjectUtils.isBlank(writeBehindSpoolPath)) {
+            Integer writeBehindSpoolSize = ObjectUtils.to(Integer.class, settings.get(WRITE_BEHIND_SPOOL_SIZE_SUB_SETTING));
+
+            try {
+                setWriteBehindSpool(new WriteBehindSpool(
+                        new File(writeBehindSpoolPath),
+                        writeBehindSpoolSize != null ? writeBehindSpoolSize : WriteBehindSpool.DEFAULT_CAPACITY));
+
+            } catch (IOException error) {
+                throw new SettingsException(
+                        settingsKey + "/" + WRITE_BEHIND_SPOOL_SUB_SETTING,
+                        String.format("Can't open [%s]!", writeBehindSpoolPath),
+                        error);
+            }
+        }
     }
 
     /**
@@ -943,107 +1216,600 @@ public abstract class AbstractDatabase<C> implements Database {
         }
 
         List<DistributedLock> locks = validate(validates, true);
+        boolean hasLocks = locks != null && !locks.isEmpty();
 
         try {
-            if (locks != null && !locks.isEmpty()) {
+            if (hasLocks) {
                 for (DistributedLock lock : locks) {
                     lock.lock();
                 }
                 validate(validates, false);
             }
 
-            boolean isCommitted = false;
-            Exception lastError = null;
+            // Unique values are only checked against what's already in the
+            // database, so they can't wait in the spool, where neither the
+            // locks nor the check would cover them.
+            if (isImmediate
+                    || hasLocks
+                    || hasUniqueIndexes(validates)
+                    || !spool(saves, indexes, deletes)) {
+                writeAfterSpool(saves, indexes, deletes, isImmediate);
+            }
 
-            for (int i = 0, limit = Settings.getOrDefault(int.class, "dari/databaseWriteRetryLimit", 10); i < limit; ++ i) {
-                try {
-                    C connection = openConnection();
+        } finally {
+            if (hasLocks) {
+                for (DistributedLock lock : locks) {
+                    try {
+                        lock.unlock();
+                    } catch (Throwable ex) {
+                        if (LOGGER.isDebugEnabled()) {
+                            LOGGER.debug("Can't unlock [" + lock + "]!", ex);
+                        }
+                    }
+                }
+            }
+        }
 
+        if (hasValidates) {
+            for (State state : validates) {
+                state.setStatus(StateStatus.SAVED);
+                state.fireTrigger(new AfterSaveTrigger());
+            }
+        }
+
+        if (hasDeletes) {
+            for (State state : deletes) {
+                state.setStatus(StateStatus.DELETED);
+                state.fireTrigger(new AfterDeleteTrigger());
+            }
+        }
+    }
+
+    // Returns {@code true} if any of the given states have unique indexes.
+    private boolean hasUniqueIndexes(List<State> states) {
+        if (states == null || states.isEmpty()) {
+            return false;
+        }
+
+        for (ObjectIndex index : getEnvironment().getIndexes()) {
+            if (index.isUnique()) {
+                return true;
+            }
+        }
+
+        for (State state : states) {
+            ObjectType type = state.getType();
+
+            if (type != null) {
+                for (ObjectIndex index : type.getIndexes()) {
+                    if (index.isUnique()) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Appends the given write operations to the write-behind spool.
+    // Returns {@code false} if they must be written immediately instead.
+    private boolean spool(List<State> saves, List<State> indexes, List<State> deletes) {
+        WriteBehindSpool spool = getWriteBehindSpool();
+
+        if (spool == null) {
+            return false;
+        }
+
+        List<WriteBehindSpool.Entry> entries = new ArrayList<WriteBehindSpool.Entry>();
+
+        if (saves != null) {
+            for (State state : saves) {
+                if (!state.getAtomicOperations().isEmpty()) {
+                    return false;
+                }
+
+                entries.add(createSpoolEntry(WriteOperation.SAVE_UNSAFELY, state));
+            }
+        }
+
+        if (indexes != null) {
+            for (State state : indexes) {
+                entries.add(createSpoolEntry(WriteOperation.INDEX, state));
+            }
+        }
+
+        if (deletes != null) {
+            for (State state : deletes) {
+                entries.add(new WriteBehindSpool.Entry(WriteOperation.DELETE, false, state.getId(), state.getTypeId(), null));
+            }
+        }
+
+        synchronized (spooledCounts) {
+            for (WriteBehindSpool.Entry entry : entries) {
+                increment(spooledCounts, entry.getId());
+            }
+        }
+
+        boolean appended = false;
+
+        try {
+            appended = spool.append(entries, Settings.getOrDefault(long.class, "dari/databaseWriteBehindTimeout", 10000L));
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            if (!appended) {
+                synchronized (spooledCounts) {
+                    for (WriteBehindSpool.Entry entry : entries) {
+                        decrement(spooledCounts, entry.getId());
+                    }
+                }
+            }
+        }
+
+        if (appended) {
+            return true;
+        }
+
+        throw new DatabaseException(this, String.format(
+                "Can't add [%s] writes to [%s]!",
+                entries.size(),
+                spool.getFile()));
+    }
+
+    // Writes the given write operations right away, making sure that any
+    // older writes to the same objects still in the write-behind spool
+    // won't be applied afterwards. Only saves and deletes overtake the
+    // spooled writes, since an index alone doesn't carry the data that
+    // they'd otherwise drop.
+    private void writeAfterSpool(List<State> saves, List<State> indexes, List<State> deletes, boolean isImmediate) {
+        Map<UUID, Integer> overtaken = null;
+
+        synchronized (spooledCounts) {
+            if (!spooledCounts.isEmpty()) {
+                overtaken = new HashMap<UUID, Integer>();
+
+                addSpooledCounts(overtaken, saves);
+                addSpooledCounts(overtaken, deletes);
+            }
+        }
+
+        if (overtaken == null || overtaken.isEmpty()) {
+            writeNow(saves, indexes, deletes, isImmediate);
+            return;
+        }
+
+        // Keeps the spooled writes from being applied in the meantime.
+        spoolOrderLock.lock();
+
+        try {
+            synchronized (spooledCounts) {
+                overtaken.clear();
+                addSpooledCounts(overtaken, saves);
+                addSpooledCounts(overtaken, deletes);
+            }
+
+            writeNow(saves, indexes, deletes, isImmediate);
+
+            synchronized (spooledCounts) {
+                supersededCounts.putAll(overtaken);
+            }
+
+        } finally {
+            spoolOrderLock.unlock();
+        }
+    }
+
+    private void addSpooledCounts(Map<UUID, Integer> counts, List<State> states) {
+        if (states != null) {
+            for (State state : states) {
+                UUID id = state.getId();
+                Integer count = spooledCounts.get(id);
+
+                if (count != null) {
+                    counts.put(id, count);
+                }
+            }
+        }
+    }
+
+    private void writeNow(List<State> saves, List<State> indexes, List<State> deletes, boolean isImmediate) {
+        if (isImmediate && isGroupCommit()) {
+            groupCommitter.write(saves, indexes, deletes);
+
+        } else {
+            writeTransaction(saves, indexes, deletes, isImmediate);
+        }
+
+        afterWrites(isImmediate);
+    }
+
+    private static void increment(Map<UUID, Integer> counts, UUID id) {
+        Integer count = counts.get(id);
+        counts.put(id, count != null ? count + 1 : 1);
+    }
+
+    private static void decrement(Map<UUID, Integer> counts, UUID id) {
+        Integer count = counts.get(id);
+
+        if (count == null) {
+            return;
+
+        } else if (count > 1) {
+            counts.put(id, count - 1);
+
+        } else {
+            counts.remove(id);
+        }
+    }
+
+    private WriteBehindSpool.Entry createSpoolEntry(WriteOperation operation, State state) {
+        return new WriteBehindSpool.Entry(
+                operation,
+                state.isNew(),
+                state.getId(),
+                state.getTypeId(),
+                ObjectUtils.toJsonBytes(state.getSimpleValues()));
+    }
+
+    /**
+     * Applies the writes in the {@linkplain #getWriteBehindSpool
+     * write-behind spool} to this database.
+     */
+    private class WriteBehindTask extends WriteBehindSpoolTask {
+
+        public WriteBehindTask() {
+            super(WRITE_BEHIND_TASK_EXECUTOR_NAME, null, "dari/databaseWriteBehind");
+        }
+
+        @Override
+        protected WriteBehindSpool getSpool() {
+            return getWriteBehindSpool();
+        }
+
+        @Override
+        protected int getBatchSize() {
+            return getWriteBehindBatchSize();
+        }
+
+        @Override
+        protected DatabaseEnvironment getSpooledEnvironment() {
+            return getEnvironment();
+        }
+
+        @Override
+        protected void write(List<State> saves, List<State> indexes, List<State> deletes) {
+            writeTransaction(saves, indexes, deletes, false);
+        }
+
+        @Override
+        protected boolean applyBatch(WriteBehindSpool spool) {
+            spoolOrderLock.lock();
+
+            try {
+                return super.applyBatch(spool);
+
+            } finally {
+                spoolOrderLock.unlock();
+            }
+        }
+
+        @Override
+        protected int getSuperseded(UUID id) {
+            synchronized (spooledCounts) {
+                Integer count = supersededCounts.get(id);
+                return count != null ? count : 0;
+            }
+        }
+
+        @Override
+        protected void acknowledged(WriteBehindSpool.Entry entry, boolean skipped) {
+            UUID id = entry.getId();
+
+            synchronized (spooledCounts) {
+                decrement(spooledCounts, id);
+
+                if (skipped) {
+                    decrement(supersededCounts, id);
+                }
+            }
+        }
+    }
+
+    // Performs the given write operations in a single transaction,
+    // retrying on recoverable errors.
+    private void writeTransaction(
+            List<State> saves,
+            List<State> indexes,
+            List<State> deletes,
+            boolean isImmediate) {
+
+        writeTransaction(saves, indexes, deletes, isImmediate, Settings.getOrDefault(int.class, "dari/databaseWriteRetryLimit", 10));
+    }
+
+    private void writeTransaction(
+            List<State> saves,
+            List<State> indexes,
+            List<State> deletes,
+            boolean isImmediate,
+            int limit) {
+
+        boolean isCommitted = false;
+        Exception lastError = null;
+
+        for (int i = 0; i < limit; ++ i) {
+            try {
+                C connection = openConnection();
+
+                try {
                     try {
+                        beginTransaction(connection, isImmediate);
+                        doWrites(connection, isImmediate, saves, indexes, deletes);
+                        commitTransaction(connection, isImmediate);
+                        isCommitted = true;
+                        break;
+
+                    } finally {
                         try {
-                            beginTransaction(connection, isImmediate);
-                            doWrites(connection, isImmediate, saves, indexes, deletes);
-                            commitTransaction(connection, isImmediate);
-                            isCommitted = true;
-                            break;
+                            if (!isCommitted) {
+                                rollbackTransaction(connection, isImmediate);
+                            }
 
                         } finally {
-                            try {
-                                if (!isCommitted) {
-                                    rollbackTransaction(connection, isImmediate);
-                                }
+                            endTransaction(connection, isImmediate);
+                        }
+                    }
+
+                } finally {
+                    closeConnection(connection);
+                }
+
+            } catch (Retry error) {
+                -- i;
+
+            } catch (Exception error) {
+                lastError = error;
 
-                            } finally {
-                                endTransaction(connection, isImmediate);
+                if (error instanceof RecoverableDatabaseException ||
+                        isRecoverableError(error)) {
+                    try {
+                        long initialPause = Settings.getOrDefault(long.class, "dari/databaseWriteRetryInitialPause", 10L);
+                        long finalPause = Settings.getOrDefault(long.class, "dari/databaseWriteRetryFinalPause", 1000L);
+                        double pauseJitter = Settings.getOrDefault(double.class, "dari/databaseWriteRetryPauseJitter", 0.5);
+                        long pause = ObjectUtils.jitter(initialPause + (finalPause - initialPause) * i / Math.max(limit - 1, 1), pauseJitter);
+                        Thread.sleep(pause);
+                        continue;
+
+                    } catch (InterruptedException ex2) {
+                        // Ignore thread interruption and continue.
+                    }
+                }
+
+                break;
+            }
+        }
+
+        if (!isCommitted) {
+            if (lastError instanceof DatabaseException) {
+                throw (DatabaseException) lastError;
+
+            } else if (isRecoverableError(lastError)) {
+                throw new RecoverableDatabaseException(this, lastError);
+
+            } else {
+                throw new DatabaseException(this, lastError);
+            }
+        }
+    }
+
+    /**
+     * Merges concurrent immediate writes into a single transaction.
+     *
+     * <p>The first thread to arrive becomes the leader, waits for the
+     * {@linkplain #getGroupCommitWindow window} so that others can join
+     * if any are already pending, and then commits everyone's writes at
+     * once while the others block. If the merged transaction fails, it
+     * isn't retried. Instead, each write is committed in its own
+     * transaction, with the usual retries, so that the error is only
+     * reported to the caller that caused it.</p>
+     */
+    private class GroupCommit {
+
+        private final List<GroupWrite> pending = new ArrayList<GroupWrite>();
+        private boolean hasLeader;
+
+        public void write(List<State> saves, List<State> indexes, List<State> deletes) {
+            GroupWrite groupWrite = new GroupWrite(saves, indexes, deletes);
+            boolean interrupted = false;
+
+            synchronized (this) {
+                pending.add(groupWrite);
+            }
+
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (!groupWrite.done && hasLeader) {
+                            try {
+                                wait();
+                            } catch (InterruptedException error) {
+                                interrupted = true;
                             }
                         }
 
-                    } finally {
-                        closeConnection(connection);
+                        if (groupWrite.done) {
+                            break;
+                        }
+
+                        hasLeader = true;
                     }
 
-                } catch (Retry error) {
-                    -- i;
+                    interrupted = lead() || interrupted;
+                }
 
-                } catch (Exception error) {
-                    lastError = error;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
 
-                    if (error instanceof RecoverableDatabaseException ||
-                            isRecoverableError(error)) {
-                        try {
-                            long initialPause = Settings.getOrDefault(long.class, "dari/databaseWriteRetryInitialPause", 10L);
-                            long finalPause = Settings.getOrDefault(long.class, "dari/databaseWriteRetryFinalPause", 1000L);
-                            double pauseJitter = Settings.getOrDefault(double.class, "dari/databaseWriteRetryPauseJitter", 0.5);
-                            long pause = ObjectUtils.jitter(initialPause + (finalPause - initialPause) * i / (limit - 1), pauseJitter);
-                            Thread.sleep(pause);
-                            continue;
+            if (groupWrite.error != null) {
+                throw groupWrite.error;
+            }
+        }
+
+        // Waits for others to join, and commits the group. Returns
+        // {@code true} if the thread was interrupted while waiting.
+        private boolean lead() {
+            boolean interrupted = false;
+            List<GroupWrite> group = null;
+
+            try {
+                long window = getGroupCommitWindow();
 
-                        } catch (InterruptedException ex2) {
-                            // Ignore thread interruption and continue.
+                // Waiting only helps if there are others to group with.
+                if (window > 0 && hasOthersPending()) {
+                    try {
+                        Thread.sleep(window);
+                    } catch (InterruptedException error) {
+                        interrupted = true;
+                    }
+                }
+
+                group = drain();
+                commit(group);
+
+            } finally {
+                synchronized (this) {
+                    if (group != null) {
+                        for (GroupWrite groupWrite : group) {
+                            if (!groupWrite.done && groupWrite.error == null && !groupWrite.committed) {
+                                groupWrite.error = new DatabaseException(AbstractDatabase.this, "Group commit didn't finish!");
+                            }
+                            groupWrite.done = true;
                         }
                     }
 
-                    break;
+                    hasLeader = false;
+                    notifyAll();
                 }
             }
 
-            if (!isCommitted) {
-                if (lastError instanceof DatabaseException) {
-                    throw (DatabaseException) lastError;
+            return interrupted;
+        }
+
+        private synchronized boolean hasOthersPending() {
+            return pending.size() > 1;
+        }
 
-                } else if (isRecoverableError(lastError)) {
-                    throw new RecoverableDatabaseException(this, lastError);
+        // Removes as many pending writes as allowed that don't touch
+        // the same objects.
+        private synchronized List<GroupWrite> drain() {
+            List<GroupWrite> group = new ArrayList<GroupWrite>();
+            Set<UUID> ids = new HashSet<UUID>();
+            int size = getGroupCommitSize();
 
-                } else {
-                    throw new DatabaseException(this, lastError);
+            for (Iterator<GroupWrite> i = pending.iterator(); i.hasNext() && group.size() < size;) {
+                GroupWrite groupWrite = i.next();
+
+                if (!Collections.disjoint(ids, groupWrite.ids)) {
+                    continue;
+                }
+
+                i.remove();
+                group.add(groupWrite);
+                ids.addAll(groupWrite.ids);
+            }
+
+            return group;
+        }
+
+        private void commit(List<GroupWrite> group) {
+            if (group.size() == 1) {
+                group.get(0).commit();
+                return;
+            }
+
+            List<State> saves = new ArrayList<State>();
+            List<State> indexes = new ArrayList<State>();
+            List<State> deletes = new ArrayList<State>();
+
+            for (GroupWrite groupWrite : group) {
+                groupWrite.addTo(saves, indexes, deletes);
+            }
+
+            try {
+                writeTransaction(saves, indexes, deletes, true, 1);
+
+                for (GroupWrite groupWrite : group) {
+                    groupWrite.committed = true;
+                }
+
+            } catch (RuntimeException error) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(String.format(
+                            "Can't commit a group of [%s] writes! Retrying each separately.",
+                            group.size()),
+                            error);
+                }
+
+                for (GroupWrite groupWrite : group) {
+                    groupWrite.commit();
                 }
             }
+        }
+    }
 
-        } finally {
-            if (locks != null && !locks.isEmpty()) {
-                for (DistributedLock lock : locks) {
-                    try {
-                        lock.unlock();
-                    } catch (Throwable ex) {
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Can't unlock [" + lock + "]!", ex);
-                        }
-                    }
+    private class GroupWrite {
+
+        private final List<State> saves;
+        private final List<State> indexes;
+        private final List<State> deletes;
+        private final Set<UUID> ids = new HashSet<UUID>();
+
+        public boolean committed;
+        public boolean done;
+        public RuntimeException error;
+
+        public GroupWrite(List<State> saves, List<State> indexes, List<State> deletes) {
+            this.saves = saves;
+            this.indexes = indexes;
+            this.deletes = deletes;
+
+            addIds(saves);
+            addIds(indexes);
+            addIds(deletes);
+        }
+
+        private void addIds(List<State> states) {
+            if (states != null) {
+                for (State state : states) {
+                    ids.add(state.getId());
                 }
             }
         }
 
-        if (hasValidates) {
-            for (State state : validates) {
-                state.setStatus(StateStatus.SAVED);
-                state.fireTrigger(new AfterSaveTrigger());
+        public void addTo(List<State> allSaves, List<State> allIndexes, List<State> allDeletes) {
+            if (saves != null) {
+                allSaves.addAll(saves);
+            }
+            if (indexes != null) {
+                allIndexes.addAll(indexes);
+            }
+            if (deletes != null) {
+                allDeletes.addAll(deletes);
             }
         }
 
-        if (hasDeletes) {
-            for (State state : deletes) {
-                state.setStatus(StateStatus.DELETED);
-                state.fireTrigger(new AfterDeleteTrigger());
+        public void commit() {
+            try {
+                writeTransaction(saves, indexes, deletes, true);
+                committed = true;
+
+            } catch (RuntimeException error) {
+                this.error = error;
             }
         }
     }
@@ -1238,6 +2004,15 @@ public abstract class AbstractDatabase<C> implements Database {
     protected void endTransaction(C connection, boolean isImmediate) throws Exception {
     }
 
+    /**
+     * Called in the writing thread once its writes are committed, even
+     * if they were committed by another thread as part of a
+     * {@linkplain #isGroupCommit group commit}. Not called for the writes
+     * that are {@linkplain #getWriteBehindSpool spooled}.
+     */
+    protected void afterWrites(boolean isImmediate) {
+    }
+
     /**
      * Called by the write methods to save, index, or delete the given states.
      *
@@ -1,15 +1,22 @@
 package com.psddev.dari.db;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +28,7 @@ import com.psddev.dari.util.AggregateException;
 import com.psddev.dari.util.CompactMap;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.SettingsException;
 import com.psddev.dari.util.SparseSet;
 
@@ -31,6 +39,12 @@ public class AggregateDatabase implements Database, Iterable<Database> {
     public static final String DELEGATE_SETTING = "delegate";
     public static final String GROUPS_SETTING = "groups";
     public static final String READ_DELEGATE_SETTING = "readDelegate";
+    public static final String OUTBOX_SETTING = "outbox";
+    public static final String OUTBOX_SIZE_SETTING = "outboxSize";
+    public static final String OUTBOX_BATCH_SIZE_SETTING = "outboxBatchSize";
+
+    public static final int DEFAULT_OUTBOX_BATCH_SIZE = 500;
+    public static final String OUTBOX_TASK_EXECUTOR_NAME = "Aggregate Database Outbox";
 
     private static final String FAKE_GROUP = UUID.randomUUID().toString();
     private static final Logger LOGGER = LoggerFactory.getLogger(AggregateDatabase.class);
@@ -41,6 +55,11 @@ public class AggregateDatabase implements Database, Iterable<Database> {
     private volatile Map<String, Database> delegates;
     private volatile Map<String, Database> readDelegates;
 
+    private final Map<Database, WriteBehindSpool> outboxes = new ConcurrentHashMap<Database, WriteBehindSpool>();
+    private final Map<Database, OutboxTask> outboxTasks = new HashMap<Database, OutboxTask>();
+    private volatile int outboxBatchSize = DEFAULT_OUTBOX_BATCH_SIZE;
+    private final ThreadLocal<Deque<List<OutboxWrite>>> outboxWritesLocal = new ThreadLocal<Deque<List<OutboxWrite>>>();
+
     private volatile String name;
     private volatile DatabaseEnvironment environment;
 
@@ -139,6 +158,73 @@ public class AggregateDatabase implements Database, Iterable<Database> {
                 new CompactMap<String, Database>(readDelegates));
     }
 
+    /**
+     * Returns the outbox that holds the pending writes to the given
+     * {@code delegate}.
+     *
+     * @return May be {@code null} if the writes to the delegate are
+     *         applied immediately.
+     */
+    public WriteBehindSpool getOutbox(Database delegate) {
+        return delegate != null ? outboxes.get(delegate) : null;
+    }
+
+    /**
+     * Sets the outbox that holds the pending writes to the given
+     * non-default {@code delegate} until they're applied in the
+     * background, and starts applying any that are already in it.
+     *
+     * <p>The space for each write, with the values as they are when the
+     * object is saved, is reserved in the outbox before the default
+     * delegate commits, and the write is added only after it does. The
+     * writes are applied to the delegate in order, in batches, with
+     * repeated writes to the same object combined. The ones that fail
+     * are kept and retried, along with everything after them, with an
+     * exponential backoff. If the outbox is full, writers wait up to
+     * {@code dari/aggregateDatabaseOutboxTimeout} (10000 by default)
+     * milliseconds for space, and then fail with a
+     * {@link DatabaseException} without writing anything.</p>
+     *
+     * @param delegate Can't be {@code null}.
+     * @param outbox May be {@code null} to apply the writes to the
+     *        delegate immediately.
+     */
+    public synchronized void setOutbox(Database delegate, WriteBehindSpool outbox) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate can't be null!");
+        }
+
+        if (outbox == null) {
+            outboxes.remove(delegate);
+
+        } else {
+            outboxes.put(delegate, outbox);
+
+            if (!outboxTasks.containsKey(delegate)) {
+                OutboxTask task = new OutboxTask(delegate);
+
+                outboxTasks.put(delegate, task);
+                task.scheduleWithFixedDelay(1.0, 0.1);
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of writes from an outbox that are
+     * applied in a single batch.
+     */
+    public int getOutboxBatchSize() {
+        return outboxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of writes from an outbox that are
+     * applied in a single batch.
+     */
+    public void setOutboxBatchSize(int outboxBatchSize) {
+        this.outboxBatchSize = outboxBatchSize;
+    }
+
     // --- Database support ---
 
     @Override
@@ -184,6 +270,38 @@ public class AggregateDatabase implements Database, Iterable<Database> {
 
         setReadDelegates(delegates);
         setDefaultReadDelegate(delegates.get(settings.get(DEFAULT_DELEGATE_SETTING)));
+
+        Integer outboxBatchSize = ObjectUtils.to(Integer.class, settings.get(OUTBOX_BATCH_SIZE_SETTING));
+        if (outboxBatchSize != null) {
+            setOutboxBatchSize(outboxBatchSize);
+        }
+
+        String outboxPath = ObjectUtils.to(String.class, settings.get(OUTBOX_SETTING));
+        if (!ObjectUtils.isBlank(outboxPath)) {
+            Integer outboxSize = ObjectUtils.to(Integer.class, settings.get(OUTBOX_SIZE_SETTING));
+
+            for (Map.Entry<String, Database> entry : getDelegates().entrySet()) {
+                Database delegate = entry.getValue();
+
+                if (delegate.equals(defaultDelegate)) {
+                    continue;
+                }
+
+                File outboxFile = new File(outboxPath, entry.getKey() + ".spool");
+
+                try {
+                    setOutbox(delegate, new WriteBehindSpool(
+                            outboxFile,
+                            outboxSize != null ? outboxSize : WriteBehindSpool.DEFAULT_CAPACITY));
+
+                } catch (IOException error) {
+                    throw new SettingsException(
+                            settingsKey + "/" + OUTBOX_SETTING,
+                            String.format("Can't open [%s]!", outboxFile),
+                            error);
+                }
+            }
+        }
     }
 
     /** Creates database delegates based on the given {@code settings}. */
@@ -291,52 +409,107 @@ public class AggregateDatabase implements Database, Iterable<Database> {
 
     @Override
     public boolean beginWrites() {
-        return BEGIN_WRITES.execute(this);
+        boolean result = BEGIN_WRITES.execute(this);
+
+        if (result) {
+            beginOutboxWrites();
+        }
+
+        return result;
     }
 
     @Override
     public void beginIsolatedWrites() {
         BEGIN_ISOLATED_WRITES.execute(this);
+        beginOutboxWrites();
     }
 
     @Override
     public boolean commitWrites() {
-        return COMMIT_WRITES.execute(this);
+        boolean result = COMMIT_WRITES.execute(this);
+
+        if (result) {
+            commitOutboxWrites();
+        }
+
+        return result;
     }
 
     @Override
     public boolean commitWritesEventually() {
-        return COMMIT_WRITES_EVENTUALLY.execute(this);
+        boolean result = COMMIT_WRITES_EVENTUALLY.execute(this);
+
+        if (result) {
+            commitOutboxWrites();
+        }
+
+        return result;
     }
 
     @Override
     public boolean endWrites() {
-        return END_WRITES.execute(this);
+        boolean result = END_WRITES.execute(this);
+
+        if (result) {
+            endOutboxWrites();
+        }
+
+        return result;
     }
 
-    @Override
-    public void save(State state) {
-        getDefaultDelegate().save(state);
+    // Tracks the outbox writes that must wait for the default delegate
+    // to commit, using the same nesting as the batch operations.
+    private void beginOutboxWrites() {
+        Deque<List<OutboxWrite>> writesQueue = outboxWritesLocal.get();
 
-        for (Database delegate : findDelegatesByTypes(
-                getDelegates().values(),
-                Arrays.asList(state.getType()))) {
-            try {
-                delegate.saveUnsafely(state);
-            } catch (Exception ex) {
-                LOGGER.warn(String.format("Can't write to [%s]", delegate), ex);
+        if (writesQueue == null) {
+            writesQueue = new ArrayDeque<List<OutboxWrite>>();
+            outboxWritesLocal.set(writesQueue);
+        }
+
+        writesQueue.addLast(new ArrayList<OutboxWrite>());
+    }
+
+    private void commitOutboxWrites() {
+        Deque<List<OutboxWrite>> writesQueue = outboxWritesLocal.get();
+
+        if (writesQueue != null && !writesQueue.isEmpty()) {
+            List<OutboxWrite> writes = writesQueue.peekLast();
+
+            if (!writes.isEmpty()) {
+                List<OutboxWrite> committed = new ArrayList<OutboxWrite>(writes);
+
+                writes.clear();
+                appendToOutboxes(committed);
+            }
+        }
+    }
+
+    private void endOutboxWrites() {
+        Deque<List<OutboxWrite>> writesQueue = outboxWritesLocal.get();
+
+        if (writesQueue != null && !writesQueue.isEmpty()) {
+            releaseOutboxes(writesQueue.removeLast());
+
+            if (writesQueue.isEmpty()) {
+                outboxWritesLocal.remove();
             }
         }
     }
 
+    @Override
+    public void save(State state) {
+        write(WriteOperation.SAVE, WriteOperation.SAVE_UNSAFELY, state);
+    }
+
     @Override
     public void saveUnsafely(State state) {
-        SAVE_UNSAFELY.execute(this, state);
+        write(WriteOperation.SAVE_UNSAFELY, WriteOperation.SAVE_UNSAFELY, state);
     }
 
     @Override
     public void index(State state) {
-        INDEX.execute(this, state);
+        write(WriteOperation.INDEX, WriteOperation.INDEX, state);
     }
 
     @Override
@@ -356,7 +529,7 @@ public class AggregateDatabase implements Database, Iterable<Database> {
 
     @Override
     public void delete(State state) {
-        DELETE.execute(this, state);
+        write(WriteOperation.DELETE, WriteOperation.DELETE, state);
     }
 
     @Override
@@ -592,19 +765,68 @@ public class AggregateDatabase implements Database, Iterable<Database> {
         }
     };
 
-    /** Common logic for all write operations. */
-    private abstract static class WriteOperation {
+    // Writes to the default delegate, and then to all others either
+    // immediately or through their outboxes.
+    private void write(WriteOperation defaultOperation, WriteOperation operation, State state) {
+        Database defaultDelegate = getDefaultDelegate();
+        List<Database> delegates = findDelegatesByTypes(
+                getDelegates().values(),
+                Arrays.asList(state.getType()));
 
-        protected abstract void write(Database delegate, State state);
+        boolean hasOutboxes = false;
 
-        public final void execute(AggregateDatabase database, State state) {
-            write(database.getDefaultDelegate(), state);
+        for (Database delegate : delegates) {
+            if (getOutbox(delegate) != null) {
+                hasOutboxes = true;
+                break;
+            }
+        }
 
-            for (Database delegate : database.findDelegatesByTypes(
-                    database.getDelegates().values(),
-                    Arrays.asList(state.getType()))) {
+        if (!hasOutboxes) {
+            defaultOperation.execute(defaultDelegate, state);
+            writeImmediately(delegates, operation, state);
+            return;
+        }
+
+        Deque<List<OutboxWrite>> writesQueue = outboxWritesLocal.get();
+
+        // The outbox space is reserved as soon as the object is saved, so
+        // that the writes can't be lost after the default delegate
+        // commits, and they're added once it does.
+        if (writesQueue != null && !writesQueue.isEmpty()) {
+            defaultOperation.execute(defaultDelegate, state);
+            writesQueue.peekLast().addAll(reserveOutboxes(delegates, operation, state));
+            writeImmediately(delegates, operation, state);
+            return;
+        }
+
+        List<OutboxWrite> outboxWrites = null;
+
+        defaultDelegate.beginIsolatedWrites();
+
+        try {
+            defaultOperation.execute(defaultDelegate, state);
+            outboxWrites = reserveOutboxes(delegates, operation, state);
+            defaultDelegate.commitWrites();
+            writeImmediately(delegates, operation, state);
+            appendToOutboxes(outboxWrites);
+            outboxWrites = null;
+
+        } finally {
+            if (outboxWrites != null) {
+                releaseOutboxes(outboxWrites);
+            }
+
+            defaultDelegate.endWrites();
+        }
+    }
+
+    // Writes to the given delegates that don't have outboxes.
+    private void writeImmediately(List<Database> delegates, WriteOperation operation, State state) {
+        for (Database delegate : delegates) {
+            if (getOutbox(delegate) == null) {
                 try {
-                    write(delegate, state);
+                    operation.execute(delegate, state);
                 } catch (Exception ex) {
                     LOGGER.warn(String.format("Can't write to [%s]", delegate), ex);
                 }
@@ -612,26 +834,159 @@ public class AggregateDatabase implements Database, Iterable<Database> {
         }
     }
 
-    private static final WriteOperation SAVE_UNSAFELY = new WriteOperation() {
+    // Reserves the space for the write in the outboxes of the given
+    // delegates, with the values as they are now, failing if any of
+    // them is full.
+    private List<OutboxWrite> reserveOutboxes(List<Database> delegates, WriteOperation operation, State state) {
+        List<OutboxWrite> writes = new ArrayList<OutboxWrite>();
+        WriteBehindSpool.Entry entry = null;
+
+        try {
+            for (Database delegate : delegates) {
+                WriteBehindSpool outbox = getOutbox(delegate);
+
+                if (outbox == null) {
+                    continue;
+                }
+
+                if (entry == null) {
+                    entry = new WriteBehindSpool.Entry(
+                            operation,
+                            state.isNew(),
+                            state.getId(),
+                            state.getTypeId(),
+                            operation == WriteOperation.DELETE ? null : ObjectUtils.toJsonBytes(state.getSimpleValues()));
+                }
+
+                boolean reserved = false;
+
+                try {
+                    reserved = outbox.reserve(Collections.singletonList(entry), Settings.getOrDefault(long.class, "dari/aggregateDatabaseOutboxTimeout", 10000L));
+
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+
+                // Writing to the delegate directly could overtake the
+                // writes to the same objects that are already queued.
+                if (!reserved) {
+                    throw new DatabaseException(this, String.format(
+                            "Can't reserve space for [%s] in [%s]!",
+                            state.getId(),
+                            outbox.getFile()));
+                }
+
+                writes.add(new OutboxWrite(outbox, entry));
+            }
+
+            List<OutboxWrite> reserved = writes;
+
+            writes = null;
+            return reserved;
+
+        } finally {
+            if (writes != null) {
+                releaseOutboxes(writes);
+            }
+        }
+    }
+
+    // Appends the given reserved writes to their outboxes, together for
+    // each outbox.
+    private void appendToOutboxes(List<OutboxWrite> writes) {
+        for (Map.Entry<WriteBehindSpool, List<WriteBehindSpool.Entry>> entry : groupByOutbox(writes).entrySet()) {
+            entry.getKey().appendReserved(entry.getValue());
+        }
+    }
+
+    // Releases the space reserved for the given writes that won't be
+    // appended.
+    private void releaseOutboxes(List<OutboxWrite> writes) {
+        for (Map.Entry<WriteBehindSpool, List<WriteBehindSpool.Entry>> entry : groupByOutbox(writes).entrySet()) {
+            entry.getKey().release(entry.getValue());
+        }
+    }
+
+    private Map<WriteBehindSpool, List<WriteBehindSpool.Entry>> groupByOutbox(List<OutboxWrite> writes) {
+        Map<WriteBehindSpool, List<WriteBehindSpool.Entry>> entriesByOutbox = new LinkedHashMap<WriteBehindSpool, List<WriteBehindSpool.Entry>>();
+
+        for (OutboxWrite write : writes) {
+            List<WriteBehindSpool.Entry> entries = entriesByOutbox.get(write.outbox);
+
+            if (entries == null) {
+                entries = new ArrayList<WriteBehindSpool.Entry>();
+                entriesByOutbox.put(write.outbox, entries);
+            }
+
+            entries.add(write.entry);
+        }
+
+        return entriesByOutbox;
+    }
+
+    private static class OutboxWrite {
+
+        public final WriteBehindSpool outbox;
+        public final WriteBehindSpool.Entry entry;
+
+        public OutboxWrite(WriteBehindSpool outbox, WriteBehindSpool.Entry entry) {
+            this.outbox = outbox;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Applies the writes in the {@linkplain #getOutbox outbox} of a
+     * delegate to it.
+     */
+    private class OutboxTask extends WriteBehindSpoolTask {
+
+        private final Database delegate;
+
+        public OutboxTask(Database delegate) {
+            super(OUTBOX_TASK_EXECUTOR_NAME, delegate.getName(), "dari/aggregateDatabaseOutbox");
+            this.delegate = delegate;
+        }
+
         @Override
-        protected void write(Database delegate, State state) {
-            delegate.saveUnsafely(state);
+        protected WriteBehindSpool getSpool() {
+            return getOutbox(delegate);
         }
-    };
 
-    private static final WriteOperation INDEX = new WriteOperation() {
         @Override
-        protected void write(Database delegate, State state) {
-            delegate.index(state);
+        protected int getBatchSize() {
+            return getOutboxBatchSize();
         }
-    };
 
-    private static final WriteOperation DELETE = new WriteOperation() {
         @Override
-        protected void write(Database delegate, State state) {
-            delegate.delete(state);
+        protected DatabaseEnvironment getSpooledEnvironment() {
+            return getEnvironment();
         }
-    };
+
+        @Override
+        protected void write(List<State> saves, List<State> indexes, List<State> deletes) {
+            delegate.beginWrites();
+
+            try {
+                for (State state : saves) {
+                    delegate.saveUnsafely(state);
+                }
+
+                for (State state : indexes) {
+                    delegate.index(state);
+                }
+
+                for (State state : deletes) {
+                    delegate.delete(state);
+                }
+
+                delegate.commitWritesEventually();
+
+            } finally {
+                delegate.endWrites();
+            }
+        }
+    }
 
     // --- Iterable support ---
 
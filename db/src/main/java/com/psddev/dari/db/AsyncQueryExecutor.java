@@ -0,0 +1,303 @@
+package com.psddev.dari.db;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.ErrorUtils;
+import com.psddev.dari.util.Profiler;
+
+/**
+ * Bounded executor for running queries concurrently, used by the
+ * asynchronous {@link Query} methods such as {@link Query#selectAsync}.
+ *
+ * <p>Each task runs with the default database override, the read
+ * connection flag, and a profiler from the thread that submitted it, so
+ * that it sees the same {@link CachingDatabase} as the rest of the
+ * request. The events from the profiler are merged into the submitting
+ * thread's profiler when that thread gets the result from the future.</p>
+ *
+ * <p>When all threads are busy and the queue is full, the task runs
+ * in the submitting thread instead.</p>
+ */
+public final class AsyncQueryExecutor {
+
+    public static final int DEFAULT_THREADS = 10;
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncQueryExecutor.class);
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates an instance with the given {@code name} that runs at most
+     * the given number of {@code threads} and queues at most the given
+     * number of tasks.
+     *
+     * @param name Can't be {@code null}.
+     * @param threads Must be greater than {@code 0}.
+     * @param queueSize Must be greater than {@code 0}.
+     */
+    public AsyncQueryExecutor(String name, int threads, int queueSize) {
+        ErrorUtils.errorIfNull(name, "name");
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be greater than 0!");
+        }
+
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("Queue size must be greater than 0!");
+        }
+
+        LOGGER.info("Creating [{}] with [{}] threads", name, threads);
+
+        this.name = name;
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                new QueryThreadFactory(name),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Returns the name. */
+    public String getName() {
+        return name;
+    }
+
+    /** Returns the maximum number of threads. */
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the maximum number of threads.
+     *
+     * @param threads Must be greater than {@code 0}.
+     */
+    public synchronized void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be greater than 0!");
+        }
+
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Submits the given {@code callable} to run with the context of the
+     * current thread.
+     *
+     * @param callable Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public <T> Future<T> submit(Callable<T> callable) {
+        ErrorUtils.errorIfNull(callable, "callable");
+
+        ContextCallable<T> contextCallable = new ContextCallable<T>(callable);
+
+        return new ContextFuture<T>(executor.submit(contextCallable), contextCallable);
+    }
+
+    /** Stops accepting new tasks. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /** Runs a callable with the context captured from another thread. */
+    private static class ContextCallable<T> implements Callable<T> {
+
+        private final Callable<T> delegate;
+        private final Profiler callerProfiler;
+        private final Database defaultOverride;
+        private final boolean ignoreReadConnection;
+        private final Profiler profiler;
+
+        @SuppressWarnings("deprecation")
+        public ContextCallable(Callable<T> delegate) {
+            this.delegate = delegate;
+            this.callerProfiler = Profiler.Static.getThreadProfiler();
+            this.defaultOverride = Database.Static.getDefaultOverride();
+            this.ignoreReadConnection = Database.Static.isIgnoreReadConnection();
+            this.profiler = callerProfiler != null ? new Profiler() : null;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public T call() throws Exception {
+            Profiler oldProfiler = Profiler.Static.getThreadProfiler();
+            boolean oldIgnoreReadConnection = Database.Static.isIgnoreReadConnection();
+
+            Profiler.Static.setThreadProfiler(profiler);
+            Database.Static.setIgnoreReadConnection(ignoreReadConnection);
+
+            if (defaultOverride != null) {
+                Database.Static.overrideDefault(defaultOverride);
+            }
+
+            try {
+                return delegate.call();
+
+            } finally {
+                if (defaultOverride != null) {
+                    Database.Static.restoreDefault();
+                }
+
+                Database.Static.setIgnoreReadConnection(oldIgnoreReadConnection);
+                Profiler.Static.setThreadProfiler(oldProfiler);
+            }
+        }
+
+        public void mergeProfiler() {
+            if (callerProfiler != null && callerProfiler == Profiler.Static.getThreadProfiler()) {
+                callerProfiler.merge(profiler);
+            }
+        }
+    }
+
+    /**
+     * Merges the profiler events into the submitting thread's profiler
+     * the first time the result is retrieved there.
+     */
+    private static class ContextFuture<T> implements Future<T> {
+
+        private final Future<T> delegate;
+        private ContextCallable<T> callable;
+
+        public ContextFuture(Future<T> delegate, ContextCallable<T> callable) {
+            this.delegate = delegate;
+            this.callable = callable;
+        }
+
+        private synchronized void merge() {
+            if (callable != null && delegate.isDone() && !delegate.isCancelled()) {
+                callable.mergeProfiler();
+                callable = null;
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return delegate.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return delegate.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            try {
+                return delegate.get();
+
+            } finally {
+                merge();
+            }
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return delegate.get(timeout, unit);
+
+            } finally {
+                merge();
+            }
+        }
+    }
+
+    private static class QueryThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicLong index = new AtomicLong();
+
+        public QueryThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + ": Thread #" + index.incrementAndGet());
+
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY);
+            return thread;
+        }
+    }
+
+    /** {@link AsyncQueryExecutor} utility methods. */
+    public static final class Static {
+
+        private static final String DEFAULT_NAME = "Async Queries";
+
+        private static volatile AsyncQueryExecutor defaultInstance;
+
+        /**
+         * Returns the executor for the given {@code database}, looking
+         * through any {@link ForwardingDatabase} to find an
+         * {@link AbstractDatabase}. Other databases share a default
+         * executor.
+         *
+         * @param database Can't be {@code null}.
+         * @return Never {@code null}.
+         */
+        public static AsyncQueryExecutor getInstance(Database database) {
+            ErrorUtils.errorIfNull(database, "database");
+
+            while (database instanceof ForwardingDatabase) {
+                database = ((ForwardingDatabase) database).getDelegate();
+            }
+
+            if (database instanceof AbstractDatabase) {
+                return ((AbstractDatabase<?>) database).getAsyncQueryExecutor();
+
+            } else {
+                return getDefault();
+            }
+        }
+
+        /**
+         * Returns the executor shared by the databases that don't have
+         * their own.
+         *
+         * @return Never {@code null}.
+         */
+        public static AsyncQueryExecutor getDefault() {
+            if (defaultInstance == null) {
+                synchronized (Static.class) {
+                    if (defaultInstance == null) {
+                        defaultInstance = new AsyncQueryExecutor(DEFAULT_NAME, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+                    }
+                }
+            }
+
+            return defaultInstance;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Combines ID-only reads, such as
+ * {@code Query.from(Article.class).where("_id = ?", id).first()}, that
+ * run at the same time in different threads into a single read in the
+ * delegate database.
+ *
+ * <p>For example, given:</p>
+ *
+ * <blockquote><pre>{@literal
+BatchingDatabase batching = new BatchingDatabase();
+batching.setDelegate(Database.Static.getDefault());
+Future<Article> first = Query.from(Article.class).using(batching).where("_id = ?", firstId).firstAsync();
+Future<Article> second = Query.from(Article.class).using(batching).where("_id = ?", secondId).firstAsync();
+ * }</pre></blockquote>
+ *
+ * <p>The two reads are combined into one {@code _id = ?} read with both
+ * IDs if the second one starts before the first one finishes. A read
+ * waits at most for the one that's running and, if set, the
+ * {@linkplain #setBatchWindow batch window} before it runs, so a lone
+ * read isn't slowed down by default.</p>
+ *
+ * <p>Reads aren't deferred, so the lookups that run one after another
+ * in the same thread, such as {@code first()} in a loop, are never
+ * combined. Only the reads that are already running concurrently, such
+ * as the ones started with {@link Query#firstAsync}, benefit, and with
+ * the default batch window, only the ones that start while another
+ * read with the same options is running.</p>
+ *
+ * <p>Only the reads with the same options, other than the ones used
+ * by the reference resolution for profiling, are combined. Each read
+ * gets its own instances of the returned objects, and the reads that
+ * run while the references in a combined read are being resolved go
+ * straight to the delegate.</p>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+public class BatchingDatabase extends ForwardingDatabase {
+
+    public static final long DEFAULT_BATCH_WINDOW = 0L;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private volatile long batchWindow = DEFAULT_BATCH_WINDOW;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    private final ConcurrentMap<List<Object>, Batcher> batchers = new ConcurrentHashMap<List<Object>, Batcher>();
+
+    // Set while the current thread reads a batch, so that the reads
+    // that it makes to resolve the references don't wait on a batch.
+    private final ThreadLocal<Boolean> readingLocal = new ThreadLocal<Boolean>();
+
+    /**
+     * Returns how long, in milliseconds, the first read in a batch waits
+     * for others to join it.
+     */
+    public long getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the first read in a batch waits
+     * for others to join it.
+     *
+     * @param batchWindow May be less than or equal to {@code 0} to
+     * only batch the reads that start while another is running.
+     */
+    public void setBatchWindow(long batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    /** Returns the maximum number of IDs read at once. */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /** Sets the maximum number of IDs read at once. */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    // --- ForwardingDatabase support ---
+
+    // Returns the IDs that the given query reads if it can be batched.
+    private Set<UUID> findBatchIds(Query<?> query) {
+        if (readingLocal.get() != null) {
+            return null;
+        }
+
+        List<Object> values = query.findIdOnlyQueryValues();
+
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+
+        Set<UUID> ids = new LinkedHashSet<UUID>();
+
+        for (Object value : values) {
+            UUID id = ObjectUtils.to(UUID.class, value);
+
+            if (id == null) {
+                return null;
+            }
+
+            ids.add(id);
+        }
+
+        return ids;
+    }
+
+    private Map<UUID, Object> load(Query<?> query, Set<UUID> ids) {
+        Map<String, Object> options = new HashMap<String, Object>(query.getOptions());
+
+        options.remove(State.REFERENCE_RESOLVING_QUERY_OPTION);
+        options.remove(State.REFERENCE_FIELD_QUERY_OPTION);
+
+        List<Object> key = Arrays.<Object>asList(
+                query.getGroup(),
+                query.getObjectClass(),
+                query.getFields(),
+                query.isReferenceOnly(),
+                query.isResolveToReferenceOnly(),
+                query.isResolveInvisible(),
+                query.isCache(),
+                query.isMaster(),
+                query.getTimeout(),
+                options);
+
+        while (true) {
+            Batcher batcher = batchers.get(key);
+
+            if (batcher == null) {
+                Batcher newBatcher = new Batcher(key, query);
+                batcher = batchers.putIfAbsent(key, newBatcher);
+
+                if (batcher == null) {
+                    batcher = newBatcher;
+                }
+            }
+
+            Map<UUID, Object> objects = batcher.load(ids);
+
+            if (objects != null) {
+                return objects;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> List<T> readAll(Query<T> query) {
+        Set<UUID> ids = findBatchIds(query);
+
+        if (ids == null) {
+            return super.readAll(query);
+        }
+
+        Map<UUID, Object> objects = load(query, ids);
+        List<T> all = new ArrayList<T>();
+
+        for (UUID id : ids) {
+            Object object = objects.get(id);
+
+            if (object != null) {
+                all.add((T) object);
+            }
+        }
+
+        return all;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T readFirst(Query<T> query) {
+        Set<UUID> ids = findBatchIds(query);
+
+        if (ids == null) {
+            return super.readFirst(query);
+        }
+
+        Map<UUID, Object> objects = load(query, ids);
+
+        for (UUID id : ids) {
+            Object object = objects.get(id);
+
+            if (object != null) {
+                return (T) object;
+            }
+        }
+
+        return null;
+    }
+
+    // Combines the reads with the same options.
+    private class Batcher {
+
+        private final List<Object> key;
+        private final Query<?> template;
+        private final List<Load> pending = new ArrayList<Load>();
+        private boolean hasLeader;
+        private boolean removed;
+
+        public Batcher(List<Object> key, Query<?> query) {
+            this.key = key;
+            this.template = query.clone();
+        }
+
+        // Returns {@code null} if this batcher was removed and the
+        // load should be retried with a new one.
+        public Map<UUID, Object> load(Set<UUID> ids) {
+            Load load = new Load(ids);
+            boolean interrupted = false;
+
+            synchronized (this) {
+                if (removed) {
+                    return null;
+                }
+
+                pending.add(load);
+            }
+
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (!load.done && hasLeader) {
+                            try {
+                                wait();
+                            } catch (InterruptedException error) {
+                                interrupted = true;
+                            }
+                        }
+
+                        if (load.done) {
+                            break;
+                        }
+
+                        hasLeader = true;
+                    }
+
+                    interrupted = lead() || interrupted;
+                }
+
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (load.error != null) {
+                throw load.error;
+            }
+
+            return load.objects;
+        }
+
+        // Waits for others to join, and reads the batch. Returns
+        // {@code true} if the thread was interrupted while waiting.
+        private boolean lead() {
+            boolean interrupted = false;
+            List<Load> batch = null;
+
+            try {
+                long window = getBatchWindow();
+
+                if (window > 0) {
+                    try {
+                        Thread.sleep(window);
+                    } catch (InterruptedException error) {
+                        interrupted = true;
+                    }
+                }
+
+                batch = drain();
+                read(batch);
+
+            } catch (RuntimeException error) {
+                if (batch != null) {
+                    for (Load load : batch) {
+                        load.error = error;
+                    }
+                }
+
+            } finally {
+                synchronized (this) {
+                    if (batch != null) {
+                        for (Load load : batch) {
+                            if (load.objects == null && load.error == null) {
+                                load.error = new DatabaseException(BatchingDatabase.this, "Batched read didn't finish!");
+                            }
+                            load.done = true;
+                        }
+                    }
+
+                    if (pending.isEmpty()) {
+                        removed = true;
+                        batchers.remove(key, this);
+                    }
+
+                    hasLeader = false;
+                    notifyAll();
+                }
+            }
+
+            return interrupted;
+        }
+
+        // Removes as many pending loads as allowed by the batch size,
+        // but always at least one.
+        private synchronized List<Load> drain() {
+            List<Load> batch = new ArrayList<Load>();
+            Set<UUID> ids = new LinkedHashSet<UUID>();
+            int size = getBatchSize();
+
+            for (Iterator<Load> i = pending.iterator(); i.hasNext();) {
+                Load load = i.next();
+
+                if (!batch.isEmpty() && ids.size() + load.ids.size() > size) {
+                    break;
+                }
+
+                i.remove();
+                batch.add(load);
+                ids.addAll(load.ids);
+            }
+
+            return batch;
+        }
+
+        private void read(List<Load> batch) {
+            Set<UUID> ids = new LinkedHashSet<UUID>();
+
+            for (Load load : batch) {
+                ids.addAll(load.ids);
+            }
+
+            Query<?> query = template.clone();
+
+            query.setPredicate(PredicateParser.Static.parse("_id = ?", ids));
+            readingLocal.set(Boolean.TRUE);
+
+            try {
+                Map<UUID, Object> objects = new HashMap<UUID, Object>();
+
+                for (Object object : BatchingDatabase.super.readAll(query)) {
+                    State state = State.getInstance(object);
+
+                    if (state != null) {
+                        objects.put(state.getId(), object);
+                    }
+                }
+
+                // The first load that asked for an object gets it, and the
+                // others get copies, since they may run in other threads.
+                Set<UUID> given = new HashSet<UUID>();
+
+                for (Load load : batch) {
+                    Map<UUID, Object> loadObjects = new HashMap<UUID, Object>();
+
+                    for (UUID id : load.ids) {
+                        Object object = objects.get(id);
+
+                        if (object != null) {
+                            loadObjects.put(id, given.add(id) ? object : copy(object));
+                        }
+                    }
+
+                    load.objects = loadObjects;
+                }
+
+            } finally {
+                readingLocal.remove();
+            }
+        }
+
+        // Creates a copy of the given object with the same state options
+        // as the original.
+        private Object copy(Object object) {
+            State state = State.getInstance(object);
+            Object copy = getEnvironment().createObject(state.getTypeId(), state.getId());
+            State copyState = State.getInstance(copy);
+
+            copyState.setDatabase(state.getDatabase());
+            copyState.setStatus(state.getStatus());
+            copyState.setResolveToReferenceOnly(state.isResolveToReferenceOnly());
+            copyState.setResolveUsingCache(state.isResolveUsingCache());
+            copyState.setResolveUsingMaster(state.isResolveUsingMaster());
+            copyState.setResolveInvisible(state.isResolveInvisible());
+            copyState.getExtras().putAll(state.getExtras());
+
+            if (!state.isReferenceOnly()) {
+                copyState.setValues(state.getSimpleValues());
+            }
+
+            return copy;
+        }
+    }
+
+    private static class Load {
+
+        public final Set<UUID> ids;
+        public Map<UUID, Object> objects;
+        public RuntimeException error;
+        public boolean done;
+
+        public Load(Set<UUID> ids) {
+            this.ids = ids;
+        }
+    }
+}
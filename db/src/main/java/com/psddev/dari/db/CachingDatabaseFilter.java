@@ -45,7 +45,15 @@ public class CachingDatabaseFilter extends AbstractFilter {
 
             CachingDatabase caching = new CachingDatabase();
 
-            caching.setDelegate(Database.Static.getDefault());
+            if (Settings.getOrDefault(boolean.class, "dari/isBatchingFilterEnabled", false)) {
+                BatchingDatabase batching = new BatchingDatabase();
+
+                batching.setDelegate(Database.Static.getDefault());
+                caching.setDelegate(batching);
+
+            } else {
+                caching.setDelegate(Database.Static.getDefault());
+            }
 
             Database.Static.overrideDefault(caching);
 
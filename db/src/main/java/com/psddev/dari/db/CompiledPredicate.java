@@ -0,0 +1,721 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Predicate that's prepared to be evaluated against many objects, created
+ * by {@link PredicateParser#compile}.
+ *
+ * <p>The evaluators, the key paths, and the comparison values are
+ * resolved once instead of on every object, and the values are converted
+ * to the type of the field values only once per type. Equality checks
+ * against numbers, UUIDs, dates, and strings use hash lookups, and order
+ * checks compare against the smallest value only.</p>
+ *
+ * <p>The result is always the same as {@link PredicateParser#evaluate}
+ * at the time of compilation, except that the sub-queries in the
+ * comparison values are only run once per database.</p>
+ */
+public final class CompiledPredicate {
+
+    private static final Set<Class<?>> HASHABLE_CLASSES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            Boolean.class,
+            Byte.class,
+            Character.class,
+            Date.class,
+            Double.class,
+            Float.class,
+            Integer.class,
+            Long.class,
+            Short.class,
+            UUID.class));
+
+    private static final Set<Class<?>> ORDERED_CLASSES = new HashSet<Class<?>>(HASHABLE_CLASSES);
+
+    static {
+        ORDERED_CLASSES.add(String.class);
+    }
+
+    private final Predicate predicate;
+    private final Node root;
+
+    CompiledPredicate(PredicateParser parser, Predicate predicate, ObjectType type) {
+        this.predicate = predicate;
+        this.root = compile(parser, predicate, type != null ? type.getEnvironment() : null);
+    }
+
+    /** Returns the predicate that was compiled. */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Returns {@code true} if the given {@code object} matches this
+     * predicate.
+     */
+    public boolean evaluate(Object object) {
+        return root.evaluate(object);
+    }
+
+    /**
+     * Returns all objects in the given {@code objects} that match this
+     * predicate, in the same order.
+     *
+     * @param objects Can't be {@code null}.
+     * @return Never {@code null}. Mutable.
+     */
+    public <T> List<T> filter(Iterable<T> objects) {
+        List<T> matches = new ArrayList<T>();
+
+        for (T object : objects) {
+            if (root.evaluate(object)) {
+                matches.add(object);
+            }
+        }
+
+        return matches;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(predicate);
+    }
+
+    private static Node compile(PredicateParser parser, Predicate predicate, DatabaseEnvironment environment) {
+        if (predicate == null) {
+            return TRUE_NODE;
+        }
+
+        PredicateParser.Evaluator evaluator = parser.getEvaluators().get(predicate.getOperator());
+
+        if (evaluator == null) {
+            return new DelegateNode(parser, predicate);
+        }
+
+        Class<?> evaluatorClass = evaluator.getClass();
+
+        if (predicate instanceof CompoundPredicate) {
+            List<Predicate> children = ((CompoundPredicate) predicate).getChildren();
+            Node[] childNodes = new Node[children.size()];
+
+            for (int i = 0, size = childNodes.length; i < size; ++ i) {
+                childNodes[i] = compile(parser, children.get(i), environment);
+            }
+
+            if (evaluatorClass == PredicateParser.AndEvaluator.class) {
+                return new AndNode(childNodes);
+
+            } else if (evaluatorClass == PredicateParser.OrEvaluator.class) {
+                return new OrNode(childNodes);
+
+            } else if (evaluatorClass == PredicateParser.NotEvaluator.class) {
+                return new NotNode(new OrNode(childNodes));
+            }
+
+        } else if (predicate instanceof ComparisonPredicate) {
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+            Operation operation = Operation.getInstance(evaluatorClass);
+
+            if (operation != null && !Query.ANY_KEY.equals(comparison.getKey())) {
+                return new ComparisonNode(
+                        (PredicateParser.ComparisonEvaluator) evaluator,
+                        operation,
+                        comparison,
+                        new KeyPath(comparison.getKey(), environment));
+            }
+        }
+
+        return new DelegateNode(parser, predicate);
+    }
+
+    private interface Node {
+
+        public boolean evaluate(Object object);
+    }
+
+    private static final Node TRUE_NODE = new Node() {
+
+        @Override
+        public boolean evaluate(Object object) {
+            return true;
+        }
+    };
+
+    // Evaluates through the parser as is, for the predicates that can't
+    // be compiled.
+    private static class DelegateNode implements Node {
+
+        private final PredicateParser parser;
+        private final Predicate predicate;
+
+        public DelegateNode(PredicateParser parser, Predicate predicate) {
+            this.parser = parser;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            return parser.evaluate(object, predicate);
+        }
+    }
+
+    private static class AndNode implements Node {
+
+        private final Node[] children;
+
+        public AndNode(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            for (Node child : children) {
+                if (!child.evaluate(object)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class OrNode implements Node {
+
+        private final Node[] children;
+
+        public OrNode(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            for (Node child : children) {
+                if (child.evaluate(object)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class NotNode implements Node {
+
+        private final Node child;
+
+        public NotNode(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            return !child.evaluate(object);
+        }
+    }
+
+    private enum Operation {
+
+        EQUALS_ANY(PredicateParser.EqualsAnyEvaluator.class),
+        NOT_EQUALS_ALL(PredicateParser.NotEqualsAllEvaluator.class),
+        LESS_THAN(PredicateParser.LessThanEvaluator.class),
+        LESS_THAN_OR_EQUALS(PredicateParser.LessThanOrEqualsEvaluator.class),
+        GREATER_THAN(PredicateParser.GreaterThanEvaluator.class),
+        GREATER_THAN_OR_EQUALS(PredicateParser.GreaterThanOrEqualsEvaluator.class),
+        STARTS_WITH(PredicateParser.StartsWithEvaluator.class),
+        CONTAINS(PredicateParser.ContainsEvaluator.class),
+        MATCHES_ANY(PredicateParser.MatchesAnyEvaluator.class),
+        MATCHES_ALL(PredicateParser.MatchesAllEvaluator.class);
+
+        private final Class<?> evaluatorClass;
+
+        private Operation(Class<?> evaluatorClass) {
+            this.evaluatorClass = evaluatorClass;
+        }
+
+        // Only the standard evaluators can be compiled, since a custom
+        // one may do anything.
+        public static Operation getInstance(Class<?> evaluatorClass) {
+            for (Operation operation : values()) {
+                if (operation.evaluatorClass == evaluatorClass) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Key path split once, and walked the same way as
+     * {@link State#getByPath}.
+     */
+    private static class KeyPath {
+
+        private final String path;
+        private final String[] keys;
+        private final Integer[] indexes;
+        private final boolean dotted;
+        private final boolean method;
+        private volatile TypeSkips typeSkips;
+
+        public KeyPath(String path, DatabaseEnvironment environment) {
+            this.path = path;
+
+            List<String> keyList = new ArrayList<String>();
+            boolean dotted = false;
+            boolean method = false;
+
+            for (String key : path.split("/", -1)) {
+                keyList.add(key);
+
+                if (key.indexOf('.') > -1) {
+                    dotted = true;
+                }
+
+                if (key.endsWith("()")) {
+                    method = true;
+                }
+            }
+
+            this.keys = keyList.toArray(new String[keyList.size()]);
+            this.indexes = new Integer[keys.length];
+
+            for (int i = 0, length = keys.length; i < length; ++ i) {
+                indexes[i] = ObjectUtils.to(Integer.class, keys[i]);
+            }
+
+            this.dotted = dotted;
+            this.method = method;
+
+            if (dotted && environment != null) {
+                this.typeSkips = new TypeSkips(environment, keys);
+            }
+        }
+
+        public Object get(State state) {
+            if (method) {
+                return state.getByPath(path);
+            }
+
+            boolean[] skips = null;
+
+            if (dotted) {
+                DatabaseEnvironment environment = state.getDatabase().getEnvironment();
+                TypeSkips ts = typeSkips;
+
+                if (ts == null || ts.environment != environment) {
+                    ts = new TypeSkips(environment, keys);
+                    typeSkips = ts;
+                }
+
+                skips = ts.skips;
+            }
+
+            Object value = state;
+
+            for (int i = 0, length = keys.length; i < length; ++ i) {
+                if (skips != null && skips[i]) {
+                    continue;
+                }
+
+                String key = keys[i];
+
+                if (value instanceof Recordable) {
+                    value = ((Recordable) value).getState();
+                }
+
+                if (value instanceof State) {
+                    State valueState = (State) value;
+
+                    if (State.ID_KEY.equals(key)) {
+                        value = valueState.getId();
+                    } else if (State.TYPE_KEY.equals(key)) {
+                        value = valueState.getType();
+                    } else if (State.LABEL_KEY.equals(key)) {
+                        value = valueState.getLabel();
+                    } else {
+                        value = valueState.get(key);
+                    }
+
+                } else if (value instanceof Map) {
+                    value = ((Map<?, ?>) value).get(key);
+
+                } else if (value instanceof List) {
+                    Integer index = indexes[i];
+
+                    if (index != null) {
+                        List<?> list = (List<?>) value;
+                        int listSize = list.size();
+
+                        if (index < 0) {
+                            index += listSize;
+                        }
+
+                        if (index >= 0 && index < listSize) {
+                            value = list.get(index);
+                            continue;
+                        }
+                    }
+
+                    return null;
+
+                } else {
+                    return null;
+                }
+            }
+
+            return value;
+        }
+    }
+
+    // Keys that name a type in an environment, which are skipped.
+    private static class TypeSkips {
+
+        public final DatabaseEnvironment environment;
+        public final boolean[] skips;
+
+        public TypeSkips(DatabaseEnvironment environment, String[] keys) {
+            this.environment = environment;
+            this.skips = new boolean[keys.length];
+
+            for (int i = 0, length = keys.length; i < length; ++ i) {
+                String key = keys[i];
+                skips[i] = key.indexOf('.') > -1 && environment.getTypeByName(key) != null;
+            }
+        }
+    }
+
+    private static class ComparisonNode implements Node {
+
+        private final PredicateParser.ComparisonEvaluator evaluator;
+        private final Operation operation;
+        private final ComparisonPredicate comparison;
+        private final KeyPath keyPath;
+        private volatile ResolvedValues resolved;
+
+        public ComparisonNode(
+                PredicateParser.ComparisonEvaluator evaluator,
+                Operation operation,
+                ComparisonPredicate comparison,
+                KeyPath keyPath) {
+
+            this.evaluator = evaluator;
+            this.operation = operation;
+            this.comparison = comparison;
+            this.keyPath = keyPath;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            State state = State.getInstance(object);
+            Database database = state.getDatabase();
+            ResolvedValues r = resolved;
+
+            if (r == null || r.database != database) {
+                r = new ResolvedValues(database, comparison.resolveValues(database));
+                resolved = r;
+            }
+
+            Object keyValue = keyPath.get(state);
+
+            if (keyValue == null) {
+                return evaluator.compare(state, Query.MISSING_VALUE, new ArrayList<Object>(r.raw.values));
+
+            } else if (keyValue instanceof Iterable) {
+
+                // The values are converted in place for each item in the
+                // original, so an item of a different class sees the
+                // values converted from the previous item's class.
+                Values current = r.raw;
+
+                for (Object item : (Iterable<?>) keyValue) {
+                    current = convert(r, current, item);
+
+                    if (compare(state, item, current)) {
+                        return true;
+                    }
+                }
+
+                return false;
+
+            } else {
+                return compare(state, keyValue, convert(r, r.raw, keyValue));
+            }
+        }
+
+        private Values convert(ResolvedValues r, Values current, Object keyValue) {
+            if (keyValue instanceof Recordable || keyValue instanceof UUID) {
+                return current;
+            }
+
+            Class<?> keyValueClass = keyValue.getClass();
+
+            if (current == r.raw) {
+                return r.getConverted(keyValueClass);
+
+            } else if (current.valueClass == keyValueClass) {
+                return current;
+
+            } else {
+                return current.convert(keyValueClass);
+            }
+        }
+
+        private boolean compare(State state, Object keyValue, Values values) {
+            switch (operation) {
+                case EQUALS_ANY :
+                    return equalsAny(state, keyValue, values);
+
+                case NOT_EQUALS_ALL :
+                    return !equalsAny(state, keyValue, values);
+
+                case LESS_THAN :
+                case LESS_THAN_OR_EQUALS :
+                case GREATER_THAN :
+                case GREATER_THAN_OR_EQUALS :
+                    return compareOrder(state, keyValue, values);
+
+                default :
+                    return compareStrings(keyValue, values);
+            }
+        }
+
+        private boolean equalsAny(State state, Object keyValue, Values values) {
+            if (keyValue instanceof String) {
+                return values.getIgnoreCaseStrings().contains(ignoreCase(((String) keyValue).trim()));
+            }
+
+            Object keyId = getIdOrObject(keyValue);
+
+            if (keyId != null && HASHABLE_CLASSES.contains(keyId.getClass())) {
+                return values.getIds().contains(keyId);
+            }
+
+            return evaluator.compare(state, keyValue, values.copy());
+        }
+
+        private boolean compareOrder(State state, Object keyValue, Values values) {
+            Class<?> keyValueClass = keyValue.getClass();
+
+            if (!ORDERED_CLASSES.contains(keyValueClass) || !values.isAll(keyValueClass)) {
+                return evaluator.compare(state, keyValue, values.copy());
+            }
+
+            // With a total order, comparing against every value is the
+            // same as comparing against the smallest.
+            boolean lessThan;
+
+            if (values.values.isEmpty()) {
+                lessThan = true;
+
+            } else {
+                int c = ObjectUtils.compare(keyValue, values.getMinimum(), false);
+
+                lessThan = operation == Operation.LESS_THAN || operation == Operation.GREATER_THAN_OR_EQUALS ?
+                        c < 0 :
+                        c <= 0;
+            }
+
+            return operation == Operation.LESS_THAN || operation == Operation.LESS_THAN_OR_EQUALS ?
+                    lessThan :
+                    !lessThan;
+        }
+
+        private boolean compareStrings(Object keyValue, Values values) {
+            String keyValueString = keyValue.toString().trim().toLowerCase(Locale.ENGLISH);
+            String[] strings = values.getLowerCaseStrings();
+
+            if (operation == Operation.MATCHES_ALL) {
+                for (String string : strings) {
+                    if (string == null || !keyValueString.contains(string)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            for (String string : strings) {
+                if (string != null &&
+                        (operation == Operation.STARTS_WITH ?
+                                keyValueString.startsWith(string) :
+                                keyValueString.contains(string))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static Object getIdOrObject(Object object) {
+        if (object instanceof Recordable) {
+            return ((Recordable) object).getState().getId();
+
+        } else if (object instanceof State) {
+            return ((State) object).getId();
+
+        } else {
+            return object;
+        }
+    }
+
+    // Same as String#equalsIgnoreCase when compared with equals.
+    private static String ignoreCase(String string) {
+        char[] chars = string.toCharArray();
+
+        for (int i = 0, length = chars.length; i < length; ++ i) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+
+        return new String(chars);
+    }
+
+    // Comparison values resolved against a database, and converted to
+    // the classes of the field values as they're seen.
+    private static class ResolvedValues {
+
+        public final Database database;
+        public final Values raw;
+        private final Map<Class<?>, Values> converted = new ConcurrentHashMap<Class<?>, Values>();
+
+        public ResolvedValues(Database database, List<Object> values) {
+            this.database = database;
+            this.raw = new Values(null, values);
+        }
+
+        public Values getConverted(Class<?> valueClass) {
+            Values values = converted.get(valueClass);
+
+            if (values == null) {
+                values = raw.convert(valueClass);
+                converted.put(valueClass, values);
+            }
+
+            return values;
+        }
+    }
+
+    // Comparison values along with the lookup structures derived from
+    // them, which are created as needed.
+    private static class Values {
+
+        public final Class<?> valueClass;
+        public final List<Object> values;
+        private volatile Set<String> ignoreCaseStrings;
+        private volatile Set<Object> ids;
+        private volatile String[] lowerCaseStrings;
+        private volatile Object[] minimum;
+
+        public Values(Class<?> valueClass, List<Object> values) {
+            this.valueClass = valueClass;
+            this.values = Collections.unmodifiableList(values);
+        }
+
+        public Values convert(Class<?> newValueClass) {
+            List<Object> newValues = new ArrayList<Object>(values.size());
+
+            for (Object value : values) {
+                newValues.add(ObjectUtils.to(newValueClass, value));
+            }
+
+            return new Values(newValueClass, newValues);
+        }
+
+        public List<Object> copy() {
+            return new ArrayList<Object>(values);
+        }
+
+        public Set<String> getIgnoreCaseStrings() {
+            Set<String> set = ignoreCaseStrings;
+
+            if (set == null) {
+                set = new HashSet<String>();
+
+                for (Object value : values) {
+                    if (value != null) {
+                        set.add(ignoreCase(value.toString().trim()));
+                    }
+                }
+
+                ignoreCaseStrings = set;
+            }
+
+            return set;
+        }
+
+        public Set<Object> getIds() {
+            Set<Object> set = ids;
+
+            if (set == null) {
+                set = new HashSet<Object>();
+
+                for (Object value : values) {
+                    set.add(getIdOrObject(value));
+                }
+
+                ids = set;
+            }
+
+            return set;
+        }
+
+        public String[] getLowerCaseStrings() {
+            String[] strings = lowerCaseStrings;
+
+            if (strings == null) {
+                strings = new String[values.size()];
+
+                for (int i = 0, size = strings.length; i < size; ++ i) {
+                    Object value = values.get(i);
+
+                    if (value != null) {
+                        strings[i] = value.toString().trim().toLowerCase(Locale.ENGLISH);
+                    }
+                }
+
+                lowerCaseStrings = strings;
+            }
+
+            return strings;
+        }
+
+        // Returns true if all non-null values are exactly of the given
+        // class.
+        public boolean isAll(Class<?> expectedClass) {
+            for (Object value : values) {
+                if (value != null && value.getClass() != expectedClass) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Object getMinimum() {
+            Object[] min = minimum;
+
+            if (min == null) {
+                min = new Object[1];
+
+                for (int i = 0, size = values.size(); i < size; ++ i) {
+                    Object value = values.get(i);
+
+                    if (i == 0 || ObjectUtils.compare(value, min[0], false) < 0) {
+                        min[0] = value;
+                    }
+                }
+
+                minimum = min;
+            }
+
+            return min[0];
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.psddev.dari.db;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * How the count of a {@linkplain Query#select paginated result} is
+ * produced, set with {@link Query#countStrategy}.
+ *
+ * <p>Counting all matching objects can be the slowest part of showing a
+ * page of them, so a query can trade the accuracy of the count for
+ * speed. The count mode of the result tells which way was actually
+ * used. Databases that don't support a strategy count exactly.</p>
+ */
+public final class CountStrategy {
+
+    /** Counts all matching objects. This is the default. */
+    public static final CountStrategy EXACT = new CountStrategy(PaginatedResult.CountMode.EXACT, 0L);
+
+    /**
+     * Estimates the count from the database statistics, or counts all
+     * matching objects if the database can't.
+     */
+    public static final CountStrategy ESTIMATED = new CountStrategy(PaginatedResult.CountMode.ESTIMATED, 0L);
+
+    private final PaginatedResult.CountMode mode;
+    private final long value;
+
+    private CountStrategy(PaginatedResult.CountMode mode, long value) {
+        this.mode = mode;
+        this.value = value;
+    }
+
+    /**
+     * Returns a strategy that counts the matching objects up to the given
+     * {@code limit}. If there are more, the count is {@code limit + 1},
+     * or the number of objects up to the next page if that's greater.
+     *
+     * @param limit Must be greater than {@code 0}.
+     */
+    public static CountStrategy capped(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be greater than 0!");
+        }
+
+        return new CountStrategy(PaginatedResult.CountMode.CAPPED, limit);
+    }
+
+    /**
+     * Returns a strategy that counts all matching objects and reuses the
+     * count for the same query for the given {@code ttl}.
+     *
+     * @param ttl In milliseconds. Must be greater than {@code 0}.
+     */
+    public static CountStrategy cached(long ttl) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("TTL must be greater than 0!");
+        }
+
+        return new CountStrategy(PaginatedResult.CountMode.CACHED, ttl);
+    }
+
+    /**
+     * Returns the count mode that this strategy produces when it's
+     * applied fully.
+     *
+     * @return Never {@code null}.
+     */
+    public PaginatedResult.CountMode getMode() {
+        return mode;
+    }
+
+    /** Returns the limit of a {@linkplain #capped capped} strategy. */
+    public long getLimit() {
+        return mode == PaginatedResult.CountMode.CAPPED ? value : 0L;
+    }
+
+    /**
+     * Returns the TTL, in milliseconds, of a {@linkplain #cached cached}
+     * strategy.
+     */
+    public long getTtl() {
+        return mode == PaginatedResult.CountMode.CACHED ? value : 0L;
+    }
+
+    // --- Object support ---
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+
+        } else if (other instanceof CountStrategy) {
+            CountStrategy otherStrategy = (CountStrategy) other;
+            return mode == otherStrategy.mode && value == otherStrategy.value;
+
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return ObjectUtils.hashCode(mode, value);
+    }
+
+    @Override
+    public String toString() {
+        return value > 0 ? mode + "(" + value + ")" : mode.toString();
+    }
+}
@@ -5,6 +5,7 @@ import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.beans.SimpleBeanInfo;
+import java.io.File;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Date;
@@ -30,6 +31,7 @@ import com.psddev.dari.util.Lazy;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.Once;
 import com.psddev.dari.util.PeriodicCache;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.Task;
 import com.psddev.dari.util.TypeDefinition;
 
@@ -38,6 +40,13 @@ public class DatabaseEnvironment implements ObjectStruct {
     public static final String GLOBAL_FIELDS_FIELD = "globalFields";
     public static final String GLOBAL_INDEXES_FIELD = "globalIndexes";
 
+    /**
+     * Setting for the directory where the resolved type definitions are
+     * saved, so that the types whose classes haven't changed don't need to
+     * be initialized again on the next start.
+     */
+    public static final String TYPE_SNAPSHOT_DIRECTORY_SETTING = "dari/typeSnapshotDirectory";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseEnvironment.class);
 
     private final Database database;
@@ -76,6 +85,16 @@ public class DatabaseEnvironment implements ObjectStruct {
         return database;
     }
 
+    /**
+     * Returns when the types were last refreshed, which changes whenever
+     * anything derived from them may be stale.
+     *
+     * @return May be {@code null} if the types haven't been loaded yet.
+     */
+    Date getLastTypesUpdate() {
+        return lastTypesUpdate;
+    }
+
     // --- Globals and types cache ---
 
     /** Globals are stored at FFFFFFFF-FFFF-FFFF-FFFF-FFFFFFFFFFFF. */
@@ -89,6 +108,7 @@ public class DatabaseEnvironment implements ObjectStruct {
     private volatile Date lastTypesUpdate;
     private volatile TypesCache permanentTypes = new TypesCache();
     private final ThreadLocal<TypesCache> temporaryTypesLocal = new ThreadLocal<TypesCache>();
+    private TypeSnapshot typeSnapshot;
 
     /** Aggregate of all maps used to cache type information. */
     private static class TypesCache {
@@ -273,6 +293,8 @@ public class DatabaseEnvironment implements ObjectStruct {
 
                 Map<String, Object> rootTypeOriginals = rootTypeState.getSimpleValues();
                 UUID rootTypeId = rootTypeState.getId();
+                TypeSnapshot snapshot = getTypeSnapshot(rootTypeId);
+
                 rootTypeState.setTypeId(rootTypeId);
                 rootTypeState.clear();
                 rootType.setObjectClassName(ObjectType.class.getName());
@@ -372,34 +394,45 @@ public class DatabaseEnvironment implements ObjectStruct {
                         ObjectType.modifyAll(database, modification);
                     }
 
+                    // Every type definition also depends on the global
+                    // modifications and on how the types are initialized.
+                    List<Class<?>> globalClasses = new ArrayList<Class<?>>(globalModifications);
+                    globalClasses.add(ObjectType.class);
+                    globalClasses.add(ObjectField.class);
+                    globalClasses.add(ObjectIndex.class);
+
                     // Initialize all types.
                     List<Class<?>> rootTypeModifications = typeModifications.remove(rootType);
-                    initializeAndModify(temporaryTypes, rootType, rootTypeModifications);
+                    initializeAndModify(temporaryTypes, rootType, rootTypeModifications, globalClasses);
 
                     if (rootTypeModifications != null) {
                         for (Class<?> modification : rootTypeModifications) {
                             ObjectType t = getTypeByClass(modification);
-                            initializeAndModify(temporaryTypes, t, typeModifications.remove(t));
+                            initializeAndModify(temporaryTypes, t, typeModifications.remove(t), globalClasses);
                         }
                     }
 
                     ObjectType fieldType = getTypeByClass(ObjectField.class);
                     List<Class<?>> fieldModifications = typeModifications.remove(fieldType);
-                    initializeAndModify(temporaryTypes, fieldType, fieldModifications);
+                    initializeAndModify(temporaryTypes, fieldType, fieldModifications, globalClasses);
 
                     if (fieldModifications != null) {
                         for (Class<?> modification : fieldModifications) {
                             ObjectType t = getTypeByClass(modification);
-                            initializeAndModify(temporaryTypes, t, typeModifications.remove(t));
+                            initializeAndModify(temporaryTypes, t, typeModifications.remove(t), globalClasses);
                         }
                     }
 
                     for (Map.Entry<ObjectType, List<Class<?>>> entry : typeModifications.entrySet()) {
-                        initializeAndModify(temporaryTypes, entry.getKey(), entry.getValue());
+                        initializeAndModify(temporaryTypes, entry.getKey(), entry.getValue(), globalClasses);
                     }
 
                     database.commitWrites();
 
+                    if (snapshot != null) {
+                        snapshot.save();
+                    }
+
                 } finally {
                     database.endWrites();
                 }
@@ -446,9 +479,68 @@ public class DatabaseEnvironment implements ObjectStruct {
         }
     }
 
-    private static void initializeAndModify(TypesCache temporaryTypes, ObjectType type, List<Class<?>> modifications) {
+    // Returns the snapshot of the type definitions if it's enabled.
+    private TypeSnapshot getTypeSnapshot(UUID rootTypeId) {
+        String directory = Settings.get(String.class, TYPE_SNAPSHOT_DIRECTORY_SETTING);
+
+        if (ObjectUtils.isBlank(directory)) {
+            typeSnapshot = null;
+
+        } else if (typeSnapshot == null) {
+            String databaseName = getDatabase().getName();
+            typeSnapshot = new TypeSnapshot(new File(directory, databaseName + ".types"), databaseName, rootTypeId);
+
+        } else {
+            typeSnapshot.resetHashes();
+        }
+
+        return typeSnapshot;
+    }
+
+    private void initializeAndModify(
+            TypesCache temporaryTypes,
+            ObjectType type,
+            List<Class<?>> modifications,
+            List<Class<?>> globalClasses) {
+
         State typeState = type.getState();
         Map<String, Object> typeOriginals = typeState.getSimpleValues();
+        TypeSnapshot snapshot = typeSnapshot;
+        Class<?> objectClass = type.getObjectClass();
+        String hash = null;
+
+        if (snapshot != null && objectClass != null) {
+            List<Class<?>> classes = new ArrayList<Class<?>>();
+
+            classes.add(objectClass);
+
+            if (modifications != null) {
+                classes.addAll(modifications);
+            }
+
+            classes.addAll(globalClasses);
+            hash = snapshot.hash(classes);
+
+            // Reuse the previous definition if none of the classes changed,
+            // since the definition only depends on them.
+            Map<String, Object> values = typeState.isNew() ? null : snapshot.get(objectClass.getName(), hash);
+
+            if (values != null) {
+                type.restore(values);
+                temporaryTypes.add(type);
+
+                if (!typeState.getSimpleValues().equals(typeOriginals)) {
+                    temporaryTypes.changed.add(type.getId());
+                }
+
+                return;
+            }
+        }
+
+        State globals = getGlobals();
+        Object globalFields = globals.get(GLOBAL_FIELDS_FIELD);
+        Object globalIndexes = globals.get(GLOBAL_INDEXES_FIELD);
+        boolean initialized = false;
 
         try {
             type.initialize();
@@ -461,6 +553,8 @@ public class DatabaseEnvironment implements ObjectStruct {
                 }
             }
 
+            initialized = true;
+
         } catch (IncompatibleClassChangeError ex) {
             LOGGER.info(
                     "Skipped initializing [{}] because its class is in an inconsistent state! ([{}])",
@@ -474,6 +568,15 @@ public class DatabaseEnvironment implements ObjectStruct {
         } else if (!typeState.getSimpleValues().equals(typeOriginals)) {
             temporaryTypes.changed.add(type.getId());
         }
+
+        // Types that change the globals must always be initialized, and
+        // the ones that failed to must never be restored.
+        if (snapshot != null && objectClass != null) {
+            snapshot.put(
+                    objectClass.getName(),
+                    initialized && globals.get(GLOBAL_FIELDS_FIELD) == globalFields && globals.get(GLOBAL_INDEXES_FIELD) == globalIndexes ? hash : null,
+                    typeState.getSimpleValues());
+        }
     }
 
     /**
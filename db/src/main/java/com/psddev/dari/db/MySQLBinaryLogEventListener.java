@@ -2,6 +2,8 @@ package com.psddev.dari.db;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -19,6 +21,7 @@ import com.github.shyiko.mysql.binlog.event.EventHeader;
 import com.github.shyiko.mysql.binlog.event.EventType;
 import com.github.shyiko.mysql.binlog.event.TableMapEventData;
 import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
 import com.google.common.cache.Cache;
 import com.psddev.dari.db.shyiko.DariQueryEventData;
 import com.psddev.dari.util.ObjectUtils;
@@ -28,19 +31,23 @@ class MySQLBinaryLogEventListener implements EventListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MySQLBinaryLogEventListener.class);
     private static final Pattern DELETE_PATTERN = Pattern.compile("DELETE\\s+FROM\\s+`?(?<table>\\p{Alnum}+)`?\\s+WHERE\\s+`?id`?\\s*(?:(?:IN\\s*\\()|(?:=))\\s*(?<id>(?:(?:[^\']+'){2},?\\s*){1,})\\)?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern UPDATE_PATTERN = Pattern.compile("UPDATE\\s+`?(?<table>\\p{Alnum}+)`?\\s+SET\\s+`?typeId`?\\s*=\\s*(?<typeId>(?:[^\']+'){2})\\s*,\\s*`?data`?\\s*=\\s*(?<data>.+)\\s*WHERE\\s+`?id`?\\s*(?:(?:IN\\s*\\()|(?:=))\\s*(?<id>(?:[^\']+'){2}).*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERT_PATTERN = Pattern.compile("INSERT\\s+INTO\\s+`?(?<table>\\p{Alnum}+)`?\\s*\\(\\s*`?id`?\\s*,\\s*`?typeId`?\\s*,\\s*`?data`?\\s*(?:,\\s*`?inRowIndex`?\\s*)?\\)\\s*VALUES\\s*\\(\\s*(?<id>(?:[^\']+'){2})\\s*,\\s*(?<typeId>(?:[^\']+'){2})\\s*,\\s*(?<data>(?:_binary|X)'.*?')\\s*(?:,\\s*(?<inRowIndex>(?:[^\']+'){2})\\s*)?\\)\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UPDATE_PATTERN = Pattern.compile("UPDATE\\s+`?(?<table>\\p{Alnum}+)`?\\s+SET\\s+`?typeId`?\\s*=\\s*(?<typeId>(?:[^\']+'){2})\\s*,\\s*(?:`?inRowIndex`?\\s*=\\s*(?<inRowIndex>(?:[^\']+'){2})\\s*,\\s*)?`?data`?\\s*=\\s*(?<data>(?:_binary|X)'.*')\\s*WHERE\\s+`?id`?\\s*(?:(?:IN\\s*\\()|(?:=))\\s*(?<id>(?:[^\']+'){2}).*", Pattern.CASE_INSENSITIVE);
 
     private final Cache<UUID, Object[]> cache;
     private final String catalog;
+    private final MySQLBinaryLogFeed feed;
 
     private boolean transactionBegin = false;
     private TableMapEventData tableMapEventData;
     private final List<Event> events = new ArrayList<Event>();
     private boolean isFlushCache = false;
+    private boolean isIncomplete = false;
 
-    public MySQLBinaryLogEventListener(Cache<UUID, Object[]> cache, String catalog) {
+    public MySQLBinaryLogEventListener(Cache<UUID, Object[]> cache, String catalog, MySQLBinaryLogFeed feed) {
         this.cache = cache;
         this.catalog = catalog;
+        this.feed = feed;
     }
 
     /**
@@ -116,12 +123,92 @@ class MySQLBinaryLogEventListener implements EventListener {
                     invalidateCache(queryEventData.getId());
                 }
 
+                // New rows can't be in the cache yet, so there's nothing
+                // to do for the inserts.
+
+            } else if (eventType == EventType.WRITE_ROWS || eventType == EventType.EXT_WRITE_ROWS) {
+                // New rows can't be in the cache yet.
+
             } else {
                 LOGGER.error("NOT RECOGNIZED TYPE: {}", eventType);
             }
         }
     }
 
+    private void addChange(List<SqlChange> changes, SqlChange.Type type, Serializable[] row) {
+        addChange(
+                changes,
+                type,
+                row.length > 0 ? (byte[]) row[0] : null,
+                row.length > 1 ? (byte[]) row[1] : null,
+                row.length > 2 ? (byte[]) row[2] : null);
+    }
+
+    private void addChange(List<SqlChange> changes, SqlChange.Type type, byte[] id, byte[] typeId, byte[] data) {
+        id = confirm16Bytes(id);
+        typeId = confirm16Bytes(typeId);
+
+        if (id != null) {
+            changes.add(new SqlChange(
+                    type,
+                    ObjectUtils.to(UUID.class, id),
+                    typeId != null ? ObjectUtils.to(UUID.class, typeId) : null,
+                    data));
+        }
+    }
+
+    // Delivers the changes in the current transaction to the feed, or
+    // tells the listeners to read again if some of them couldn't be
+    // decoded.
+    private void publishTransaction() {
+        if (feed == null || !feed.hasListeners()) {
+            return;
+        }
+
+        if (isFlushCache || isIncomplete) {
+            feed.skip();
+            return;
+        }
+
+        List<SqlChange> changes = new ArrayList<SqlChange>();
+
+        for (Event event : events) {
+            EventType eventType = event.getHeader().getEventType();
+            EventData eventData = event.getData();
+
+            if (eventType == EventType.WRITE_ROWS || eventType == EventType.EXT_WRITE_ROWS) {
+                for (Serializable[] row : ((WriteRowsEventData) eventData).getRows()) {
+                    addChange(changes, SqlChange.Type.INSERT, row);
+                }
+
+            } else if (eventType == EventType.UPDATE_ROWS || eventType == EventType.EXT_UPDATE_ROWS) {
+                for (Map.Entry<Serializable[], Serializable[]> row : ((UpdateRowsEventData) eventData).getRows()) {
+                    addChange(changes, SqlChange.Type.UPDATE, row.getValue());
+                }
+
+            } else if (eventType == EventType.DELETE_ROWS || eventType == EventType.EXT_DELETE_ROWS) {
+                for (Serializable[] row : ((DeleteRowsEventData) eventData).getRows()) {
+                    addChange(changes, SqlChange.Type.DELETE, row);
+                }
+
+            } else if (eventType == EventType.QUERY) {
+                DariQueryEventData queryEventData = (DariQueryEventData) eventData;
+
+                if (queryEventData.getAction() == DariQueryEventData.Action.INSERT) {
+                    addChange(changes, SqlChange.Type.INSERT, queryEventData.getId(), queryEventData.getTypeId(), queryEventData.getData());
+
+                } else if (queryEventData.getAction() == DariQueryEventData.Action.UPDATE) {
+                    addChange(changes, SqlChange.Type.UPDATE, queryEventData.getId(), queryEventData.getTypeId(), queryEventData.getData());
+
+                } else if (queryEventData.getAction() == DariQueryEventData.Action.DELETE) {
+                    addChange(changes, SqlChange.Type.DELETE, queryEventData.getId(), null, null);
+                }
+            }
+        }
+
+        feed.publish(Collections.unmodifiableList(changes));
+    }
+
     private void flushCache() {
         cache.invalidateAll();
     }
@@ -141,6 +228,12 @@ class MySQLBinaryLogEventListener implements EventListener {
                         case 39: // '
                             value = 39;
                             break;
+                        case 92: // \
+                            value = 92;
+                            break;
+                        case 90: // Z
+                            value = 26;
+                            break;
                         case 48: // 0
                             value = 0;
                             break;
@@ -177,6 +270,12 @@ class MySQLBinaryLogEventListener implements EventListener {
                 }
                 target[targetIndex++] = value;
             }
+
+            // Each escape sequence is one byte shorter than it was in
+            // the statement.
+            if (targetIndex < target.length) {
+                target = Arrays.copyOf(target, targetIndex);
+            }
         } else if (strSource.startsWith("X")) {
             String hex = strSource.substring(2, strSource.length() - 1);
             int len = hex.length();
@@ -222,9 +321,9 @@ class MySQLBinaryLogEventListener implements EventListener {
                     queryEventData.setActionl(DariQueryEventData.Action.UPDATE);
                     Matcher matcher = UPDATE_PATTERN.matcher(sql);
                     if (matcher.matches()) {
-                        queryEventData.setId(getByteData(byteStatement, matcher.group(4), matcher.start(4), matcher.end(4)));
+                        queryEventData.setId(getByteData(byteStatement, matcher.group(5), matcher.start(5), matcher.end(5)));
                         queryEventData.setTypeId(getByteData(byteStatement, matcher.group(2), matcher.start(2), matcher.end(2)));
-                        queryEventData.setData(getByteData(byteStatement, matcher.group(3), matcher.start(3), matcher.end(3)));
+                        queryEventData.setData(getByteData(byteStatement, matcher.group(4), matcher.start(4), matcher.end(4)));
                         processed = true;
                         LOGGER.debug("[DEBUG] QUERY EVENT UPDATE [{}]", queryEventData);
                     } else {
@@ -243,7 +342,20 @@ class MySQLBinaryLogEventListener implements EventListener {
                         LOGGER.debug("Bin log cache flushed due to [{}]", sql);
                     }
                 } else if (statementParts[0].equalsIgnoreCase("INSERT")) {
-                    // Do nothing
+                    queryEventData.setActionl(DariQueryEventData.Action.INSERT);
+                    Matcher matcher = INSERT_PATTERN.matcher(sql);
+                    if (matcher.matches()) {
+                        queryEventData.setId(getByteData(byteStatement, matcher.group(2), matcher.start(2), matcher.end(2)));
+                        queryEventData.setTypeId(getByteData(byteStatement, matcher.group(3), matcher.start(3), matcher.end(3)));
+                        queryEventData.setData(getByteData(byteStatement, matcher.group(4), matcher.start(4), matcher.end(4)));
+                        processed = true;
+                        LOGGER.debug("[DEBUG] QUERY EVENT INSERT [{}]", queryEventData);
+                    } else {
+                        // New rows can't be in the cache yet, but the
+                        // listeners still need to know about them.
+                        isIncomplete = true;
+                        LOGGER.debug("Bin log change listeners reset due to [{}]", sql);
+                    }
                 } else {
                     isFlushCache = true;
                     LOGGER.debug("Bin log cache flushed due to [{}]", sql);
@@ -273,9 +385,11 @@ class MySQLBinaryLogEventListener implements EventListener {
                     } else {
                         commitTransaction();
                     }
+                    publishTransaction();
                 } finally {
                     events.clear();
                     isFlushCache = false;
+                    isIncomplete = false;
                     transactionBegin = false;
                 }
             } else {
@@ -287,7 +401,7 @@ class MySQLBinaryLogEventListener implements EventListener {
                         } else if (EventType.isDelete(eventType)) {
                             tableId = ((DeleteRowsEventData) eventData).getTableId();
                         } else if (EventType.isWrite(eventType)) {
-                            // Do nothing
+                            tableId = ((WriteRowsEventData) eventData).getTableId();
                         } else {
                             LOGGER.error("NOT RECOGNIZED TYPE: {}", eventType);
                         }
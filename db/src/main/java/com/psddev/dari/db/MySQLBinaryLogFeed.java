@@ -0,0 +1,210 @@
+package com.psddev.dari.db;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the changes read from the MySQL binary log to the
+ * {@link SqlChangeListener}s on a dedicated thread.
+ *
+ * <p>The transactions are buffered up to the {@linkplain #setCapacity
+ * capacity} so that slow listeners don't hold up the binary log reader,
+ * which also keeps the replication cache up to date. Any transactions
+ * that don't fit, or that contain statements that can't be decoded, are
+ * dropped and counted, and the listeners are told through
+ * {@link SqlChangeListener#onOverflow} where they would have been
+ * delivered.</p>
+ */
+class MySQLBinaryLogFeed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MySQLBinaryLogFeed.class);
+
+    private final SqlDatabase database;
+    private final BlockingQueue<Transaction> transactions = new LinkedBlockingQueue<Transaction>();
+    private final List<SqlChangeListener> listeners = new CopyOnWriteArrayList<SqlChangeListener>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Transactions dropped since the last one that was queued, guarded
+    // by the queue so that the overflow is delivered in order.
+    private long pendingDropped;
+    private volatile int capacity;
+    private Thread dispatcher;
+
+    public MySQLBinaryLogFeed(SqlDatabase database, int capacity) {
+        this.database = database;
+        this.capacity = capacity;
+    }
+
+    /** Returns the maximum number of transactions that are buffered. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Sets the maximum number of transactions that are buffered. */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void addListener(SqlChangeListener listener) {
+        listeners.add(listener);
+
+        if (dispatcher == null) {
+            dispatcher = new Dispatcher();
+            dispatcher.start();
+        }
+    }
+
+    public void removeListener(SqlChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /** Returns the number of transactions that weren't delivered. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // Queues the given changes for delivery without waiting.
+    public void publish(List<SqlChange> changes) {
+        if (changes.isEmpty() || !hasListeners()) {
+            return;
+        }
+
+        synchronized (transactions) {
+            if (transactions.size() < capacity && transactions.offer(new Transaction(pendingDropped, changes))) {
+                pendingDropped = 0L;
+                return;
+            }
+
+            ++ pendingDropped;
+        }
+
+        long count = dropped.incrementAndGet();
+
+        LOGGER.warn(
+                "Dropping [{}] changes because the change feed in [{}] is full! ([{}] transactions dropped so far)",
+                new Object[] { changes.size(), database.getName(), count });
+    }
+
+    // Drops a transaction that couldn't be decoded, so that the listeners
+    // are told to read again where it would have been delivered.
+    public void skip() {
+        if (!hasListeners()) {
+            return;
+        }
+
+        synchronized (transactions) {
+            ++ pendingDropped;
+        }
+
+        long count = dropped.incrementAndGet();
+
+        LOGGER.warn(
+                "Dropping a transaction in [{}] that can't be decoded from the binary log! ([{}] transactions dropped so far)",
+                database.getName(),
+                count);
+    }
+
+    public synchronized void stop() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            dispatcher = null;
+        }
+
+        synchronized (transactions) {
+            transactions.clear();
+            pendingDropped = 0L;
+        }
+    }
+
+    // Changes in a transaction, and the number of transactions that were
+    // dropped right before it.
+    private static class Transaction {
+
+        public final long droppedBefore;
+        public final List<SqlChange> changes;
+
+        public Transaction(long droppedBefore, List<SqlChange> changes) {
+            this.droppedBefore = droppedBefore;
+            this.changes = changes;
+        }
+    }
+
+    private class Dispatcher extends Thread {
+
+        public Dispatcher() {
+            super("MySQL Binary Log Feed: " + database.getName());
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Transaction transaction = transactions.poll();
+
+                if (transaction == null) {
+                    long overflow = 0L;
+
+                    // Only deliver the overflow here if there's nothing
+                    // queued before it.
+                    synchronized (transactions) {
+                        if (transactions.isEmpty()) {
+                            overflow = pendingDropped;
+                            pendingDropped = 0L;
+                        }
+                    }
+
+                    if (overflow > 0L) {
+                        deliverOverflow(overflow);
+                    }
+
+                    // Wakes up periodically in case everything is dropped.
+                    try {
+                        transaction = transactions.poll(1, TimeUnit.SECONDS);
+
+                    } catch (InterruptedException error) {
+                        break;
+                    }
+
+                    if (transaction == null) {
+                        continue;
+                    }
+                }
+
+                if (transaction.droppedBefore > 0L) {
+                    deliverOverflow(transaction.droppedBefore);
+                }
+
+                for (SqlChangeListener listener : listeners) {
+                    try {
+                        listener.onChanges(database, transaction.changes);
+
+                    } catch (RuntimeException error) {
+                        LOGGER.warn(String.format("Can't deliver the changes to [%s]!", listener), error);
+                    }
+                }
+            }
+        }
+
+        private void deliverOverflow(long overflow) {
+            for (SqlChangeListener listener : listeners) {
+                try {
+                    listener.onOverflow(database, overflow);
+
+                } catch (RuntimeException error) {
+                    LOGGER.warn(String.format("Can't deliver the overflow to [%s]!", listener), error);
+                }
+            }
+        }
+    }
+}
@@ -46,7 +46,7 @@ class MySQLBinaryLogReader {
     private final MySQLBinaryLogLifecycleListener lifecycleListener;
     private final AtomicBoolean running = new AtomicBoolean();
 
-    public MySQLBinaryLogReader(Cache<UUID, Object[]> cache, DataSource dataSource) {
+    public MySQLBinaryLogReader(Cache<UUID, Object[]> cache, DataSource dataSource, MySQLBinaryLogFeed feed) {
         Class<?> dataSourceClass = dataSource.getClass();
         String dataSourceClassName = dataSourceClass.getName();
         String jdbcUrl = null;
@@ -107,7 +107,7 @@ class MySQLBinaryLogReader {
 
         client.setServerId(RANDOM.nextLong());
         client.registerLifecycleListener(lifecycleListener);
-        client.registerEventListener(new MySQLBinaryLogEventListener(cache, catalog));
+        client.registerEventListener(new MySQLBinaryLogEventListener(cache, catalog, feed));
 
         @SuppressWarnings("rawtypes")
         Map<EventType, EventDataDeserializer> eventDataDeserializers = new HashMap<EventType, EventDataDeserializer>();
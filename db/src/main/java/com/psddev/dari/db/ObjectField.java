@@ -29,6 +29,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.Converter;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.StorageItem;
 import com.psddev.dari.util.StringUtils;
@@ -668,6 +669,26 @@ public class ObjectField extends Record {
         }
     });
 
+    private transient volatile Converter.Handle javaFieldConversion;
+
+    /**
+     * Returns the handle that converts values to the given
+     * {@code javaFieldType} using the given {@code converter}. It's only
+     * resolved again if either changes.
+     */
+    Converter.Handle getJavaFieldConversion(Converter converter, Type javaFieldType) {
+        Converter.Handle conversion = javaFieldConversion;
+
+        if (conversion == null ||
+                conversion.getConverter() != converter ||
+                !conversion.getReturnType().equals(javaFieldType)) {
+            conversion = converter.getHandle(javaFieldType);
+            javaFieldConversion = conversion;
+        }
+
+        return conversion;
+    }
+
     /** Sets the Java field name. */
     public void setJavaFieldName(String fieldName) {
         this.javaFieldName = fieldName;
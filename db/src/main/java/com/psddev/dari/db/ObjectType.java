@@ -903,20 +903,37 @@ public class ObjectType extends Record implements ObjectStruct {
     }
 
     /**
-     * Modifies this type definition with the reflection data from the
-     * given {@code modificationClass}.
+     * Restores this type definition from the given {@code values}, which
+     * must have been produced by {@link #initialize} and {@link #modify}
+     * using the same classes, without reading the reflection data again.
      */
-    @SuppressWarnings("deprecation")
-    public void modify(Class<?> modificationClass) {
-        if (Modification.class.isAssignableFrom(modificationClass) &&
-                Modifier.isAbstract(modificationClass.getModifiers())) {
-            return;
+    void restore(Map<String, Object> values) {
+        State state = getState();
+
+        state.clear();
+        state.putAll(values);
+        fieldsCache.reset();
+        metricFieldsCache.reset();
+        indexesCache.reset();
+
+        Class<?> objectClass = getObjectClass();
+
+        if (objectClass != null) {
+            for (String modificationClassName : getModificationClassNames()) {
+                Class<?> modificationClass = ObjectUtils.getClassByName(modificationClassName);
+
+                if (modificationClass != null) {
+                    checkAfterCreate(objectClass, modificationClass);
+                }
+            }
         }
+    }
 
+    private static void checkAfterCreate(Class<?> objectClass, Class<?> modificationClass) {
         try {
-            if (!Modification.class.isAssignableFrom(getObjectClass()) &&
+            if (!Modification.class.isAssignableFrom(objectClass) &&
                     modificationClass.getDeclaredMethod("afterCreate") != null) {
-                Static.HAS_AFTER_CREATE.put(getObjectClass(), Boolean.TRUE);
+                Static.HAS_AFTER_CREATE.put(objectClass, Boolean.TRUE);
             }
 
         } catch (NoClassDefFoundError error) {
@@ -925,7 +942,20 @@ public class ObjectType extends Record implements ObjectStruct {
         } catch (NoSuchMethodException error) {
             // No afterCreate method available to run.
         }
+    }
+
+    /**
+     * Modifies this type definition with the reflection data from the
+     * given {@code modificationClass}.
+     */
+    @SuppressWarnings("deprecation")
+    public void modify(Class<?> modificationClass) {
+        if (Modification.class.isAssignableFrom(modificationClass) &&
+                Modifier.isAbstract(modificationClass.getModifiers())) {
+            return;
+        }
 
+        checkAfterCreate(getObjectClass(), modificationClass);
         getModificationClassNames().add(modificationClass.getName());
 
         Database database = getState().getDatabase();
@@ -12,8 +12,11 @@ import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.psddev.dari.util.CollectionUtils;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
 
 /**
  * Parser for translating a predicate string into a {@linkplain Predicate
@@ -63,6 +66,15 @@ public class PredicateParser {
     public static final String MATCHES_EXACT_ANY_OPERATOR = "matchesexactany";
     public static final String MATCHES_EXACT_ALL_OPERATOR = "matchesexactall";
 
+    /** Setting key for the number of parsed predicate strings to cache. */
+    public static final String CACHE_SIZE_SETTING = "dari/predicateParserCacheSize";
+
+    private static final long DEFAULT_CACHE_SIZE = 1000L;
+
+    private final Cache<String, Template> templates = CacheBuilder.newBuilder().
+            maximumSize(Settings.getOrDefault(long.class, CACHE_SIZE_SETTING, DEFAULT_CACHE_SIZE)).
+            build();
+
     private final Map<String, String> compoundOperators; {
         Map<String, String> m = new ConcurrentHashMap<String, String>();
 
@@ -174,6 +186,11 @@ public class PredicateParser {
      * Parses the given {@code predicateString} along with the given
      * {@code parameters}.
      *
+     * <p>The parsed form of each predicate string is cached, up to
+     * {@value #CACHE_SIZE_SETTING} of them, and only the parameters are
+     * bound on subsequent calls, so changes to the operator maps only
+     * affect the predicate strings that haven't been parsed yet.</p>
+     *
      * @param predicateString If {@code null}, returns {@code null}.
      * @param parameters May be {@code null}.
      * @return May be {@code null}.
@@ -183,6 +200,23 @@ public class PredicateParser {
             return null;
         }
 
+        Template template = templates.getIfPresent(predicateString);
+
+        if (template == null) {
+            template = readPredicate(tokenize(predicateString), new int[1]);
+
+            if (template == null) {
+                template = EMPTY_TEMPLATE;
+            }
+
+            templates.put(predicateString, template);
+        }
+
+        return template.bind(parameters != null ? parameters : EMPTY_PARAMETERS);
+    }
+
+    // Splits the predicate string into tokens.
+    private Queue<String> tokenize(String predicateString) {
         Queue<String> tokens = new LinkedList<String>();
 
         char[] predicateChars = predicateString.toCharArray();
@@ -231,36 +265,26 @@ public class PredicateParser {
             tokens.add(tokenBuilder.toString());
         }
 
-        return readPredicate(tokens, new ParameterList(parameters));
+        return tokens;
     }
 
-    @SuppressWarnings("serial")
-    private static class ParameterList extends ArrayList<Object> {
-
-        private int next;
-
-        public ParameterList(Object... parameters) {
-            if (parameters != null && parameters.length > 0) {
-                Collections.addAll(this, parameters);
-            }
-        }
+    /**
+     * Parsed form of a predicate string that creates the predicate
+     * object once the parameters are known.
+     */
+    private interface Template {
 
-        public Object poll() {
-            if (next < size()) {
-                Object item = get(next);
-                ++ next;
-                return item;
-            } else {
-                return null;
-            }
-        }
+        public Predicate bind(Object[] parameters);
     }
 
     // Reads: group (compoundOperator group)*
-    private Predicate readPredicate(Queue<String> tokens, ParameterList parameters) {
-        Predicate predicate = readGroup(tokens, parameters);
+    private Template readPredicate(Queue<String> tokens, int[] nextParameter) {
+        Template template = readGroup(tokens, nextParameter);
+
+        if (template != null) {
+            List<String> operators = null;
+            List<Template> groups = null;
 
-        if (predicate != null) {
             for (String operator; (operator = tokens.peek()) != null;) {
 
                 operator = operator.toLowerCase(Locale.ENGLISH);
@@ -270,43 +294,49 @@ public class PredicateParser {
                 }
 
                 tokens.remove();
-                predicate = CompoundPredicate.combine(
-                        compoundOperator,
-                        predicate,
-                        readGroup(tokens, parameters));
+
+                if (operators == null) {
+                    operators = new ArrayList<String>();
+                    groups = new ArrayList<Template>();
+                }
+
+                operators.add(compoundOperator);
+                groups.add(readGroup(tokens, nextParameter));
+            }
+
+            if (operators != null) {
+                template = new CompoundTemplate(template, operators, groups);
             }
         }
 
-        return predicate;
+        return template;
     }
 
     // Reads: '(' predicate ')'
-    private Predicate readGroup(Queue<String> tokens, ParameterList parameters) {
-        Predicate predicate = null;
+    private Template readGroup(Queue<String> tokens, int[] nextParameter) {
+        Template template = null;
         String nextToken = tokens.peek();
 
         if ("(".equals(nextToken)) {
             tokens.remove();
-            predicate = readPredicate(tokens, parameters);
-            if (predicate == null) {
+            template = readPredicate(tokens, nextParameter);
+            if (template == null) {
                 throw new IllegalArgumentException("Empty group!");
             } else if (!")".equals(tokens.poll())) {
                 throw new IllegalArgumentException(String.format(
-                        "Unmatched ( after [%s]!", predicate));
+                        "Unmatched ( after [%s]!", template.bind(EMPTY_PARAMETERS)));
             }
 
         } else if ("not".equals(nextToken) ||
                 NOT_OPERATOR.equals(nextToken)) {
             tokens.remove();
-            predicate = new CompoundPredicate(
-                    NOT_OPERATOR,
-                    Arrays.asList(readGroup(tokens, parameters)));
+            template = new NotTemplate(readGroup(tokens, nextParameter));
 
         } else {
-            predicate = readComparison(tokens, parameters);
+            template = readComparison(tokens, nextParameter);
         }
 
-        return predicate;
+        return template;
     }
 
     // Reads: value | '[' value1, value2, valueN ']'
@@ -341,7 +371,7 @@ public class PredicateParser {
     }
 
     // Reads: key operator value
-    private Predicate readComparison(Queue<String> tokens, ParameterList parameters) {
+    private Template readComparison(Queue<String> tokens, int[] nextParameter) {
         String key = tokens.poll();
         if (key == null) {
             return null;
@@ -366,6 +396,9 @@ public class PredicateParser {
         }
 
         Object value = readValue(tokens);
+        int parameterIndex = -1;
+        String parameterPath = null;
+
         if (value == null) {
             throw new IllegalArgumentException(String.format(
                     "No value after [%s] key and [%s] operator!",
@@ -376,7 +409,8 @@ public class PredicateParser {
 
             if (valueString.startsWith("?")) {
                 if (valueString.length() == 1) {
-                    value = parameters.poll();
+                    parameterIndex = nextParameter[0];
+                    ++ nextParameter[0];
 
                 } else {
                     String path = valueString.substring(1);
@@ -400,19 +434,12 @@ public class PredicateParser {
                         path = splitPath;
                     }
 
-                    value = index < parameters.size() ? parameters.get(index) : null;
-
-                    if (value != null && path.length() > 0) {
-                        if (value instanceof State) {
-                            value = ((State) value).getByPath(path);
-                        } else if (value instanceof Recordable) {
-                            value = ((Recordable) value).getState().getByPath(path);
-                        } else {
-                            value = CollectionUtils.getByPath(value, path);
-                        }
-                    }
+                    parameterIndex = index;
+                    parameterPath = path.length() > 0 ? path : null;
                 }
 
+                value = null;
+
             } else if ("true".equalsIgnoreCase(valueString)) {
                 value = Boolean.TRUE;
 
@@ -429,11 +456,13 @@ public class PredicateParser {
 
         String comparisonOperator = getComparisonOperators().get(operator);
         if (comparisonOperator != null) {
-            return new ComparisonPredicate(
+            return new ComparisonTemplate(
                     comparisonOperator,
                     isIgnoreCase,
                     key,
-                    ObjectUtils.to(Iterable.class, value));
+                    ObjectUtils.to(Iterable.class, value),
+                    parameterIndex,
+                    parameterPath);
 
         } else {
             throw new IllegalArgumentException(String.format(
@@ -442,6 +471,110 @@ public class PredicateParser {
         }
     }
 
+    private static final Object[] EMPTY_PARAMETERS = new Object[0];
+
+    private static final Template EMPTY_TEMPLATE = new Template() {
+
+        @Override
+        public Predicate bind(Object[] parameters) {
+            return null;
+        }
+    };
+
+    private static class CompoundTemplate implements Template {
+
+        private final Template first;
+        private final String[] operators;
+        private final Template[] groups;
+
+        public CompoundTemplate(Template first, List<String> operators, List<Template> groups) {
+            this.first = first;
+            this.operators = operators.toArray(new String[operators.size()]);
+            this.groups = groups.toArray(new Template[groups.size()]);
+        }
+
+        @Override
+        public Predicate bind(Object[] parameters) {
+            Predicate predicate = first.bind(parameters);
+
+            for (int i = 0, length = operators.length; i < length; ++ i) {
+                Template group = groups[i];
+
+                predicate = CompoundPredicate.combine(
+                        operators[i],
+                        predicate,
+                        group != null ? group.bind(parameters) : null);
+            }
+
+            return predicate;
+        }
+    }
+
+    private static class NotTemplate implements Template {
+
+        private final Template child;
+
+        public NotTemplate(Template child) {
+            this.child = child;
+        }
+
+        @Override
+        public Predicate bind(Object[] parameters) {
+            return new CompoundPredicate(
+                    NOT_OPERATOR,
+                    Arrays.asList(child != null ? child.bind(parameters) : null));
+        }
+    }
+
+    private static class ComparisonTemplate implements Template {
+
+        private final String operator;
+        private final boolean isIgnoreCase;
+        private final String key;
+        private final Iterable<?> values;
+        private final int parameterIndex;
+        private final String parameterPath;
+
+        public ComparisonTemplate(
+                String operator,
+                boolean isIgnoreCase,
+                String key,
+                Iterable<?> values,
+                int parameterIndex,
+                String parameterPath) {
+
+            this.operator = operator;
+            this.isIgnoreCase = isIgnoreCase;
+            this.key = key;
+            this.values = values;
+            this.parameterIndex = parameterIndex;
+            this.parameterPath = parameterPath;
+        }
+
+        @Override
+        public Predicate bind(Object[] parameters) {
+            Iterable<?> boundValues = values;
+
+            if (parameterIndex > -1) {
+                Object value = parameterIndex < parameters.length ? parameters[parameterIndex] : null;
+
+                if (value != null && parameterPath != null) {
+                    if (value instanceof State) {
+                        value = ((State) value).getByPath(parameterPath);
+                    } else if (value instanceof Recordable) {
+                        value = ((Recordable) value).getState().getByPath(parameterPath);
+                    } else {
+                        value = CollectionUtils.getByPath(value, parameterPath);
+                    }
+                }
+
+                boundValues = ObjectUtils.to(Iterable.class, value);
+            }
+
+            return new ComparisonPredicate(operator, isIgnoreCase, key, boundValues);
+        }
+    }
+
     /**
      * Returns {@code true} if the given {@code predicate} matches
      * the given {@code object}.
@@ -466,12 +599,25 @@ public class PredicateParser {
         return evaluator.evaluate(this, object, predicate);
     }
 
+    /**
+     * Compiles the given {@code predicate} so that it can be evaluated
+     * against many objects of the given {@code type} quickly.
+     *
+     * @param predicate If {@code null}, the result always matches.
+     * @param type May be {@code null}.
+     * @return Never {@code null}.
+     * @see CompiledPredicate
+     */
+    public CompiledPredicate compile(Predicate predicate, ObjectType type) {
+        return new CompiledPredicate(this, predicate, type);
+    }
+
     public interface Evaluator {
 
         public boolean evaluate(PredicateParser parser, Object object, Predicate predicate);
     }
 
-    private static class AndEvaluator implements Evaluator {
+    static class AndEvaluator implements Evaluator {
 
         @Override
         public boolean evaluate(PredicateParser parser, Object object, Predicate predicate) {
@@ -484,7 +630,7 @@ public class PredicateParser {
         }
     }
 
-    private static class OrEvaluator implements Evaluator {
+    static class OrEvaluator implements Evaluator {
 
         @Override
         public boolean evaluate(PredicateParser parser, Object object, Predicate predicate) {
@@ -497,7 +643,7 @@ public class PredicateParser {
         }
     }
 
-    private static class NotEvaluator extends OrEvaluator {
+    static class NotEvaluator extends OrEvaluator {
 
         @Override
         public boolean evaluate(PredicateParser parser, Object object, Predicate predicate) {
@@ -505,7 +651,7 @@ public class PredicateParser {
         }
     }
 
-    private abstract static class ComparisonEvaluator implements Evaluator {
+    abstract static class ComparisonEvaluator implements Evaluator {
 
         @Override
         public final boolean evaluate(PredicateParser parser, Object object, Predicate predicate) {
@@ -561,7 +707,7 @@ public class PredicateParser {
         protected abstract boolean compare(State state, Object keyValue, List<Object> values);
     }
 
-    private static class EqualsAnyEvaluator extends ComparisonEvaluator {
+    static class EqualsAnyEvaluator extends ComparisonEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -598,7 +744,7 @@ public class PredicateParser {
         }
     }
 
-    private static class NotEqualsAllEvaluator extends EqualsAnyEvaluator {
+    static class NotEqualsAllEvaluator extends EqualsAnyEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -606,7 +752,7 @@ public class PredicateParser {
         }
     }
 
-    private static class LessThanEvaluator extends ComparisonEvaluator {
+    static class LessThanEvaluator extends ComparisonEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -619,7 +765,7 @@ public class PredicateParser {
         }
     }
 
-    private static class LessThanOrEqualsEvaluator extends ComparisonEvaluator {
+    static class LessThanOrEqualsEvaluator extends ComparisonEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -632,7 +778,7 @@ public class PredicateParser {
         }
     }
 
-    private static class GreaterThanEvaluator extends LessThanOrEqualsEvaluator {
+    static class GreaterThanEvaluator extends LessThanOrEqualsEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -640,7 +786,7 @@ public class PredicateParser {
         }
     }
 
-    private static class GreaterThanOrEqualsEvaluator extends LessThanEvaluator {
+    static class GreaterThanOrEqualsEvaluator extends LessThanEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -648,7 +794,7 @@ public class PredicateParser {
         }
     }
 
-    private static class StartsWithEvaluator extends ComparisonEvaluator {
+    static class StartsWithEvaluator extends ComparisonEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -665,7 +811,7 @@ public class PredicateParser {
         }
     }
 
-    private static class ContainsEvaluator extends ComparisonEvaluator {
+    static class ContainsEvaluator extends ComparisonEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -682,7 +828,7 @@ public class PredicateParser {
         }
     }
 
-    private static class MatchesAnyEvaluator extends ComparisonEvaluator {
+    static class MatchesAnyEvaluator extends ComparisonEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -699,7 +845,7 @@ public class PredicateParser {
         }
     }
 
-    private static class MatchesAllEvaluator extends ComparisonEvaluator {
+    static class MatchesAllEvaluator extends ComparisonEvaluator {
 
         @Override
         protected boolean compare(State state, Object keyValue, List<Object> values) {
@@ -744,5 +890,13 @@ public class PredicateParser {
         public static boolean evaluate(Object object, String predicateString, Object... parameters) {
             return evaluate(object, parse(predicateString, parameters));
         }
+
+        /**
+         * Compiles the given {@code predicate} so that it can be evaluated
+         * against many objects of the given {@code type} quickly.
+         */
+        public static CompiledPredicate compile(Predicate predicate, ObjectType type) {
+            return DEFAULT_PARSER.compile(predicate, type);
+        }
     }
 }
@@ -52,6 +52,14 @@ public class ProfilingDatabase extends ForwardingDatabase {
     // --- ForwardingDatabase support ---
 
     private void startQueryEvent(String event, Query<?> query) {
+        Object resolving = query.getOptions().get(State.REFERENCE_RESOLVING_QUERY_OPTION);
+
+        // Sampling only keeps the event names, so skip finding the caller.
+        if (Profiler.Static.getThreadProfiler() == null) {
+            Profiler.Static.startThreadEvent(resolving != null ? event + " (Reference Resolving)" : event);
+            return;
+        }
+
         StackTraceElement caller = null;
 
         Profiler.Static.pauseThreadEvent();
@@ -76,8 +84,6 @@ public class ProfilingDatabase extends ForwardingDatabase {
             Profiler.Static.resumeThreadEvent();
         }
 
-        Object resolving = query.getOptions().get(State.REFERENCE_RESOLVING_QUERY_OPTION);
-
         if (resolving != null) {
             Profiler.Static.startThreadEvent(event + " (Reference Resolving)", resolving, query.getOptions().get(State.REFERENCE_FIELD_QUERY_OPTION), caller);
 
@@ -11,11 +11,12 @@ import com.psddev.dari.util.HtmlFormatter;
 import com.psddev.dari.util.HtmlWriter;
 import com.psddev.dari.util.Profiler;
 import com.psddev.dari.util.ProfilerFilter;
+import com.psddev.dari.util.SamplingProfiler;
 import com.psddev.dari.util.StringUtils;
 
 /**
- * Enables {@link ProfilingDatabase} if {@link Profiler} is active
- * on the current HTTP request.
+ * Enables {@link ProfilingDatabase} if {@link Profiler} or
+ * {@link SamplingProfiler} is active on the current HTTP request.
  */
 public class ProfilingDatabaseFilter extends AbstractFilter {
 
@@ -29,7 +30,21 @@ public class ProfilingDatabaseFilter extends AbstractFilter {
         Profiler profiler = Profiler.Static.getThreadProfiler();
 
         if (profiler == null) {
-            super.doRequest(request, response, chain);
+            if (SamplingProfiler.Static.getThreadProfiler() == null) {
+                super.doRequest(request, response, chain);
+
+            } else {
+                ProfilingDatabase profiling = new ProfilingDatabase();
+                profiling.setDelegate(Database.Static.getDefault());
+
+                try {
+                    Database.Static.overrideDefault(profiling);
+                    super.doRequest(request, response, chain);
+
+                } finally {
+                    Database.Static.restoreDefault();
+                }
+            }
 
         } else {
             ProfilingDatabase profiling = new ProfilingDatabase();
@@ -14,6 +14,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -127,6 +129,11 @@ public class Query<E> extends Record {
 
     public static final String CREATOR_EXTRA = "dari.creatorQuery";
 
+    /**
+     * Query option key for the {@linkplain #countStrategy count strategy}.
+     */
+    public static final String COUNT_STRATEGY_QUERY_OPTION = "dari.countStrategy";
+
     public static final Pattern RANGE_PATTERN = Pattern.compile("([^\\(]*)\\(([^,)]*),([^,)]*),([^\\))]*)\\)");
     public static final String RANGE_START = "start";
     public static final String RANGE_END = "end";
@@ -648,6 +655,27 @@ public class Query<E> extends Record {
         return this;
     }
 
+    /**
+     * Returns how the count of the paginated result of this query is
+     * produced.
+     *
+     * @return Never {@code null}.
+     */
+    public CountStrategy getCountStrategy() {
+        Object strategy = getOptions().get(COUNT_STRATEGY_QUERY_OPTION);
+        return strategy instanceof CountStrategy ? (CountStrategy) strategy : CountStrategy.EXACT;
+    }
+
+    /**
+     * Sets how the count of the paginated result of this query is
+     * produced.
+     *
+     * @param strategy If {@code null}, counts exactly.
+     */
+    public Query<E> countStrategy(CountStrategy strategy) {
+        return option(COUNT_STRATEGY_QUERY_OPTION, strategy);
+    }
+
     /**
      * Returns all types that belong to this query's group in the given
      * {@code environment}. If this query was initialized with an object
@@ -1520,6 +1548,85 @@ public class Query<E> extends Record {
         return getDatabase().readAll(this);
     }
 
+    /**
+     * Starts counting all objects matching this query in a {@linkplain
+     * #getDatabase database} using its {@link AsyncQueryExecutor}.
+     *
+     * @return Never {@code null}.
+     * @see #count
+     */
+    public Future<Long> countAsync() {
+        final Query<E> query = clone();
+
+        return AsyncQueryExecutor.Static.getInstance(query.getDatabase()).submit(new Callable<Long>() {
+
+            @Override
+            public Long call() {
+                return query.count();
+            }
+        });
+    }
+
+    /**
+     * Starts finding the first object matching this query in a
+     * {@linkplain #getDatabase database} using its
+     * {@link AsyncQueryExecutor}.
+     *
+     * @return Never {@code null}.
+     * @see #first
+     */
+    public Future<E> firstAsync() {
+        final Query<E> query = clone();
+
+        return AsyncQueryExecutor.Static.getInstance(query.getDatabase()).submit(new Callable<E>() {
+
+            @Override
+            public E call() {
+                return query.first();
+            }
+        });
+    }
+
+    /**
+     * Starts finding a partial list of all objects matching this query
+     * within the range of the given {@code offset} and {@code limit} in
+     * a {@linkplain #getDatabase database} using its
+     * {@link AsyncQueryExecutor}.
+     *
+     * @return Never {@code null}.
+     * @see #select(long, int)
+     */
+    public Future<PaginatedResult<E>> selectAsync(final long offset, final int limit) {
+        final Query<E> query = clone();
+
+        return AsyncQueryExecutor.Static.getInstance(query.getDatabase()).submit(new Callable<PaginatedResult<E>>() {
+
+            @Override
+            public PaginatedResult<E> call() {
+                return query.select(offset, limit);
+            }
+        });
+    }
+
+    /**
+     * Starts finding all objects matching this query in a {@linkplain
+     * #getDatabase database} using its {@link AsyncQueryExecutor}.
+     *
+     * @return Never {@code null}.
+     * @see #selectAll
+     */
+    public Future<List<E>> selectAllAsync() {
+        final Query<E> query = clone();
+
+        return AsyncQueryExecutor.Static.getInstance(query.getDatabase()).submit(new Callable<List<E>>() {
+
+            @Override
+            public List<E> call() {
+                return query.selectAll();
+            }
+        });
+    }
+
     /**
      * Returns an iterable of all objects matching this query in a
      * {@linkplain #getDatabase database}.
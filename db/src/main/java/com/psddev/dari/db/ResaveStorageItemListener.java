@@ -0,0 +1,96 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StorageItem;
+import com.psddev.dari.util.StorageItemListener;
+
+/**
+ * Saves the storage item in an object again once the item is saved in
+ * the background, so that the metadata that the other
+ * {@linkplain StorageItemListener listeners} add to the item, such as
+ * the intermediate image sizes, is persisted with the object.
+ *
+ * <p>{@link State} doesn't save the storage items that it refers to, so
+ * the object can be saved right away, and this listener only fills in
+ * the metadata afterwards:</p>
+ *
+ * <pre>
+ * object.save();
+ * StorageItem.Static.saveAsync(item, new ResaveStorageItemListener(object));
+ * </pre>
+ *
+ * <p>Only the top-level fields that still refer to the same item are
+ * updated, on a fresh copy of the object read from the database, so that
+ * any other changes saved while the item was uploading are kept. Nothing
+ * is saved if the object isn't in the database yet, since the item's
+ * metadata will be saved with it.</p>
+ */
+public class ResaveStorageItemListener implements StorageItemListener {
+
+    private final State state;
+
+    /**
+     * Creates an instance that saves the given {@code object}.
+     *
+     * @param object Can't be {@code null}.
+     */
+    public ResaveStorageItemListener(Object object) {
+        if (object == null) {
+            throw new IllegalArgumentException("Object can't be null!");
+        }
+
+        this.state = State.getInstance(object);
+    }
+
+    /** Returns the state of the object that's saved again. */
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public void afterSave(StorageItem item) {
+        List<String> fields = new ArrayList<String>();
+
+        for (Map.Entry<String, Object> entry : state.getValues().entrySet()) {
+            if (entry.getValue() == item) {
+                fields.add(entry.getKey());
+            }
+        }
+
+        if (fields.isEmpty()) {
+            return;
+        }
+
+        Object object = Query.
+                fromAll().
+                where("_id = ?", state.getId()).
+                using(state.getDatabase()).
+                master().
+                noCache().
+                first();
+
+        if (object == null) {
+            return;
+        }
+
+        State current = State.getInstance(object);
+        boolean changed = false;
+
+        for (String field : fields) {
+            Object value = current.get(field);
+
+            if (value instanceof StorageItem && ObjectUtils.equals(value, item)) {
+                current.put(field, item);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            current.save();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.psddev.dari.db;
+
+import java.util.Map;
+import java.util.UUID;
+
+import com.psddev.dari.util.ErrorUtils;
+
+/**
+ * Change to a row in the {@link SqlDatabase#RECORD_TABLE}, as read
+ * from the MySQL binary log.
+ *
+ * @see SqlDatabase#addChangeListener
+ */
+public final class SqlChange {
+
+    /** All possible types of changes. */
+    public enum Type {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    private final Type type;
+    private final UUID id;
+    private final UUID typeId;
+    private final byte[] data;
+
+    /**
+     * Creates an instance.
+     *
+     * @param type Can't be {@code null}.
+     * @param id Can't be {@code null}.
+     * @param typeId May be {@code null}.
+     * @param data May be {@code null}.
+     */
+    public SqlChange(Type type, UUID id, UUID typeId, byte[] data) {
+        ErrorUtils.errorIfNull(type, "type");
+        ErrorUtils.errorIfNull(id, "id");
+
+        this.type = type;
+        this.id = id;
+        this.typeId = typeId;
+        this.data = data;
+    }
+
+    /** Returns the type. */
+    public Type getType() {
+        return type;
+    }
+
+    /** Returns the ID of the changed object. */
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * Returns the type ID of the changed object.
+     *
+     * @return May be {@code null} if the binary log didn't include it,
+     *         such as for some deletes.
+     */
+    public UUID getTypeId() {
+        return typeId;
+    }
+
+    /**
+     * Returns the raw data of the changed object, as stored in the
+     * database.
+     *
+     * @return May be {@code null} if the binary log didn't include it,
+     *         such as for some deletes.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the decoded {@linkplain State#getValues state values} of
+     * the changed object.
+     *
+     * @return May be {@code null} if the binary log didn't include the
+     *         data.
+     */
+    public Map<String, Object> getValues() {
+        return data != null && data.length > 0 ? SqlDatabase.unserializeData(data) : null;
+    }
+
+    /**
+     * Creates an object that reflects this change within the given
+     * {@code database}.
+     *
+     * @param database Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public Object createObject(Database database) {
+        ErrorUtils.errorIfNull(database, "database");
+
+        Object object = database.getEnvironment().createObject(typeId, id);
+        State state = State.getInstance(object);
+        Map<String, Object> values = getValues();
+
+        if (values != null) {
+            state.setValues(values);
+        }
+
+        state.setStatus(type == Type.DELETE ? StateStatus.DELETED : StateStatus.SAVED);
+        return object;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + id;
+    }
+}
@@ -0,0 +1,33 @@
+package com.psddev.dari.db;
+
+import java.util.List;
+
+/**
+ * Receives the changes to the objects in a {@link SqlDatabase}.
+ *
+ * @see SqlDatabase#addChangeListener
+ */
+public interface SqlChangeListener {
+
+    /**
+     * Called once for each committed transaction, in the commit order,
+     * with all of the changes that were made in it.
+     *
+     * @param database Never {@code null}.
+     * @param changes Never {@code null}. Never empty.
+     */
+    public void onChanges(SqlDatabase database, List<SqlChange> changes);
+
+    /**
+     * Called when committed transactions were dropped, because the
+     * listeners couldn't keep up or because they contained statements
+     * that couldn't be decoded, in place of those transactions, so that
+     * the listener can read the current state of the objects that it
+     * tracks again.
+     *
+     * @param database Never {@code null}.
+     * @param dropped Number of transactions that were dropped. Always
+     *        greater than {@code 0}.
+     */
+    public void onOverflow(SqlDatabase database, long dropped);
+}
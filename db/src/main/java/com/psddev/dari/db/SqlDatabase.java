@@ -8,6 +8,10 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -35,10 +39,13 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 
 import javax.sql.DataSource;
@@ -47,12 +54,14 @@ import org.iq80.snappy.Snappy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.jolbox.bonecp.BoneCPDataSource;
 import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.ErrorUtils;
 import com.psddev.dari.util.Lazy;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
@@ -62,6 +71,7 @@ import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.SettingsException;
 import com.psddev.dari.util.Stats;
 import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.Task;
 import com.psddev.dari.util.TypeDefinition;
 import com.psddev.dari.util.UuidUtils;
 
@@ -88,6 +98,14 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     public static final String COMPRESS_DATA_SUB_SETTING = "compressData";
     public static final String CACHE_DATA_SUB_SETTING = "cacheData";
     public static final String ENABLE_REPLICATION_CACHE_SUB_SETTING = "enableReplicationCache";
+    public static final String STATEMENT_TEMPLATE_CACHE_SIZE_SUB_SETTING = "statementTemplateCacheSize";
+    public static final String READ_REPLICAS_SUB_SETTING = "readReplicas";
+    public static final String READ_REPLICA_WEIGHT_SUB_SETTING = "weight";
+    public static final String READ_BALANCING_SUB_SETTING = "readBalancing";
+    public static final String MAXIMUM_REPLICA_LAG_SUB_SETTING = "maximumReplicaLag";
+    public static final String REPLICA_PROBE_INTERVAL_SUB_SETTING = "replicaProbeInterval";
+    public static final String READ_YOUR_WRITES_DURATION_SUB_SETTING = "readYourWritesDuration";
+    public static final String CHANGE_FEED_SIZE_SUB_SETTING = "changeFeedSize";
 
     public static final String RECORD_TABLE = "Record";
     public static final String RECORD_UPDATE_TABLE = "RecordUpdate";
@@ -124,11 +142,18 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     private static final String CONNECTION_ERROR_STATS_OPERATION = "Connection Error";
     private static final String QUERY_STATS_OPERATION = "Query";
     private static final String UPDATE_STATS_OPERATION = "Update";
+    private static final String BUILD_STATEMENT_STATS_OPERATION = "Build Statement";
+    private static final String TEMPLATE_STATEMENT_STATS_OPERATION = "Build Statement From Template";
     private static final String QUERY_PROFILER_EVENT = SHORT_NAME + " " + QUERY_STATS_OPERATION;
     private static final String UPDATE_PROFILER_EVENT = SHORT_NAME + " " + UPDATE_STATS_OPERATION;
     private static final String REPLICATION_CACHE_GET_PROFILER_EVENT = SHORT_NAME + " Replication Cache Get";
     private static final String REPLICATION_CACHE_PUT_PROFILER_EVENT = SHORT_NAME + " Replication Cache Put";
     private static final long NOW_EXPIRATION_SECONDS = 300;
+    private static final long DEFAULT_STATEMENT_TEMPLATE_CACHE_SIZE = 1000;
+    private static final double DEFAULT_REPLICA_PROBE_INTERVAL = 5.0;
+    private static final String REPLICA_PROBE_TASK_EXECUTOR_NAME = "SQL Read Replicas";
+    private static final int DEFAULT_CHANGE_FEED_SIZE = 1000;
+    private static final Random RANDOM = new Random();
 
     private static final List<SqlDatabase> INSTANCES = new ArrayList<SqlDatabase>();
 
@@ -148,6 +173,26 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
     private transient volatile Cache<UUID, Object[]> replicationCache = CacheBuilder.newBuilder().maximumSize(10000).build();
     private transient volatile MySQLBinaryLogReader mysqlBinaryLogReader;
+    private final transient MySQLBinaryLogFeed changeFeed = new MySQLBinaryLogFeed(this, DEFAULT_CHANGE_FEED_SIZE);
+    private transient volatile Cache<String, Optional<SqlQuery.StatementTemplate>> statementTemplates = createStatementTemplates(DEFAULT_STATEMENT_TEMPLATE_CACHE_SIZE);
+
+    private volatile List<SqlReadReplica> readReplicas = Collections.emptyList();
+    private volatile ReadBalancing readBalancing = ReadBalancing.WEIGHTED;
+    private volatile double maximumReplicaLag;
+    private volatile double replicaProbeInterval = DEFAULT_REPLICA_PROBE_INTERVAL;
+    private volatile double readYourWritesDuration;
+    private transient volatile Task replicaProber;
+    private final transient ThreadLocal<Long> lastWriteLocal = new ThreadLocal<Long>();
+
+    /** How the reads are spread across the {@linkplain #getReadReplicas read replicas}. */
+    public enum ReadBalancing {
+
+        /** Picks a replica at random in proportion to its weight. */
+        WEIGHTED,
+
+        /** Picks the replica with the fewest open connections per weight. */
+        LEAST_OUTSTANDING
+    }
 
     /**
      * Quotes the given {@code identifier} so that it's safe to use
@@ -281,6 +326,356 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         this.readDataSource = readDataSource;
     }
 
+    /**
+     * Returns the replicas used for read operations instead of the
+     * {@linkplain #getReadDataSource read data source}.
+     *
+     * @return Never {@code null}. Immutable.
+     */
+    public List<SqlReadReplica> getReadReplicas() {
+        return readReplicas;
+    }
+
+    /**
+     * Sets the replicas used for read operations instead of the
+     * {@linkplain #getReadDataSource read data source}, and starts
+     * probing their lag periodically.
+     *
+     * @param readReplicas May be {@code null}.
+     */
+    public synchronized void setReadReplicas(List<SqlReadReplica> readReplicas) {
+        this.readReplicas = readReplicas != null && !readReplicas.isEmpty() ?
+                Collections.unmodifiableList(new ArrayList<SqlReadReplica>(readReplicas)) :
+                Collections.<SqlReadReplica>emptyList();
+
+        scheduleReplicaProber();
+    }
+
+    /** Returns how the reads are spread across the read replicas. */
+    public ReadBalancing getReadBalancing() {
+        return readBalancing;
+    }
+
+    /**
+     * Sets how the reads are spread across the read replicas.
+     *
+     * @param readBalancing If {@code null}, uses
+     *        {@link ReadBalancing#WEIGHTED}.
+     */
+    public void setReadBalancing(ReadBalancing readBalancing) {
+        this.readBalancing = readBalancing != null ? readBalancing : ReadBalancing.WEIGHTED;
+    }
+
+    /**
+     * Returns how far behind, in seconds, a read replica can be before
+     * the reads stop going to it.
+     */
+    public double getMaximumReplicaLag() {
+        return maximumReplicaLag;
+    }
+
+    /**
+     * Sets how far behind, in seconds, a read replica can be before
+     * the reads stop going to it. When no replica can be used, the reads
+     * go to the master.
+     *
+     * @param maximumReplicaLag If less than or equal to {@code 0}, the
+     *        lag isn't checked.
+     */
+    public void setMaximumReplicaLag(double maximumReplicaLag) {
+        this.maximumReplicaLag = maximumReplicaLag;
+    }
+
+    /** Returns how often, in seconds, the read replicas are probed. */
+    public double getReplicaProbeInterval() {
+        return replicaProbeInterval;
+    }
+
+    /**
+     * Sets how often, in seconds, the read replicas are probed for their
+     * lag and availability.
+     *
+     * @param replicaProbeInterval If less than or equal to {@code 0},
+     *        the replicas aren't probed.
+     */
+    public synchronized void setReplicaProbeInterval(double replicaProbeInterval) {
+        this.replicaProbeInterval = replicaProbeInterval;
+
+        scheduleReplicaProber();
+    }
+
+    /**
+     * Returns how long, in seconds, the reads in a thread go to the
+     * master after the thread writes to this database.
+     */
+    public double getReadYourWritesDuration() {
+        return readYourWritesDuration;
+    }
+
+    /**
+     * Sets how long, in seconds, the reads in a thread go to the master
+     * after the thread writes to this database, so that it doesn't read
+     * stale data from a lagging replica.
+     *
+     * @param readYourWritesDuration If less than or equal to {@code 0},
+     *        the reads aren't affected by the writes.
+     */
+    public void setReadYourWritesDuration(double readYourWritesDuration) {
+        this.readYourWritesDuration = readYourWritesDuration;
+    }
+
+    /**
+     * Returns the maximum number of committed transactions that are
+     * buffered for the {@linkplain #addChangeListener change listeners}.
+     */
+    public int getChangeFeedSize() {
+        return changeFeed.getCapacity();
+    }
+
+    /**
+     * Sets the maximum number of committed transactions that are
+     * buffered for the {@linkplain #addChangeListener change listeners}.
+     * Any transactions that don't fit, because the listeners can't keep
+     * up, are dropped.
+     */
+    public void setChangeFeedSize(int changeFeedSize) {
+        changeFeed.setCapacity(changeFeedSize);
+    }
+
+    /**
+     * Adds the given {@code listener} so that it receives all changes
+     * to the objects in this database, including the ones made by other
+     * servers, as they're read from the MySQL binary log.
+     *
+     * <p>The changes are grouped by transaction and delivered in the
+     * commit order on a dedicated thread, with up to the
+     * {@linkplain #getChangeFeedSize change feed size} transactions
+     * buffered. The transactions that don't fit are dropped, and
+     * {@link SqlChangeListener#onOverflow} is called in their place. So
+     * are the transactions with statements that can't be decoded, such
+     * as bulk updates.</p>
+     *
+     * @param listener Can't be {@code null}.
+     * @throws UnsupportedOperationException If this database isn't
+     *         MySQL.
+     */
+    public void addChangeListener(SqlChangeListener listener) {
+        ErrorUtils.errorIfNull(listener, "listener");
+
+        SqlVendor vendor = getVendor();
+
+        if (vendor != null && !(vendor instanceof SqlVendor.MySQL)) {
+            throw new UnsupportedOperationException(String.format(
+                    "Can't read the changes from [%s]!", vendor));
+        }
+
+        changeFeed.addListener(listener);
+
+        if (vendor != null) {
+            startMySQLBinaryLogReader();
+        }
+    }
+
+    /**
+     * Removes the given {@code listener} so that it no longer receives
+     * the changes to the objects in this database.
+     */
+    public void removeChangeListener(SqlChangeListener listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * Returns the number of committed transactions that weren't
+     * delivered to the {@linkplain #addChangeListener change listeners}
+     * because they couldn't keep up or couldn't be decoded.
+     */
+    public long getDroppedChangeTransactions() {
+        return changeFeed.getDropped();
+    }
+
+    private synchronized void startMySQLBinaryLogReader() {
+        if (mysqlBinaryLogReader == null || !mysqlBinaryLogReader.isRunning()) {
+            try {
+                LOGGER.info("Starting MySQL binary log reader");
+                mysqlBinaryLogReader = new MySQLBinaryLogReader(replicationCache, ObjectUtils.firstNonNull(getReadDataSource(), getDataSource()), changeFeed);
+                mysqlBinaryLogReader.start();
+
+            } catch (IllegalArgumentException error) {
+                setEnableReplicationCache(false);
+                LOGGER.warn("Can't start MySQL binary log reader!", error);
+            }
+        }
+    }
+
+    private synchronized void scheduleReplicaProber() {
+        if (replicaProber != null) {
+            replicaProber.stop();
+            replicaProber = null;
+        }
+
+        double interval = getReplicaProbeInterval();
+
+        if (!readReplicas.isEmpty() && interval > 0.0) {
+            replicaProber = new Task(REPLICA_PROBE_TASK_EXECUTOR_NAME, getName()) {
+
+                @Override
+                protected void doTask() {
+                    probeReadReplicas();
+                }
+            };
+
+            replicaProber.scheduleWithFixedDelay(interval, interval);
+        }
+    }
+
+    /**
+     * Checks whether each read replica can be connected to, and reads
+     * its lag using {@link SqlVendor#readReplicaLag}.
+     */
+    public void probeReadReplicas() {
+        SqlVendor vendor = getVendor();
+
+        for (SqlReadReplica replica : getReadReplicas()) {
+            Connection connection = null;
+
+            try {
+                connection = replica.getDataSource().getConnection();
+
+                replica.setLag(vendor != null ? vendor.readReplicaLag(connection) : null);
+                replica.setAvailable(true);
+
+            } catch (SQLException error) {
+                if (replica.isAvailable()) {
+                    LOGGER.warn(String.format("Can't probe [%s] read replica in [%s]!", replica, getName()), error);
+                }
+
+                replica.setAvailable(false);
+
+            } finally {
+                replica.setLastProbe(System.currentTimeMillis());
+
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException error) {
+                        // Not likely and probably harmless.
+                    }
+                }
+            }
+        }
+    }
+
+    // Picks a read replica that's available and not too far behind.
+    private SqlReadReplica selectReadReplica(List<SqlReadReplica> replicas) {
+        double maximumLag = getMaximumReplicaLag();
+
+        if (getReadBalancing() == ReadBalancing.LEAST_OUTSTANDING) {
+            SqlReadReplica selected = null;
+            double selectedLoad = 0.0;
+
+            for (SqlReadReplica replica : replicas) {
+                if (replica.isUsable(maximumLag)) {
+                    double load = (double) replica.getOutstanding() / replica.getWeight();
+
+                    if (selected == null || load < selectedLoad) {
+                        selected = replica;
+                        selectedLoad = load;
+                    }
+                }
+            }
+
+            return selected;
+
+        } else {
+            List<SqlReadReplica> usable = new ArrayList<SqlReadReplica>();
+            int totalWeight = 0;
+
+            for (SqlReadReplica replica : replicas) {
+                if (replica.isUsable(maximumLag)) {
+                    usable.add(replica);
+                    totalWeight += replica.getWeight();
+                }
+            }
+
+            if (usable.isEmpty()) {
+                return null;
+            }
+
+            int random = RANDOM.nextInt(totalWeight);
+
+            for (SqlReadReplica replica : usable) {
+                random -= replica.getWeight();
+
+                if (random < 0) {
+                    return replica;
+                }
+            }
+
+            return usable.get(usable.size() - 1);
+        }
+    }
+
+    // Counts the replica connection as closed however it's closed, since
+    // not all callers go through #closeConnection.
+    private static class ReplicaConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private final SqlReadReplica replica;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        public ReplicaConnectionHandler(Connection connection, SqlReadReplica replica) {
+            this.connection = connection;
+            this.replica = replica;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+            String name = method.getName();
+
+            if (arguments == null || arguments.length == 0) {
+                if ("close".equals(name)) {
+                    if (closed.compareAndSet(false, true)) {
+                        replica.closed();
+                    }
+
+                } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                }
+
+            } else if (arguments.length == 1 && "equals".equals(name)) {
+                return proxy == arguments[0];
+            }
+
+            try {
+                return method.invoke(connection, arguments);
+
+            } catch (InvocationTargetException error) {
+                throw error.getCause();
+            }
+        }
+    }
+
+    // Returns {@code true} if the current thread wrote to this database
+    // recently enough that it should read from the master.
+    private boolean isReadYourWrites() {
+        double duration = getReadYourWritesDuration();
+
+        if (duration > 0.0) {
+            Long lastWrite = lastWriteLocal.get();
+
+            if (lastWrite != null) {
+                if (System.currentTimeMillis() - lastWrite < duration * 1000.0) {
+                    return true;
+
+                } else {
+                    lastWriteLocal.remove();
+                }
+            }
+        }
+
+        return false;
+    }
+
     public String getCatalog() {
         return catalog;
     }
@@ -359,6 +754,23 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         this.cacheData = cacheData;
     }
 
+    /**
+     * Sets the maximum number of statement templates that are kept for
+     * reuse.
+     *
+     * @param size If less than or equal to {@code 0}, disables the
+     *        templates.
+     */
+    public void setStatementTemplateCacheSize(long size) {
+        this.statementTemplates = createStatementTemplates(size);
+    }
+
+    private static Cache<String, Optional<SqlQuery.StatementTemplate>> createStatementTemplates(long size) {
+        return size > 0 ?
+                CacheBuilder.newBuilder().maximumSize(size).<String, Optional<SqlQuery.StatementTemplate>>build() :
+                null;
+    }
+
     public boolean isEnableReplicationCache() {
         return enableReplicationCache;
     }
@@ -661,11 +1073,22 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         setDataSource(null);
         setReadDataSource(null);
 
+        for (SqlReadReplica replica : getReadReplicas()) {
+            if (replica.getDataSource() instanceof BoneCPDataSource) {
+                LOGGER.info("Closing BoneCP [{}] read replica data source in {}", replica, getName());
+                ((BoneCPDataSource) replica.getDataSource()).close();
+            }
+        }
+
+        setReadReplicas(null);
+
         if (mysqlBinaryLogReader != null) {
             LOGGER.info("Stopping MySQL binary log reader");
             mysqlBinaryLogReader.stop();
             mysqlBinaryLogReader = null;
         }
+
+        changeFeed.stop();
     }
 
     /**
@@ -673,7 +1096,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
      * objects matching the given {@code query}.
      */
     public String buildCountStatement(Query<?> query) {
-        return new SqlQuery(this, query).countStatement();
+        return buildStatement(query, true);
     }
 
     /**
@@ -709,7 +1132,55 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
      * matching the given {@code query}.
      */
     public String buildSelectStatement(Query<?> query) {
-        return new SqlQuery(this, query).selectStatement();
+        return buildStatement(query, false);
+    }
+
+    /**
+     * Builds the count or the select statement for the given
+     * {@code query}. The statement is built once for all queries of
+     * the same shape, as in the types, the predicate structure, the
+     * sorters, and the options, and only the comparison values are
+     * filled in for each query.
+     */
+    private String buildStatement(Query<?> query, boolean count) {
+        Stats.Timer timer = STATS.startTimer();
+        Cache<String, Optional<SqlQuery.StatementTemplate>> templates = statementTemplates;
+        Date typesUpdate = getEnvironment().getLastTypesUpdate();
+        String key = null;
+
+        if (templates != null && typesUpdate != null) {
+            key = SqlQuery.getTemplateKey(count ? "count" : "select", query);
+        }
+
+        if (key != null) {
+            key = typesUpdate.getTime() + "\0" + key;
+            Optional<SqlQuery.StatementTemplate> template = templates.getIfPresent(key);
+            String operation = TEMPLATE_STATEMENT_STATS_OPERATION;
+
+            if (template == null) {
+                template = Optional.fromNullable(new SqlQuery(this, query).createTemplate(count));
+                operation = BUILD_STATEMENT_STATS_OPERATION;
+                templates.put(key, template);
+            }
+
+            if (template.isPresent()) {
+                try {
+                    return template.get().render(query);
+
+                } finally {
+                    timer.stop(operation);
+                }
+            }
+        }
+
+        try {
+            SqlQuery sqlQuery = new SqlQuery(this, query);
+
+            return count ? sqlQuery.countStatement() : sqlQuery.selectStatement();
+
+        } finally {
+            timer.stop(BUILD_STATEMENT_STATS_OPERATION);
+        }
     }
 
     // Closes all the given SQL resources safely.
@@ -760,35 +1231,52 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             }
         }
 
-        byte[] dataBytes = ObjectUtils.toJson(values).getBytes(StringUtils.UTF_8);
+        byte[] dataBytes = ObjectUtils.toJsonBytes(values);
 
         if (isCompressData()) {
-            byte[] compressed = new byte[Snappy.maxCompressedLength(dataBytes.length)];
-            int compressedLength = Snappy.compress(dataBytes, 0, dataBytes.length, compressed, 0);
+            byte[] compressed = new byte[Snappy.maxCompressedLength(dataBytes.length) + 1];
 
-            dataBytes = new byte[compressedLength + 1];
-            dataBytes[0] = 's';
-            System.arraycopy(compressed, 0, dataBytes, 1, compressedLength);
+            compressed[0] = 's';
+            dataBytes = Arrays.copyOf(compressed, Snappy.compress(dataBytes, 0, dataBytes.length, compressed, 1) + 1);
         }
 
         return dataBytes;
     }
 
+    // Reused by each thread to uncompress the data unless it had to grow
+    // past MAXIMUM_UNCOMPRESSED_BUFFER_SIZE.
+    private static final int MAXIMUM_UNCOMPRESSED_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> UNCOMPRESSED_BUFFER = new ThreadLocal<byte[]>();
+
     @SuppressWarnings("unchecked")
     protected static Map<String, Object> unserializeData(byte[] dataBytes) {
-        char format = '\0';
+        char format = dataBytes.length > 0 ? (char) dataBytes[0] : '\0';
 
-        while (true) {
-            format = (char) dataBytes[0];
+        if (format == '{') {
+            return (Map<String, Object>) ObjectUtils.fromJson(dataBytes);
+
+        } else if (format == 's') {
+
+            // Uncompressed into a buffer that's parsed in place, since the
+            // parsed values don't refer to it.
+            int length = Snappy.getUncompressedLength(dataBytes, 1);
+            byte[] buffer = UNCOMPRESSED_BUFFER.get();
+
+            if (buffer == null || buffer.length < length) {
+                buffer = new byte[length];
+
+                if (length <= MAXIMUM_UNCOMPRESSED_BUFFER_SIZE) {
+                    UNCOMPRESSED_BUFFER.set(buffer);
+                }
+            }
 
-            if (format == 's') {
-                dataBytes = Snappy.uncompress(dataBytes, 1, dataBytes.length - 1);
+            Snappy.uncompress(dataBytes, 1, dataBytes.length - 1, buffer, 0);
 
-            } else if (format == '{') {
-                return (Map<String, Object>) ObjectUtils.fromJson(dataBytes);
+            if (length > 0 && buffer[0] == '{') {
+                return (Map<String, Object>) ObjectUtils.fromJson(buffer, 0, length);
 
             } else {
-                break;
+                return unserializeData(Arrays.copyOf(buffer, length));
             }
         }
 
@@ -797,6 +1285,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     }
 
     private final transient Cache<String, byte[]> dataCache = CacheBuilder.newBuilder().maximumSize(10000).build();
+    private final transient Cache<String, long[]> countCache = CacheBuilder.newBuilder().maximumSize(1000).build();
 
     private class ConnectionRef {
 
@@ -1546,6 +2035,40 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
     @Override
     protected Connection doOpenReadConnection() {
+        List<SqlReadReplica> replicas = getReadReplicas();
+
+        if (!replicas.isEmpty()) {
+            if (isReadYourWrites()) {
+                return openConnection();
+            }
+
+            SqlReadReplica replica = selectReadReplica(replicas);
+
+            if (replica != null) {
+                try {
+                    Connection connection = getConnectionFromDataSource(replica.getDataSource());
+
+                    connection.setReadOnly(true);
+                    replica.setAvailable(true);
+                    replica.opened();
+
+                    return (Connection) Proxy.newProxyInstance(
+                            Connection.class.getClassLoader(),
+                            new Class<?>[] { Connection.class },
+                            new ReplicaConnectionHandler(connection, replica));
+
+                } catch (SQLException error) {
+                    LOGGER.warn(String.format("Can't connect to [%s] read replica in [%s]!", replica, getName()), error);
+                    replica.setAvailable(false);
+                }
+            }
+
+            return openConnection();
+
+        } else if (isReadYourWrites()) {
+            return openConnection();
+        }
+
         DataSource readDataSource = getReadDataSource();
 
         if (readDataSource == null) {
@@ -1678,19 +2201,87 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         setCacheData(ObjectUtils.to(boolean.class, settings.get(CACHE_DATA_SUB_SETTING)));
         setEnableReplicationCache(ObjectUtils.to(boolean.class, settings.get(ENABLE_REPLICATION_CACHE_SUB_SETTING)));
 
-        if (isEnableReplicationCache() &&
-                vendor instanceof SqlVendor.MySQL &&
-                (mysqlBinaryLogReader == null ||
-                !mysqlBinaryLogReader.isRunning())) {
+        Long statementTemplateCacheSize = ObjectUtils.to(Long.class, settings.get(STATEMENT_TEMPLATE_CACHE_SIZE_SUB_SETTING));
+        if (statementTemplateCacheSize != null) {
+            setStatementTemplateCacheSize(statementTemplateCacheSize);
+        }
+
+        String readBalancing = ObjectUtils.to(String.class, settings.get(READ_BALANCING_SUB_SETTING));
+        if (!ObjectUtils.isBlank(readBalancing)) {
             try {
-                LOGGER.info("Starting MySQL binary log reader");
-                mysqlBinaryLogReader = new MySQLBinaryLogReader(replicationCache, ObjectUtils.firstNonNull(getReadDataSource(), getDataSource()));
-                mysqlBinaryLogReader.start();
+                setReadBalancing(ReadBalancing.valueOf(readBalancing.trim().toUpperCase(Locale.ENGLISH)));
 
             } catch (IllegalArgumentException error) {
-                setEnableReplicationCache(false);
-                LOGGER.warn("Can't start MySQL binary log reader!", error);
+                throw new SettingsException(
+                        READ_BALANCING_SUB_SETTING,
+                        String.format("[%s] isn't one of %s!",
+                        readBalancing, Arrays.asList(ReadBalancing.values())));
+            }
+        }
+
+        Double maximumReplicaLag = ObjectUtils.to(Double.class, settings.get(MAXIMUM_REPLICA_LAG_SUB_SETTING));
+        if (maximumReplicaLag != null) {
+            setMaximumReplicaLag(maximumReplicaLag);
+        }
+
+        Double readYourWritesDuration = ObjectUtils.to(Double.class, settings.get(READ_YOUR_WRITES_DURATION_SUB_SETTING));
+        if (readYourWritesDuration != null) {
+            setReadYourWritesDuration(readYourWritesDuration);
+        }
+
+        Double replicaProbeInterval = ObjectUtils.to(Double.class, settings.get(REPLICA_PROBE_INTERVAL_SUB_SETTING));
+        if (replicaProbeInterval != null) {
+            setReplicaProbeInterval(replicaProbeInterval);
+        }
+
+        Object readReplicasSettings = settings.get(READ_REPLICAS_SUB_SETTING);
+        if (readReplicasSettings instanceof Map) {
+            List<SqlReadReplica> readReplicas = new ArrayList<SqlReadReplica>();
+
+            for (Map.Entry<?, ?> entry : new TreeMap<Object, Object>((Map<?, ?>) readReplicasSettings).entrySet()) {
+                String replicaName = String.valueOf(entry.getKey());
+                Object replicaSettings = entry.getValue();
+
+                if (!(replicaSettings instanceof Map)) {
+                    continue;
+                }
+
+                @SuppressWarnings("unchecked")
+                Map<String, Object> replicaSettingsMap = (Map<String, Object>) replicaSettings;
+                DataSource replicaDataSource = createDataSource(
+                        replicaSettingsMap,
+                        DATA_SOURCE_SETTING,
+                        JDBC_DRIVER_CLASS_SETTING,
+                        JDBC_URL_SETTING,
+                        JDBC_USER_SETTING,
+                        JDBC_PASSWORD_SETTING,
+                        JDBC_POOL_SIZE_SETTING);
+
+                if (replicaDataSource == null) {
+                    throw new SettingsException(
+                            READ_REPLICAS_SUB_SETTING + "/" + replicaName,
+                            "No data source or JDBC URL!");
+                }
+
+                Integer weight = ObjectUtils.to(Integer.class, replicaSettingsMap.get(READ_REPLICA_WEIGHT_SUB_SETTING));
+
+                readReplicas.add(new SqlReadReplica(
+                        replicaName,
+                        replicaDataSource,
+                        weight != null ? weight : SqlReadReplica.DEFAULT_WEIGHT));
             }
+
+            setReadReplicas(readReplicas);
+        }
+
+        Integer changeFeedSize = ObjectUtils.to(Integer.class, settings.get(CHANGE_FEED_SIZE_SUB_SETTING));
+        if (changeFeedSize != null) {
+            setChangeFeedSize(changeFeedSize);
+        }
+
+        if ((isEnableReplicationCache() || changeFeed.hasListeners()) &&
+                vendor instanceof SqlVendor.MySQL) {
+            startMySQLBinaryLogReader();
         }
     }
 
@@ -1851,7 +2442,11 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
     @Override
     public long readCount(Query<?> query) {
-        String sqlQuery = buildCountStatement(query);
+        return selectCount(buildCountStatement(query), query);
+    }
+
+    // Runs the given count statement.
+    private long selectCount(String sqlQuery, Query<?> query) {
         Connection connection = null;
         Statement statement = null;
         ResultSet result = null;
@@ -2061,18 +2656,29 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
         } else {
             objects.remove(size - 1);
+            final long minimumCount = offset + size;
+
             return new PaginatedResult<T>(offset, limit, 0, objects) {
 
                 private Long count;
+                private CountMode countMode;
 
                 @Override
                 public long getCount() {
                     if (count == null) {
-                        count = readCount(query);
+                        ModeCount modeCount = readCountWithStrategy(query, minimumCount);
+                        countMode = modeCount.mode;
+                        count = modeCount.count;
                     }
                     return count;
                 }
 
+                @Override
+                public CountMode getCountMode() {
+                    getCount();
+                    return countMode;
+                }
+
                 @Override
                 public boolean hasNext() {
                     return true;
@@ -2081,6 +2687,98 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         }
     }
 
+    /**
+     * Counts the objects matching the given {@code query} using its
+     * {@linkplain Query#getCountStrategy count strategy}.
+     *
+     * @param minimumCount Known number of matching objects, used as the
+     *        lower bound of a capped count or an estimate.
+     * @return Never {@code null}.
+     */
+    private ModeCount readCountWithStrategy(Query<?> query, long minimumCount) {
+        CountStrategy strategy = query.getCountStrategy();
+
+        switch (strategy.getMode()) {
+            case CAPPED :
+                long limit = strategy.getLimit();
+                Query<?> cappedQuery = query.clone();
+
+                cappedQuery.setSorters(null);
+                cappedQuery.setFields(Collections.<String>emptyList());
+
+                long capped = selectCount(
+                        "SELECT COUNT(*) FROM (" +
+                        vendor.rewriteQueryWithLimitClause(buildSelectStatement(cappedQuery), (int) Math.min(limit + 1, Integer.MAX_VALUE), 0L) +
+                        ") c",
+                        query);
+
+                // Pages past the limit already show that there are more.
+                capped = Math.max(capped, minimumCount);
+
+                return new ModeCount(
+                        capped,
+                        capped > limit ? PaginatedResult.CountMode.CAPPED : PaginatedResult.CountMode.EXACT);
+
+            case ESTIMATED :
+                Query<?> estimatedQuery = query.clone();
+
+                estimatedQuery.setSorters(null);
+                estimatedQuery.setFields(Collections.<String>emptyList());
+
+                String sqlQuery = buildSelectStatement(estimatedQuery);
+                Connection connection = null;
+                Long estimate;
+
+                try {
+                    connection = openQueryConnection(query);
+                    estimate = vendor.estimateCount(connection, sqlQuery);
+
+                } catch (SQLException error) {
+                    throw createQueryException(error, sqlQuery, query);
+
+                } finally {
+                    closeResources(query, connection, null, null);
+                }
+
+                if (estimate != null) {
+                    return new ModeCount(Math.max(estimate, minimumCount), PaginatedResult.CountMode.ESTIMATED);
+                }
+
+                break;
+
+            case CACHED :
+                String countStatement = buildCountStatement(query);
+                long now = System.currentTimeMillis();
+                long[] cached = countCache.getIfPresent(countStatement);
+
+                if (cached != null && cached[1] > now) {
+                    return new ModeCount(cached[0], PaginatedResult.CountMode.CACHED);
+                }
+
+                long count = selectCount(countStatement, query);
+
+                countCache.put(countStatement, new long[] { count, now + strategy.getTtl() });
+                return new ModeCount(count, PaginatedResult.CountMode.EXACT);
+
+            default :
+                break;
+        }
+
+        return new ModeCount(readCount(query), PaginatedResult.CountMode.EXACT);
+    }
+
+    // Count along with the mode that produced it.
+    private static class ModeCount {
+
+        public final long count;
+        public final PaginatedResult.CountMode mode;
+
+        public ModeCount(long count, PaginatedResult.CountMode mode) {
+            this.count = count;
+            this.mode = mode;
+        }
+    }
+
     @Override
     public <T> PaginatedResult<Grouping<T>> readPartialGrouped(Query<T> query, long offset, int limit, String... fields) {
         for (String field : fields) {
@@ -2318,6 +3016,15 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         connection.commit();
     }
 
+    // Group commits run on the leader's thread, so the writes are
+    // recorded here instead of in commitTransaction.
+    @Override
+    protected void afterWrites(boolean isImmediate) {
+        if (getReadYourWritesDuration() > 0.0) {
+            lastWriteLocal.set(System.currentTimeMillis());
+        }
+    }
+
     @Override
     protected void rollbackTransaction(Connection connection, boolean isImmediate) throws SQLException {
         connection.rollback();
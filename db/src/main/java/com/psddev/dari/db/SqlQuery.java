@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -26,6 +27,15 @@ import com.psddev.dari.util.ObjectUtils;
 class SqlQuery {
 
     private static final Pattern QUERY_KEY_PATTERN = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final char SLOT_MARKER = '\0';
+
+    private static final String[] TEMPLATE_KEY_OPTIONS = {
+            SqlDatabase.EXTRA_COLUMNS_QUERY_OPTION,
+            SqlDatabase.EXTRA_JOINS_QUERY_OPTION,
+            SqlDatabase.EXTRA_WHERE_QUERY_OPTION,
+            SqlDatabase.EXTRA_HAVING_QUERY_OPTION,
+            SqlDatabase.MYSQL_INDEX_HINT_QUERY_OPTION,
+            State.UNRESOLVED_TYPE_IDS_QUERY_OPTION };
     //private static final Logger LOGGER = LoggerFactory.getLogger(SqlQuery.class);
 
     private final SqlDatabase database;
@@ -72,6 +82,10 @@ class SqlQuery {
     private final List<Predicate> havingPredicates = new ArrayList<Predicate>();
     private final List<Predicate> parentHavingPredicates = new ArrayList<Predicate>();
 
+    private Map<ComparisonPredicate, Integer> templateComparisons;
+    private List<ValueSlot> templateSlots;
+    private boolean templateUnsupported;
+
     /**
      * Creates an instance that can translate the given {@code query}
      * with the given {@code database}.
@@ -649,6 +663,8 @@ class SqlQuery {
 
                 // e.g. field IN (SELECT ...)
                 if (valueQuery != null) {
+                    templateUnsupported = true;
+
                     if (isNotEqualsAll || isFieldCollection) {
                         needsDistinct = true;
                     }
@@ -671,7 +687,11 @@ class SqlQuery {
                     return;
                 }
 
+                int valueIndex = -1;
+
                 for (Object value : comparisonPredicate.resolveValues(database)) {
+                    ++ valueIndex;
+
                     if (value == null) {
                         ++ subClauseCount;
                         comparisonBuilder.append("0 = 1");
@@ -722,10 +742,10 @@ class SqlQuery {
                             comparisonBuilder.append(joinValueField);
                             if (join.likeValuePrefix != null) {
                                 comparisonBuilder.append(" NOT LIKE ");
-                                join.appendValue(comparisonBuilder, comparisonPredicate, join.likeValuePrefix + database.getSymbolId(value.toString()) + ";%");
+                                appendComparisonValue(comparisonBuilder, join, comparisonPredicate, valueIndex, ValueFormat.SYMBOL, value);
                             } else {
                                 comparisonBuilder.append(" != ");
-                                join.appendValue(comparisonBuilder, comparisonPredicate, value);
+                                appendComparisonValue(comparisonBuilder, join, comparisonPredicate, valueIndex, ValueFormat.PLAIN, value);
                             }
                             comparisonBuilder.append(')');
 
@@ -733,10 +753,10 @@ class SqlQuery {
                             comparisonBuilder.append(joinValueField);
                             if (join.likeValuePrefix != null) {
                                 comparisonBuilder.append(" LIKE ");
-                                join.appendValue(comparisonBuilder, comparisonPredicate, join.likeValuePrefix + database.getSymbolId(value.toString()) + ";%");
+                                appendComparisonValue(comparisonBuilder, join, comparisonPredicate, valueIndex, ValueFormat.SYMBOL, value);
                             } else {
                                 comparisonBuilder.append(" = ");
-                                join.appendValue(comparisonBuilder, comparisonPredicate, value);
+                                appendComparisonValue(comparisonBuilder, join, comparisonPredicate, valueIndex, ValueFormat.PLAIN, value);
                             }
                         }
                     }
@@ -765,6 +785,8 @@ class SqlQuery {
 
                 // e.g. field startsWith (SELECT ...)
                 if (valueQuery != null) {
+                    templateUnsupported = true;
+
                     if (isFieldCollection) {
                         needsDistinct = true;
                     }
@@ -786,7 +808,14 @@ class SqlQuery {
 
                 // e.g. field OP value1 OR field OP value2 OR ... field OP value#
                 if (sqlOperator != null) {
+                    ValueFormat valueFormat =
+                            isStartsWith ? ValueFormat.STARTS_WITH :
+                            isContains ? ValueFormat.CONTAINS :
+                            ValueFormat.PLAIN;
+                    int valueIndex = -1;
+
                     for (Object value : comparisonPredicate.resolveValues(database)) {
+                        ++ valueIndex;
                         ++ subClauseCount;
 
                         if (value == null) {
@@ -817,12 +846,7 @@ class SqlQuery {
                             comparisonBuilder.append(' ');
                             comparisonBuilder.append(sqlOperator);
                             comparisonBuilder.append(' ');
-                            if (isStartsWith) {
-                                value = value.toString() + "%";
-                            } else if (isContains) {
-                                value = "%" + value.toString() + "%";
-                            }
-                            join.appendValue(comparisonBuilder, comparisonPredicate, value);
+                            appendComparisonValue(comparisonBuilder, join, comparisonPredicate, valueIndex, valueFormat, value);
                         }
 
                         comparisonBuilder.append(" OR  ");
@@ -1710,6 +1734,312 @@ class SqlQuery {
         return statementBuilder.toString();
     }
 
+    /**
+     * Returns the key that identifies the shape of the given {@code query},
+     * which is everything that the statement of the given
+     * {@code statementType} depends on other than the comparison values.
+     *
+     * @return {@code null} if the statement can't be built from a
+     *         template.
+     */
+    static String getTemplateKey(String statementType, Query<?> query) {
+        StringBuilder key = new StringBuilder();
+
+        key.append(statementType);
+        key.append('\0');
+        key.append(query.getGroup());
+        key.append('\0');
+        key.append(query.isFromAll());
+        key.append('\0');
+        key.append(query.getFields());
+
+        for (Sorter sorter : query.getSorters()) {
+            String operator = sorter.getOperator();
+
+            if (Sorter.CLOSEST_OPERATOR.equals(operator) ||
+                    Sorter.FARTHEST_OPERATOR.equals(operator)) {
+                return null;
+            }
+
+            key.append('\0');
+            key.append(sorter);
+        }
+
+        Map<String, Object> options = query.getOptions();
+
+        for (String option : TEMPLATE_KEY_OPTIONS) {
+            key.append('\0');
+            key.append(options.get(option));
+        }
+
+        key.append('\0');
+        return appendTemplateKey(key, query.getPredicate()) ? key.toString() : null;
+    }
+
+    // Appends the structure of the given predicate, including the kinds
+    // of values that change the statement.
+    private static boolean appendTemplateKey(StringBuilder key, Predicate predicate) {
+        if (predicate == null) {
+            return true;
+
+        } else if (predicate instanceof CompoundPredicate) {
+            key.append(predicate.getOperator());
+            key.append('(');
+
+            for (Predicate child : ((CompoundPredicate) predicate).getChildren()) {
+                if (!appendTemplateKey(key, child)) {
+                    return false;
+                }
+
+                key.append('\0');
+            }
+
+            key.append(')');
+            return true;
+
+        } else if (predicate instanceof ComparisonPredicate) {
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+
+            key.append(comparison.getKey());
+            key.append('\0');
+            key.append(comparison.getOperator());
+            key.append(comparison.isIgnoreCase() ? "\0i\0" : "\0\0");
+
+            for (Object value : comparison.getValues()) {
+                if (value == null) {
+                    key.append('n');
+
+                } else if (value == Query.MISSING_VALUE) {
+                    key.append('m');
+
+                } else if (value instanceof Query ||
+                        value instanceof Location ||
+                        value instanceof Region) {
+                    return false;
+
+                } else if (value instanceof Class) {
+                    key.append("c\0");
+                    key.append(((Class<?>) value).getName());
+                    key.append('\0');
+
+                } else {
+                    key.append('v');
+                }
+            }
+
+            return true;
+
+        } else {
+            return false;
+        }
+    }
+
+    // Collects all comparisons in the given predicate in a stable order.
+    private static void collectComparisons(Predicate predicate, List<ComparisonPredicate> comparisons) {
+        if (predicate instanceof CompoundPredicate) {
+            for (Predicate child : ((CompoundPredicate) predicate).getChildren()) {
+                collectComparisons(child, comparisons);
+            }
+
+        } else if (predicate instanceof ComparisonPredicate) {
+            comparisons.add((ComparisonPredicate) predicate);
+        }
+    }
+
+    /**
+     * Builds the {@linkplain #countStatement count} or the
+     * {@linkplain #selectStatement select} statement with the comparison
+     * values left out, so that it can be reused for all queries with the
+     * same {@linkplain #getTemplateKey key}.
+     *
+     * @return {@code null} if the statement depends on the comparison
+     *         values in some other way.
+     */
+    StatementTemplate createTemplate(boolean count) {
+        List<ComparisonPredicate> comparisons = new ArrayList<ComparisonPredicate>();
+
+        collectComparisons(query.getPredicate(), comparisons);
+
+        templateComparisons = new IdentityHashMap<ComparisonPredicate, Integer>();
+        templateSlots = new ArrayList<ValueSlot>();
+
+        for (int i = comparisons.size() - 1; i >= 0; -- i) {
+            templateComparisons.put(comparisons.get(i), i);
+        }
+
+        String statement = count ? countStatement() : selectStatement();
+
+        if (templateUnsupported ||
+                hasAnyDeferredMetricPredicates() ||
+                hasDeferredHavingPredicates() ||
+                !subSqlQueries.isEmpty()) {
+            return null;
+        }
+
+        List<String> parts = new ArrayList<String>();
+        List<ValueSlot> slots = new ArrayList<ValueSlot>();
+        int lastEnd = 0;
+
+        for (int start; (start = statement.indexOf(SLOT_MARKER, lastEnd)) > -1;) {
+            int end = statement.indexOf(SLOT_MARKER, start + 1);
+
+            if (end < 0) {
+                return null;
+            }
+
+            Integer slotIndex = ObjectUtils.to(Integer.class, statement.substring(start + 1, end));
+
+            if (slotIndex == null || slotIndex < 0 || slotIndex >= templateSlots.size()) {
+                return null;
+            }
+
+            parts.add(statement.substring(lastEnd, start));
+            slots.add(templateSlots.get(slotIndex));
+            lastEnd = end + 1;
+        }
+
+        parts.add(statement.substring(lastEnd));
+
+        return new StatementTemplate(parts, slots, new LinkedHashMap<String, String>(query.getExtraSourceColumns()));
+    }
+
+    // Appends the given comparison value, or a slot for it when building
+    // a template.
+    private void appendComparisonValue(
+            StringBuilder builder,
+            Join join,
+            ComparisonPredicate comparison,
+            int valueIndex,
+            ValueFormat format,
+            Object value) {
+
+        if (templateSlots != null) {
+            Integer comparisonIndex = templateComparisons.get(comparison);
+
+            if (comparisonIndex != null) {
+                builder.append(SLOT_MARKER);
+                builder.append(templateSlots.size());
+                builder.append(SLOT_MARKER);
+                templateSlots.add(new ValueSlot(join, comparison, comparisonIndex, valueIndex, format));
+                return;
+            }
+
+            templateUnsupported = true;
+        }
+
+        appendFormattedValue(builder, join, comparison, format, value);
+    }
+
+    private void appendFormattedValue(
+            StringBuilder builder,
+            Join join,
+            ComparisonPredicate comparison,
+            ValueFormat format,
+            Object value) {
+
+        switch (format) {
+            case STARTS_WITH :
+                value = value.toString() + "%";
+                break;
+
+            case CONTAINS :
+                value = "%" + value.toString() + "%";
+                break;
+
+            case SYMBOL :
+                value = join.likeValuePrefix + database.getSymbolId(value.toString()) + ";%";
+                break;
+
+            default :
+                break;
+        }
+
+        join.appendValue(builder, comparison, value);
+    }
+
+    /**
+     * SQL statement with the comparison values left out, created by
+     * {@link #createTemplate}.
+     */
+    class StatementTemplate {
+
+        private final String[] parts;
+        private final ValueSlot[] slots;
+        private final Map<String, String> extraSourceColumns;
+
+        public StatementTemplate(List<String> parts, List<ValueSlot> slots, Map<String, String> extraSourceColumns) {
+            this.parts = parts.toArray(new String[parts.size()]);
+            this.slots = slots.toArray(new ValueSlot[slots.size()]);
+            this.extraSourceColumns = extraSourceColumns;
+        }
+
+        /**
+         * Returns the statement for the given {@code otherQuery}, which
+         * must have the same {@linkplain #getTemplateKey key} as the
+         * query that this template was created from.
+         */
+        public String render(Query<?> otherQuery) {
+            List<ComparisonPredicate> comparisons = new ArrayList<ComparisonPredicate>();
+
+            collectComparisons(otherQuery.getPredicate(), comparisons);
+
+            List<List<Object>> values = new ArrayList<List<Object>>(comparisons.size());
+
+            for (ComparisonPredicate comparison : comparisons) {
+                values.add(comparison.resolveValues(database));
+            }
+
+            StringBuilder statement = new StringBuilder();
+
+            statement.append(parts[0]);
+
+            for (int i = 0, length = slots.length; i < length; ++ i) {
+                ValueSlot slot = slots[i];
+
+                appendFormattedValue(
+                        statement,
+                        slot.join,
+                        slot.comparison,
+                        slot.format,
+                        values.get(slot.comparisonIndex).get(slot.valueIndex));
+
+                statement.append(parts[i + 1]);
+            }
+
+            if (!extraSourceColumns.isEmpty()) {
+                otherQuery.getExtraSourceColumns().putAll(extraSourceColumns);
+            }
+
+            return statement.toString();
+        }
+    }
+
+    // How a comparison value is transformed before it's appended.
+    private enum ValueFormat {
+        PLAIN,
+        STARTS_WITH,
+        CONTAINS,
+        SYMBOL
+    }
+
+    // Where a comparison value goes in a template.
+    private static class ValueSlot {
+
+        public final Join join;
+        public final ComparisonPredicate comparison;
+        public final int comparisonIndex;
+        public final int valueIndex;
+        public final ValueFormat format;
+
+        public ValueSlot(Join join, ComparisonPredicate comparison, int comparisonIndex, int valueIndex, ValueFormat format) {
+            this.join = join;
+            this.comparison = comparison;
+            this.comparisonIndex = comparisonIndex;
+            this.valueIndex = valueIndex;
+            this.format = format;
+        }
+    }
+
     private enum JoinType {
 
         INNER("INNER JOIN"),
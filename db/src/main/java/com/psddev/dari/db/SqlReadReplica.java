@@ -0,0 +1,176 @@
+package com.psddev.dari.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import com.psddev.dari.util.ErrorUtils;
+
+/**
+ * Replica of a {@link SqlDatabase} that can be used for read operations.
+ *
+ * @see SqlDatabase#setReadReplicas
+ */
+public class SqlReadReplica {
+
+    public static final int DEFAULT_WEIGHT = 1;
+    public static final long DEFAULT_RETRY_DELAY = 10000L;
+
+    private final String name;
+    private final DataSource dataSource;
+    private final int weight;
+
+    private volatile boolean available = true;
+    private volatile long unavailableSince;
+    private volatile long retryDelay = DEFAULT_RETRY_DELAY;
+    private volatile Double lag;
+    private volatile long lastProbe;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong reads = new AtomicLong();
+
+    /**
+     * Creates an instance.
+     *
+     * @param name Can't be {@code null}.
+     * @param dataSource Can't be {@code null}.
+     * @param weight Relative share of the reads that this replica gets
+     *        with the {@linkplain SqlDatabase.ReadBalancing#WEIGHTED
+     *        weighted} balancing. Replicas with a weight less than or
+     *        equal to {@code 0} aren't used.
+     */
+    public SqlReadReplica(String name, DataSource dataSource, int weight) {
+        ErrorUtils.errorIfNull(name, "name");
+        ErrorUtils.errorIfNull(dataSource, "dataSource");
+
+        this.name = name;
+        this.dataSource = dataSource;
+        this.weight = weight;
+    }
+
+    /** Returns the name. */
+    public String getName() {
+        return name;
+    }
+
+    /** Returns the data source. */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /** Returns the weight. */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns {@code false} if the last attempt to connect to this
+     * replica failed. An unavailable replica is tried again after the
+     * {@linkplain #getRetryDelay retry delay}.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /** Sets whether this replica can be connected to. */
+    public void setAvailable(boolean available) {
+        if (!available) {
+            unavailableSince = System.currentTimeMillis();
+        }
+
+        this.available = available;
+    }
+
+    /**
+     * Returns how long, in milliseconds, to wait before trying an
+     * unavailable replica again, so that it's used again even if it's
+     * not {@linkplain SqlDatabase#setReplicaProbeInterval probed}.
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Sets how long, in milliseconds, to wait before trying an
+     * unavailable replica again.
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Returns how far behind, in seconds, this replica was when it was
+     * last probed.
+     *
+     * @return {@code null} if unknown.
+     */
+    public Double getLag() {
+        return lag;
+    }
+
+    /** Sets how far behind, in seconds, this replica is. */
+    public void setLag(Double lag) {
+        this.lag = lag;
+    }
+
+    /**
+     * Returns when this replica was last probed, in milliseconds since
+     * the epoch.
+     */
+    public long getLastProbe() {
+        return lastProbe;
+    }
+
+    void setLastProbe(long lastProbe) {
+        this.lastProbe = lastProbe;
+    }
+
+    /**
+     * Returns {@code true} if reads can be sent to this replica given
+     * the {@code maximumLag}.
+     *
+     * @param maximumLag In seconds. If less than or equal to {@code 0},
+     *        the lag isn't checked.
+     */
+    public boolean isUsable(double maximumLag) {
+        if (weight <= 0) {
+            return false;
+
+        // Tried again once the retry delay passes.
+        } else if (!available && System.currentTimeMillis() - unavailableSince < retryDelay) {
+            return false;
+
+        } else if (maximumLag > 0.0) {
+            Double lag = getLag();
+
+            return lag == null || lag <= maximumLag;
+
+        } else {
+            return true;
+        }
+    }
+
+    /** Returns the number of connections that are currently open. */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /** Returns the number of connections opened so far. */
+    public long getReads() {
+        return reads.get();
+    }
+
+    void opened() {
+        outstanding.incrementAndGet();
+        reads.incrementAndGet();
+    }
+
+    void closed() {
+        outstanding.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
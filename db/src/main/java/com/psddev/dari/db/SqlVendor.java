@@ -6,6 +6,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -17,11 +18,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.StringUtils;
 import com.psddev.dari.util.UuidUtils;
 
@@ -389,6 +393,28 @@ public class SqlVendor {
         return "/*__LIMIT_OFFSET__*/";
     }
 
+    /**
+     * Estimates the number of rows that the given {@code selectStatement}
+     * returns from the database statistics, without running it.
+     *
+     * @return {@code null} if this vendor can't estimate.
+     */
+    public Long estimateCount(Connection connection, String selectStatement) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Reads how far behind, in seconds, the replica that the given
+     * {@code connection} is connected to is.
+     *
+     * @return {@code null} if this vendor can't tell.
+     *         {@link Double#POSITIVE_INFINITY} if the replication is
+     *         broken.
+     */
+    public Double readReplicaLag(Connection connection) throws SQLException {
+        return null;
+    }
+
     /**
      * Creates a table using the given parameters.
      *
@@ -866,6 +892,89 @@ public class SqlVendor {
             return "mysql/schema-12.sql";
         }
 
+        // Uses Seconds_Behind_Master, which is NULL when the replication
+        // isn't running.
+        @Override
+        public Double readReplicaLag(Connection connection) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery("SHOW SLAVE STATUS");
+
+                try {
+                    if (result.next()) {
+                        Object lag = result.getObject("Seconds_Behind_Master");
+
+                        return lag instanceof Number ?
+                                ((Number) lag).doubleValue() :
+                                Double.POSITIVE_INFINITY;
+
+                    } else {
+                        return 0.0;
+                    }
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
+        // Multiplies the rows examined at each step of the plan, scaled by
+        // the percentage that the conditions are expected to keep.
+        @Override
+        public Long estimateCount(Connection connection, String selectStatement) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery("EXPLAIN " + selectStatement);
+
+                try {
+                    ResultSetMetaData meta = result.getMetaData();
+                    boolean hasFiltered = false;
+
+                    for (int i = 1, count = meta.getColumnCount(); i <= count; ++ i) {
+                        if ("filtered".equalsIgnoreCase(meta.getColumnLabel(i))) {
+                            hasFiltered = true;
+                            break;
+                        }
+                    }
+
+                    double estimate = 1.0;
+                    boolean estimated = false;
+
+                    while (result.next()) {
+                        Object rows = result.getObject("rows");
+
+                        if (rows instanceof Number) {
+                            double stepRows = ((Number) rows).doubleValue();
+
+                            if (hasFiltered) {
+                                Object filtered = result.getObject("filtered");
+
+                                if (filtered instanceof Number) {
+                                    stepRows *= ((Number) filtered).doubleValue() / 100.0;
+                                }
+                            }
+
+                            estimate *= Math.max(stepRows, 1.0);
+                            estimated = true;
+                        }
+                    }
+
+                    return estimated ? (long) Math.min(estimate, Long.MAX_VALUE) : null;
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
         @Override
         public void appendIdentifier(StringBuilder builder, String identifier) {
             builder.append('`');
@@ -1324,6 +1433,8 @@ public class SqlVendor {
 
     public static class PostgreSQL extends SqlVendor {
 
+        private static final Pattern PLAN_ROWS_PATTERN = Pattern.compile("\\brows=(\\d+)");
+
         @Override
         protected String getSetUpResourcePath() {
             return "postgres/schema-12.sql";
@@ -1346,6 +1457,58 @@ public class SqlVendor {
             builder.append("\"" + alias + "\"");
         }
 
+        // Compares the last replayed transaction to the current time,
+        // so an idle primary makes the lag look larger than it is.
+        @Override
+        public Double readReplicaLag(Connection connection) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery(
+                        "SELECT CASE WHEN pg_is_in_recovery()" +
+                        " THEN EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp())" +
+                        " ELSE 0 END");
+
+                try {
+                    return result.next() ? ObjectUtils.to(Double.class, result.getObject(1)) : null;
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
+        // Uses the rows that the planner expects at the top of the plan.
+        @Override
+        public Long estimateCount(Connection connection, String selectStatement) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery("EXPLAIN " + selectStatement);
+
+                try {
+                    if (result.next()) {
+                        Matcher rowsMatcher = PLAN_ROWS_PATTERN.matcher(String.valueOf(result.getObject(1)));
+
+                        if (rowsMatcher.find()) {
+                            return ObjectUtils.to(Long.class, rowsMatcher.group(1));
+                        }
+                    }
+
+                    return null;
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
         @Override
         protected void appendUuid(StringBuilder builder, UUID value) {
             builder.append("'" + value.toString() + "'");
@@ -1689,7 +1689,7 @@ public class State implements Map<String, Object> {
                     javaField.set(object, ObjectUtils.to(javaFieldType, value));
 
                 } else {
-                    javaField.set(object, CONVERTER.convert(javaFieldType, value));
+                    javaField.set(object, field.getJavaFieldConversion(CONVERTER, javaFieldType).convert(value));
                 }
 
             } catch (RuntimeException error) {
@@ -0,0 +1,413 @@
+package com.psddev.dari.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StringUtils;
+
+/**
+ * Resolved type definitions from a previous run, keyed by the class name
+ * and the hash of all class files that were used to produce them,
+ * including the annotations, the annotation processors and the field
+ * types, so that
+ * {@link DatabaseEnvironment} can skip initializing the types whose
+ * classes haven't changed.
+ */
+class TypeSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TypeSnapshot.class);
+
+    private static final int VERSION = 2;
+    private static final String VERSION_KEY = "version";
+    private static final String DATABASE_KEY = "database";
+    private static final String ROOT_TYPE_ID_KEY = "rootTypeId";
+    private static final String TYPES_KEY = "types";
+    private static final String HASH_KEY = "hash";
+    private static final String VALUES_KEY = "values";
+
+    private final File file;
+    private final String databaseName;
+    private final UUID rootTypeId;
+    private final Map<String, Map<String, Object>> entries = new HashMap<String, Map<String, Object>>();
+    private final Map<Class<?>, String> classHashes = new HashMap<Class<?>, String>();
+    private boolean changed;
+
+    /**
+     * Creates an instance backed by the given {@code file}, reading the
+     * previous snapshot if it exists and was created for the same
+     * database.
+     */
+    @SuppressWarnings("unchecked")
+    public TypeSnapshot(File file, String databaseName, UUID rootTypeId) {
+        this.file = file;
+        this.databaseName = databaseName;
+        this.rootTypeId = rootTypeId;
+
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            InputStream input = new GZIPInputStream(new FileInputStream(file));
+            Map<String, Object> snapshot;
+
+            try {
+                snapshot = (Map<String, Object>) ObjectUtils.fromJson(IoUtils.toByteArray(input));
+            } finally {
+                input.close();
+            }
+
+            if (snapshot != null &&
+                    ObjectUtils.to(int.class, snapshot.get(VERSION_KEY)) == VERSION &&
+                    ObjectUtils.equals(snapshot.get(DATABASE_KEY), databaseName) &&
+                    ObjectUtils.equals(snapshot.get(ROOT_TYPE_ID_KEY), String.valueOf(rootTypeId))) {
+                entries.putAll((Map<String, Map<String, Object>>) snapshot.get(TYPES_KEY));
+                LOGGER.info("Loaded [{}] type definitions from [{}]", entries.size(), file);
+            }
+
+        } catch (IOException error) {
+            LOGGER.warn(String.format("Can't read type snapshot from [%s]!", file), error);
+
+        } catch (RuntimeException error) {
+            LOGGER.warn(String.format("Can't parse type snapshot in [%s]!", file), error);
+        }
+    }
+
+    /**
+     * Returns the type definition values for the given {@code className}
+     * if they were produced from classes with the given {@code hash}.
+     *
+     * @return May be {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> get(String className, String hash) {
+        Map<String, Object> entry = entries.get(className);
+
+        return entry != null && hash != null && hash.equals(entry.get(HASH_KEY)) ?
+                (Map<String, Object>) entry.get(VALUES_KEY) :
+                null;
+    }
+
+    /**
+     * Normalizes the given {@code values} to the types that would be read
+     * back from JSON, so that they can be compared to the values in
+     * this snapshot.
+     */
+    public static Map<String, Object> normalize(Map<String, Object> values) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> normalized = (Map<String, Object>) ObjectUtils.fromJson(ObjectUtils.toJsonBytes(values));
+
+        return normalized;
+    }
+
+    /**
+     * Puts the type definition {@code values} for the given
+     * {@code className}, produced from classes with the given
+     * {@code hash}.
+     */
+    public void put(String className, String hash, Map<String, Object> values) {
+        if (hash == null) {
+            changed |= entries.remove(className) != null;
+
+        } else {
+            Map<String, Object> entry = new CompactMap<String, Object>();
+
+            entry.put(HASH_KEY, hash);
+            entry.put(VALUES_KEY, normalize(values));
+            changed |= !entry.equals(entries.put(className, entry));
+        }
+    }
+
+    /**
+     * Forgets the hashes of the class files that were read so far, so
+     * that the redefined classes are read again.
+     */
+    public void resetHashes() {
+        classHashes.clear();
+    }
+
+    /**
+     * Returns the hash of the class files for all given {@code classes}
+     * and all the classes that their definitions depend on.
+     *
+     * @return {@code null} if any of the class files can't be read.
+     * @see #collect
+     */
+    public String hash(List<Class<?>> classes) {
+        Set<Class<?>> collected;
+
+        try {
+            collected = collect(classes);
+
+        } catch (IllegalStateException error) {
+            return null;
+
+        } catch (LinkageError error) {
+            return null;
+        }
+
+        StringBuilder hashes = new StringBuilder();
+
+        for (Class<?> c : collected) {
+            if (!appendHash(hashes, c)) {
+                return null;
+            }
+        }
+
+        return digest(hashes.toString().getBytes(StringUtils.UTF_8));
+    }
+
+    /**
+     * Collects all given {@code classes} and the classes that their type
+     * definitions depend on: the superclasses and interfaces, the
+     * annotations on them and on their fields and methods, the classes
+     * referenced by those annotations, such as the annotation processors,
+     * and the types of the fields.
+     *
+     * <p>The classes referenced by the fields only contribute their own
+     * declaration, since that's all that's read from them.</p>
+     */
+    static Set<Class<?>> collect(List<Class<?>> classes) {
+        Map<Class<?>, Boolean> visited = new LinkedHashMap<Class<?>, Boolean>();
+
+        for (Class<?> c : classes) {
+            collect(visited, c, true);
+        }
+
+        return visited.keySet();
+    }
+
+    private static void collect(Map<Class<?>, Boolean> visited, Class<?> c, boolean members) {
+        while (c != null && c.isArray()) {
+            c = c.getComponentType();
+        }
+
+        if (c == null || c.isPrimitive() || c == Object.class) {
+            return;
+        }
+
+        // Visit again if only the declaration was collected before.
+        Boolean previous = visited.get(c);
+
+        if (previous != null && (previous || !members)) {
+            return;
+        }
+
+        visited.put(c, members);
+
+        // Classes in the JDK only change with it.
+        if (c.getClassLoader() == null) {
+            return;
+        }
+
+        collect(visited, c.getSuperclass(), members);
+
+        for (Class<?> i : c.getInterfaces()) {
+            collect(visited, i, members);
+        }
+
+        collectAnnotations(visited, c.getDeclaredAnnotations());
+
+        if (members) {
+            for (Field field : c.getDeclaredFields()) {
+                collectAnnotations(visited, field.getDeclaredAnnotations());
+                collectType(visited, field.getGenericType());
+            }
+
+            for (Method method : c.getDeclaredMethods()) {
+                collectAnnotations(visited, method.getDeclaredAnnotations());
+            }
+        }
+    }
+
+    private static void collectAnnotations(Map<Class<?>, Boolean> visited, Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            Class<? extends Annotation> annotationClass = annotation.annotationType();
+
+            collect(visited, annotationClass, false);
+
+            if (annotationClass.getClassLoader() == null) {
+                continue;
+            }
+
+            for (Method method : annotationClass.getDeclaredMethods()) {
+                Class<?> returnType = method.getReturnType();
+
+                if (returnType != Class.class && returnType != Class[].class) {
+                    continue;
+                }
+
+                Object value;
+
+                try {
+                    method.setAccessible(true);
+                    value = method.invoke(annotation);
+
+                } catch (IllegalAccessException error) {
+                    throw new IllegalStateException(error);
+
+                } catch (InvocationTargetException error) {
+                    throw new IllegalStateException(error.getCause());
+                }
+
+                if (value instanceof Class) {
+                    collect(visited, (Class<?>) value, false);
+
+                } else if (value instanceof Class[]) {
+                    for (Class<?> c : (Class<?>[]) value) {
+                        collect(visited, c, false);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void collectType(Map<Class<?>, Boolean> visited, Type type) {
+        if (type instanceof Class) {
+            collect(visited, (Class<?>) type, false);
+
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+
+            collectType(visited, parameterized.getRawType());
+
+            for (Type argument : parameterized.getActualTypeArguments()) {
+                collectType(visited, argument);
+            }
+
+        } else if (type instanceof GenericArrayType) {
+            collectType(visited, ((GenericArrayType) type).getGenericComponentType());
+
+        } else if (type instanceof WildcardType) {
+            WildcardType wildcard = (WildcardType) type;
+
+            for (Type bound : wildcard.getUpperBounds()) {
+                collectType(visited, bound);
+            }
+
+            for (Type bound : wildcard.getLowerBounds()) {
+                collectType(visited, bound);
+            }
+
+        // Only the raw bounds to avoid recursing into ones like
+        // T extends Comparable<T>.
+        } else if (type instanceof TypeVariable) {
+            for (Type bound : ((TypeVariable<?>) type).getBounds()) {
+                collectType(visited, bound instanceof ParameterizedType ? ((ParameterizedType) bound).getRawType() : bound);
+            }
+        }
+    }
+
+    private boolean appendHash(StringBuilder hashes, Class<?> c) {
+        String hash = classHashes.get(c);
+
+        if (hash == null) {
+            ClassLoader loader = c.getClassLoader();
+
+            // Classes in the JDK only change with it.
+            if (loader == null) {
+                hash = System.getProperty("java.version");
+
+            } else {
+                InputStream input = loader.getResourceAsStream(c.getName().replace('.', '/') + ".class");
+
+                if (input == null) {
+                    return false;
+                }
+
+                try {
+                    try {
+                        hash = digest(IoUtils.toByteArray(input));
+                    } finally {
+                        input.close();
+                    }
+
+                } catch (IOException error) {
+                    return false;
+                }
+            }
+
+            classHashes.put(c, hash);
+        }
+
+        hashes.append(c.getName());
+        hashes.append('=');
+        hashes.append(hash);
+        hashes.append(';');
+        return true;
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            return StringUtils.hex(MessageDigest.getInstance("SHA-1").digest(bytes));
+
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /** Writes this snapshot to its file if it changed. */
+    public void save() {
+        if (!changed) {
+            return;
+        }
+
+        Map<String, Object> snapshot = new CompactMap<String, Object>();
+
+        snapshot.put(VERSION_KEY, VERSION);
+        snapshot.put(DATABASE_KEY, databaseName);
+        snapshot.put(ROOT_TYPE_ID_KEY, String.valueOf(rootTypeId));
+        snapshot.put(TYPES_KEY, entries);
+
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        try {
+            IoUtils.createParentDirectories(tempFile);
+
+            OutputStream output = new GZIPOutputStream(new FileOutputStream(tempFile));
+
+            try {
+                output.write(ObjectUtils.toJsonBytes(snapshot));
+            } finally {
+                output.close();
+            }
+
+            IoUtils.delete(file);
+            IoUtils.rename(tempFile, file);
+            changed = false;
+            LOGGER.info("Saved [{}] type definitions to [{}]", entries.size(), file);
+
+        } catch (IOException error) {
+            LOGGER.warn(String.format("Can't write type snapshot to [%s]!", file), error);
+        }
+    }
+}
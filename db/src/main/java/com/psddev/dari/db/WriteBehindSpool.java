@@ -0,0 +1,409 @@
+package com.psddev.dari.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory-mapped file that holds pending writes until they're applied
+ * to the database.
+ *
+ * <p>Writes are {@linkplain #append appended} to the end of the file and
+ * {@linkplain #read read} back from the front in order. They're only
+ * removed when {@linkplain #acknowledge acknowledged}, so any writes that
+ * were pending when the process died are read again the next time the
+ * same file is opened.</p>
+ *
+ * <p>The data is written to the shared memory mapping, which survives
+ * a process crash but not necessarily an operating system crash, unless
+ * {@link #force} is called.</p>
+ */
+public class WriteBehindSpool implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindSpool.class);
+
+    private static final int MAGIC = 0x44574253;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final int WRITE_POSITION_OFFSET = 16;
+    private static final int ENTRY_HEADER_SIZE = 4 + 1 + 1 + 16 + 16;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+    private int reserved;
+
+    /**
+     * Opens the spool in the given {@code file}, creating it with the
+     * given {@code capacity} if it doesn't exist already.
+     *
+     * @param file Can't be {@code null}.
+     * @param capacity Size of the file in bytes. Ignored if the file
+     *        already exists.
+     * @throws IOException If the file can't be opened or isn't a spool.
+     */
+    public WriteBehindSpool(File file, int capacity) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File can't be null!");
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException(String.format("Can't create [%s]!", parent));
+        }
+
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            long size = exists ? randomAccessFile.length() : Math.max(capacity, HEADER_SIZE * 2);
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("[%s] is too large!", file));
+            }
+
+            this.file = file;
+            this.randomAccessFile = randomAccessFile;
+            this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            if (exists) {
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException(String.format("[%s] isn't a write-behind spool!", file));
+                }
+
+                readPosition = (int) buffer.getLong(READ_POSITION_OFFSET);
+                writePosition = (int) buffer.getLong(WRITE_POSITION_OFFSET);
+
+                if (readPosition < HEADER_SIZE || writePosition < readPosition || writePosition > size) {
+                    throw new IOException(String.format("[%s] is corrupt!", file));
+                }
+
+                if (writePosition > readPosition) {
+                    LOGGER.info("Found [{}] bytes of pending writes in [{}]", writePosition - readPosition, file);
+                }
+
+            } else {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                readPosition = HEADER_SIZE;
+                writePosition = HEADER_SIZE;
+                writePositions();
+            }
+
+        } catch (IOException error) {
+            randomAccessFile.close();
+            throw error;
+        }
+    }
+
+    /** Returns the file that backs this spool. */
+    public File getFile() {
+        return file;
+    }
+
+    /** Returns {@code true} if there aren't any pending writes. */
+    public synchronized boolean isEmpty() {
+        return readPosition == writePosition;
+    }
+
+    /** Returns the number of bytes used by the pending writes. */
+    public synchronized int getPendingSize() {
+        return writePosition - readPosition;
+    }
+
+    private void writePositions() {
+        buffer.putLong(READ_POSITION_OFFSET, readPosition);
+        buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    /**
+     * Appends all given {@code entries} to the end of this spool, waiting
+     * up to the given {@code timeout} for enough space to become available.
+     * Either all entries are appended or none are.
+     *
+     * @param entries Can't be {@code null}.
+     * @param timeout In milliseconds.
+     * @return {@code false} if there wasn't enough space before the
+     *         timeout.
+     */
+    public synchronized boolean append(List<Entry> entries, long timeout) throws InterruptedException {
+        if (!waitForSpace(getLength(entries), timeout)) {
+            return false;
+        }
+
+        write(entries);
+        return true;
+    }
+
+    /**
+     * Reserves the space for all given {@code entries}, waiting up to the
+     * given {@code timeout} for it to become available, so that they can
+     * be {@linkplain #appendReserved appended} later without waiting or
+     * failing. The space must be {@linkplain #release released} if they
+     * aren't appended.
+     *
+     * @param entries Can't be {@code null}.
+     * @param timeout In milliseconds.
+     * @return {@code false} if there wasn't enough space before the
+     *         timeout.
+     */
+    public synchronized boolean reserve(List<Entry> entries, long timeout) throws InterruptedException {
+        int length = getLength(entries);
+
+        if (!waitForSpace(length, timeout)) {
+            return false;
+        }
+
+        reserved += length;
+        return true;
+    }
+
+    /**
+     * Appends all given {@code entries}, which must have been
+     * {@linkplain #reserve reserved} together, to the end of this spool.
+     *
+     * @param entries Can't be {@code null}.
+     */
+    public synchronized void appendReserved(List<Entry> entries) {
+        reserved -= getLength(entries);
+        write(entries);
+    }
+
+    /**
+     * Releases the space {@linkplain #reserve reserved} for all given
+     * {@code entries} without appending them.
+     *
+     * @param entries Can't be {@code null}.
+     */
+    public synchronized void release(List<Entry> entries) {
+        reserved -= getLength(entries);
+        notifyAll();
+    }
+
+    private static int getLength(List<Entry> entries) {
+        int length = 0;
+
+        for (Entry entry : entries) {
+            length += entry.length;
+        }
+
+        return length;
+    }
+
+    // Waits until there's room for the given number of bytes after the
+    // pending and the reserved writes.
+    private boolean waitForSpace(int length, long timeout) throws InterruptedException {
+        if (HEADER_SIZE + length > buffer.capacity()) {
+            return false;
+        }
+
+        long end = System.currentTimeMillis() + timeout;
+
+        while (writePosition + reserved + length > buffer.capacity()) {
+            compact();
+
+            if (writePosition + reserved + length <= buffer.capacity()) {
+                break;
+            }
+
+            long wait = end - System.currentTimeMillis();
+
+            if (wait <= 0) {
+                return false;
+            }
+
+            wait(wait);
+        }
+
+        return true;
+    }
+
+    private void write(List<Entry> entries) {
+        for (Entry entry : entries) {
+            int position = writePosition;
+            byte[] data = entry.data;
+
+            buffer.putInt(position, entry.length);
+            buffer.put(position + 4, (byte) entry.operation.ordinal());
+            buffer.put(position + 5, (byte) (entry.isNew ? 1 : 0));
+            putUuid(position + 6, entry.id);
+            putUuid(position + 22, entry.typeId);
+            buffer.position(position + ENTRY_HEADER_SIZE);
+            buffer.put(data);
+
+            writePosition = position + entry.length;
+        }
+
+        // Only make the entries visible once they've been fully written.
+        writePositions();
+    }
+
+    // Moves the pending writes to the front of the file. Skipped if the
+    // copy would overwrite any of them, since the positions in the header
+    // must stay valid if the process dies in the middle.
+    private void compact() {
+        int pending = writePosition - readPosition;
+
+        if (readPosition - HEADER_SIZE < pending || readPosition == HEADER_SIZE) {
+            return;
+        }
+
+        if (pending > 0) {
+            byte[] pendingBytes = new byte[pending];
+
+            buffer.position(readPosition);
+            buffer.get(pendingBytes);
+            buffer.position(HEADER_SIZE);
+            buffer.put(pendingBytes);
+        }
+
+        readPosition = HEADER_SIZE;
+        writePosition = HEADER_SIZE + pending;
+        writePositions();
+    }
+
+    private void putUuid(int position, UUID uuid) {
+        buffer.putLong(position, uuid != null ? uuid.getMostSignificantBits() : 0L);
+        buffer.putLong(position + 8, uuid != null ? uuid.getLeastSignificantBits() : 0L);
+    }
+
+    private UUID getUuid(int position) {
+        long most = buffer.getLong(position);
+        long least = buffer.getLong(position + 8);
+
+        return most == 0L && least == 0L ? null : new UUID(most, least);
+    }
+
+    /**
+     * Reads at most the given {@code limit} number of pending writes
+     * from the front of this spool without removing them.
+     *
+     * @return Never {@code null}.
+     */
+    public synchronized List<Entry> read(int limit) {
+        List<Entry> entries = new ArrayList<Entry>();
+        WriteOperation[] operations = WriteOperation.values();
+
+        for (int position = readPosition; position < writePosition && entries.size() < limit;) {
+            int length = buffer.getInt(position);
+            int operationIndex = buffer.get(position + 4);
+            byte[] data = new byte[length - ENTRY_HEADER_SIZE];
+
+            buffer.position(position + ENTRY_HEADER_SIZE);
+            buffer.get(data);
+
+            entries.add(new Entry(
+                    operationIndex >= 0 && operationIndex < operations.length ? operations[operationIndex] : null,
+                    buffer.get(position + 5) != 0,
+                    getUuid(position + 6),
+                    getUuid(position + 22),
+                    data));
+
+            position += length;
+        }
+
+        return entries;
+    }
+
+    /**
+     * Removes the given {@code entries}, which must be the ones at the
+     * front of this spool, in order, as returned by {@link #read}.
+     */
+    public synchronized void acknowledge(List<Entry> entries) {
+        for (Entry entry : entries) {
+            readPosition += entry.length;
+        }
+
+        if (readPosition >= writePosition) {
+            readPosition = HEADER_SIZE;
+            writePosition = HEADER_SIZE;
+        }
+
+        writePositions();
+        notifyAll();
+    }
+
+    /**
+     * Forces all changes to be written to the storage device.
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        randomAccessFile.close();
+    }
+
+    /** Pending write in a {@link WriteBehindSpool}. */
+    public static final class Entry {
+
+        private final WriteOperation operation;
+        private final boolean isNew;
+        private final UUID id;
+        private final UUID typeId;
+        private final byte[] data;
+        private final int length;
+
+        /**
+         * Creates an instance.
+         *
+         * @param operation Can't be {@code null}.
+         * @param isNew {@code true} if the object has never been saved.
+         * @param id Can't be {@code null}.
+         * @param typeId May be {@code null}.
+         * @param data May be {@code null}.
+         */
+        public Entry(WriteOperation operation, boolean isNew, UUID id, UUID typeId, byte[] data) {
+            if (operation == null) {
+                throw new IllegalArgumentException("Operation can't be null!");
+            }
+            if (id == null) {
+                throw new IllegalArgumentException("ID can't be null!");
+            }
+
+            this.operation = operation;
+            this.isNew = isNew;
+            this.id = id;
+            this.typeId = typeId;
+            this.data = data != null ? data : new byte[0];
+            this.length = ENTRY_HEADER_SIZE + this.data.length;
+        }
+
+        public WriteOperation getOperation() {
+            return operation;
+        }
+
+        public boolean isNew() {
+            return isNew;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public UUID getTypeId() {
+            return typeId;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
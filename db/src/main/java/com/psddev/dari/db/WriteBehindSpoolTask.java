@@ -0,0 +1,353 @@
+package com.psddev.dari.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.Task;
+
+/**
+ * Applies the writes in a {@link WriteBehindSpool} in the background.
+ *
+ * <p>The writes are read in batches, with repeated writes to the same
+ * object combined, and applied in a single batch if possible. If that
+ * fails, they're applied one by one, and only the writes in front of the
+ * first failed one are removed from the spool, so that nothing is lost
+ * and the writes to each object stay in order. The rest are tried again
+ * later.</p>
+ *
+ * <p>If none of the writes can be applied, the target is assumed to be
+ * unavailable, and the batch is retried with an exponential backoff
+ * between {@code {settingPrefix}RetryInitialPause} (100 milliseconds by
+ * default) and {@code {settingPrefix}RetryFinalPause} (60 seconds by
+ * default) for as long as it takes.</p>
+ *
+ * <p>If the write at the front of the spool can't be read, or keeps
+ * failing {@code {settingPrefix}RetryLimit} times (10 by default) in a
+ * row while others succeed, it's moved to a dead-letter spool in the same
+ * directory, with {@code .dead} appended to the file name, and logged.</p>
+ */
+abstract class WriteBehindSpoolTask extends Task {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindSpoolTask.class);
+
+    private final String settingPrefix;
+    private int failures;
+    private UUID brokenId;
+    private int brokenFailures;
+    private boolean brokenConfirmed;
+    private long nextAttempt;
+    private WriteBehindSpool deadLetterSpool;
+
+    /**
+     * @param settingPrefix Prefix of the settings that control the
+     *        retries, such as {@code dari/databaseWriteBehind}.
+     */
+    protected WriteBehindSpoolTask(String executor, String name, String settingPrefix) {
+        super(executor, name);
+        this.settingPrefix = settingPrefix;
+    }
+
+    /** Returns the spool to apply the writes from. */
+    protected abstract WriteBehindSpool getSpool();
+
+    /** Returns the maximum number of writes that are read at once. */
+    protected abstract int getBatchSize();
+
+    /** Returns the environment used to create the spooled objects. */
+    protected abstract DatabaseEnvironment getSpooledEnvironment();
+
+    /**
+     * Applies the given writes together.
+     *
+     * @param saves Never {@code null}.
+     * @param indexes Never {@code null}.
+     * @param deletes Never {@code null}.
+     */
+    protected abstract void write(List<State> saves, List<State> indexes, List<State> deletes);
+
+    /**
+     * Returns the number of spooled writes to the object with the given
+     * {@code id}, counted from the front of the spool, that are obsolete
+     * and shouldn't be applied.
+     */
+    protected int getSuperseded(UUID id) {
+        return 0;
+    }
+
+    /**
+     * Called after the given {@code entry} is removed from the spool.
+     *
+     * @param skipped {@code true} if the entry wasn't applied because
+     *        it was {@linkplain #getSuperseded superseded}.
+     */
+    protected void acknowledged(WriteBehindSpool.Entry entry, boolean skipped) {
+    }
+
+    @Override
+    protected void doTask() {
+        if (System.currentTimeMillis() < nextAttempt) {
+            return;
+        }
+
+        WriteBehindSpool spool = getSpool();
+
+        while (spool != null && shouldContinue() && applyBatch(spool)) {
+            spool = getSpool();
+        }
+    }
+
+    /**
+     * Applies the next batch of writes in the given {@code spool}.
+     *
+     * @return {@code true} if there may be more writes to apply right
+     *         away.
+     */
+    protected boolean applyBatch(WriteBehindSpool spool) {
+        List<WriteBehindSpool.Entry> entries = spool.read(getBatchSize());
+
+        if (entries.isEmpty()) {
+            return false;
+        }
+
+        setProgressTotal(entries.size());
+
+        // Skips the obsolete writes at the front for each object.
+        Map<UUID, Integer> superseded = new HashMap<UUID, Integer>();
+        boolean[] skipped = new boolean[entries.size()];
+        Map<UUID, WriteBehindSpool.Entry> lastEntries = new LinkedHashMap<UUID, WriteBehindSpool.Entry>();
+
+        for (int i = 0, size = entries.size(); i < size; ++ i) {
+            WriteBehindSpool.Entry entry = entries.get(i);
+            UUID id = entry.getId();
+            Integer remaining = superseded.get(id);
+
+            if (remaining == null) {
+                remaining = getSuperseded(id);
+            }
+
+            if (remaining > 0) {
+                superseded.put(id, remaining - 1);
+                skipped[i] = true;
+                continue;
+            }
+
+            superseded.put(id, 0);
+
+            WriteBehindSpool.Entry lastEntry = lastEntries.get(id);
+
+            // Saves and deletes already update the indexes.
+            if (lastEntry != null &&
+                    entry.getOperation() == WriteOperation.INDEX &&
+                    lastEntry.getOperation() != WriteOperation.INDEX) {
+                continue;
+            }
+
+            lastEntries.remove(id);
+            lastEntries.put(id, entry);
+        }
+
+        List<WriteBehindSpool.Entry> writeEntries = new ArrayList<WriteBehindSpool.Entry>();
+        List<State> writeStates = new ArrayList<State>();
+        Set<UUID> failedIds = new HashSet<UUID>();
+        Set<UUID> unreadableIds = new HashSet<UUID>();
+        boolean applied = false;
+
+        for (WriteBehindSpool.Entry entry : lastEntries.values()) {
+            State state = createSpooledState(entry);
+
+            if (state == null) {
+                failedIds.add(entry.getId());
+                unreadableIds.add(entry.getId());
+
+            } else {
+                writeEntries.add(entry);
+                writeStates.add(state);
+            }
+        }
+
+        try {
+            if (!writeEntries.isEmpty()) {
+                apply(writeEntries, writeStates);
+                applied = true;
+            }
+
+        // Can't write in batch so try one by one.
+        } catch (RuntimeException error1) {
+            for (int i = 0, size = writeEntries.size(); i < size; ++ i) {
+                WriteBehindSpool.Entry entry = writeEntries.get(i);
+
+                try {
+                    apply(Arrays.asList(entry), Arrays.asList(writeStates.get(i)));
+                    applied = true;
+
+                } catch (RuntimeException error2) {
+                    failedIds.add(entry.getId());
+                    LOGGER.warn(String.format("Can't apply the spooled write to [%s] from [%s]!", entry.getId(), spool.getFile()), error2);
+                }
+            }
+        }
+
+        addProgressIndex(entries.size());
+
+        // Only the writes in front of the first failed one can be removed.
+        int acknowledgeSize = 0;
+
+        for (WriteBehindSpool.Entry entry : entries) {
+            if (failedIds.contains(entry.getId())) {
+                break;
+            }
+
+            ++ acknowledgeSize;
+        }
+
+        // Keeps track of the first failed write, which is only considered
+        // broken if the others went through at some point.
+        if (acknowledgeSize < entries.size()) {
+            UUID failedId = entries.get(acknowledgeSize).getId();
+
+            if (failedId.equals(brokenId)) {
+                ++ brokenFailures;
+
+            } else {
+                brokenId = failedId;
+                brokenFailures = 1;
+                brokenConfirmed = false;
+            }
+
+            if (applied || unreadableIds.contains(failedId)) {
+                brokenConfirmed = true;
+            }
+
+        } else {
+            brokenId = null;
+        }
+
+        if (acknowledgeSize > 0) {
+            acknowledge(spool, entries.subList(0, acknowledgeSize), skipped);
+            failures = 0;
+            nextAttempt = 0L;
+            return acknowledgeSize == entries.size();
+        }
+
+        WriteBehindSpool.Entry front = entries.get(0);
+
+        if (brokenConfirmed &&
+                (unreadableIds.contains(brokenId) ||
+                brokenFailures >= Settings.getOrDefault(int.class, settingPrefix + "RetryLimit", 10)) &&
+                moveToDeadLetter(spool, front)) {
+
+            acknowledge(spool, entries.subList(0, 1), skipped);
+            brokenId = null;
+            return true;
+        }
+
+        // The target is probably down, so try again later.
+        ++ failures;
+
+        long initialPause = Settings.getOrDefault(long.class, settingPrefix + "RetryInitialPause", 100L);
+        long finalPause = Settings.getOrDefault(long.class, settingPrefix + "RetryFinalPause", 60000L);
+        long pause = initialPause << Math.min(failures - 1, 30);
+
+        nextAttempt = System.currentTimeMillis() + Math.min(Math.max(pause, initialPause), finalPause);
+        return false;
+    }
+
+    private void apply(List<WriteBehindSpool.Entry> entries, List<State> states) {
+        List<State> saves = new ArrayList<State>();
+        List<State> indexes = new ArrayList<State>();
+        List<State> deletes = new ArrayList<State>();
+
+        for (int i = 0, size = entries.size(); i < size; ++ i) {
+            State state = states.get(i);
+
+            switch (entries.get(i).getOperation()) {
+                case DELETE :
+                    deletes.add(state);
+                    break;
+
+                case INDEX :
+                    indexes.add(state);
+                    break;
+
+                default :
+                    saves.add(state);
+                    break;
+            }
+        }
+
+        write(saves, indexes, deletes);
+    }
+
+    private void acknowledge(WriteBehindSpool spool, List<WriteBehindSpool.Entry> entries, boolean[] skipped) {
+        spool.acknowledge(entries);
+
+        for (int i = 0, size = entries.size(); i < size; ++ i) {
+            acknowledged(entries.get(i), skipped[i]);
+        }
+    }
+
+    private boolean moveToDeadLetter(WriteBehindSpool spool, WriteBehindSpool.Entry entry) {
+        File deadLetterFile = new File(spool.getFile().getPath() + ".dead");
+
+        try {
+            if (deadLetterSpool == null) {
+                deadLetterSpool = new WriteBehindSpool(deadLetterFile, WriteBehindSpool.DEFAULT_CAPACITY);
+            }
+
+            if (deadLetterSpool.append(Arrays.asList(entry), 0L)) {
+                deadLetterSpool.force();
+                LOGGER.error(
+                        "Moved the spooled [{}] write to [{}] of type [{}] to [{}] after [{}] failures!",
+                        new Object[] { entry.getOperation(), entry.getId(), entry.getTypeId(), deadLetterFile, brokenFailures });
+                return true;
+            }
+
+        } catch (IOException error) {
+            LOGGER.error(String.format("Can't open [%s]!", deadLetterFile), error);
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+
+        LOGGER.error("Can't move the spooled write to [{}] to [{}]!", entry.getId(), deadLetterFile);
+        return false;
+    }
+
+    private State createSpooledState(WriteBehindSpool.Entry entry) {
+        try {
+            State state = State.getInstance(getSpooledEnvironment().createObject(entry.getTypeId(), entry.getId()));
+            byte[] data = entry.getData();
+
+            if (data.length > 0) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> values = (Map<String, Object>) ObjectUtils.fromJson(data);
+
+                state.setValues(values);
+            }
+
+            if (!entry.isNew()) {
+                state.setStatus(StateStatus.SAVED);
+            }
+
+            return state;
+
+        } catch (RuntimeException error) {
+            LOGGER.warn(String.format("Can't read the spooled write to [%s]!", entry.getId()), error);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.SparseSet;
+
+public class AggregateDatabaseOutboxTest {
+
+    private TestDatabase defaultTestDatabase;
+    private TestDatabase secondaryTestDatabase;
+    private RecordingDatabase secondary;
+    private AggregateDatabase aggregate;
+    private File outboxFile;
+    private WriteBehindSpool outbox;
+
+    // The outbox writes are applied in another thread.
+    private void setRetryLimit(int retryLimit) {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+
+        CollectionUtils.putByPath(overrides, "dari/aggregateDatabaseOutboxRetryInitialPause", 10L);
+        CollectionUtils.putByPath(overrides, "dari/aggregateDatabaseOutboxRetryFinalPause", 50L);
+        CollectionUtils.putByPath(overrides, "dari/aggregateDatabaseOutboxRetryLimit", retryLimit);
+        CollectionUtils.putByPath(overrides, "dari/aggregateDatabaseOutboxTimeout", 100L);
+        Settings.putPermanentOverrides(AggregateDatabaseOutboxTest.class.getName(), overrides);
+    }
+
+    @Before
+    public void before() throws IOException {
+        setRetryLimit(10);
+
+        defaultTestDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        secondaryTestDatabase = DatabaseTestUtils.getSqlTestDatabase();
+
+        secondary = new RecordingDatabase();
+        secondary.setDelegate(secondaryTestDatabase.get());
+
+        aggregate = new AggregateDatabase();
+        aggregate.setName("JUnit Outbox Test");
+        aggregate.addDelegate(defaultTestDatabase.get(), new SparseSet("+/"));
+        aggregate.addDelegate(secondary, new SparseSet("+/"));
+        aggregate.setDefaultDelegate(defaultTestDatabase.get());
+
+        // Saves the types before counting the writes.
+        Query.from(OutboxItem.class).using(aggregate).first();
+        secondary.writes.set(0);
+
+        outboxFile = File.createTempFile("outbox", ".spool");
+        outboxFile.delete();
+        outbox = new WriteBehindSpool(outboxFile, 64 * 1024);
+    }
+
+    @After
+    public void after() throws IOException {
+        aggregate.setOutbox(secondary, null);
+        outbox.close();
+        outboxFile.delete();
+        defaultTestDatabase.close();
+        secondaryTestDatabase.close();
+        Settings.removePermanentOverrides(AggregateDatabaseOutboxTest.class.getName());
+    }
+
+    private OutboxItem save(String name) {
+        OutboxItem item = new OutboxItem();
+
+        item.getState().setDatabase(aggregate);
+        item.name = name;
+        item.save();
+        return item;
+    }
+
+    private OutboxItem readSecondary(OutboxItem item) {
+        return Query.from(OutboxItem.class).using(secondaryTestDatabase.get()).where("_id = ?", item.getId()).first();
+    }
+
+    private OutboxItem readDefault(OutboxItem item) {
+        return Query.from(OutboxItem.class).using(defaultTestDatabase.get()).where("_id = ?", item.getId()).master().noCache().first();
+    }
+
+    private void waitForOutbox() throws InterruptedException {
+        for (int i = 0; i < 100 && !outbox.isEmpty(); ++ i) {
+            Thread.sleep(100);
+        }
+
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    public void save_immediately() {
+        OutboxItem item = save("immediately");
+
+        assertEquals(1, secondary.writes.get());
+        assertEquals("immediately", readSecondary(item).name);
+    }
+
+    @Test
+    public void save_outbox() throws Exception {
+        aggregate.setOutbox(secondary, outbox);
+
+        OutboxItem item = save("outbox");
+
+        assertNotNull(Query.from(OutboxItem.class).using(defaultTestDatabase.get()).where("_id = ?", item.getId()).first());
+        waitForOutbox();
+        assertEquals("outbox", readSecondary(item).name);
+    }
+
+    @Test
+    public void save_combined() throws Exception {
+        secondary.failures.set(Integer.MAX_VALUE);
+        aggregate.setOutbox(secondary, outbox);
+
+        OutboxItem item = save("first");
+
+        item.name = "second";
+        item.save();
+
+        assertFalse(outbox.isEmpty());
+
+        int writes = secondary.writes.get();
+
+        secondary.failures.set(0);
+        waitForOutbox();
+        assertEquals(writes + 1, secondary.writes.get());
+        assertEquals("second", readSecondary(item).name);
+    }
+
+    @Test
+    public void delete_outbox() throws Exception {
+        aggregate.setOutbox(secondary, outbox);
+
+        OutboxItem item = save("delete");
+
+        waitForOutbox();
+        assertNotNull(readSecondary(item));
+
+        item.delete();
+        waitForOutbox();
+        assertNull(readSecondary(item));
+    }
+
+    @Test
+    public void batch_commit() throws Exception {
+        secondary.failures.set(Integer.MAX_VALUE);
+        aggregate.setOutbox(secondary, outbox);
+        aggregate.beginWrites();
+
+        OutboxItem item;
+
+        try {
+            item = save("commit");
+
+            assertTrue(outbox.isEmpty());
+            aggregate.commitWrites();
+            assertFalse(outbox.isEmpty());
+
+        } finally {
+            aggregate.endWrites();
+        }
+
+        secondary.failures.set(0);
+        waitForOutbox();
+        assertEquals("commit", readSecondary(item).name);
+    }
+
+    @Test
+    public void batch_rollback() {
+        aggregate.setOutbox(secondary, outbox);
+        aggregate.beginWrites();
+
+        try {
+            save("rollback");
+
+        } finally {
+            aggregate.endWrites();
+        }
+
+        assertTrue(outbox.isEmpty());
+        assertEquals(0, secondary.writes.get());
+    }
+
+    @Test
+    public void failedWrite_retained() throws Exception {
+        setRetryLimit(1000);
+        secondary.failName = "fail";
+        aggregate.setOutbox(secondary, outbox);
+
+        OutboxItem good1 = save("good1");
+        OutboxItem failing = save("fail");
+        OutboxItem good2 = save("good2");
+
+        for (int i = 0; i < 100 && readSecondary(good2) == null; ++ i) {
+            Thread.sleep(100);
+        }
+
+        assertNotNull(readSecondary(good1));
+        assertNotNull(readSecondary(good2));
+        assertNull(readSecondary(failing));
+        assertFalse(outbox.isEmpty());
+
+        secondary.failName = null;
+        waitForOutbox();
+        assertEquals("fail", readSecondary(failing).name);
+    }
+
+    @Test
+    public void unavailable_retained() throws Exception {
+        setRetryLimit(2);
+        secondary.failures.set(Integer.MAX_VALUE);
+        aggregate.setOutbox(secondary, outbox);
+
+        OutboxItem item = save("unavailable");
+
+        Thread.sleep(2000);
+        assertFalse(outbox.isEmpty());
+
+        secondary.failures.set(0);
+        waitForOutbox();
+        assertEquals("unavailable", readSecondary(item).name);
+    }
+
+    @Test
+    public void batch_savedValues() throws Exception {
+        secondary.failures.set(Integer.MAX_VALUE);
+        aggregate.setOutbox(secondary, outbox);
+        aggregate.beginWrites();
+
+        OutboxItem item;
+
+        try {
+            item = save("saved");
+            item.name = "changed";
+            aggregate.commitWrites();
+
+        } finally {
+            aggregate.endWrites();
+        }
+
+        secondary.failures.set(0);
+        waitForOutbox();
+        assertEquals("saved", readSecondary(item).name);
+    }
+
+    @Test
+    public void full_failsWithoutBypass() throws Exception {
+        secondary.failures.set(Integer.MAX_VALUE);
+        aggregate.setOutbox(secondary, outbox);
+
+        OutboxItem item = null;
+
+        try {
+            for (int i = 0; i < 1000; ++ i) {
+                item = new OutboxItem();
+                item.getState().setDatabase(aggregate);
+                item.name = "full" + i;
+                item.save();
+            }
+
+            fail();
+
+        } catch (DatabaseException error) {
+            assertFalse(outbox.isEmpty());
+            assertEquals(0, secondary.writes.get());
+            assertNull(readDefault(item));
+        }
+
+        // The space that the failed write would've used isn't kept.
+        secondary.failures.set(0);
+        waitForOutbox();
+        save("afterFull");
+        waitForOutbox();
+    }
+
+    @Test
+    public void batch_fullFailsBeforeCommit() throws Exception {
+        secondary.failures.set(Integer.MAX_VALUE);
+        aggregate.setOutbox(secondary, outbox);
+        aggregate.beginWrites();
+
+        OutboxItem first = null;
+
+        try {
+            first = save("batch");
+
+            try {
+                for (int i = 0; i < 1000; ++ i) {
+                    save("full" + i);
+                }
+
+                fail();
+
+            } catch (DatabaseException error) {
+                // Expected.
+            }
+
+        } finally {
+            aggregate.endWrites();
+        }
+
+        assertTrue(outbox.isEmpty());
+        assertNull(readDefault(first));
+        assertEquals(0, secondary.writes.get());
+
+        // Nothing's left reserved.
+        secondary.failures.set(0);
+        save("afterFull");
+        waitForOutbox();
+    }
+
+    private static class RecordingDatabase extends ForwardingDatabase {
+
+        public final AtomicInteger writes = new AtomicInteger();
+        public final AtomicInteger failures = new AtomicInteger();
+        public volatile String failName;
+
+        private void record(State state) {
+            if (failName != null && failName.equals(state.get("name"))) {
+                throw new DatabaseException(this, "Test error!");
+            }
+
+            if (failures.get() > 0) {
+                failures.decrementAndGet();
+                throw new DatabaseException(this, "Test error!");
+            }
+
+            writes.incrementAndGet();
+        }
+
+        @Override
+        public void saveUnsafely(State state) {
+            record(state);
+            super.saveUnsafely(state);
+        }
+
+        @Override
+        public void delete(State state) {
+            record(state);
+            super.delete(state);
+        }
+    }
+
+    public static class OutboxItem extends Record {
+
+        @Indexed
+        String name;
+    }
+}
@@ -0,0 +1,165 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.PaginatedResult;
+import com.psddev.dari.util.Profiler;
+
+public class AsyncQueryTest {
+
+    private static final int ITEM_COUNT = 12;
+
+    private static TestDatabase testDatabase;
+    private static SqlDatabase database;
+
+    @BeforeClass
+    public static void beforeClass() {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        database = (SqlDatabase) testDatabase.get();
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            AsyncItem item = new AsyncItem();
+
+            item.getState().setDatabase(database);
+            item.name = "item" + i;
+            item.save();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (testDatabase != null) {
+            testDatabase.close();
+        }
+    }
+
+    private Query<AsyncItem> query() {
+        return Query.from(AsyncItem.class).using(database);
+    }
+
+    @Test
+    public void results() throws Exception {
+        Future<Long> count = query().countAsync();
+        Future<AsyncItem> first = query().where("name = ?", "item3").firstAsync();
+        Future<List<AsyncItem>> all = query().selectAllAsync();
+        Future<PaginatedResult<AsyncItem>> partial = query().sortAscending("name").selectAsync(0, 5);
+
+        assertEquals(Long.valueOf(ITEM_COUNT), count.get());
+        assertEquals("item3", first.get().name);
+        assertEquals(ITEM_COUNT, all.get().size());
+        assertEquals(5, partial.get().getItems().size());
+        assertEquals(ITEM_COUNT, partial.get().getCount());
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        Query<AsyncItem> query = query().where("name = ?", "item1");
+        Future<Long> count = query.countAsync();
+
+        query.and("name = ?", "item2");
+
+        assertEquals(Long.valueOf(1), count.get());
+    }
+
+    @Test
+    public void defaultOverride() throws Exception {
+        Database.Static.overrideDefault(database);
+
+        try {
+            assertEquals(Long.valueOf(ITEM_COUNT), Query.from(AsyncItem.class).countAsync().get());
+
+        } finally {
+            Database.Static.restoreDefault();
+        }
+    }
+
+    @Test
+    public void profiler() throws Exception {
+        Profiler profiler = new Profiler();
+
+        Profiler.Static.setThreadProfiler(profiler);
+
+        try {
+            Future<Long> count = Query.from(AsyncItem.class).using(new ProfilingDatabase() {
+                {
+                    setDelegate(database);
+                }
+            }).countAsync();
+
+            assertTrue(profiler.getRootEvents().isEmpty());
+            assertEquals(Long.valueOf(ITEM_COUNT), count.get());
+            assertNotNull(profiler.getEventStats().get(ProfilingDatabase.READ_COUNT_EVENT_NAME));
+
+        } finally {
+            Profiler.Static.setThreadProfiler(null);
+        }
+    }
+
+    @Test
+    public void context_restored() throws Exception {
+        final AsyncQueryExecutor executor = new AsyncQueryExecutor("Async Query Test", 1, 1);
+
+        try {
+            Database.Static.overrideDefault(database);
+
+            try {
+                assertEquals(database, executor.submit(new Callable<Database>() {
+
+                    @Override
+                    public Database call() {
+                        return Database.Static.getDefaultOverride();
+                    }
+                }).get());
+
+            } finally {
+                Database.Static.restoreDefault();
+            }
+
+            assertNull(executor.submit(new Callable<Database>() {
+
+                @Override
+                public Database call() {
+                    return Database.Static.getDefaultOverride();
+                }
+            }).get());
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void error() throws Exception {
+        query().where("unknownField = ?", "x").countAsync().get();
+    }
+
+    @Test
+    public void executor_perDatabase() {
+        AsyncQueryExecutor executor = AsyncQueryExecutor.Static.getInstance(database);
+
+        assertEquals(executor, database.getAsyncQueryExecutor());
+        assertEquals(executor, AsyncQueryExecutor.Static.getInstance(new CachingDatabase() {
+            {
+                setDelegate(database);
+            }
+        }));
+    }
+
+    public static class AsyncItem extends Record {
+
+        @Indexed
+        String name;
+    }
+}
@@ -0,0 +1,267 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchingDatabaseTest {
+
+    private static final int ITEM_COUNT = 10;
+
+    private static TestDatabase testDatabase;
+    private static Database database;
+    private static List<BatchItem> items;
+
+    private CountingDatabase counting;
+    private BatchingDatabase batching;
+    private ExecutorService executor;
+
+    @BeforeClass
+    public static void beforeClass() {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        database = testDatabase.get();
+        items = new ArrayList<BatchItem>();
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            BatchItem item = new BatchItem();
+
+            item.getState().setDatabase(database);
+            item.name = "item" + i;
+            item.save();
+            items.add(item);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (testDatabase != null) {
+            testDatabase.close();
+        }
+    }
+
+    @Before
+    public void before() {
+        counting = new CountingDatabase();
+        counting.setDelegate(database);
+        batching = new BatchingDatabase();
+        batching.setDelegate(counting);
+        executor = Executors.newFixedThreadPool(ITEM_COUNT);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    private Future<BatchItem> submitFirst(final UUID id) {
+        return executor.submit(new Callable<BatchItem>() {
+
+            @Override
+            public BatchItem call() {
+                return Query.from(BatchItem.class).using(batching).where("_id = ?", id).first();
+            }
+        });
+    }
+
+    @Test
+    public void readFirst_single() {
+        BatchItem item = items.get(0);
+
+        assertEquals(item.name, Query.from(BatchItem.class).using(batching).where("_id = ?", item.getId()).first().name);
+        assertNull(Query.from(BatchItem.class).using(batching).where("_id = ?", UUID.randomUUID()).first());
+        assertEquals(2, counting.reads.get());
+    }
+
+    @Test
+    public void readAll_order() {
+        List<BatchItem> all = Query.from(BatchItem.class).using(batching).where("_id = ?", Arrays.asList(
+                items.get(3).getId(),
+                UUID.randomUUID(),
+                items.get(1).getId())).selectAll();
+
+        assertEquals(2, all.size());
+        assertEquals(items.get(3).name, all.get(0).name);
+        assertEquals(items.get(1).name, all.get(1).name);
+    }
+
+    @Test
+    public void readFirst_concurrent() throws Exception {
+        counting.block = new CountDownLatch(1);
+
+        Future<BatchItem> first = submitFirst(items.get(0).getId());
+
+        counting.started.await(5, TimeUnit.SECONDS);
+
+        List<Future<BatchItem>> rest = new ArrayList<Future<BatchItem>>();
+
+        for (int i = 1; i < ITEM_COUNT; ++ i) {
+            rest.add(submitFirst(items.get(i).getId()));
+        }
+
+        Thread.sleep(200);
+        counting.block.countDown();
+
+        assertEquals(items.get(0).name, first.get().name);
+
+        for (int i = 1; i < ITEM_COUNT; ++ i) {
+            assertEquals(items.get(i).name, rest.get(i - 1).get().name);
+        }
+
+        assertEquals(2, counting.reads.get());
+    }
+
+    @Test
+    public void readFirst_window() throws Exception {
+        batching.setBatchWindow(200L);
+
+        List<Future<BatchItem>> futures = new ArrayList<Future<BatchItem>>();
+
+        for (BatchItem item : items) {
+            futures.add(submitFirst(item.getId()));
+        }
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            assertEquals(items.get(i).name, futures.get(i).get().name);
+        }
+
+        assertEquals(1, counting.reads.get());
+    }
+
+    @Test
+    public void readFirst_sameId() throws Exception {
+        counting.block = new CountDownLatch(1);
+
+        BatchItem item = items.get(0);
+        Future<BatchItem> first = submitFirst(item.getId());
+
+        counting.started.await(5, TimeUnit.SECONDS);
+
+        Future<BatchItem> second = submitFirst(item.getId());
+        Future<BatchItem> third = submitFirst(item.getId());
+
+        Thread.sleep(200);
+        counting.block.countDown();
+
+        BatchItem secondItem = second.get();
+        BatchItem thirdItem = third.get();
+
+        assertEquals(2, counting.reads.get());
+        assertNotSame(secondItem, thirdItem);
+        assertEquals(item.name, secondItem.name);
+        assertEquals(item.name, thirdItem.name);
+        assertEquals(item.getId(), thirdItem.getId());
+        assertFalse(thirdItem.getState().isNew());
+
+        secondItem.name = "changed";
+        assertEquals(item.name, thirdItem.name);
+        assertEquals(item.name, first.get().name);
+    }
+
+    @Test
+    public void readFirst_references() throws Exception {
+        BatchReferenceItem last = new BatchReferenceItem();
+
+        last.getState().setDatabase(database);
+        last.save();
+
+        BatchReferenceItem middle = new BatchReferenceItem();
+
+        middle.getState().setDatabase(database);
+        middle.next = last;
+        middle.save();
+
+        BatchReferenceItem head = new BatchReferenceItem();
+
+        head.getState().setDatabase(database);
+        head.next = middle;
+        head.save();
+
+        final UUID headId = head.getId();
+
+        // Resolving the references shouldn't wait on the batch that
+        // resolves them.
+        Future<BatchReferenceItem> future = executor.submit(new Callable<BatchReferenceItem>() {
+
+            @Override
+            public BatchReferenceItem call() {
+                return Query.from(BatchReferenceItem.class).using(batching).where("_id = ?", headId).first();
+            }
+        });
+
+        BatchReferenceItem read = future.get(10, TimeUnit.SECONDS);
+
+        assertEquals(last.getId(), read.next.next.getId());
+    }
+
+    @Test
+    public void readFirst_notIdOnly() {
+        assertEquals("item2", Query.from(BatchItem.class).using(batching).where("name = ?", "item2").first().name);
+        assertEquals(0, counting.reads.get());
+    }
+
+    @Test(expected = DatabaseException.class)
+    public void readFirst_error() {
+        counting.error = true;
+        Query.from(BatchItem.class).using(batching).where("_id = ?", items.get(0).getId()).first();
+    }
+
+    private static class CountingDatabase extends ForwardingDatabase {
+
+        public final AtomicInteger reads = new AtomicInteger();
+        public final CountDownLatch started = new CountDownLatch(1);
+        public volatile CountDownLatch block;
+        public volatile boolean error;
+
+        @Override
+        public <T> List<T> readAll(Query<T> query) {
+            reads.incrementAndGet();
+            started.countDown();
+
+            if (error) {
+                throw new DatabaseException(this, "Test error!");
+            }
+
+            CountDownLatch b = block;
+
+            if (b != null) {
+                try {
+                    b.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return super.readAll(query);
+        }
+    }
+
+    public static class BatchItem extends Record {
+
+        @Indexed
+        String name;
+    }
+
+    public static class BatchReferenceItem extends Record {
+
+        BatchReferenceItem next;
+    }
+}
@@ -0,0 +1,189 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompiledPredicateTest {
+
+    private static final String[] NAMES = { "foo", "Foo ", "bar", "FOOBAR", "qux", "", "ß" };
+
+    private static TestDatabase testDatabase;
+    private static List<Item> items;
+    private static UUID[] refs;
+
+    @BeforeClass
+    public static void beforeClass() {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        Database database = testDatabase.get();
+        Random random = new Random(42);
+
+        refs = new UUID[] { UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID() };
+        items = new ArrayList<Item>();
+
+        for (int i = 0; i < 200; ++ i) {
+            Item item = new Item();
+
+            item.getState().setDatabase(database);
+
+            if (random.nextInt(5) > 0) {
+                item.name = NAMES[random.nextInt(NAMES.length)];
+            }
+
+            if (random.nextInt(5) > 0) {
+                item.count = random.nextInt(10) - 5;
+            }
+
+            if (random.nextInt(5) > 0) {
+                item.score = random.nextInt(100) / 10.0;
+            }
+
+            if (random.nextInt(5) > 0) {
+                item.date = new Date(1000000L * random.nextInt(10));
+            }
+
+            if (random.nextInt(5) > 0) {
+                item.ref = refs[random.nextInt(refs.length)];
+            }
+
+            if (random.nextInt(5) > 0) {
+                item.tags = new ArrayList<String>();
+
+                for (int t = random.nextInt(4); t > 0; -- t) {
+                    item.tags.add(NAMES[random.nextInt(NAMES.length)]);
+                }
+            }
+
+            items.add(item);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (testDatabase != null) {
+            testDatabase.close();
+        }
+    }
+
+    private void assertSame(String predicateString, Object... parameters) {
+        PredicateParser parser = new PredicateParser();
+        Predicate predicate = parser.parse(predicateString, parameters);
+        CompiledPredicate compiled = parser.compile(predicate, null);
+
+        for (Item item : items) {
+            assertEquals(
+                    predicate + " on " + item.getState().getSimpleValues(),
+                    parser.evaluate(item, predicate),
+                    compiled.evaluate(item));
+        }
+    }
+
+    @Test
+    public void evaluate_strings() {
+        assertSame("name = ?", "foo");
+        assertSame("name = ?", Arrays.asList("FOO", "bar", null));
+        assertSame("name != ?", "foo");
+        assertSame("name = missing");
+        assertSame("name != missing");
+        assertSame("name startsWith ?", "fo");
+        assertSame("name contains ?", "OB");
+        assertSame("name matches ?", "bar");
+        assertSame("name matchesAll ?", Arrays.asList("foo", "bar"));
+        assertSame("name < ?", "foo");
+        assertSame("name >= ?", Arrays.asList("bar", "foo"));
+        assertSame("name = ?", "SS");
+    }
+
+    @Test
+    public void evaluate_numbers() {
+        assertSame("count = ?", 3);
+        assertSame("count = ?", "3");
+        assertSame("count != ?", Arrays.asList(1, 2, 3));
+        assertSame("count < ?", 0);
+        assertSame("count <= ?", Arrays.asList("2", 4));
+        assertSame("count > ?", Arrays.asList(1, null));
+        assertSame("count >= ?", -2);
+        assertSame("count > ?", Arrays.asList());
+        assertSame("score = ?", 2.5);
+        assertSame("score < ?", "4.5");
+        assertSame("score >= ?", Arrays.asList(3, 6.5));
+        assertSame("count startsWith ?", "-");
+    }
+
+    @Test
+    public void evaluate_datesAndUuids() {
+        assertSame("date = ?", new Date(3000000L));
+        assertSame("date < ?", new Date(5000000L));
+        assertSame("date >= ?", 4000000L);
+        assertSame("ref = ?", refs[0]);
+        assertSame("ref != ?", Arrays.asList(refs[1], refs[2].toString()));
+    }
+
+    @Test
+    public void evaluate_lists() {
+        assertSame("tags = ?", "foo");
+        assertSame("tags != ?", "bar");
+        assertSame("tags = missing");
+        assertSame("tags contains ?", "oo");
+        assertSame("tags/0 = ?", "foo");
+        assertSame("tags/-1 startsWith ?", "b");
+        assertSame("tags/5 = missing");
+    }
+
+    @Test
+    public void evaluate_compound() {
+        assertSame("name = ? and count > ?", "foo", 0);
+        assertSame("name = ? or count > ? or score < ?", "foo", 0, 5);
+        assertSame("not (name = ? or tags = ?)", "bar", "qux");
+        assertSame("(count < ? and date > ?) or ref = ?", 2, new Date(2000000L), refs[1]);
+    }
+
+    @Test
+    public void evaluate_null() {
+        CompiledPredicate compiled = PredicateParser.Static.compile(null, null);
+
+        for (Item item : items) {
+            assertTrue(compiled.evaluate(item));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void evaluate_unsupported() {
+        PredicateParser.Static.compile(new ComparisonPredicate("unknown", false, "name", null), null).evaluate(items.get(0));
+    }
+
+    @Test
+    public void filter() {
+        PredicateParser parser = new PredicateParser();
+        Predicate predicate = parser.parse("count >= ?", 0);
+        List<Item> expected = new ArrayList<Item>();
+
+        for (Item item : items) {
+            if (parser.evaluate(item, predicate)) {
+                expected.add(item);
+            }
+        }
+
+        assertEquals(expected, parser.compile(predicate, null).filter(items));
+    }
+
+    public static class Item extends Record {
+
+        String name;
+        Integer count;
+        Double score;
+        Date date;
+        UUID ref;
+        List<String> tags;
+    }
+}
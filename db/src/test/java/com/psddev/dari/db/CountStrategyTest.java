@@ -0,0 +1,116 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.PaginatedResult;
+
+public class CountStrategyTest {
+
+    private static final int ITEM_COUNT = 25;
+
+    private static TestDatabase testDatabase;
+    private static SqlDatabase database;
+
+    @BeforeClass
+    public static void beforeClass() {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        database = (SqlDatabase) testDatabase.get();
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            CountItem item = new CountItem();
+
+            item.getState().setDatabase(database);
+            item.name = i % 2 == 0 ? "even" : "odd";
+            item.save();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (testDatabase != null) {
+            testDatabase.close();
+        }
+    }
+
+    private Query<CountItem> query() {
+        return Query.from(CountItem.class).using(database);
+    }
+
+    @Test
+    public void exact() {
+        PaginatedResult<CountItem> result = query().select(0, 5);
+
+        assertEquals(ITEM_COUNT, result.getCount());
+        assertEquals(PaginatedResult.CountMode.EXACT, result.getCountMode());
+    }
+
+    @Test
+    public void lastPage() {
+        PaginatedResult<CountItem> result = query().countStrategy(CountStrategy.capped(10)).select(20, 10);
+
+        assertEquals(ITEM_COUNT, result.getCount());
+        assertEquals(PaginatedResult.CountMode.EXACT, result.getCountMode());
+    }
+
+    @Test
+    public void capped() {
+        PaginatedResult<CountItem> result = query().countStrategy(CountStrategy.capped(10)).sortAscending("name").select(0, 5);
+
+        assertEquals(11, result.getCount());
+        assertEquals(PaginatedResult.CountMode.CAPPED, result.getCountMode());
+    }
+
+    @Test
+    public void capped_pastLimit() {
+        PaginatedResult<CountItem> result = query().countStrategy(CountStrategy.capped(5)).sortAscending("name").select(10, 5);
+
+        // At least the items up to this page and one on the next.
+        assertEquals(16, result.getCount());
+        assertEquals(PaginatedResult.CountMode.CAPPED, result.getCountMode());
+    }
+
+    @Test
+    public void capped_underLimit() {
+        PaginatedResult<CountItem> result = query().where("name = ?", "odd").countStrategy(CountStrategy.capped(100)).select(0, 5);
+
+        assertEquals(12, result.getCount());
+        assertEquals(PaginatedResult.CountMode.EXACT, result.getCountMode());
+    }
+
+    @Test
+    public void estimated_unsupported() {
+        PaginatedResult<CountItem> result = query().countStrategy(CountStrategy.ESTIMATED).select(0, 5);
+
+        assertEquals(ITEM_COUNT, result.getCount());
+        assertEquals(PaginatedResult.CountMode.EXACT, result.getCountMode());
+    }
+
+    @Test
+    public void cached() {
+        Query<CountItem> query = query().where("name = ?", "even").countStrategy(CountStrategy.cached(60000L));
+        PaginatedResult<CountItem> first = query.select(0, 5);
+
+        assertEquals(13, first.getCount());
+        assertEquals(PaginatedResult.CountMode.EXACT, first.getCountMode());
+
+        PaginatedResult<CountItem> second = query.select(5, 5);
+
+        assertEquals(13, second.getCount());
+        assertEquals(PaginatedResult.CountMode.CACHED, second.getCountMode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capped_invalid() {
+        CountStrategy.capped(0);
+    }
+
+    public static class CountItem extends Record {
+
+        @Indexed
+        String name;
+    }
+}
@@ -0,0 +1,209 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.UuidUtils;
+
+public class GroupCommitTest {
+
+    private static final int WRITER_COUNT = 5;
+
+    private CountingDatabase database;
+    private ExecutorService executor;
+    private CountDownLatch block;
+
+    @Before
+    public void before() {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(SqlDatabase.JDBC_URL_SETTING, "jdbc:h2:mem:" + UuidUtils.createSequentialUuid().toString().replaceAll("-", "") + ";DB_CLOSE_DELAY=-1");
+
+        database = new CountingDatabase();
+        database.setName("JUnit Group Commit Test");
+        database.doInitialize(null, settings);
+
+        // Saves the types before counting the writes.
+        save("warm-up");
+
+        database.setGroupCommit(true);
+        database.transactions.set(0);
+        executor = Executors.newFixedThreadPool(WRITER_COUNT);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+        database.close();
+    }
+
+    private GroupItem save(String name) {
+        GroupItem item = new GroupItem();
+
+        item.getState().setDatabase(database);
+        item.name = name;
+        item.save();
+        return item;
+    }
+
+    private Future<GroupItem> submitSave(final String name) {
+        return executor.submit(new Callable<GroupItem>() {
+
+            @Override
+            public GroupItem call() {
+                return save(name);
+            }
+        });
+    }
+
+    private GroupItem read(String name) {
+        return Query.from(GroupItem.class).using(database).where("name = ?", name).master().noCache().first();
+    }
+
+    // Starts a write that blocks inside its transaction, so that the
+    // writes submitted afterwards pile up behind it.
+    private Future<GroupItem> submitBlockedSave() throws InterruptedException {
+        database.started = new CountDownLatch(1);
+        block = new CountDownLatch(1);
+        database.block = block;
+
+        Future<GroupItem> blocked = submitSave("blocked");
+
+        assertTrue(database.started.await(5, TimeUnit.SECONDS));
+        return blocked;
+    }
+
+    private void release() throws InterruptedException {
+        Thread.sleep(200);
+        block.countDown();
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        Future<GroupItem> blocked = submitBlockedSave();
+        List<Future<GroupItem>> rest = new ArrayList<Future<GroupItem>>();
+
+        for (int i = 1; i < WRITER_COUNT; ++ i) {
+            rest.add(submitSave("item" + i));
+        }
+
+        release();
+        assertNotNull(blocked.get());
+
+        for (Future<GroupItem> future : rest) {
+            assertNotNull(future.get());
+        }
+
+        // The blocked write and then everyone else at once.
+        assertEquals(2, database.transactions.get());
+
+        for (int i = 1; i < WRITER_COUNT; ++ i) {
+            assertNotNull(read("item" + i));
+        }
+    }
+
+    @Test
+    public void failure_isolated() throws Exception {
+        Future<GroupItem> blocked = submitBlockedSave();
+        Future<GroupItem> failing = submitSave(CountingDatabase.FAIL_NAME);
+        List<Future<GroupItem>> rest = new ArrayList<Future<GroupItem>>();
+
+        for (int i = 2; i < WRITER_COUNT; ++ i) {
+            rest.add(submitSave("item" + i));
+        }
+
+        release();
+        assertNotNull(blocked.get());
+
+        try {
+            failing.get();
+            fail();
+
+        } catch (ExecutionException error) {
+            assertTrue(error.getCause() instanceof DatabaseException);
+        }
+
+        for (Future<GroupItem> future : rest) {
+            assertNotNull(future.get());
+        }
+
+        // The blocked write, the merged attempt without any retries,
+        // and then each write separately.
+        assertEquals(2 + WRITER_COUNT - 1, database.transactions.get());
+        assertNull(read(CountingDatabase.FAIL_NAME));
+
+        for (int i = 2; i < WRITER_COUNT; ++ i) {
+            assertNotNull(read("item" + i));
+        }
+    }
+
+    @Test
+    public void single_noWait() {
+        database.setGroupCommitWindow(5000L);
+
+        long start = System.currentTimeMillis();
+
+        save("single");
+
+        assertTrue(System.currentTimeMillis() - start < 2000L);
+        assertEquals(1, database.transactions.get());
+    }
+
+    private static class CountingDatabase extends SqlDatabase {
+
+        public static final String FAIL_NAME = "fail";
+
+        public final AtomicInteger transactions = new AtomicInteger();
+        public volatile CountDownLatch started = new CountDownLatch(1);
+        public volatile CountDownLatch block;
+
+        @Override
+        protected void doWrites(Connection connection, boolean isImmediate, List<State> saves, List<State> indexes, List<State> deletes) throws Exception {
+            transactions.incrementAndGet();
+            started.countDown();
+
+            CountDownLatch b = block;
+
+            if (b != null) {
+                block = null;
+                b.await(5, TimeUnit.SECONDS);
+            }
+
+            if (saves != null) {
+                for (State state : saves) {
+                    if (FAIL_NAME.equals(state.get("name"))) {
+                        throw new DatabaseException(this, "Test error!");
+                    }
+                }
+            }
+
+            super.doWrites(connection, isImmediate, saves, indexes, deletes);
+        }
+    }
+
+    public static class GroupItem extends Record {
+
+        @Indexed
+        String name;
+    }
+}
@@ -0,0 +1,327 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.psddev.dari.db.shyiko.DariQueryEventData;
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.UuidUtils;
+
+public class MySQLBinaryLogEventListenerTest {
+
+    private static final String CATALOG = "dari";
+    private static final long TABLE_ID = 42L;
+
+    private TestDatabase testDatabase;
+    private Cache<UUID, Object[]> cache;
+    private MySQLBinaryLogFeed feed;
+    private MySQLBinaryLogEventListener listener;
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+
+    private final UUID id = UuidUtils.createSequentialUuid();
+    private final UUID typeId = UuidUtils.createSequentialUuid();
+    private final byte[] data = "{\"name\":\"it's \\\"quoted\\\"\"}".getBytes(StringUtils.UTF_8);
+
+    @Before
+    public void before() {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        cache = CacheBuilder.newBuilder().<UUID, Object[]>build();
+        feed = new MySQLBinaryLogFeed((SqlDatabase) testDatabase.get(), 10);
+        listener = new MySQLBinaryLogEventListener(cache, CATALOG, feed);
+
+        feed.addListener(new SqlChangeListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+                received.add(changes);
+            }
+
+            @Override
+            public void onOverflow(SqlDatabase database, long dropped) {
+                received.add(dropped);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        feed.stop();
+        testDatabase.close();
+    }
+
+    private static Event event(EventType type, EventData data) {
+        EventHeaderV4 header = new EventHeaderV4();
+
+        header.setEventType(type);
+        return new Event(header, data);
+    }
+
+    private static Event query(String sql) {
+        return query(sql.getBytes(StringUtils.UTF_8));
+    }
+
+    private static Event query(byte[] statement) {
+        DariQueryEventData data = new DariQueryEventData();
+
+        data.setDatabase(CATALOG);
+        data.setStatement(statement);
+        return event(EventType.QUERY, data);
+    }
+
+    private static Event tableMap() {
+        TableMapEventData data = new TableMapEventData();
+
+        data.setTableId(TABLE_ID);
+        data.setDatabase(CATALOG);
+        data.setTable(SqlDatabase.RECORD_TABLE);
+        return event(EventType.TABLE_MAP, data);
+    }
+
+    // Quotes the given bytes the way that MySQL writes them in the
+    // statements in the binary log.
+    private static byte[] binary(byte[] bytes) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        output.write('_');
+        output.write('b');
+        output.write('i');
+        output.write('n');
+        output.write('a');
+        output.write('r');
+        output.write('y');
+        output.write('\'');
+
+        for (byte b : bytes) {
+            if (b == 0) {
+                output.write('\\');
+                output.write('0');
+
+            } else if (b == '\'' || b == '"' || b == '\\') {
+                output.write('\\');
+                output.write(b);
+
+            } else {
+                output.write(b);
+            }
+        }
+
+        output.write('\'');
+        return output.toByteArray();
+    }
+
+    private static String hex(UUID uuid) {
+        return "X'" + StringUtils.hex(UuidUtils.toBytes(uuid)) + "'";
+    }
+
+    private static byte[] concat(Object... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        for (Object part : parts) {
+            byte[] bytes = part instanceof byte[] ? (byte[]) part : part.toString().getBytes(StringUtils.UTF_8);
+
+            output.write(bytes, 0, bytes.length);
+        }
+
+        return output.toByteArray();
+    }
+
+    private void transaction(Event... events) {
+        listener.onEvent(query("BEGIN"));
+
+        for (Event event : events) {
+            listener.onEvent(event);
+        }
+
+        listener.onEvent(query("COMMIT"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SqlChange> receiveChanges() throws InterruptedException {
+        Object next = received.poll(5, TimeUnit.SECONDS);
+
+        assertTrue(String.valueOf(next), next instanceof List);
+        return (List<SqlChange>) next;
+    }
+
+    private void assertChange(SqlChange change, SqlChange.Type type, UUID typeId, byte[] data) {
+        assertEquals(type, change.getType());
+        assertEquals(id, change.getId());
+        assertEquals(typeId, change.getTypeId());
+        assertArrayEquals(data, change.getData());
+    }
+
+    @Test
+    public void statement_insert() throws Exception {
+        transaction(query(concat(
+                "INSERT INTO `Record` (`id`,`typeId`,`data`) VALUES (",
+                binary(UuidUtils.toBytes(id)), ",",
+                binary(UuidUtils.toBytes(typeId)), ",",
+                binary(data), ")")));
+
+        List<SqlChange> changes = receiveChanges();
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), SqlChange.Type.INSERT, typeId, data);
+    }
+
+    @Test
+    public void statement_insertInRowIndex() throws Exception {
+        transaction(query(concat(
+                "INSERT INTO `Record` (`id`,`typeId`,`data`,`inRowIndex`) VALUES (",
+                hex(id), ",",
+                hex(typeId), ",",
+                binary(data), ",",
+                binary(new byte[] { 'a', ',', 'b' }), ")")));
+
+        List<SqlChange> changes = receiveChanges();
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), SqlChange.Type.INSERT, typeId, data);
+    }
+
+    @Test
+    public void statement_update() throws Exception {
+        cache.put(id, new Object[] { UuidUtils.toBytes(typeId), new byte[0], null });
+
+        transaction(query(concat(
+                "UPDATE `Record` SET `typeId`=",
+                binary(UuidUtils.toBytes(typeId)), ",`data`=",
+                binary(data), " WHERE `id`=",
+                hex(id))));
+
+        List<SqlChange> changes = receiveChanges();
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), SqlChange.Type.UPDATE, typeId, data);
+        assertArrayEquals(data, (byte[]) cache.getIfPresent(id)[1]);
+    }
+
+    @Test
+    public void statement_updateInRowIndex() throws Exception {
+        transaction(query(concat(
+                "UPDATE `Record` SET `typeId`=",
+                hex(typeId), ",`inRowIndex`=",
+                binary(new byte[] { 'a', ',', 'b' }), ",`data`=",
+                binary(data), " WHERE `id`=",
+                binary(UuidUtils.toBytes(id)))));
+
+        List<SqlChange> changes = receiveChanges();
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), SqlChange.Type.UPDATE, typeId, data);
+    }
+
+    @Test
+    public void statement_delete() throws Exception {
+        cache.put(id, new Object[] { UuidUtils.toBytes(typeId), data, null });
+
+        transaction(query("DELETE FROM `Record` WHERE `id` = " + hex(id)));
+
+        List<SqlChange> changes = receiveChanges();
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), SqlChange.Type.DELETE, null, null);
+        assertNull(cache.getIfPresent(id));
+    }
+
+    @Test
+    public void statement_otherTable() throws Exception {
+        transaction(query("DELETE FROM `RecordUpdate` WHERE `id` = " + hex(id)));
+        transaction(query("DELETE FROM `Record` WHERE `id` = " + hex(id)));
+
+        // Nothing from the first transaction.
+        assertEquals(SqlChange.Type.DELETE, receiveChanges().get(0).getType());
+    }
+
+    @Test
+    public void statement_undecodable() throws Exception {
+        cache.put(id, new Object[] { UuidUtils.toBytes(typeId), data, null });
+
+        transaction(query("UPDATE `Record` SET `data` = NULL WHERE `typeId` = " + hex(typeId)));
+
+        assertEquals(1L, received.poll(5, TimeUnit.SECONDS));
+        assertNull(cache.getIfPresent(id));
+        assertEquals(1L, feed.getDropped());
+    }
+
+    @Test
+    public void statement_undecodableInsert() throws Exception {
+        cache.put(id, new Object[] { UuidUtils.toBytes(typeId), data, null });
+
+        transaction(query("INSERT INTO `Record` SELECT * FROM `Other`"));
+
+        assertEquals(1L, received.poll(5, TimeUnit.SECONDS));
+
+        // New rows can't be in the cache, so it's kept.
+        assertNotNull(cache.getIfPresent(id));
+    }
+
+    @Test
+    public void rows() throws Exception {
+        byte[] idBytes = UuidUtils.toBytes(id);
+        byte[] typeIdBytes = UuidUtils.toBytes(typeId);
+        byte[] newData = "{\"name\":\"new\"}".getBytes(StringUtils.UTF_8);
+
+        WriteRowsEventData write = new WriteRowsEventData();
+
+        write.setTableId(TABLE_ID);
+        write.setRows(Collections.<Serializable[]>singletonList(new Serializable[] { idBytes, typeIdBytes, data }));
+
+        UpdateRowsEventData update = new UpdateRowsEventData();
+        List<Map.Entry<Serializable[], Serializable[]>> updateRows = new ArrayList<Map.Entry<Serializable[], Serializable[]>>();
+
+        updateRows.add(new AbstractMap.SimpleEntry<Serializable[], Serializable[]>(
+                new Serializable[] { idBytes, typeIdBytes, data },
+                new Serializable[] { idBytes, typeIdBytes, newData }));
+
+        update.setTableId(TABLE_ID);
+        update.setRows(updateRows);
+
+        DeleteRowsEventData delete = new DeleteRowsEventData();
+
+        delete.setTableId(TABLE_ID);
+        delete.setRows(Collections.<Serializable[]>singletonList(new Serializable[] { idBytes, typeIdBytes, newData }));
+
+        transaction(
+                tableMap(), event(EventType.EXT_WRITE_ROWS, write),
+                tableMap(), event(EventType.EXT_UPDATE_ROWS, update),
+                tableMap(), event(EventType.EXT_DELETE_ROWS, delete));
+
+        List<SqlChange> changes = receiveChanges();
+
+        assertEquals(3, changes.size());
+        assertChange(changes.get(0), SqlChange.Type.INSERT, typeId, data);
+        assertChange(changes.get(1), SqlChange.Type.UPDATE, typeId, newData);
+        assertChange(changes.get(2), SqlChange.Type.DELETE, typeId, newData);
+        assertTrue(received.isEmpty());
+    }
+}
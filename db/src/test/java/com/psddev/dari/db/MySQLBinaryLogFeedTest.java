@@ -0,0 +1,287 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.UuidUtils;
+
+public class MySQLBinaryLogFeedTest {
+
+    private TestDatabase testDatabase;
+    private SqlDatabase database;
+    private MySQLBinaryLogFeed feed;
+
+    @Before
+    public void before() {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        database = (SqlDatabase) testDatabase.get();
+        feed = new MySQLBinaryLogFeed(database, 10);
+    }
+
+    @After
+    public void after() {
+        feed.stop();
+        testDatabase.close();
+    }
+
+    private List<SqlChange> changes(SqlChange.Type type, int count) {
+        List<SqlChange> changes = new ArrayList<SqlChange>();
+
+        for (int i = 0; i < count; ++ i) {
+            changes.add(new SqlChange(type, UuidUtils.createSequentialUuid(), null, null));
+        }
+
+        return changes;
+    }
+
+    @Test
+    public void publish_ordered() throws Exception {
+        final List<List<SqlChange>> received = Collections.synchronizedList(new ArrayList<List<SqlChange>>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final CountDownLatch done = new CountDownLatch(3);
+
+        feed.addListener(new ChangesListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+                received.add(changes);
+                threads.add(Thread.currentThread());
+                done.countDown();
+            }
+        });
+
+        List<SqlChange> first = changes(SqlChange.Type.INSERT, 2);
+        List<SqlChange> second = changes(SqlChange.Type.UPDATE, 1);
+        List<SqlChange> third = changes(SqlChange.Type.DELETE, 3);
+
+        feed.publish(first);
+        feed.publish(Collections.<SqlChange>emptyList());
+        feed.publish(second);
+        feed.publish(third);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(first, second, third), received);
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void publish_noListeners() {
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        assertEquals(0, feed.getDropped());
+    }
+
+    @Test
+    public void publish_full() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch block = new CountDownLatch(1);
+
+        feed.setCapacity(1);
+        feed.addListener(new ChangesListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+                started.countDown();
+
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        block.countDown();
+
+        assertEquals(1, feed.getDropped());
+    }
+
+    @Test
+    public void publish_full_overflow() throws Exception {
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        feed.setCapacity(1);
+        feed.addListener(new SqlChangeListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+                received.add(changes);
+                started.countDown();
+
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (received.size() == 4) {
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void onOverflow(SqlDatabase database, long dropped) {
+                received.add(dropped);
+            }
+        });
+
+        List<SqlChange> first = changes(SqlChange.Type.INSERT, 1);
+        List<SqlChange> second = changes(SqlChange.Type.INSERT, 1);
+        List<SqlChange> fourth = changes(SqlChange.Type.INSERT, 1);
+
+        feed.publish(first);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        feed.publish(second);
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        block.countDown();
+
+        // Wait for the second to be delivered so that there's room.
+        for (int i = 0; i < 100 && received.size() < 2; ++ i) {
+            Thread.sleep(50);
+        }
+
+        feed.publish(fourth);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.<Object>asList(first, second, 2L, fourth), received);
+    }
+
+    @Test
+    public void publish_full_overflowWithoutMore() throws Exception {
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch overflowed = new CountDownLatch(1);
+
+        feed.setCapacity(1);
+        feed.addListener(new SqlChangeListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+                received.add(changes);
+
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onOverflow(SqlDatabase database, long dropped) {
+                received.add(dropped);
+                overflowed.countDown();
+            }
+        });
+
+        List<SqlChange> first = changes(SqlChange.Type.INSERT, 1);
+        List<SqlChange> second = changes(SqlChange.Type.INSERT, 1);
+
+        feed.publish(first);
+
+        for (int i = 0; i < 100 && received.isEmpty(); ++ i) {
+            Thread.sleep(50);
+        }
+
+        feed.publish(second);
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        block.countDown();
+
+        // Delivered once the queue drains, even without a later
+        // transaction.
+        assertTrue(overflowed.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.<Object>asList(first, second, 1L), received);
+    }
+
+    @Test
+    public void publish_listenerError() throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+
+        feed.addListener(new ChangesListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+                throw new IllegalStateException("Test error!");
+            }
+        });
+
+        feed.addListener(new ChangesListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+                done.countDown();
+            }
+        });
+
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+        feed.publish(changes(SqlChange.Type.INSERT, 1));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void change_createObject() {
+        UUID id = UuidUtils.createSequentialUuid();
+        UUID typeId = database.getEnvironment().getTypeByClass(FeedItem.class).getId();
+        SqlChange change = new SqlChange(
+                SqlChange.Type.UPDATE,
+                id,
+                typeId,
+                ObjectUtils.toJsonBytes(Collections.singletonMap("name", "feed")));
+
+        assertEquals("feed", change.getValues().get("name"));
+
+        FeedItem item = (FeedItem) change.createObject(database);
+
+        assertEquals(id, item.getId());
+        assertEquals("feed", item.name);
+        assertEquals(StateStatus.SAVED, item.getState().getStatus());
+        assertNull(new SqlChange(SqlChange.Type.DELETE, id, null, null).getValues());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void addChangeListener_notMySQL() {
+        database.addChangeListener(new ChangesListener() {
+
+            @Override
+            public void onChanges(SqlDatabase database, List<SqlChange> changes) {
+            }
+        });
+    }
+
+    private abstract static class ChangesListener implements SqlChangeListener {
+
+        @Override
+        public void onOverflow(SqlDatabase database, long dropped) {
+        }
+    }
+
+    public static class FeedItem extends Record {
+
+        @Indexed
+        String name;
+    }
+}
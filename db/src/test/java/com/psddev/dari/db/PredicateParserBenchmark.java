@@ -0,0 +1,126 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.psddev.dari.util.Settings;
+
+/**
+ * Compares {@link PredicateParser#parse}, and building a query with
+ * {@link Query#where(String, Object...)}, with and without the parser's
+ * template cache.
+ *
+ * <p>This isn't run as part of the build since it doesn't match the test
+ * class pattern. Run it on its own with:</p>
+ *
+ * <pre>mvn test -Dtest=PredicateParserBenchmark</pre>
+ */
+public class PredicateParserBenchmark {
+
+    private static final String PREDICATE = "a = ? and b != ? and (c > ? or d = 'x')";
+    private static final int WARM_UP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 200000;
+
+    // Keeps the results from being optimized away.
+    private static volatile int sink;
+
+    @After
+    public void after() {
+        Settings.setOverride(PredicateParser.CACHE_SIZE_SETTING, null);
+    }
+
+    @Test
+    public void parse() {
+        Settings.setOverride(PredicateParser.CACHE_SIZE_SETTING, 0L);
+
+        PredicateParser uncached = new PredicateParser();
+
+        Settings.setOverride(PredicateParser.CACHE_SIZE_SETTING, null);
+
+        PredicateParser cached = new PredicateParser();
+
+        assertEquals(uncached.parse(PREDICATE, 1, "b", 3), cached.parse(PREDICATE, 1, "b", 3));
+
+        double uncachedTime = measure(uncached);
+        double cachedTime = measure(cached);
+
+        System.out.println(String.format(
+                "PredicateParser#parse: uncached [%.0f] ns/op, cached [%.0f] ns/op",
+                uncachedTime, cachedTime));
+    }
+
+    @Test
+    public void query() {
+        Settings.setOverride(PredicateParser.CACHE_SIZE_SETTING, 0L);
+
+        PredicateParser uncached = new PredicateParser();
+
+        Settings.setOverride(PredicateParser.CACHE_SIZE_SETTING, null);
+
+        assertEquals(
+                Query.from(Record.class).where(uncached.parse(PREDICATE, 1, "b", 3)).getPredicate(),
+                Query.from(Record.class).where(PREDICATE, 1, "b", 3).getPredicate());
+
+        double uncachedTime = measureQuery(uncached);
+        double cachedTime = measureQuery(null);
+
+        System.out.println(String.format(
+                "Query#where: uncached [%.0f] ns/op, cached [%.0f] ns/op",
+                uncachedTime, cachedTime));
+    }
+
+    // Returns the time of the fastest round in nanoseconds per query,
+    // parsing with the given parser, or the default, cached one if it's
+    // null.
+    private static double measureQuery(PredicateParser parser) {
+        long fastest = Long.MAX_VALUE;
+        int hashes = 0;
+
+        for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; ++ round) {
+            long start = System.nanoTime();
+
+            for (int i = 0; i < ITERATIONS; ++ i) {
+                Query<Record> query = parser != null ?
+                        Query.from(Record.class).where(parser.parse(PREDICATE, i, "b", 3)) :
+                        Query.from(Record.class).where(PREDICATE, i, "b", 3);
+
+                hashes += query.getPredicate().hashCode();
+            }
+
+            long time = System.nanoTime() - start;
+
+            if (round >= WARM_UP_ROUNDS) {
+                fastest = Math.min(fastest, time);
+            }
+        }
+
+        sink += hashes;
+        return (double) fastest / ITERATIONS;
+    }
+
+    // Returns the time of the fastest round in nanoseconds per parse.
+    private static double measure(PredicateParser parser) {
+        long fastest = Long.MAX_VALUE;
+        int hashes = 0;
+
+        for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; ++ round) {
+            long start = System.nanoTime();
+
+            for (int i = 0; i < ITERATIONS; ++ i) {
+                hashes += parser.parse(PREDICATE, i, "b", 3).hashCode();
+            }
+
+            long time = System.nanoTime() - start;
+
+            if (round >= WARM_UP_ROUNDS) {
+                fastest = Math.min(fastest, time);
+            }
+        }
+
+        sink += hashes;
+        return (double) fastest / ITERATIONS;
+    }
+}
@@ -206,6 +206,45 @@ public class PredicateParserTest {
     	assertEquals(null, parser.parse(" ( ) "));
     }
 
+    @Test
+    public void parse_cached_rebinds() {
+    	String predicateString = "a = ? and (b = ? or c != ?)";
+    	Predicate first = parser.parse(predicateString, "1", "2", "3");
+    	Predicate second = parser.parse(predicateString, "4", "5", "6");
+    	Predicate expect = CompoundPredicate.combine(
+    	        PredicateParser.AND_OPERATOR,
+    	        new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, "a", Arrays.asList("4")),
+    	        CompoundPredicate.combine(
+    	                PredicateParser.OR_OPERATOR,
+    	                new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, "b", Arrays.asList("5")),
+    	                new ComparisonPredicate(PredicateParser.NOT_EQUALS_ALL_OPERATOR, false, "c", Arrays.asList("6"))
+    	        )
+    	);
+    	assertEquals(new PredicateParser().parse(predicateString, "1", "2", "3"), first);
+    	assertEquals(expect, second);
+    }
+
+    @Test
+    public void parse_cached_indexed() {
+    	String predicateString = "a = ?1 and b = ? and not c = ?0";
+    	Predicate pred = parser.parse(predicateString, "x", "y");
+    	assertEquals(new PredicateParser().parse(predicateString, "x", "y"), pred);
+    	assertEquals(pred, parser.parse(predicateString, "x", "y"));
+    	assertEquals(
+    	        new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, "a", null),
+    	        ((CompoundPredicate) parser.parse(predicateString, "x")).getChildren().get(0));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void parse_cached_invalid() {
+    	try {
+    		parser.parse("a foo 1");
+    	} catch (IllegalArgumentException error) {
+    		// Invalid strings aren't cached, so they fail every time.
+    	}
+    	parser.parse("a foo 1");
+    }
+
     /*
      * Options // TODO: Add tests here when we know what this should look like
      */
@@ -0,0 +1,150 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.LocalStorageItem;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.StorageItem;
+import com.psddev.dari.util.StorageItemListener;
+
+public class ResaveStorageItemListenerTest {
+
+    private static final String STORAGE = "resaveTest";
+
+    private TestDatabase testDatabase;
+    private Database database;
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        database = testDatabase.get();
+
+        directory = File.createTempFile("storage", "");
+        directory.delete();
+        directory.mkdirs();
+
+        Map<String, Object> storage = new HashMap<String, Object>();
+        Map<String, Object> overrides = new HashMap<String, Object>();
+
+        storage.put("class", LocalStorageItem.class.getName());
+        storage.put(LocalStorageItem.ROOT_PATH_SETTING, directory.getPath());
+
+        // The object is read again in the uploader thread.
+        CollectionUtils.putByPath(overrides, StorageItem.SETTING_PREFIX + "/" + STORAGE, storage);
+        Settings.putPermanentOverrides(ResaveStorageItemListenerTest.class.getName(), overrides);
+    }
+
+    @After
+    public void after() {
+        Settings.removePermanentOverrides(ResaveStorageItemListenerTest.class.getName());
+        new File(directory, "a.txt").delete();
+        directory.delete();
+        testDatabase.close();
+    }
+
+    @Test
+    public void afterSave() throws Exception {
+        LocalStorageItem item = new LocalStorageItem();
+
+        item.setStorage(STORAGE);
+        item.setRootPath(directory.getPath());
+        item.setPath("a.txt");
+        item.setData(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+
+        // Adds metadata after the data lands, like the intermediate image
+        // sizes.
+        item.registerListener(new StorageItemListener() {
+
+            @Override
+            public void afterSave(StorageItem item) {
+                item.getMetadata().put("width", 100);
+            }
+        });
+
+        FileItem fileItem = new FileItem();
+
+        fileItem.getState().setDatabase(database);
+        fileItem.file = item;
+        fileItem.save();
+
+        assertNull(read(fileItem).file.getMetadata().get("width"));
+
+        StorageItem.Static.saveAsync(item, new ResaveStorageItemListener(fileItem)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(100L, ((Number) read(fileItem).file.getMetadata().get("width")).longValue());
+    }
+
+    @Test
+    public void afterSave_keepsOtherChanges() throws Exception {
+        final CountDownLatch uploading = new CountDownLatch(1);
+        LocalStorageItem item = new LocalStorageItem();
+
+        item.setStorage(STORAGE);
+        item.setRootPath(directory.getPath());
+        item.setPath("a.txt");
+        item.setData(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+
+        item.registerListener(new StorageItemListener() {
+
+            @Override
+            public void afterSave(StorageItem item) {
+                try {
+                    uploading.await(5, TimeUnit.SECONDS);
+
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+
+                item.getMetadata().put("width", 100);
+            }
+        });
+
+        FileItem fileItem = new FileItem();
+
+        fileItem.getState().setDatabase(database);
+        fileItem.name = "old";
+        fileItem.file = item;
+        fileItem.save();
+
+        Future<StorageItem> save = StorageItem.Static.saveAsync(item, new ResaveStorageItemListener(fileItem));
+
+        // Edited and saved by someone else while the item is uploading.
+        FileItem edited = read(fileItem);
+
+        edited.name = "new";
+        edited.save();
+        uploading.countDown();
+        save.get(5, TimeUnit.SECONDS);
+
+        FileItem saved = read(fileItem);
+
+        assertEquals("new", saved.name);
+        assertEquals(100L, ((Number) saved.file.getMetadata().get("width")).longValue());
+    }
+
+    private FileItem read(FileItem fileItem) {
+        return Query.from(FileItem.class).using(database).where("_id = ?", fileItem.getId()).noCache().first();
+    }
+
+    public static class FileItem extends Record {
+
+        String name;
+        StorageItem file;
+    }
+}
@@ -0,0 +1,66 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.iq80.snappy.Snappy;
+import org.junit.Test;
+
+import com.psddev.dari.util.ObjectUtils;
+
+public class SqlDatabaseDataTest {
+
+    private static Map<String, Object> values(int size) {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        StringBuilder name = new StringBuilder();
+
+        for (int i = 0; i < size; ++ i) {
+            name.append('x');
+        }
+
+        values.put("name", name.toString());
+        values.put("count", 12L);
+        return values;
+    }
+
+    private static byte[] compress(byte[] bytes) {
+        byte[] compressed = new byte[Snappy.maxCompressedLength(bytes.length) + 1];
+
+        compressed[0] = 's';
+        return Arrays.copyOf(compressed, Snappy.compress(bytes, 0, bytes.length, compressed, 1) + 1);
+    }
+
+    @Test
+    public void unserialize_uncompressed() {
+        Map<String, Object> values = values(10);
+
+        assertEquals(values, SqlDatabase.unserializeData(ObjectUtils.toJsonBytes(values)));
+    }
+
+    @Test
+    public void unserialize_compressed() {
+        Map<String, Object> large = values(1000);
+        Map<String, Object> small = values(10);
+
+        // The buffer that's reused for the larger data shouldn't leak into
+        // the smaller one.
+        assertEquals(large, SqlDatabase.unserializeData(compress(ObjectUtils.toJsonBytes(large))));
+        assertEquals(small, SqlDatabase.unserializeData(compress(ObjectUtils.toJsonBytes(small))));
+        assertEquals(large, SqlDatabase.unserializeData(compress(ObjectUtils.toJsonBytes(large))));
+    }
+
+    @Test
+    public void unserialize_compressedLarge() {
+        Map<String, Object> values = values(100000);
+
+        assertEquals(values, SqlDatabase.unserializeData(compress(ObjectUtils.toJsonBytes(values))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unserialize_unknown() {
+        SqlDatabase.unserializeData(new byte[] { 'x' });
+    }
+}
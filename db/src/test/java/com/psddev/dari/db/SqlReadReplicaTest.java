@@ -0,0 +1,301 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jolbox.bonecp.BoneCPDataSource;
+import com.psddev.dari.util.UuidUtils;
+
+public class SqlReadReplicaTest {
+
+    private String jdbcUrl;
+    private SqlDatabase database;
+    private SqlReadReplica first;
+    private SqlReadReplica second;
+
+    @Before
+    public void before() {
+        jdbcUrl = "jdbc:h2:mem:" + UuidUtils.createSequentialUuid().toString().replaceAll("-", "") + ";DB_CLOSE_DELAY=-1";
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(SqlDatabase.JDBC_URL_SETTING, jdbcUrl);
+        settings.put(SqlDatabase.REPLICA_PROBE_INTERVAL_SUB_SETTING, 0);
+
+        database = new SqlDatabase();
+        database.setName("JUnit Read Replica Test");
+        database.doInitialize(null, settings);
+
+        // Loads the types before counting the reads.
+        read(1);
+
+        first = new SqlReadReplica("first", database.getDataSource(), 1);
+        second = new SqlReadReplica("second", database.getDataSource(), 1);
+    }
+
+    @After
+    public void after() {
+        database.setReadReplicas(null);
+        database.close();
+    }
+
+    private void read(int count) {
+        for (int i = 0; i < count; ++ i) {
+            Query.from(ReplicaItem.class).using(database).first();
+        }
+    }
+
+    @Test
+    public void weighted() {
+        SqlReadReplica disabled = new SqlReadReplica("disabled", database.getDataSource(), 0);
+
+        database.setReadReplicas(Arrays.asList(first, disabled));
+        read(20);
+
+        assertEquals(20, first.getReads());
+        assertEquals(0, disabled.getReads());
+        assertEquals(0, first.getOutstanding());
+    }
+
+    @Test
+    public void leastOutstanding() {
+        database.setReadReplicas(Arrays.asList(first, second));
+        database.setReadBalancing(SqlDatabase.ReadBalancing.LEAST_OUTSTANDING);
+
+        Connection a = database.openReadConnection();
+        Connection b = database.openReadConnection();
+
+        try {
+            assertEquals(1, first.getOutstanding());
+            assertEquals(1, second.getOutstanding());
+
+        } finally {
+            database.closeConnection(a);
+            database.closeConnection(b);
+        }
+
+        assertEquals(0, first.getOutstanding());
+        assertEquals(0, second.getOutstanding());
+    }
+
+    @Test
+    public void maximumLag() {
+        database.setReadReplicas(Arrays.asList(first, second));
+        database.setMaximumReplicaLag(10.0);
+        first.setLag(30.0);
+        read(10);
+
+        assertEquals(0, first.getReads());
+        assertEquals(10, second.getReads());
+
+        second.setLag(Double.POSITIVE_INFINITY);
+        read(10);
+
+        assertEquals(0, first.getReads());
+        assertEquals(10, second.getReads());
+    }
+
+    @Test
+    public void readYourWrites() {
+        database.setReadReplicas(Arrays.asList(first));
+        database.setReadYourWritesDuration(60.0);
+
+        ReplicaItem item = new ReplicaItem();
+
+        item.getState().setDatabase(database);
+        item.save();
+
+        long reads = first.getReads();
+
+        read(5);
+
+        assertEquals(reads, first.getReads());
+
+        database.setReadYourWritesDuration(0.0);
+        read(5);
+
+        assertEquals(reads + 5, first.getReads());
+    }
+
+    @Test
+    public void readYourWrites_groupCommit() throws Exception {
+        BlockingDatabase grouped = new BlockingDatabase();
+        Map<String, Object> settings = new HashMap<String, Object>();
+
+        settings.put(SqlDatabase.JDBC_URL_SETTING, jdbcUrl);
+        settings.put(SqlDatabase.REPLICA_PROBE_INTERVAL_SUB_SETTING, 0);
+        grouped.setName("JUnit Read Replica Group Commit Test");
+        grouped.doInitialize(null, settings);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            save(grouped);
+            grouped.setGroupCommit(true);
+            grouped.setReadReplicas(Arrays.asList(first));
+            grouped.setReadYourWritesDuration(60.0);
+
+            CountDownLatch block = new CountDownLatch(1);
+
+            grouped.block = block;
+            Future<Boolean> blocked = submitSaveAndRead(executor, grouped);
+
+            assertTrue(grouped.started.await(5, TimeUnit.SECONDS));
+
+            // Merged into one transaction that's committed by one of them.
+            Future<Boolean> second = submitSaveAndRead(executor, grouped);
+            Future<Boolean> third = submitSaveAndRead(executor, grouped);
+
+            Thread.sleep(200);
+            block.countDown();
+
+            assertFalse(blocked.get());
+            assertFalse(second.get());
+            assertFalse(third.get());
+
+        } finally {
+            executor.shutdownNow();
+            grouped.setReadReplicas(null);
+            grouped.close();
+        }
+    }
+
+    private void save(Database database) {
+        ReplicaItem item = new ReplicaItem();
+
+        item.getState().setDatabase(database);
+        item.save();
+    }
+
+    // Returns {@code true} if the read after the save goes to a replica.
+    private Future<Boolean> submitSaveAndRead(ExecutorService executor, final SqlDatabase database) {
+        return executor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                save(database);
+
+                Connection connection = database.openReadConnection();
+
+                try {
+                    return Proxy.isProxyClass(connection.getClass());
+
+                } finally {
+                    database.closeConnection(connection);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void retryDelay() throws Exception {
+        database.setReadReplicas(Arrays.asList(first));
+        first.setRetryDelay(100L);
+        first.setAvailable(false);
+        read(5);
+
+        assertEquals(0, first.getReads());
+
+        Thread.sleep(200);
+        read(5);
+
+        assertEquals(5, first.getReads());
+        assertTrue(first.isAvailable());
+    }
+
+    @Test
+    public void probe() {
+        BoneCPDataSource broken = new BoneCPDataSource();
+
+        broken.setJdbcUrl("jdbc:h2:file:/nonexistent/replica;IFEXISTS=TRUE");
+        broken.setConnectionTimeoutInMs(1000L);
+
+        SqlReadReplica unavailable = new SqlReadReplica("unavailable", broken, 100);
+
+        try {
+            database.setReadReplicas(Arrays.asList(first, unavailable));
+            database.probeReadReplicas();
+
+            assertTrue(first.isAvailable());
+            assertEquals(false, unavailable.isAvailable());
+            assertTrue(unavailable.getLastProbe() > 0);
+
+            read(10);
+
+            assertEquals(10, first.getReads());
+            assertEquals(0, unavailable.getReads());
+
+        } finally {
+            broken.close();
+        }
+    }
+
+    @Test
+    public void settings() {
+        Map<String, Object> replicaSettings = new HashMap<String, Object>();
+        replicaSettings.put(SqlDatabase.JDBC_URL_SETTING, jdbcUrl);
+        replicaSettings.put(SqlDatabase.READ_REPLICA_WEIGHT_SUB_SETTING, "3");
+
+        Map<String, Object> replicas = new HashMap<String, Object>();
+        replicas.put("replica", replicaSettings);
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(SqlDatabase.JDBC_URL_SETTING, jdbcUrl);
+        settings.put(SqlDatabase.READ_REPLICAS_SUB_SETTING, replicas);
+        settings.put(SqlDatabase.READ_BALANCING_SUB_SETTING, "least_outstanding");
+        settings.put(SqlDatabase.REPLICA_PROBE_INTERVAL_SUB_SETTING, 0);
+
+        database.doInitialize(null, settings);
+
+        assertEquals(1, database.getReadReplicas().size());
+        assertEquals("replica", database.getReadReplicas().get(0).getName());
+        assertEquals(3, database.getReadReplicas().get(0).getWeight());
+        assertEquals(SqlDatabase.ReadBalancing.LEAST_OUTSTANDING, database.getReadBalancing());
+
+        read(3);
+
+        assertEquals(3, database.getReadReplicas().get(0).getReads());
+    }
+
+    private static class BlockingDatabase extends SqlDatabase {
+
+        public final CountDownLatch started = new CountDownLatch(1);
+        public volatile CountDownLatch block;
+
+        @Override
+        protected void doWrites(Connection connection, boolean isImmediate, List<State> saves, List<State> indexes, List<State> deletes) throws Exception {
+            CountDownLatch b = block;
+
+            if (b != null) {
+                block = null;
+                started.countDown();
+                b.await(5, TimeUnit.SECONDS);
+            }
+
+            super.doWrites(connection, isImmediate, saves, indexes, deletes);
+        }
+    }
+
+    public static class ReplicaItem extends Record {
+
+        @Indexed
+        String name;
+    }
+}
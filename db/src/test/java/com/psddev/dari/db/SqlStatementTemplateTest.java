@@ -0,0 +1,105 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.db.SimpleIndexTest.TestRecord;
+
+public class SqlStatementTemplateTest {
+
+    private static TestDatabase testDatabase;
+    private static SqlDatabase database;
+
+    @BeforeClass
+    public static void beforeClass() {
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        database = (SqlDatabase) testDatabase.get();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (testDatabase != null) {
+            testDatabase.close();
+        }
+    }
+
+    private Query<TestRecord> query() {
+        return Query.from(TestRecord.class).using(database);
+    }
+
+    private void assertRendered(Query<?> first, Query<?> second) {
+        assertEquals(
+                SqlQuery.getTemplateKey("select", first),
+                SqlQuery.getTemplateKey("select", second));
+
+        SqlQuery.StatementTemplate select = new SqlQuery(database, first).createTemplate(false);
+        SqlQuery.StatementTemplate count = new SqlQuery(database, first).createTemplate(true);
+
+        assertNotNull(select);
+        assertNotNull(count);
+        assertEquals(new SqlQuery(database, first).selectStatement(), select.render(first));
+        assertEquals(new SqlQuery(database, second).selectStatement(), select.render(second));
+        assertEquals(new SqlQuery(database, second).countStatement(), count.render(second));
+        assertEquals(new SqlQuery(database, second).selectStatement(), database.buildSelectStatement(second));
+        assertEquals(new SqlQuery(database, second).countStatement(), database.buildCountStatement(second));
+    }
+
+    @Test
+    public void render_equals() {
+        assertRendered(
+                query().where("testString = ?", "foo").sortAscending("testIntObject"),
+                query().where("testString = ?", "it's").sortAscending("testIntObject"));
+    }
+
+    @Test
+    public void render_compound() {
+        assertRendered(
+                query().where("testString startsWith ? and (testIntObject > ? or testDate < ?)", "a", 1, new Date(0)),
+                query().where("testString startsWith ? and (testIntObject > ? or testDate < ?)", "b", 2, new Date()));
+    }
+
+    @Test
+    public void render_multipleValues() {
+        assertRendered(
+                query().where("testUuid = ? and testString != ?", Arrays.asList(UUID.randomUUID(), UUID.randomUUID()), "x"),
+                query().where("testUuid = ? and testString != ?", Arrays.asList(UUID.randomUUID(), UUID.randomUUID()), "y"));
+    }
+
+    @Test
+    public void render_missing() {
+        assertRendered(
+                query().where("testString = missing or testDoubleObject <= ?", 1.5),
+                query().where("testString = missing or testDoubleObject <= ?", 2.5));
+    }
+
+    @Test
+    public void getTemplateKey_shape() {
+        assertEquals(
+                SqlQuery.getTemplateKey("select", query().where("testString = ?", "a")),
+                SqlQuery.getTemplateKey("select", query().where("testString = ?", "b")));
+
+        assertEquals(false, SqlQuery.getTemplateKey("select", query().where("testString = ?", "a")).equals(
+                SqlQuery.getTemplateKey("select", query().where("testString = ?", Arrays.asList("a", "b")))));
+
+        assertEquals(false, SqlQuery.getTemplateKey("select", query().where("testString = ?", "a")).equals(
+                SqlQuery.getTemplateKey("select", query().where("testString = missing"))));
+
+        assertEquals(false, SqlQuery.getTemplateKey("select", query().where("testString = ?", "a")).equals(
+                SqlQuery.getTemplateKey("count", query().where("testString = ?", "a"))));
+    }
+
+    @Test
+    public void getTemplateKey_unsupported() {
+        assertNull(SqlQuery.getTemplateKey("select", query().where("testString = ?", Query.from(TestRecord.class))));
+        assertNull(SqlQuery.getTemplateKey("select", query().where("testLocation = ?", new Location(1, 2))));
+    }
+}
@@ -0,0 +1,202 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.UuidUtils;
+
+public class TypeSnapshotTest {
+
+    private File file;
+    private UUID rootTypeId;
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("types", ".types");
+        file.delete();
+        rootTypeId = UuidUtils.createSequentialUuid();
+    }
+
+    @After
+    public void after() {
+        file.delete();
+    }
+
+    private Map<String, Object> values() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("internalName", "foo");
+        values.put("fields", new ArrayList<Object>(Arrays.asList(1, 2.5, "x")));
+        return values;
+    }
+
+    @Test
+    public void save_load() {
+        TypeSnapshot snapshot = new TypeSnapshot(file, "db", rootTypeId);
+        String hash = snapshot.hash(Arrays.<Class<?>>asList(TypeSnapshotTest.class));
+
+        assertNotNull(hash);
+        snapshot.put("Foo", hash, values());
+        snapshot.save();
+
+        snapshot = new TypeSnapshot(file, "db", rootTypeId);
+        assertEquals(TypeSnapshot.normalize(values()), snapshot.get("Foo", hash));
+        assertNull(snapshot.get("Foo", "other"));
+        assertNull(snapshot.get("Bar", hash));
+    }
+
+    @Test
+    public void different_database() {
+        TypeSnapshot snapshot = new TypeSnapshot(file, "db", rootTypeId);
+        String hash = snapshot.hash(Arrays.<Class<?>>asList(TypeSnapshotTest.class));
+
+        snapshot.put("Foo", hash, values());
+        snapshot.save();
+
+        assertNull(new TypeSnapshot(file, "other", rootTypeId).get("Foo", hash));
+        assertNull(new TypeSnapshot(file, "db", UuidUtils.createSequentialUuid()).get("Foo", hash));
+    }
+
+    @Test
+    public void hash_depends_on_classes() {
+        TypeSnapshot snapshot = new TypeSnapshot(file, "db", rootTypeId);
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+
+        classes.add(ObjectType.class);
+        String hash1 = snapshot.hash(classes);
+
+        classes.add(TypeSnapshotTest.class);
+        String hash2 = snapshot.hash(classes);
+
+        assertFalse(hash1.equals(hash2));
+        assertEquals(hash2, snapshot.hash(classes));
+    }
+
+    @Test
+    public void collect_dependencies() {
+        Set<Class<?>> collected = TypeSnapshot.collect(Arrays.<Class<?>>asList(SnapshotItem.class));
+
+        assertTrue(collected.contains(SnapshotItem.class));
+        assertTrue(collected.contains(Record.class));
+        assertTrue(collected.contains(Recordable.CollectionMaximum.class));
+        assertTrue(collected.contains(CollectionMaximumProcessor.class));
+        assertTrue(collected.contains(SnapshotDependency.class));
+        assertTrue(collected.contains(SnapshotEmbedded.class));
+
+        // Only the declaration of the field types is read.
+        assertFalse(collected.contains(SnapshotUnrelated.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void initializeFailure_notSaved() throws IOException {
+        File directory = File.createTempFile("types", "");
+        Map<String, Object> overrides = new HashMap<String, Object>();
+        SqlDatabase database = new SqlDatabase();
+
+        directory.delete();
+        CollectionUtils.putByPath(overrides, DatabaseEnvironment.TYPE_SNAPSHOT_DIRECTORY_SETTING, directory.getPath());
+        Settings.putPermanentOverrides(TypeSnapshotTest.class.getName(), overrides);
+        SnapshotBrokenProcessor.broken = true;
+
+        try {
+            Map<String, Object> settings = new HashMap<String, Object>();
+
+            settings.put(SqlDatabase.JDBC_URL_SETTING, "jdbc:h2:mem:" + UuidUtils.createSequentialUuid().toString().replaceAll("-", "") + ";DB_CLOSE_DELAY=-1");
+            database.setName("JUnit Type Snapshot Test");
+            database.doInitialize(null, settings);
+            database.getEnvironment().getTypes();
+
+            InputStream input = new GZIPInputStream(new FileInputStream(new File(directory, database.getName() + ".types")));
+            Map<String, Object> types;
+
+            try {
+                types = (Map<String, Object>) ((Map<String, Object>) ObjectUtils.fromJson(IoUtils.toByteArray(input))).get("types");
+            } finally {
+                input.close();
+            }
+
+            assertTrue(types.containsKey(SnapshotItem.class.getName()));
+            assertFalse(types.containsKey(SnapshotBroken.class.getName()));
+
+        } finally {
+            SnapshotBrokenProcessor.broken = false;
+            Settings.removePermanentOverrides(TypeSnapshotTest.class.getName());
+            database.close();
+            IoUtils.delete(new File(directory, database.getName() + ".types"));
+            IoUtils.delete(directory);
+        }
+    }
+
+    public static class SnapshotItem extends Record {
+
+        @Recordable.CollectionMaximum(2)
+        List<SnapshotDependency> dependencies;
+
+        SnapshotEmbedded[] embedded;
+    }
+
+    public static class SnapshotDependency extends Record {
+
+        SnapshotUnrelated unrelated;
+    }
+
+    @Recordable.Embedded
+    public static class SnapshotEmbedded extends Record {
+    }
+
+    public static class SnapshotUnrelated {
+    }
+
+    @Documented
+    @ObjectType.AnnotationProcessorClass(SnapshotBrokenProcessor.class)
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface SnapshotBrokenAnnotation {
+    }
+
+    // Fails like a class that was redefined halfway through.
+    public static class SnapshotBrokenProcessor implements ObjectType.AnnotationProcessor<SnapshotBrokenAnnotation> {
+
+        public static volatile boolean broken;
+
+        @Override
+        public void process(ObjectType type, SnapshotBrokenAnnotation annotation) {
+            if (broken) {
+                throw new IncompatibleClassChangeError("Test error!");
+            }
+        }
+    }
+
+    @SnapshotBrokenAnnotation
+    public static class SnapshotBroken extends Record {
+    }
+}
@@ -0,0 +1,151 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.UuidUtils;
+
+public class WriteBehindSpoolTest {
+
+    private File file;
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("spool", ".dat");
+        file.delete();
+    }
+
+    @After
+    public void after() {
+        file.delete();
+    }
+
+    private WriteBehindSpool.Entry entry(WriteOperation operation, UUID id, int dataLength) {
+        byte[] data = new byte[dataLength];
+        Arrays.fill(data, (byte) 'x');
+        return new WriteBehindSpool.Entry(operation, true, id, null, data);
+    }
+
+    @Test
+    public void append_read_acknowledge() throws Exception {
+        WriteBehindSpool spool = new WriteBehindSpool(file, 4096);
+        UUID id = UuidUtils.createSequentialUuid();
+        UUID typeId = UuidUtils.createSequentialUuid();
+
+        assertTrue(spool.isEmpty());
+        assertTrue(spool.append(Arrays.asList(new WriteBehindSpool.Entry(WriteOperation.SAVE_UNSAFELY, false, id, typeId, new byte[] { 1, 2, 3 })), 0L));
+        assertFalse(spool.isEmpty());
+
+        List<WriteBehindSpool.Entry> entries = spool.read(10);
+        assertEquals(1, entries.size());
+
+        WriteBehindSpool.Entry entry = entries.get(0);
+        assertEquals(WriteOperation.SAVE_UNSAFELY, entry.getOperation());
+        assertFalse(entry.isNew());
+        assertEquals(id, entry.getId());
+        assertEquals(typeId, entry.getTypeId());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, entry.getData());
+
+        spool.acknowledge(entries);
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void replay_after_reopen() throws Exception {
+        UUID id1 = UuidUtils.createSequentialUuid();
+        UUID id2 = UuidUtils.createSequentialUuid();
+        WriteBehindSpool spool = new WriteBehindSpool(file, 4096);
+
+        spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id1, 10), entry(WriteOperation.DELETE, id2, 0)), 0L);
+        spool.acknowledge(spool.read(1));
+        spool.close();
+
+        spool = new WriteBehindSpool(file, 4096);
+        List<WriteBehindSpool.Entry> entries = spool.read(10);
+
+        assertEquals(1, entries.size());
+        assertEquals(WriteOperation.DELETE, entries.get(0).getOperation());
+        assertEquals(id2, entries.get(0).getId());
+        assertNull(entries.get(0).getTypeId());
+        spool.close();
+    }
+
+    @Test
+    public void full_then_compacted() throws Exception {
+        WriteBehindSpool spool = new WriteBehindSpool(file, 1024);
+        UUID id = UuidUtils.createSequentialUuid();
+
+        for (int i = 0; i < 4; ++ i) {
+            assertTrue(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+        }
+
+        assertFalse(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+
+        spool.acknowledge(spool.read(2));
+        assertTrue(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+        assertEquals(3, spool.read(10).size());
+        spool.close();
+    }
+
+    @Test
+    public void reserve_append_release() throws Exception {
+        WriteBehindSpool spool = new WriteBehindSpool(file, 1024);
+        UUID id = UuidUtils.createSequentialUuid();
+        List<WriteBehindSpool.Entry> reserved = Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200));
+
+        for (int i = 0; i < 2; ++ i) {
+            assertTrue(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+        }
+
+        assertTrue(spool.reserve(reserved, 0L));
+
+        // The reserved space isn't available to the other writers.
+        assertTrue(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+        assertFalse(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+
+        spool.appendReserved(reserved);
+        assertEquals(4, spool.read(10).size());
+        spool.close();
+    }
+
+    @Test
+    public void reserve_release() throws Exception {
+        WriteBehindSpool spool = new WriteBehindSpool(file, 1024);
+        UUID id = UuidUtils.createSequentialUuid();
+        List<WriteBehindSpool.Entry> reserved = Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200));
+
+        for (int i = 0; i < 3; ++ i) {
+            assertTrue(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+        }
+
+        assertTrue(spool.reserve(reserved, 0L));
+        assertFalse(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+
+        spool.release(reserved);
+        assertTrue(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, id, 200)), 0L));
+        assertEquals(4, spool.read(10).size());
+        spool.close();
+    }
+
+    @Test
+    public void too_large() throws Exception {
+        WriteBehindSpool spool = new WriteBehindSpool(file, 1024);
+
+        assertFalse(spool.append(Arrays.asList(entry(WriteOperation.SAVE_UNSAFELY, UuidUtils.createSequentialUuid(), 2048)), 1000L));
+        spool.close();
+    }
+}
@@ -0,0 +1,307 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.UuidUtils;
+
+public class WriteBehindTaskTest {
+
+    private File file;
+    private FailingDatabase database;
+    private WriteBehindSpool spool;
+
+    // The spooled writes are applied in another thread.
+    private void setRetryLimit(int retryLimit) {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+
+        CollectionUtils.putByPath(overrides, "dari/databaseWriteBehindRetryInitialPause", 10L);
+        CollectionUtils.putByPath(overrides, "dari/databaseWriteBehindRetryFinalPause", 50L);
+        CollectionUtils.putByPath(overrides, "dari/databaseWriteBehindRetryLimit", retryLimit);
+        Settings.putPermanentOverrides(WriteBehindTaskTest.class.getName(), overrides);
+    }
+
+    @Before
+    public void before() throws IOException {
+        setRetryLimit(10);
+
+        file = File.createTempFile("spool", ".dat");
+        file.delete();
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(SqlDatabase.JDBC_URL_SETTING, "jdbc:h2:mem:" + UuidUtils.createSequentialUuid().toString().replaceAll("-", "") + ";DB_CLOSE_DELAY=-1");
+
+        database = new FailingDatabase();
+        database.setName("JUnit Write-Behind Test");
+        database.doInitialize(null, settings);
+
+        // Saves the types before spooling.
+        save("warm-up");
+
+        spool = new WriteBehindSpool(file, 1024 * 1024);
+        database.setWriteBehindSpool(spool);
+    }
+
+    @After
+    public void after() throws IOException {
+        database.setWriteBehindSpool(null);
+        spool.close();
+        database.close();
+        file.delete();
+        new File(file.getPath() + ".dead").delete();
+        Settings.removePermanentOverrides(WriteBehindTaskTest.class.getName());
+    }
+
+    private SpoolItem item(String name) {
+        SpoolItem item = new SpoolItem();
+
+        item.getState().setDatabase(database);
+        item.name = name;
+        return item;
+    }
+
+    private SpoolItem save(String name) {
+        SpoolItem item = item(name);
+
+        item.save();
+        return item;
+    }
+
+    private void saveEventually(SpoolItem... items) {
+        database.beginWrites();
+
+        try {
+            for (SpoolItem item : items) {
+                item.save();
+            }
+
+            database.commitWritesEventually();
+
+        } finally {
+            database.endWrites();
+        }
+    }
+
+    private SpoolItem read(UUID id) {
+        return Query.from(SpoolItem.class).using(database).where("_id = ?", id).master().noCache().first();
+    }
+
+    private void waitUntilApplied() throws InterruptedException {
+        for (int i = 0; i < 100 && !spool.isEmpty(); ++ i) {
+            Thread.sleep(100);
+        }
+
+        assertTrue(spool.isEmpty());
+    }
+
+    private void waitUntilSaved(UUID id) throws InterruptedException {
+        for (int i = 0; i < 100 && read(id) == null; ++ i) {
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void failedWrite_retained() throws Exception {
+        setRetryLimit(1000);
+
+        SpoolItem good1 = item("good1");
+        SpoolItem failing = item(FailingDatabase.FAIL_NAME);
+        SpoolItem good2 = item("good2");
+
+        database.failName = FailingDatabase.FAIL_NAME;
+        saveEventually(good1, failing, good2);
+
+        waitUntilSaved(good2.getId());
+        assertNotNull(read(good1.getId()));
+        assertNotNull(read(good2.getId()));
+        assertNull(read(failing.getId()));
+        assertFalse(spool.isEmpty());
+
+        database.failName = null;
+        waitUntilApplied();
+        assertNotNull(read(failing.getId()));
+    }
+
+    @Test
+    public void failedWrite_deadLetter() throws Exception {
+        setRetryLimit(2);
+
+        SpoolItem failing = item(FailingDatabase.FAIL_NAME);
+        SpoolItem good = item("good");
+
+        database.failName = FailingDatabase.FAIL_NAME;
+        saveEventually(failing, good);
+
+        waitUntilApplied();
+        assertNotNull(read(good.getId()));
+        assertNull(read(failing.getId()));
+
+        WriteBehindSpool deadLetter = new WriteBehindSpool(new File(file.getPath() + ".dead"), 1024 * 1024);
+
+        try {
+            List<WriteBehindSpool.Entry> entries = deadLetter.read(10);
+
+            assertEquals(1, entries.size());
+            assertEquals(failing.getId(), entries.get(0).getId());
+
+        } finally {
+            deadLetter.close();
+        }
+    }
+
+    @Test
+    public void unavailable_retained() throws Exception {
+        setRetryLimit(2);
+
+        SpoolItem item = item("unavailable");
+
+        database.unavailable = true;
+        saveEventually(item);
+
+        Thread.sleep(2000);
+        assertFalse(spool.isEmpty());
+
+        database.unavailable = false;
+        waitUntilApplied();
+        assertNotNull(read(item.getId()));
+    }
+
+    @Test
+    public void immediateAfterSpooled() throws Exception {
+        SpoolItem item = item("old");
+
+        database.unavailable = true;
+        saveEventually(item);
+
+        item.name = "new";
+        item.save();
+
+        database.unavailable = false;
+        waitUntilApplied();
+        assertEquals("new", read(item.getId()).name);
+
+        // Later spooled writes are still applied.
+        item.name = "newer";
+        saveEventually(item);
+
+        waitUntilApplied();
+        assertEquals("newer", read(item.getId()).name);
+    }
+
+    @Test
+    public void immediateIndexAfterSpooled() throws Exception {
+        SpoolItem item = item("spooled");
+
+        database.unavailable = true;
+        saveEventually(item);
+        database.index(item.getState());
+
+        database.unavailable = false;
+        waitUntilApplied();
+        assertEquals("spooled", read(item.getId()).name);
+    }
+
+    @Test
+    public void unique_notSpooled() throws Exception {
+        setRetryLimit(1000);
+
+        // Keeps everything that's spooled afterwards from being applied.
+        database.failName = FailingDatabase.FAIL_NAME;
+        saveEventually(item(FailingDatabase.FAIL_NAME));
+
+        UniqueSpoolItem first = new UniqueSpoolItem();
+
+        first.getState().setDatabase(database);
+        first.code = "unique";
+        database.beginWrites();
+
+        try {
+            first.save();
+            database.commitWritesEventually();
+
+        } finally {
+            database.endWrites();
+        }
+
+        assertNotNull(Query.from(UniqueSpoolItem.class).using(database).where("_id = ?", first.getId()).master().noCache().first());
+
+        UniqueSpoolItem second = new UniqueSpoolItem();
+
+        second.getState().setDatabase(database);
+        second.code = "unique";
+        database.beginWrites();
+
+        try {
+            second.save();
+            database.commitWritesEventually();
+            fail();
+
+        } catch (ValidationException error) {
+            // Expected.
+
+        } finally {
+            database.endWrites();
+        }
+
+        database.failName = null;
+        waitUntilApplied();
+    }
+
+    private static class FailingDatabase extends SqlDatabase {
+
+        public static final String FAIL_NAME = "fail";
+
+        public volatile String failName;
+        public volatile boolean unavailable;
+
+        // Only the spooled writes are affected.
+        @Override
+        protected void doWrites(Connection connection, boolean isImmediate, List<State> saves, List<State> indexes, List<State> deletes) throws Exception {
+            if (!isImmediate) {
+                if (unavailable) {
+                    throw new DatabaseException(this, "Test unavailable!");
+                }
+
+                if (saves != null) {
+                    for (State state : saves) {
+                        if (failName != null && failName.equals(state.get("name"))) {
+                            throw new DatabaseException(this, "Test error!");
+                        }
+                    }
+                }
+            }
+
+            super.doWrites(connection, isImmediate, saves, indexes, deletes);
+        }
+    }
+
+    public static class SpoolItem extends Record {
+
+        @Indexed
+        String name;
+    }
+
+    public static class UniqueSpoolItem extends Record {
+
+        @Indexed(unique = true)
+        String code;
+    }
+}
@@ -6,6 +6,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +22,10 @@ import org.slf4j.LoggerFactory;
  * <li>{@link #createData}</li>
  * <li>{@link #saveData}</li>
  * </ul>
+ *
+ * <p>Subclasses can also implement {@link #createMultipartUpload} so that
+ * large data is uploaded in chunks of {@value #CHUNK_SIZE_SUB_SETTING}
+ * bytes, several at a time, retrying each chunk on its own.</p>
  */
 public abstract class AbstractStorageItem implements StorageItem {
 
@@ -38,10 +43,28 @@ public abstract class AbstractStorageItem implements StorageItem {
      */
     public static final String SECURE_BASE_URL_SUB_SETTING = "secureBaseUrl";
 
+    /**
+     * Sub-setting key for the size of each chunk in bytes when uploading
+     * the data in chunks. Data that fits in one chunk is saved as is.
+     */
+    public static final String CHUNK_SIZE_SUB_SETTING = "chunkSize";
+
+    /** Sub-setting key for the number of chunks to upload at once. */
+    public static final String CHUNK_UPLOADS_SUB_SETTING = "chunkUploads";
+
+    /** Sub-setting key for the number of times to retry each chunk. */
+    public static final String CHUNK_RETRIES_SUB_SETTING = "chunkRetries";
+
     public static final String HTTP_HEADERS = "http.headers";
 
+    private static final int DEFAULT_CHUNK_UPLOADS = 4;
+    private static final int DEFAULT_CHUNK_RETRIES = 3;
+
     private transient String baseUrl;
     private transient String secureBaseUrl;
+    private transient int chunkSize;
+    private transient int chunkUploads = DEFAULT_CHUNK_UPLOADS;
+    private transient int chunkRetries = DEFAULT_CHUNK_RETRIES;
     private String storage;
     private String path;
     private String contentType;
@@ -81,6 +104,38 @@ public abstract class AbstractStorageItem implements StorageItem {
         this.secureBaseUrl = secureBaseUrl;
     }
 
+    /**
+     * Returns the size of each chunk in bytes when uploading the data in
+     * chunks.
+     *
+     * @return {@code 0} if the data isn't uploaded in chunks.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /** Returns the number of chunks to upload at once. */
+    public int getChunkUploads() {
+        return chunkUploads;
+    }
+
+    public void setChunkUploads(int chunkUploads) {
+        this.chunkUploads = chunkUploads;
+    }
+
+    /** Returns the number of times to retry each chunk. */
+    public int getChunkRetries() {
+        return chunkRetries;
+    }
+
+    public void setChunkRetries(int chunkRetries) {
+        this.chunkRetries = chunkRetries;
+    }
+
     /** Register a StorageItemListener. */
     public void registerListener(StorageItemListener plugin) {
         if (listeners == null) {
@@ -101,6 +156,22 @@ public abstract class AbstractStorageItem implements StorageItem {
     public void initialize(String settingsKey, Map<String, Object> settings) {
         setBaseUrl(ObjectUtils.to(String.class, settings.get(BASE_URL_SUB_SETTING)));
         setSecureBaseUrl(ObjectUtils.to(String.class, settings.get(SECURE_BASE_URL_SUB_SETTING)));
+
+        Integer chunkSize = ObjectUtils.to(Integer.class, settings.get(CHUNK_SIZE_SUB_SETTING));
+        Integer chunkUploads = ObjectUtils.to(Integer.class, settings.get(CHUNK_UPLOADS_SUB_SETTING));
+        Integer chunkRetries = ObjectUtils.to(Integer.class, settings.get(CHUNK_RETRIES_SUB_SETTING));
+
+        if (chunkSize != null) {
+            setChunkSize(chunkSize);
+        }
+
+        if (chunkUploads != null) {
+            setChunkUploads(chunkUploads);
+        }
+
+        if (chunkRetries != null) {
+            setChunkRetries(chunkRetries);
+        }
     }
 
     @Override
@@ -216,7 +287,11 @@ public abstract class AbstractStorageItem implements StorageItem {
     public void save() throws IOException {
         InputStream data = getData();
         try {
-            saveData(data);
+            if (getChunkSize() > 0) {
+                ChunkedUpload.save(this, data);
+            } else {
+                saveData(data);
+            }
             setData(null);
         } finally {
             data.close();
@@ -236,6 +311,40 @@ public abstract class AbstractStorageItem implements StorageItem {
     /** Saves the given {@code data} stream. */
     protected abstract void saveData(InputStream data) throws IOException;
 
+    /**
+     * Starts uploading the data in chunks. Default implementation returns
+     * {@code null}.
+     *
+     * @return {@code null} if this storage doesn't support uploading
+     *         in chunks.
+     */
+    protected MultipartUpload createMultipartUpload() throws IOException {
+        return null;
+    }
+
+    /**
+     * Data upload in chunks, started by {@link #createMultipartUpload}.
+     * Chunks may be uploaded concurrently, in any order, and more than
+     * once if they're retried.
+     */
+    public interface MultipartUpload {
+
+        /**
+         * Uploads the chunk with the given {@code partNumber}, starting at
+         * 1, that begins at the given {@code offset} in the data.
+         */
+        public void uploadPart(int partNumber, long offset, ByteBuffer data) throws IOException;
+
+        /**
+         * Completes the upload after all given {@code partCount} chunks
+         * were uploaded.
+         */
+        public void complete(int partCount) throws IOException;
+
+        /** Discards all chunks uploaded so far. */
+        public void abort() throws IOException;
+    }
+
     // --- Object support ---
 
     @Override
@@ -0,0 +1,290 @@
+package com.psddev.dari.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Multipart upload to S3 through its REST API, since the JetS3t version
+ * that {@link AmazonStorageItem} uses doesn't support it.
+ */
+class AmazonMultipartUpload implements AbstractStorageItem.MultipartUpload {
+
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    private static final String AMAZON_HEADER_PREFIX = "x-amz-";
+    private static final String PART_CONTENT_TYPE = "application/octet-stream";
+    private static final String XML_CONTENT_TYPE = "application/xml";
+
+    private final String endpoint;
+    private final String access;
+    private final String secret;
+    private final String resource;
+    private final String uploadId;
+    private final Map<Integer, String> etags = new ConcurrentHashMap<Integer, String>();
+
+    private AmazonMultipartUpload(String endpoint, String access, String secret, String resource, String uploadId) {
+        this.endpoint = endpoint;
+        this.access = access;
+        this.secret = secret;
+        this.resource = resource;
+        this.uploadId = uploadId;
+    }
+
+    /**
+     * Starts a multipart upload of the object with the given {@code key}
+     * in the given {@code bucket}.
+     *
+     * @param endpoint Base URL of the S3 REST API, such as
+     *        {@code https://s3.amazonaws.com}.
+     * @param headers Additional object headers, such as
+     *        {@code Content-Disposition} or {@code x-amz-meta-*}.
+     */
+    public static AmazonMultipartUpload initiate(
+            String endpoint,
+            String access,
+            String secret,
+            String bucket,
+            String key,
+            String contentType,
+            Map<String, String> headers)
+            throws IOException {
+
+        StringBuilder resource = new StringBuilder();
+
+        resource.append('/');
+        resource.append(bucket);
+
+        for (String segment : key.split("/", -1)) {
+            resource.append('/');
+            resource.append(StringUtils.encodeUri(segment));
+        }
+
+        Map<String, String> initiateHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+        if (headers != null) {
+            initiateHeaders.putAll(headers);
+        }
+
+        initiateHeaders.put("x-amz-acl", "public-read");
+
+        AmazonMultipartUpload upload = new AmazonMultipartUpload(endpoint, access, secret, resource.toString(), null);
+        String response = upload.request(
+                "POST",
+                "?uploads",
+                "?uploads",
+                ObjectUtils.isBlank(contentType) ? PART_CONTENT_TYPE : contentType,
+                initiateHeaders,
+                ByteBuffer.allocate(0),
+                null);
+
+        Matcher uploadIdMatcher = UPLOAD_ID_PATTERN.matcher(response);
+
+        if (!uploadIdMatcher.find()) {
+            throw new IOException(String.format(
+                    "No upload ID in the response to starting [%s]!",
+                    resource));
+        }
+
+        return new AmazonMultipartUpload(endpoint, access, secret, resource.toString(), uploadIdMatcher.group(1));
+    }
+
+    /** Returns the ID that S3 assigned to this upload. */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    @Override
+    public void uploadPart(int partNumber, long offset, ByteBuffer data) throws IOException {
+        String[] etag = new String[1];
+
+        request(
+                "PUT",
+                "?partNumber=" + partNumber + "&uploadId=" + StringUtils.encodeUri(uploadId),
+                "?partNumber=" + partNumber + "&uploadId=" + uploadId,
+                PART_CONTENT_TYPE,
+                null,
+                data,
+                etag);
+
+        if (ObjectUtils.isBlank(etag[0])) {
+            throw new IOException(String.format(
+                    "No ETag in the response to uploading part [%s] of [%s]!",
+                    partNumber, resource));
+        }
+
+        etags.put(partNumber, etag[0]);
+    }
+
+    @Override
+    public void complete(int partCount) throws IOException {
+        StringBuilder xml = new StringBuilder();
+
+        xml.append("<CompleteMultipartUpload>");
+
+        for (int partNumber = 1; partNumber <= partCount; ++ partNumber) {
+            String etag = etags.get(partNumber);
+
+            if (etag == null) {
+                throw new IOException(String.format(
+                        "Part [%s] of [%s] wasn't uploaded!",
+                        partNumber, resource));
+            }
+
+            xml.append("<Part><PartNumber>");
+            xml.append(partNumber);
+            xml.append("</PartNumber><ETag>");
+            xml.append(StringUtils.escapeHtml(etag));
+            xml.append("</ETag></Part>");
+        }
+
+        xml.append("</CompleteMultipartUpload>");
+
+        String response = request(
+                "POST",
+                "?uploadId=" + StringUtils.encodeUri(uploadId),
+                "?uploadId=" + uploadId,
+                XML_CONTENT_TYPE,
+                null,
+                ByteBuffer.wrap(xml.toString().getBytes(StringUtils.UTF_8)),
+                null);
+
+        // S3 can report an error after it already sent a 200 status.
+        if (response.contains("<Error>")) {
+            throw new IOException(String.format(
+                    "Can't complete the upload of [%s]! %s",
+                    resource, response));
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        request(
+                "DELETE",
+                "?uploadId=" + StringUtils.encodeUri(uploadId),
+                "?uploadId=" + uploadId,
+                null,
+                null,
+                null,
+                null);
+    }
+
+    // Sends a request signed with the S3 REST authentication scheme and
+    // returns the response body.
+    private String request(
+            String method,
+            String query,
+            String signedQuery,
+            String contentType,
+            Map<String, String> headers,
+            ByteBuffer body,
+            String[] etag)
+            throws IOException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        String date = dateFormat.format(new Date());
+        SortedMap<String, String> amazonHeaders = new TreeMap<String, String>();
+        HttpURLConnection connection = (HttpURLConnection) new URL(StringUtils.removeEnd(endpoint, "/") + resource + query).openConnection();
+
+        connection.setRequestMethod(method);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Date", date);
+
+        if (contentType != null) {
+            connection.setRequestProperty("Content-Type", contentType);
+        }
+
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                String name = entry.getKey();
+                String value = entry.getValue();
+
+                connection.setRequestProperty(name, value);
+
+                if (name.toLowerCase(Locale.ENGLISH).startsWith(AMAZON_HEADER_PREFIX)) {
+                    amazonHeaders.put(name.toLowerCase(Locale.ENGLISH), value.trim());
+                }
+            }
+        }
+
+        StringBuilder toSign = new StringBuilder();
+
+        toSign.append(method).append('\n');
+        toSign.append('\n');
+        toSign.append(contentType != null ? contentType : "").append('\n');
+        toSign.append(date).append('\n');
+
+        for (Map.Entry<String, String> entry : amazonHeaders.entrySet()) {
+            toSign.append(entry.getKey()).append(':').append(entry.getValue()).append('\n');
+        }
+
+        toSign.append(resource).append(signedQuery);
+
+        connection.setRequestProperty("Authorization", "AWS " + access + ":" + DatatypeConverter.printBase64Binary(StringUtils.hmacSha1(secret, toSign.toString())));
+
+        try {
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.remaining());
+
+                OutputStream output = connection.getOutputStream();
+
+                try {
+                    WritableByteChannel channel = Channels.newChannel(output);
+
+                    while (body.hasRemaining()) {
+                        channel.write(body);
+                    }
+
+                } finally {
+                    output.close();
+                }
+            }
+
+            int status = connection.getResponseCode();
+
+            if (status < 200 || status > 299) {
+                InputStream errorInput = connection.getErrorStream();
+                String error = errorInput != null ? IoUtils.toString(errorInput, StringUtils.UTF_8) : "";
+
+                throw new IOException(String.format(
+                        "Can't %s [%s%s]! Status: [%s], Response: %s",
+                        method, resource, signedQuery, status, error));
+            }
+
+            if (etag != null) {
+                etag[0] = connection.getHeaderField("ETag");
+            }
+
+            InputStream input = connection.getInputStream();
+
+            try {
+                return IoUtils.toString(input, StringUtils.UTF_8);
+            } finally {
+                input.close();
+            }
+
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -37,9 +37,25 @@ public class AmazonStorageItem extends AbstractStorageItem {
     /** Setting key for S3 bucket name. */
     public static final String BUCKET_SETTING = "bucket";
 
+    /**
+     * Setting key for the S3 REST endpoint that's used when uploading in
+     * chunks.
+     */
+    public static final String ENDPOINT_SETTING = "endpoint";
+
+    /** Default S3 REST endpoint. */
+    public static final String DEFAULT_ENDPOINT = "https://s3.amazonaws.com";
+
+    /**
+     * Smallest chunk size in bytes that S3 accepts for all but the last
+     * part of a multipart upload.
+     */
+    public static final int MINIMUM_CHUNK_SIZE = 5 * 1024 * 1024;
+
     private transient String access;
     private transient String secret;
     private transient String bucket;
+    private transient String endpoint;
 
     /** Returns the S3 access key. */
     public String getAccess() {
@@ -71,6 +87,16 @@ public class AmazonStorageItem extends AbstractStorageItem {
         this.bucket = bucket;
     }
 
+    /** Returns the S3 REST endpoint that's used when uploading in chunks. */
+    public String getEndpoint() {
+        return !ObjectUtils.isBlank(endpoint) ? endpoint : DEFAULT_ENDPOINT;
+    }
+
+    /** Sets the S3 REST endpoint that's used when uploading in chunks. */
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
     // --- AbstractStorageItem support ---
 
     @Override
@@ -91,6 +117,24 @@ public class AmazonStorageItem extends AbstractStorageItem {
         if (ObjectUtils.isBlank(getBucket())) {
             throw new SettingsException(settingsKey + "/" + BUCKET_SETTING, "No bucket name!");
         }
+
+        setEndpoint(ObjectUtils.to(String.class, settings.get(ENDPOINT_SETTING)));
+
+        int chunkSize = getChunkSize();
+        if (chunkSize > 0 && chunkSize < getMinimumChunkSize()) {
+            throw new SettingsException(settingsKey + "/" + CHUNK_SIZE_SUB_SETTING, String.format(
+                    "Chunk size [%s] is less than the minimum of [%s] bytes!",
+                    chunkSize, getMinimumChunkSize()));
+        }
+    }
+
+    /**
+     * Returns the smallest chunk size in bytes that the
+     * {@linkplain #getEndpoint endpoint} accepts. Default implementation
+     * returns {@value #MINIMUM_CHUNK_SIZE}.
+     */
+    protected int getMinimumChunkSize() {
+        return MINIMUM_CHUNK_SIZE;
     }
 
     @Override
@@ -179,6 +223,56 @@ public class AmazonStorageItem extends AbstractStorageItem {
         }
     }
 
+    @Override
+    protected MultipartUpload createMultipartUpload() throws IOException {
+        int chunkSize = getChunkSize();
+
+        // S3 only rejects the small parts when the upload is completed.
+        if (chunkSize < getMinimumChunkSize()) {
+            throw new IllegalStateException(String.format(
+                    "Chunk size [%s] is less than the minimum of [%s] bytes that S3 accepts!",
+                    chunkSize, getMinimumChunkSize()));
+        }
+
+        String contentType = getContentType();
+        Map<String, String> objectHeaders = new CompactMap<String, String>();
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> headers = (Map<String, List<String>>) getMetadata().get(HTTP_HEADERS);
+
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                String key = entry.getKey();
+                List<String> values = entry.getValue();
+
+                if (values != null && !values.isEmpty()) {
+                    String value = values.get(0);
+
+                    if (key.equalsIgnoreCase("Content-Disposition") ||
+                            key.equalsIgnoreCase("Content-Language") ||
+                            key.equalsIgnoreCase("Content-Encoding")) {
+                        objectHeaders.put(key, value);
+
+                    } else if (key.equalsIgnoreCase("Content-Type")) {
+                        contentType = value;
+
+                    // The length of the whole object isn't known up front.
+                    } else if (!key.equalsIgnoreCase("Content-Length")) {
+                        objectHeaders.put("x-amz-meta-" + key, value);
+                    }
+                }
+            }
+        }
+
+        return AmazonMultipartUpload.initiate(
+                getEndpoint(),
+                getAccess(),
+                getSecret(),
+                getBucket(),
+                getPath(),
+                contentType,
+                objectHeaders);
+    }
+
     @Override
     public boolean isInStorage() {
         try {
@@ -0,0 +1,345 @@
+package com.psddev.dari.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the data of an {@link AbstractStorageItem} in chunks through its
+ * {@link AbstractStorageItem.MultipartUpload}.
+ *
+ * <p>The data is read into fixed-size direct buffers, and only as many of
+ * them are in use as there are chunks being uploaded plus the one that's
+ * being read, so the memory use doesn't depend on the size of the data.
+ * The buffers are reused across uploads of the same chunk size.</p>
+ */
+final class ChunkedUpload {
+
+    /** Name of the {@link TaskExecutor} that uploads the chunks. */
+    public static final String EXECUTOR_NAME = "Storage Item Chunks";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkedUpload.class);
+
+    private static final int MAXIMUM_POOLED_BUFFERS = 16;
+    private static final long INITIAL_RETRY_DELAY = 100L;
+
+    // Keyed by the size, since the storages can use different ones.
+    private static final ConcurrentMap<Integer, Queue<ByteBuffer>> POOLED_BUFFERS = new ConcurrentHashMap<Integer, Queue<ByteBuffer>>();
+
+    private ChunkedUpload() {
+    }
+
+    /**
+     * Saves the given {@code data} for the given {@code item} in chunks
+     * if it doesn't fit in one, or through
+     * {@link AbstractStorageItem#saveData} otherwise.
+     */
+    public static void save(AbstractStorageItem item, InputStream data) throws IOException {
+        int chunkSize = item.getChunkSize();
+        ReadableByteChannel channel = Channels.newChannel(data);
+        ByteBuffer first = acquireBuffer(chunkSize);
+        boolean firstReleased = false;
+
+        try {
+            boolean end = fill(channel, first);
+
+            first.flip();
+
+            if (end) {
+                item.saveData(new ByteBufferInputStream(first));
+                return;
+            }
+
+            AbstractStorageItem.MultipartUpload upload = item.createMultipartUpload();
+
+            if (upload == null) {
+                item.saveData(new SequenceInputStream(new ByteBufferInputStream(first), data));
+                return;
+            }
+
+            firstReleased = true;
+            upload(item, upload, channel, first);
+
+        } finally {
+            if (!firstReleased) {
+                releaseBuffer(first);
+            }
+        }
+    }
+
+    private static void upload(
+            AbstractStorageItem item,
+            final AbstractStorageItem.MultipartUpload upload,
+            ReadableByteChannel channel,
+            ByteBuffer first)
+            throws IOException {
+
+        final int chunkSize = item.getChunkSize();
+        final int retries = Math.max(0, item.getChunkRetries());
+        int maximumBuffers = Math.max(1, item.getChunkUploads()) + 1;
+        int allocatedBuffers = 1;
+        final BlockingQueue<ByteBuffer> freeBuffers = new LinkedBlockingQueue<ByteBuffer>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        TaskExecutor executor = TaskExecutor.Static.getInstance(EXECUTOR_NAME);
+        ByteBuffer buffer = first;
+        int partCount = 0;
+        long offset = 0L;
+        boolean completed = false;
+
+        try {
+            while (true) {
+                final ByteBuffer part = buffer;
+                final int partNumber = ++ partCount;
+                final long partOffset = offset;
+
+                buffer = null;
+                offset += part.remaining();
+
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        try {
+                            if (error.get() == null) {
+                                uploadPart(upload, partNumber, partOffset, part, retries);
+                            }
+
+                        } catch (Throwable partError) {
+                            error.compareAndSet(null, partError);
+
+                        } finally {
+                            freeBuffers.add(part);
+                        }
+
+                        return null;
+                    }
+                }));
+
+                if (part.limit() < chunkSize) {
+                    break;
+                }
+
+                buffer = freeBuffers.poll();
+
+                if (buffer == null) {
+                    if (allocatedBuffers < maximumBuffers) {
+                        buffer = acquireBuffer(chunkSize);
+                        ++ allocatedBuffers;
+
+                    } else {
+                        try {
+                            buffer = freeBuffers.take();
+
+                        } catch (InterruptedException interrupted) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException(interrupted);
+                        }
+                    }
+                }
+
+                if (error.get() != null) {
+                    break;
+                }
+
+                buffer.clear();
+                fill(channel, buffer);
+                buffer.flip();
+
+                // The previous chunk ended exactly at the end of the data.
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+            }
+
+            waitFor(futures);
+
+            Throwable partError = error.get();
+
+            if (partError != null) {
+                throw partError instanceof IOException ?
+                        (IOException) partError :
+                        new IOException(partError);
+            }
+
+            upload.complete(partCount);
+            completed = true;
+
+        } finally {
+            if (!completed) {
+                waitFor(futures);
+
+                try {
+                    upload.abort();
+
+                } catch (IOException abortError) {
+                    LOGGER.warn(String.format("Can't abort the chunked upload of [%s]!", item), abortError);
+                }
+            }
+
+            if (buffer != null) {
+                releaseBuffer(buffer);
+            }
+
+            for (ByteBuffer free; (free = freeBuffers.poll()) != null;) {
+                releaseBuffer(free);
+            }
+        }
+    }
+
+    // Uploads a chunk, retrying with an exponential backoff.
+    private static void uploadPart(
+            AbstractStorageItem.MultipartUpload upload,
+            int partNumber,
+            long offset,
+            ByteBuffer data,
+            int retries)
+            throws IOException, InterruptedException {
+
+        for (int attempt = 0;; ++ attempt) {
+            try {
+                upload.uploadPart(partNumber, offset, data.duplicate());
+                return;
+
+            } catch (IOException error) {
+                if (attempt >= retries) {
+                    throw error;
+                }
+
+                LOGGER.debug("Retrying chunk [{}] after [{}]", partNumber, error.getMessage());
+                Thread.sleep(INITIAL_RETRY_DELAY << attempt);
+            }
+        }
+    }
+
+    // Waits for all uploads to finish, ignoring their errors which are
+    // tracked separately.
+    private static void waitFor(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            boolean interrupted = false;
+
+            while (true) {
+                try {
+                    future.get();
+                    break;
+
+                } catch (ExecutionException error) {
+                    break;
+
+                } catch (InterruptedException error) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        futures.clear();
+    }
+
+    // Reads from the channel until the buffer is full, and returns true
+    // if the end of the data was reached first.
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static ByteBuffer acquireBuffer(int size) {
+        Queue<ByteBuffer> pool = POOLED_BUFFERS.get(size);
+        ByteBuffer buffer = pool != null ? pool.poll() : null;
+
+        if (buffer != null) {
+            buffer.clear();
+            return buffer;
+
+        } else {
+            return ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    static void releaseBuffer(ByteBuffer buffer) {
+        Integer size = buffer.capacity();
+        Queue<ByteBuffer> pool = POOLED_BUFFERS.get(size);
+
+        if (pool == null) {
+            Queue<ByteBuffer> newPool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+            pool = POOLED_BUFFERS.putIfAbsent(size, newPool);
+
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+
+        if (pool.size() < MAXIMUM_POOLED_BUFFERS) {
+            pool.add(buffer);
+        }
+    }
+
+    /** Input stream that reads the remaining bytes in a buffer. */
+    static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long number) {
+            int skipped = (int) Math.max(0L, Math.min(number, buffer.remaining()));
+
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+    }
+}
@@ -1,30 +1,60 @@
 package com.psddev.dari.util;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 
 import javax.tools.JavaFileObject;
 
+import org.objectweb.asm.ClassReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-
-/** For finding classes that are compatible with an arbitrary class. */
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * For finding classes that are compatible with an arbitrary class.
+ *
+ * <p>The class files are read without loading them, and only the classes
+ * that may be compatible are loaded to confirm. The headers are read once
+ * per class loader, with the JARs and the directories scanned in parallel.
+ * A JAR that contains an {@linkplain #INDEX_PATH index}, created at build
+ * time by {@link Indexer#main}, isn't scanned at all.</p>
+ */
 public class ClassFinder {
 
     /**
@@ -33,6 +63,13 @@ public class ClassFinder {
      */
     public static final String INCLUDE_ATTRIBUTE = "Dari-ClassFinder-Include";
 
+    /**
+     * Path to the index of all classes within a JAR file. Each line
+     * contains the class name, followed by the names of its superclass and
+     * its interfaces, separated by spaces.
+     */
+    public static final String INDEX_PATH = "META-INF/dari/class-index";
+
     private static final String CLASS_FILE_SUFFIX = JavaFileObject.Kind.CLASS.extension;
     private static final Logger LOGGER = LoggerFactory.getLogger(ClassFinder.class);
 
@@ -42,6 +79,15 @@ public class ClassFinder {
             "org.apache.catalina.loader.StandardClassLoader",
             "org.apache.jasper.servlet.JasperLoader"));
 
+    private final LoadingCache<ClassLoader, Map<String, String[]>> parentNamesByLoader = CacheBuilder.newBuilder().
+            weakKeys().
+            build(new CacheLoader<ClassLoader, Map<String, String[]>>() {
+                @Override
+                public Map<String, String[]> load(ClassLoader loader) {
+                    return scan(loader);
+                }
+            });
+
     /** Returns the set of class loader exclusions. */
     public Set<String> getClassLoaderExclusions() {
         if (classLoaderExclusions == null) {
@@ -53,6 +99,7 @@ public class ClassFinder {
     /** Sets the set of class loader exclusions. */
     public void setClassLoaderExclusions(Set<String> classLoaderExclusions) {
         this.classLoaderExclusions = classLoaderExclusions;
+        parentNamesByLoader.invalidateAll();
     }
 
     /**
@@ -60,29 +107,17 @@ public class ClassFinder {
      * {@code baseClass} within the given {@code loader}.
      */
     public <T> Set<Class<? extends T>> find(ClassLoader loader, Class<T> baseClass) {
-        Set<String> classNames = new HashSet<String>();
-        for (ClassLoader l = loader; l != null; l = l.getParent()) {
-            if (l instanceof URLClassLoader &&
-                    !getClassLoaderExclusions().contains(l.getClass().getName())) {
-                for (URL url : ((URLClassLoader) l).getURLs()) {
-                    processUrl(classNames, url);
-                }
-            }
-        }
+        Map<String, String[]> parentNamesByName = parentNamesByLoader.getUnchecked(loader);
+        Map<String, Compatibility> compatibilities = new HashMap<String, Compatibility>();
+        String baseName = baseClass.getName();
+        Set<Class<? extends T>> classes = new HashSet<Class<? extends T>>();
 
-        String classPath = System.getProperty("java.class.path");
-        if (!ObjectUtils.isBlank(classPath)) {
-            for (String path : StringUtils.split(classPath, Pattern.quote(File.pathSeparator))) {
-                try {
-                    processUrl(classNames, new File(path).toURI().toURL());
-                } catch (MalformedURLException error) {
-                    // Ignore JARs in the class path that can't be found.
-                }
+        for (String className : parentNamesByName.keySet()) {
+            if (className.equals(baseName) ||
+                    checkCompatibility(parentNamesByName, compatibilities, baseName, className) == Compatibility.NO) {
+                continue;
             }
-        }
 
-        Set<Class<? extends T>> classes = new HashSet<Class<? extends T>>();
-        for (String className : classNames) {
             try {
                 Class<?> c = Class.forName(className, false, loader);
                 if (!baseClass.equals(c) && baseClass.isAssignableFrom(c)) {
@@ -102,38 +137,158 @@ public class ClassFinder {
         return classes;
     }
 
+    private enum Compatibility {
+        YES,
+        NO,
+        MAYBE
+    }
+
     /**
-     * Processes the given {@code url} and adds all associated class
-     * files to the given {@code classNames}.
+     * Checks whether the class with the given {@code className} is
+     * compatible with the class with the given {@code baseName} by walking
+     * up the superclasses and the interfaces. The answer is only
+     * {@link Compatibility#MAYBE} if one of them wasn't scanned, such as
+     * the ones in the JDK.
      */
-    private void processUrl(Set<String> classNames, URL url) {
+    private Compatibility checkCompatibility(
+            Map<String, String[]> parentNamesByName,
+            Map<String, Compatibility> compatibilities,
+            String baseName,
+            String className) {
+
+        if (className.equals(baseName)) {
+            return Compatibility.YES;
+        }
 
-        if (url.getPath().endsWith(".jar")) {
-            try {
-                InputStream urlInput = url.openStream();
+        Compatibility compatibility = compatibilities.get(className);
+
+        if (compatibility != null) {
+            return compatibility;
+        }
+
+        String[] parentNames = parentNamesByName.get(className);
+
+        if (parentNames == null) {
+            compatibility = "java.lang.Object".equals(className) ? Compatibility.NO : Compatibility.MAYBE;
+
+        } else {
+            compatibility = Compatibility.NO;
+
+            // Guard against a cycle in broken class files.
+            compatibilities.put(className, Compatibility.MAYBE);
+
+            for (String parentName : parentNames) {
+                Compatibility parentCompatibility = checkCompatibility(parentNamesByName, compatibilities, baseName, parentName);
+
+                if (parentCompatibility == Compatibility.YES) {
+                    compatibility = Compatibility.YES;
+                    break;
+
+                } else if (parentCompatibility == Compatibility.MAYBE) {
+                    compatibility = Compatibility.MAYBE;
+                }
+            }
+        }
+
+        compatibilities.put(className, compatibility);
+        return compatibility;
+    }
+
+    /**
+     * Scans all URLs associated with the given {@code loader} in parallel
+     * and returns the names of the superclass and the interfaces of every
+     * class found, keyed by the class name.
+     */
+    private Map<String, String[]> scan(ClassLoader loader) {
+        Set<URL> urls = new LinkedHashSet<URL>();
+
+        for (ClassLoader l = loader; l != null; l = l.getParent()) {
+            if (l instanceof URLClassLoader &&
+                    !getClassLoaderExclusions().contains(l.getClass().getName())) {
+                urls.addAll(Arrays.asList(((URLClassLoader) l).getURLs()));
+            }
+        }
+
+        String classPath = System.getProperty("java.class.path");
+        if (!ObjectUtils.isBlank(classPath)) {
+            for (String path : StringUtils.split(classPath, Pattern.quote(File.pathSeparator))) {
                 try {
+                    urls.add(new File(path).toURI().toURL());
+                } catch (MalformedURLException error) {
+                    // Ignore JARs in the class path that can't be found.
+                }
+            }
+        }
+
+        Map<String, String[]> parentNamesByName = new HashMap<String, String[]>();
+        int threads = Math.min(urls.size(), Runtime.getRuntime().availableProcessors());
 
-                    @SuppressWarnings("all")
-                    JarInputStream jarInput = new JarInputStream(urlInput);
-                    Manifest manifest = jarInput.getManifest();
-                    if (manifest != null) {
-                        Attributes attributes = manifest.getMainAttributes();
-                        if (attributes != null &&
-                                Boolean.parseBoolean(attributes.getValue(INCLUDE_ATTRIBUTE))) {
-
-                            for (JarEntry entry; (entry = jarInput.getNextJarEntry()) != null;) {
-                                String name = entry.getName();
-                                if (name.endsWith(CLASS_FILE_SUFFIX)) {
-                                    String className = name.substring(0, name.length() - CLASS_FILE_SUFFIX.length());
-                                    className = className.replace('/', '.');
-                                    classNames.add(className);
-                                }
-                            }
+        if (threads <= 1) {
+            for (URL url : urls) {
+                processUrl(parentNamesByName, url);
+            }
+
+            return parentNamesByName;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().
+                setNameFormat("ClassFinder-%d").
+                setDaemon(true).
+                build());
+
+        try {
+            List<Future<Map<String, String[]>>> futures = new ArrayList<Future<Map<String, String[]>>>();
+
+            for (final URL url : urls) {
+                futures.add(executor.submit(new Callable<Map<String, String[]>>() {
+                    @Override
+                    public Map<String, String[]> call() {
+                        Map<String, String[]> urlParentNamesByName = new HashMap<String, String[]>();
+                        processUrl(urlParentNamesByName, url);
+                        return urlParentNamesByName;
+                    }
+                }));
+            }
+
+            // Merge in order so that the first URL wins, as before.
+            for (Future<Map<String, String[]>> future : futures) {
+                try {
+                    for (Map.Entry<String, String[]> entry : future.get().entrySet()) {
+                        if (!parentNamesByName.containsKey(entry.getKey())) {
+                            parentNamesByName.put(entry.getKey(), entry.getValue());
                         }
                     }
 
-                } finally {
-                    urlInput.close();
+                } catch (ExecutionException error) {
+                    LOGGER.debug("Can't scan classes!", error.getCause());
+                }
+            }
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return parentNamesByName;
+    }
+
+    /**
+     * Processes the given {@code url} and adds the parent names of all
+     * associated class files to the given {@code parentNamesByName}.
+     */
+    private void processUrl(Map<String, String[]> parentNamesByName, URL url) {
+
+        if (url.getPath().endsWith(".jar")) {
+            try {
+                File file = IoUtils.toFile(url, StringUtils.UTF_8);
+
+                if (file != null && file.isFile()) {
+                    processJarFile(parentNamesByName, file);
+
+                } else {
+                    processJarStream(parentNamesByName, url);
                 }
 
             } catch (IOException error) {
@@ -145,30 +300,240 @@ public class ClassFinder {
         } else {
             File file = IoUtils.toFile(url, StringUtils.UTF_8);
             if (file != null && file.isDirectory()) {
-                processFile(classNames, file, "");
+                processFile(parentNamesByName, file, "");
             }
         }
     }
 
+    private static boolean isIncluded(Manifest manifest) {
+        if (manifest != null) {
+            Attributes attributes = manifest.getMainAttributes();
+            return attributes != null &&
+                    Boolean.parseBoolean(attributes.getValue(INCLUDE_ATTRIBUTE));
+        }
+
+        return false;
+    }
+
+    /** Processes the given JAR {@code file} using random access. */
+    private void processJarFile(Map<String, String[]> parentNamesByName, File file) throws IOException {
+        JarFile jar = new JarFile(file);
+
+        try {
+            if (!isIncluded(jar.getManifest())) {
+                return;
+            }
+
+            JarEntry indexEntry = jar.getJarEntry(INDEX_PATH);
+
+            if (indexEntry != null) {
+                InputStream indexInput = jar.getInputStream(indexEntry);
+
+                try {
+                    readIndex(parentNamesByName, indexInput);
+                } finally {
+                    indexInput.close();
+                }
+
+                return;
+            }
+
+            for (Enumeration<JarEntry> i = jar.entries(); i.hasMoreElements();) {
+                JarEntry entry = i.nextElement();
+
+                if (entry.getName().endsWith(CLASS_FILE_SUFFIX)) {
+                    InputStream classInput = jar.getInputStream(entry);
+
+                    try {
+                        processClass(parentNamesByName, classInput);
+                    } finally {
+                        classInput.close();
+                    }
+                }
+            }
+
+        } finally {
+            jar.close();
+        }
+    }
+
+    /** Processes the JAR at the given {@code url} as a stream. */
+    private void processJarStream(Map<String, String[]> parentNamesByName, URL url) throws IOException {
+        InputStream urlInput = url.openStream();
+
+        try {
+            @SuppressWarnings("all")
+            JarInputStream jarInput = new JarInputStream(urlInput);
+
+            if (!isIncluded(jarInput.getManifest())) {
+                return;
+            }
+
+            Map<String, String[]> scanned = new HashMap<String, String[]>();
+
+            for (JarEntry entry; (entry = jarInput.getNextJarEntry()) != null;) {
+                String name = entry.getName();
+
+                if (name.equals(INDEX_PATH)) {
+                    readIndex(parentNamesByName, jarInput);
+                    return;
+
+                } else if (name.endsWith(CLASS_FILE_SUFFIX)) {
+                    processClass(scanned, jarInput);
+                }
+            }
+
+            parentNamesByName.putAll(scanned);
+
+        } finally {
+            urlInput.close();
+        }
+    }
+
     /**
      * Processes the given {@code path} under the given {@code root} and
-     * adds all associated class files to the given {@code classNames}.
+     * adds the parent names of all associated class files to the given
+     * {@code parentNamesByName}.
      */
-    private void processFile(Set<String> classNames, File root, String path) {
+    private void processFile(Map<String, String[]> parentNamesByName, File root, String path) {
         File file = new File(root, path);
 
         if (file.isDirectory()) {
-            for (File child : file.listFiles()) {
-                processFile(classNames, root, path.isEmpty() ?
-                        child.getName() :
-                        path + File.separator + child.getName());
+            File[] children = file.listFiles();
+
+            if (children != null) {
+                for (File child : children) {
+                    processFile(parentNamesByName, root, path.isEmpty() ?
+                            child.getName() :
+                            path + File.separator + child.getName());
+                }
             }
 
-        } else {
-            if (path.endsWith(CLASS_FILE_SUFFIX)) {
-                String className = path.substring(0, path.length() - CLASS_FILE_SUFFIX.length());
-                className = StringUtils.replaceAll(className, Pattern.quote(File.separator), ".");
-                classNames.add(className);
+        } else if (path.endsWith(CLASS_FILE_SUFFIX)) {
+            try {
+                InputStream classInput = new FileInputStream(file);
+
+                try {
+                    processClass(parentNamesByName, classInput);
+                } finally {
+                    classInput.close();
+                }
+
+            } catch (IOException error) {
+                LOGGER.debug(String.format(
+                        "Can't read [%s] to scan its class!", file),
+                        error);
+            }
+        }
+    }
+
+    /** Reads the class header from the given {@code input}. */
+    private void processClass(Map<String, String[]> parentNamesByName, InputStream input) throws IOException {
+        String className;
+        String superName;
+        String[] interfaces;
+
+        try {
+            ClassReader reader = new ClassReader(input);
+            className = reader.getClassName();
+            superName = reader.getSuperName();
+            interfaces = reader.getInterfaces();
+
+        } catch (RuntimeException error) {
+            // Ignore class files that ASM can't read.
+            return;
+        }
+
+        List<String> parentNames = new ArrayList<String>(interfaces.length + 1);
+
+        if (superName != null) {
+            parentNames.add(superName.replace('/', '.'));
+        }
+
+        for (String i : interfaces) {
+            parentNames.add(i.replace('/', '.'));
+        }
+
+        parentNamesByName.put(className.replace('/', '.'), parentNames.toArray(new String[parentNames.size()]));
+    }
+
+    /** Reads the index, formatted as described in {@link #INDEX_PATH}. */
+    private void readIndex(Map<String, String[]> parentNamesByName, InputStream input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StringUtils.UTF_8));
+
+        for (String line; (line = reader.readLine()) != null;) {
+            line = line.trim();
+
+            if (line.length() > 0) {
+                String[] names = line.split(" ");
+                parentNamesByName.put(names[0], Arrays.copyOfRange(names, 1, names.length));
+            }
+        }
+    }
+
+    /**
+     * Writes the {@linkplain ClassFinder#INDEX_PATH index} of the classes
+     * at build time. This is separate from {@link Static} so that running
+     * it doesn't register the class redefinition listener, or load
+     * {@link CodeUtils} at all.
+     */
+    public static final class Indexer {
+
+        private Indexer() {
+        }
+
+        /**
+         * Writes the {@linkplain ClassFinder#INDEX_PATH index} of all classes
+         * within the given {@code directory}, so that the JAR file created
+         * from it doesn't need to be scanned.
+         *
+         * @param directory Can't be {@code null}.
+         * @return Number of classes in the index.
+         */
+        public static int writeIndex(File directory) throws IOException {
+            Map<String, String[]> parentNamesByName = new TreeMap<String, String[]>();
+
+            new ClassFinder().processFile(parentNamesByName, directory, "");
+
+            File indexFile = new File(directory, INDEX_PATH.replace('/', File.separatorChar));
+            IoUtils.createParentDirectories(indexFile);
+
+            OutputStream indexOutput = new FileOutputStream(indexFile);
+
+            try {
+                Writer writer = new OutputStreamWriter(indexOutput, StringUtils.UTF_8);
+
+                for (Map.Entry<String, String[]> entry : parentNamesByName.entrySet()) {
+                    writer.write(entry.getKey());
+
+                    for (String parentName : entry.getValue()) {
+                        writer.write(' ');
+                        writer.write(parentName);
+                    }
+
+                    writer.write('\n');
+                }
+
+                writer.flush();
+
+            } finally {
+                indexOutput.close();
+            }
+
+            return parentNamesByName.size();
+        }
+
+        /**
+         * Writes the {@linkplain ClassFinder#INDEX_PATH index} of all classes
+         * within each of the given array of directory {@code paths}.
+         */
+        public static void main(String[] paths) throws IOException {
+            for (String path : paths) {
+                File directory = new File(path);
+
+                if (directory.isDirectory()) {
+                    System.out.println("Indexed [" + writeIndex(directory) + "] classes in [" + directory + "]");
+                }
             }
         }
     }
@@ -198,11 +563,36 @@ public class ClassFinder {
             CodeUtils.addRedefineClassesListener(new CodeUtils.RedefineClassesListener() {
                 @Override
                 public void redefined(Set<Class<?>> classes) {
+                    INSTANCE.parentNamesByLoader.invalidateAll();
                     CLASSES_BY_BASE_CLASS_BY_LOADER.invalidateAll();
                 }
             });
         }
 
+        /**
+         * Writes the {@linkplain ClassFinder#INDEX_PATH index} of all classes
+         * within the given {@code directory}.
+         *
+         * @param directory Can't be {@code null}.
+         * @return Number of classes in the index.
+         * @see Indexer#writeIndex
+         */
+        public static int writeIndex(File directory) throws IOException {
+            return Indexer.writeIndex(directory);
+        }
+
+        /**
+         * Writes the {@linkplain ClassFinder#INDEX_PATH index} of all classes
+         * within each of the given array of directory {@code paths}.
+         *
+         * @deprecated Use {@link Indexer#main} instead, which doesn't
+         *             initialize this class.
+         */
+        @Deprecated
+        public static void main(String[] paths) throws IOException {
+            Indexer.main(paths);
+        }
+
         /**
          * Finds all classes that are compatible with the given {@code baseClass}
          * within the given class {@code loader}.
@@ -10,6 +10,7 @@ import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -19,6 +20,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,6 +37,11 @@ import com.google.common.cache.LoadingCache;
 /** Converts an arbitrary object into an instance of another class. */
 public class Converter {
 
+    // Number of source classes that each handle remembers the conversion
+    // functions for, enough for the types that a field usually sees. The
+    // others are looked up on every call.
+    private static final int MAXIMUM_CACHED_FUNCTIONS = 16;
+
     private static final Map<Type, Object> NULL_TO_PRIMITIVE; static {
         Map<Type, Object> m = new HashMap<Type, Object>();
         m.put(boolean.class, Boolean.FALSE);
@@ -47,10 +55,25 @@ public class Converter {
         NULL_TO_PRIMITIVE = m;
     }
 
+    private static final Map<Class<?>, Class<?>> PRIMITIVE_TO_BOXED; static {
+        Map<Class<?>, Class<?>> m = new HashMap<Class<?>, Class<?>>();
+        m.put(boolean.class, Boolean.class);
+        m.put(byte.class, Byte.class);
+        m.put(char.class, Character.class);
+        m.put(double.class, Double.class);
+        m.put(float.class, Float.class);
+        m.put(int.class, Integer.class);
+        m.put(long.class, Long.class);
+        m.put(short.class, Short.class);
+        PRIMITIVE_TO_BOXED = m;
+    }
+
     private final Map<Class<?>, Map<Type, ConversionFunction<?, ?>>> directFunctions = new HashMap<Class<?>, Map<Type, ConversionFunction<?, ?>>>();
     private final Map<Class<?>, Map<Class<?>, ConversionFunction<?, ?>>> inheritableFunctions = new HashMap<Class<?>, Map<Class<?>, ConversionFunction<?, ?>>>();
     private boolean isThrowError;
     private Map<String, Exception> errors;
+    private final ConcurrentMap<Type, Handle> handles = new ConcurrentHashMap<Type, Handle>();
+    private volatile int functionsVersion;
 
     /**
      * Returns the function used to convert an instance of the given
@@ -178,6 +201,7 @@ public class Converter {
         }
         functions.put(toType, function);
         functionCache.invalidateAll();
+        ++ functionsVersion;
     }
 
     public <F, T> void putDirectFunction(
@@ -212,6 +236,7 @@ public class Converter {
         }
         functions.put(toClass, function);
         functionCache.invalidateAll();
+        ++ functionsVersion;
     }
 
     public void putAllStandardFunctions() {
@@ -284,57 +309,164 @@ public class Converter {
         return copy;
     }
 
+    /**
+     * Returns the handle that converts objects into instances of the
+     * given {@code returnType}. Callers that convert to the same type
+     * repeatedly should keep the handle, which remembers the conversion
+     * functions for the first few classes it sees.
+     *
+     * @param returnType Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public Handle getHandle(Type returnType) {
+        ErrorUtils.errorIfNull(returnType, "returnType");
+
+        Handle handle = handles.get(returnType);
+
+        if (handle == null) {
+            handle = new Handle(this, returnType);
+            Handle existing = handles.putIfAbsent(returnType, handle);
+
+            if (existing != null) {
+                handle = existing;
+            }
+        }
+
+        return handle;
+    }
+
     /**
      * Converts the given {@code object} into an instance of the given
      * {@code returnType}.
      */
     public Object convert(Type returnType, Object object) {
-        if (object == null) {
-            Object primitive = NULL_TO_PRIMITIVE.get(returnType);
-            if (isThrowError() && primitive != null) {
-                throw new ConversionException(
-                        "Can't convert a null into a primitive!",
-                        primitive);
+        if (returnType == null) {
+            if (object == null) {
+                return null;
+
             } else {
-                return primitive;
+                throw new ConversionException(String.format(
+                        "Can't convert an instance of [%s] to an instance of [%s]!",
+                        object.getClass(), returnType), null);
             }
         }
 
-        Class<?> returnClass;
-        if (returnType instanceof Class) {
-            returnClass = (Class<?>) returnType;
-            if (returnClass.isInstance(object)) {
-                return object;
+        return getHandle(returnType).convert(object);
+    }
+
+    /**
+     * Converts the given {@code object} into an instance of the given
+     * {@code returnClass}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T convert(Class<T> returnClass, Object object) {
+        return (T) convert((Type) returnClass, object);
+    }
+
+    /**
+     * Converts the given {@code object} into an instance of the type
+     * referenced by the given {@code returnTypeReference}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T convert(TypeReference<T> returnTypeReference, Object object) {
+        return (T) convert(returnTypeReference.getType(), object);
+    }
+
+    /**
+     * Converts objects into instances of a specific type using a
+     * {@link Converter}.
+     *
+     * @see Converter#getHandle
+     */
+    public static final class Handle {
+
+        private final Converter converter;
+        private final Type returnType;
+        private final Class<?> returnClass;
+        private final Class<?> boxedClass;
+        private final Object nullValue;
+        private final Type itemType;
+        private volatile CachedFunctions cachedFunctions;
+
+        private Handle(Converter converter, Type returnType) {
+            this.converter = converter;
+            this.returnType = returnType;
+            this.returnClass = returnType instanceof Class ? (Class<?>) returnType : null;
+            this.boxedClass = PRIMITIVE_TO_BOXED.get(returnType);
+            this.nullValue = NULL_TO_PRIMITIVE.get(returnType);
+
+            if (returnClass != null && returnClass.isArray()) {
+                this.itemType = returnClass.getComponentType();
+
+            } else if (returnType instanceof GenericArrayType) {
+                this.itemType = ((GenericArrayType) returnType).getGenericComponentType();
+
+            } else {
+                this.itemType = null;
             }
-        } else {
-            returnClass = null;
         }
 
-        Type itemType;
-        if (returnClass != null && returnClass.isArray()) {
-            itemType = returnClass.getComponentType();
+        /** Returns the converter that backs this handle. */
+        public Converter getConverter() {
+            return converter;
+        }
 
-        } else if (returnType instanceof GenericArrayType) {
-            itemType = ((GenericArrayType) returnType).getGenericComponentType();
+        /** Returns the type that this handle converts to. */
+        public Type getReturnType() {
+            return returnType;
+        }
+
+        /**
+         * Converts the given {@code object} into an instance of the
+         * return type.
+         */
+        public Object convert(Object object) {
+            if (object == null) {
+                if (converter.isThrowError() && nullValue != null) {
+                    throw new ConversionException(
+                            "Can't convert a null into a primitive!",
+                            nullValue);
+                } else {
+                    return nullValue;
+                }
+            }
 
-        } else {
             Class<?> objectClass = object.getClass();
-            @SuppressWarnings("unchecked")
-            ConversionFunction<Object, Object> function = (ConversionFunction<Object, Object>) getFunction(objectClass, returnType);
+
+            // Already the right type, or the boxed version of it.
+            if (objectClass == boxedClass ||
+                    (returnClass != null && returnClass.isInstance(object))) {
+                return object;
+            }
+
+            if (itemType != null) {
+                Collection<?> collection = converter.convert(Collection.class, object);
+                Object array = Array.newInstance(
+                        itemType instanceof Class ? (Class<?>) itemType : Object.class,
+                        collection.size());
+                int index = 0;
+                for (Object item : collection) {
+                    Array.set(array, index, converter.convert(itemType, item));
+                    ++ index;
+                }
+                return array;
+            }
+
+            ConversionFunction<Object, Object> function = getFunction(objectClass);
 
             if (function != null) {
                 try {
-                    return function.convert(this, returnType, object);
+                    return function.convert(converter, returnType, object);
 
                 } catch (Exception ex) {
-                    if (isThrowError()) {
+                    if (converter.isThrowError()) {
                         throw new ConversionException(ex);
 
                     } else if (ex instanceof ConversionException) {
                         return ((ConversionException) ex).getDefaultValue();
 
                     } else {
-                        return NULL_TO_PRIMITIVE.get(returnType);
+                        return nullValue;
                     }
                 }
             }
@@ -344,34 +476,61 @@ public class Converter {
                     objectClass, returnType), null);
         }
 
-        Collection<?> collection = convert(Collection.class, object);
-        Object array = Array.newInstance(
-                itemType instanceof Class ? (Class<?>) itemType : Object.class,
-                collection.size());
-        int index = 0;
-        for (Object item : collection) {
-            Array.set(array, index, convert(itemType, item));
-            ++ index;
+        // Returns the function for the given objectClass, skipping the
+        // lookup if it's one of the first few classes seen. Nothing's
+        // evicted, so that cycling through more classes than that doesn't
+        // allocate on every call.
+        @SuppressWarnings("unchecked")
+        private ConversionFunction<Object, Object> getFunction(Class<?> objectClass) {
+            CachedFunctions cached = cachedFunctions;
+            int version = converter.functionsVersion;
+
+            if (cached != null && cached.version == version) {
+                Class<?>[] objectClasses = cached.objectClasses;
+
+                for (int i = 0, length = objectClasses.length; i < length; ++ i) {
+                    if (objectClasses[i] == objectClass) {
+                        return cached.functions[i];
+                    }
+                }
+
+            } else {
+                cached = null;
+            }
+
+            ConversionFunction<Object, Object> function = (ConversionFunction<Object, Object>) converter.getFunction(objectClass, returnType);
+
+            if (cached == null) {
+                cachedFunctions = new CachedFunctions(version, new Class<?>[] { objectClass }, new ConversionFunction<?, ?>[] { function });
+
+            } else if (cached.objectClasses.length < MAXIMUM_CACHED_FUNCTIONS) {
+                int length = cached.objectClasses.length;
+                Class<?>[] objectClasses = Arrays.copyOf(cached.objectClasses, length + 1);
+                ConversionFunction<?, ?>[] functions = Arrays.copyOf(cached.functions, length + 1);
+
+                objectClasses[length] = objectClass;
+                functions[length] = function;
+                cachedFunctions = new CachedFunctions(version, objectClasses, functions);
+            }
+
+            return function;
         }
-        return array;
     }
 
-    /**
-     * Converts the given {@code object} into an instance of the given
-     * {@code returnClass}.
-     */
-    @SuppressWarnings("unchecked")
-    public <T> T convert(Class<T> returnClass, Object object) {
-        return (T) convert((Type) returnClass, object);
-    }
+    // Immutable list of the functions that a handle used, so that it can
+    // be read without locking.
+    private static class CachedFunctions {
 
-    /**
-     * Converts the given {@code object} into an instance of the type
-     * referenced by the given {@code returnTypeReference}.
-     */
-    @SuppressWarnings("unchecked")
-    public <T> T convert(TypeReference<T> returnTypeReference, Object object) {
-        return (T) convert(returnTypeReference.getType(), object);
+        public final int version;
+        public final Class<?>[] objectClasses;
+        public final ConversionFunction<Object, Object>[] functions;
+
+        @SuppressWarnings("unchecked")
+        public CachedFunctions(int version, Class<?>[] objectClasses, ConversionFunction<?, ?>[] functions) {
+            this.version = version;
+            this.objectClasses = objectClasses;
+            this.functions = (ConversionFunction<Object, Object>[]) functions;
+        }
     }
 
     // --- Default conversion functions ---
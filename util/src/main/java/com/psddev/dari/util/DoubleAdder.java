@@ -0,0 +1,62 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Double sum that's spread across multiple cells so that concurrent
+ * updates from different threads rarely contend on the same one.
+ * The cells are padded so that they don't share cache lines.
+ */
+final class DoubleAdder {
+
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 64) {
+            stripes <<= 1;
+        }
+
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /** Adds the given {@code amount}. */
+    public void add(double amount) {
+        int index = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+
+        while (true) {
+            long oldBits = cells.get(index);
+            long newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + amount);
+
+            if (cells.compareAndSet(index, oldBits, newBits)) {
+                return;
+            }
+        }
+    }
+
+    /** Returns the current sum. */
+    public double sum() {
+        double sum = 0.0;
+
+        for (int i = 0, length = cells.length(); i < length; i += PADDING) {
+            sum += Double.longBitsToDouble(cells.get(i));
+        }
+
+        return sum;
+    }
+
+    /** Returns the current sum and resets it to zero. */
+    public double sumThenReset() {
+        double sum = 0.0;
+
+        for (int i = 0, length = cells.length(); i < length; i += PADDING) {
+            sum += Double.longBitsToDouble(cells.getAndSet(i, 0L));
+        }
+
+        return sum;
+    }
+}
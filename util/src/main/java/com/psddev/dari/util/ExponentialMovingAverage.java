@@ -2,11 +2,14 @@ package com.psddev.dari.util;
 
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.util.concurrent.AtomicDouble;
-
 /**
  * Exponential moving average.
  *
+ * <p>Updates only add to a striped total without allocating. The thread
+ * that crosses a measure interval folds the total into the average and
+ * is the only one that writes to the {@linkplain #getAverages
+ * averages}.</p>
+ *
  * @see <a href="http://en.wikipedia.org/wiki/Moving_average#Exponential_moving_average">Wikipedia</a>
  */
 public class ExponentialMovingAverage {
@@ -16,7 +19,7 @@ public class ExponentialMovingAverage {
     private final double alpha;
 
     private final AtomicLong tickOffset;
-    private final AtomicDouble total;
+    private final DoubleAdder total;
     private volatile double currentAverage;
 
     /**
@@ -38,7 +41,7 @@ public class ExponentialMovingAverage {
         tick = (long) (measureInterval * 1e9);
         alpha = 1 - Math.exp(-tick / (averageInterval * 1e9));
         tickOffset = new AtomicLong(System.nanoTime() / tick);
-        total = new AtomicDouble();
+        total = new DoubleAdder();
     }
 
     // Updates the average if it's past time to measure.
@@ -49,15 +52,19 @@ public class ExponentialMovingAverage {
 
         if (offsetDiff > 0L &&
                 tickOffset.compareAndSet(oldOffset, newOffset)) {
-            double oldAverage = total.getAndSet(0.0) / tick;
+            // Only the interval crossings contend on this lock, and it
+            // keeps the averages to a single writer.
+            synchronized (averages) {
+                double oldAverage = total.sumThenReset() / tick;
 
-            for (long i = 0L, size = offsetDiff - 1L; i < size; ++ i) {
-                currentAverage += alpha * (0L - currentAverage);
+                for (long i = 0L, size = offsetDiff - 1L; i < size; ++ i) {
+                    currentAverage += alpha * (0L - currentAverage);
+                    averages.add(currentAverage * 1e9);
+                }
+
+                currentAverage += alpha * (oldAverage - currentAverage);
                 averages.add(currentAverage * 1e9);
             }
-
-            currentAverage += alpha * (oldAverage - currentAverage);
-            averages.add(currentAverage * 1e9);
         }
     }
 
@@ -67,7 +74,7 @@ public class ExponentialMovingAverage {
      */
     public double updateAt(long time, double amount) {
         tick(time);
-        total.addAndGet(amount);
+        total.add(amount);
         return currentAverage * 1e9;
     }
 
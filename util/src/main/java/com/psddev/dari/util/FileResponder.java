@@ -0,0 +1,533 @@
+package com.psddev.dari.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends static files, such as the ones in {@link LocalStorageItem} or the
+ * resources exposed by {@link ResourceFilter}, with support for
+ * conditional and byte range requests.
+ *
+ * <p>Files are sent with {@link FileChannel#transferTo}, or by the
+ * container itself if it supports Tomcat's sendfile attributes. Small
+ * files are kept in direct buffers, up to {@value #CACHE_SIZE_SETTING}
+ * bytes in total, and the least recently used ones are dropped first.
+ * Since a file is cached by its length and last modified time, a changed
+ * file is never served from the cache.</p>
+ */
+final class FileResponder {
+
+    /** Setting key for the total size of the cached files in bytes. */
+    public static final String CACHE_SIZE_SETTING = "dari/fileResponderCacheSize";
+
+    /** Setting key for the size of the largest file to cache in bytes. */
+    public static final String CACHE_ITEM_SIZE_SETTING = "dari/fileResponderCacheItemSize";
+
+    private static final long DEFAULT_CACHE_SIZE = 32L * 1024L * 1024L;
+    private static final long DEFAULT_CACHE_ITEM_SIZE = 128L * 1024L;
+
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private static final Map<String, ByteBuffer> CACHE = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true);
+    private static long cacheSize;
+
+    private FileResponder() {
+    }
+
+    /**
+     * Sends the given {@code file}.
+     *
+     * @param contentType If {@code null}, it's guessed from the file name.
+     * @param etag If {@code null}, it's derived from the length and the
+     *        last modified time of the file.
+     */
+    public static void send(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            File file,
+            String contentType,
+            String etag)
+            throws IOException {
+
+        respond(request, response, new FileContent(file, etag), contentType != null ? contentType : ObjectUtils.getContentType(file.getName()));
+    }
+
+    /**
+     * Sends the resource at the given {@code url}, which is sent as a
+     * file if it's in the file system.
+     *
+     * @param contentType If {@code null}, it's guessed from the URL.
+     * @return {@code false} if nothing was sent because the given
+     *         {@code url} points to a directory.
+     */
+    public static boolean send(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            URL url,
+            String contentType)
+            throws IOException {
+
+        if (contentType == null) {
+            contentType = ObjectUtils.getContentType(url.getPath());
+        }
+
+        File file = IoUtils.toFile(url, StringUtils.UTF_8);
+
+        if (file != null) {
+            if (!file.isFile()) {
+                return false;
+            }
+
+            send(request, response, file, contentType, null);
+
+        } else {
+            respond(request, response, new UrlContent(url), contentType);
+        }
+
+        return true;
+    }
+
+    private static void respond(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Content content,
+            String contentType)
+            throws IOException {
+
+        String method = request.getMethod();
+        boolean head = "HEAD".equals(method);
+        boolean get = head || "GET".equals(method);
+        long length = content.getLength();
+        long lastModified = content.getLastModified() / 1000L * 1000L;
+        String etag = content.getEtag();
+
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+
+        if (lastModified > 0L) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+
+        if (get && isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0L;
+        long end = length - 1;
+
+        if (get && isRangeApplicable(request, etag, lastModified)) {
+            long[] range = parseRange(request.getHeader("Range"), length);
+
+            if (range != null) {
+                if (range.length == 0) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+
+                start = range[0];
+                end = range[1];
+
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+
+        response.setContentType(contentType);
+        response.setHeader("Content-Length", String.valueOf(count));
+
+        if (head || count <= 0L) {
+            return;
+        }
+
+        ByteBuffer cached = getCached(content);
+
+        if (cached != null) {
+            cached.position((int) start);
+            cached.limit((int) (start + count));
+
+            WritableByteChannel output = Channels.newChannel(response.getOutputStream());
+
+            while (cached.hasRemaining()) {
+                output.write(cached);
+            }
+
+        } else {
+            content.write(request, response, start, count);
+        }
+    }
+
+    // Returns true if the client already has the current version.
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim());
+        }
+
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+
+        return ifModifiedSince >= 0L && lastModified > 0L && ifModifiedSince >= lastModified;
+    }
+
+    // Returns true unless If-Range names a different version, in which
+    // case the whole content should be sent instead.
+    private static boolean isRangeApplicable(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+
+        if (ifRange == null) {
+            return true;
+
+        } else if (ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/")) {
+            return ifRange.trim().equals(etag);
+
+        } else {
+            long ifRangeDate = getDateHeader(request, "If-Range");
+
+            return ifRangeDate >= 0L && ifRangeDate == lastModified;
+        }
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+
+        } catch (IllegalArgumentException error) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Parses the given {@code Range} header {@code value} for content of
+     * the given {@code length}.
+     *
+     * @return {@code null} if the whole content should be sent, an empty
+     *         array if the range can't be satisfied, or the first and the
+     *         last byte positions otherwise.
+     */
+    static long[] parseRange(String value, long length) {
+        if (value == null) {
+            return null;
+        }
+
+        value = value.trim();
+
+        if (!value.startsWith("bytes=")) {
+            return null;
+        }
+
+        String spec = value.substring(6).trim();
+
+        // Multiple ranges would need a multipart response, and sending
+        // everything instead is allowed.
+        if (spec.indexOf(',') > -1) {
+            return null;
+        }
+
+        int dash = spec.indexOf('-');
+
+        if (dash < 0) {
+            return null;
+        }
+
+        Long first = ObjectUtils.to(Long.class, spec.substring(0, dash).trim());
+        Long last = ObjectUtils.to(Long.class, spec.substring(dash + 1).trim());
+
+        if (first == null) {
+            if (last == null || last < 0L) {
+                return null;
+
+            } else if (last == 0L || length == 0L) {
+                return new long[0];
+
+            } else {
+                return new long[] { Math.max(0L, length - last), length - 1 };
+            }
+
+        } else if (first < 0L || (last != null && last < first)) {
+            return null;
+
+        } else if (first >= length) {
+            return new long[0];
+
+        } else {
+            return new long[] { first, last == null ? length - 1 : Math.min(last, length - 1) };
+        }
+    }
+
+    // Returns the whole content from the cache, loading it if it's small
+    // enough, or null otherwise.
+    private static ByteBuffer getCached(Content content) throws IOException {
+        long length = content.getLength();
+
+        if (length > Settings.getOrDefault(long.class, CACHE_ITEM_SIZE_SETTING, DEFAULT_CACHE_ITEM_SIZE)) {
+            return null;
+        }
+
+        long maximumSize = Settings.getOrDefault(long.class, CACHE_SIZE_SETTING, DEFAULT_CACHE_SIZE);
+
+        if (length > maximumSize) {
+            return null;
+        }
+
+        String key = content.getKey() + '\0' + length + '\0' + content.getLastModified();
+        ByteBuffer buffer;
+
+        synchronized (CACHE) {
+            buffer = CACHE.get(key);
+        }
+
+        if (buffer == null) {
+            buffer = content.read();
+
+            if (buffer == null) {
+                return null;
+            }
+
+            synchronized (CACHE) {
+                ByteBuffer previous = CACHE.put(key, buffer);
+
+                if (previous != null) {
+                    cacheSize -= previous.capacity();
+                }
+
+                cacheSize += buffer.capacity();
+
+                for (Iterator<ByteBuffer> i = CACHE.values().iterator(); cacheSize > maximumSize && i.hasNext();) {
+                    cacheSize -= i.next().capacity();
+                    i.remove();
+                }
+            }
+        }
+
+        return buffer.duplicate();
+    }
+
+    /** Clears the cache of small files. */
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cacheSize = 0L;
+        }
+    }
+
+    private abstract static class Content {
+
+        public abstract String getKey();
+
+        public abstract long getLength();
+
+        public abstract long getLastModified();
+
+        public String getEtag() {
+            return "\"" + Long.toHexString(getLength()) + "-" + Long.toHexString(getLastModified()) + "\"";
+        }
+
+        // Reads the whole content into a direct buffer, or returns null
+        // if it changed while being read.
+        public abstract ByteBuffer read() throws IOException;
+
+        public abstract void write(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException;
+    }
+
+    private static class FileContent extends Content {
+
+        private final File file;
+        private final String etag;
+        private final long length;
+        private final long lastModified;
+
+        public FileContent(File file, String etag) {
+            this.file = file;
+            this.etag = etag;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public String getKey() {
+            return file.getAbsolutePath();
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String getEtag() {
+            return etag != null ? etag : super.getEtag();
+        }
+
+        @Override
+        public ByteBuffer read() throws IOException {
+            FileInputStream input = new FileInputStream(file);
+
+            try {
+                FileChannel channel = input.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        return null;
+                    }
+                }
+
+                return channel.size() == length ? buffer : null;
+
+            } finally {
+                input.close();
+            }
+        }
+
+        @Override
+        public void write(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException {
+
+            // Let the container send the file directly if it can.
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+                request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+                request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+                request.setAttribute(SENDFILE_END_ATTRIBUTE, start + count);
+                return;
+            }
+
+            FileInputStream input = new FileInputStream(file);
+
+            try {
+                FileChannel channel = input.getChannel();
+                WritableByteChannel output = Channels.newChannel(response.getOutputStream());
+
+                for (long position = start, end = start + count; position < end;) {
+                    long transferred = channel.transferTo(position, end - position, output);
+
+                    if (transferred <= 0L) {
+                        break;
+                    }
+
+                    position += transferred;
+                }
+
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    private static class UrlContent extends Content {
+
+        private final URL url;
+        private final long length;
+        private final long lastModified;
+        private byte[] bytes;
+
+        public UrlContent(URL url) throws IOException {
+            URLConnection connection = url.openConnection();
+            long length = connection.getContentLength();
+
+            this.url = url;
+            this.lastModified = connection.getLastModified();
+
+            // Read everything when the length isn't known up front.
+            if (length < 0L) {
+                InputStream input = connection.getInputStream();
+
+                try {
+                    bytes = IoUtils.toByteArray(input);
+                    length = bytes.length;
+
+                } finally {
+                    input.close();
+                }
+
+            } else {
+                connection.getInputStream().close();
+            }
+
+            this.length = length;
+        }
+
+        @Override
+        public String getKey() {
+            return url.toString();
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public ByteBuffer read() throws IOException {
+            byte[] data = bytes != null ? bytes : IoUtils.toByteArray(url);
+
+            if (data.length != length) {
+                return null;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+
+            buffer.put(data);
+            buffer.flip();
+            return buffer;
+        }
+
+        @Override
+        public void write(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException {
+            OutputStream output = response.getOutputStream();
+
+            if (bytes != null) {
+                output.write(bytes, (int) start, (int) count);
+                return;
+            }
+
+            InputStream input = url.openStream();
+
+            try {
+                for (long skipped; start > 0L && (skipped = input.skip(start)) > 0L;) {
+                    start -= skipped;
+                }
+
+                byte[] buffer = new byte[8192];
+
+                for (int read; count > 0L && (read = input.read(buffer, 0, (int) Math.min(buffer.length, count))) > 0;) {
+                    output.write(buffer, 0, read);
+                    count -= read;
+                }
+
+            } finally {
+                input.close();
+            }
+        }
+    }
+}
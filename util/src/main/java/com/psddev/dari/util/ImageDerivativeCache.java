@@ -0,0 +1,344 @@
+package com.psddev.dari.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local disk cache of encoded image derivatives, bounded in size by
+ * evicting the least recently used ones.
+ *
+ * <p>Concurrent requests for the same missing derivative are
+ * deduplicated so that only one of them renders it and the rest wait
+ * for the result.</p>
+ */
+public class ImageDerivativeCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageDerivativeCache.class);
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maximumSize;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final ConcurrentMap<String, FutureTask<Entry>> renders = new ConcurrentHashMap<String, FutureTask<Entry>>();
+    private long size;
+
+    /**
+     * Creates an instance that stores the derivatives in the given
+     * {@code directory}, picking up any that are already there, and keeps
+     * their total size under the given {@code maximumSize}. If there are
+     * multiple files for the same derivative, only the newest one is kept.
+     *
+     * @param directory Can't be {@code null}.
+     * @param maximumSize In bytes.
+     */
+    public ImageDerivativeCache(File directory, long maximumSize) {
+        ErrorUtils.errorIfNull(directory, "directory");
+
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+
+                @Override
+                public int compare(File x, File y) {
+                    long xModified = x.lastModified();
+                    long yModified = y.lastModified();
+
+                    return xModified < yModified ? -1 : (xModified > yModified ? 1 : 0);
+                }
+            });
+
+            synchronized (entries) {
+                for (File file : files) {
+                    String name = file.getName();
+                    int dotAt = name.indexOf('.');
+
+                    if (name.endsWith(TEMPORARY_SUFFIX)) {
+                        file.delete();
+
+                    } else if (dotAt > 0 && file.isFile()) {
+                        add(new Entry(name.substring(0, dotAt), name.substring(dotAt + 1), file));
+                    }
+                }
+
+                evict();
+            }
+        }
+    }
+
+    /** Returns the directory where the derivatives are stored. */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** Returns the maximum total size of all derivatives in bytes. */
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /** Returns the current total size of all derivatives in bytes. */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns a key that identifies the derivative produced by applying
+     * the given {@code commandPath} to the image at the given
+     * {@code sourceUrl}.
+     *
+     * @return Never blank.
+     */
+    public static String createKey(String commandPath, String sourceUrl) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+
+            sha1.update(String.valueOf(commandPath).getBytes(StringUtils.UTF_8));
+            sha1.update((byte) 0);
+            sha1.update(String.valueOf(sourceUrl).getBytes(StringUtils.UTF_8));
+            return StringUtils.hex(sha1.digest());
+
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Returns the derivative associated with the given {@code key}.
+     *
+     * @return {@code null} if it's not cached.
+     */
+    public Entry get(String key) {
+        Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null && !entry.getFile().exists()) {
+            remove(entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the derivative associated with the given {@code key},
+     * using the given {@code renderer} to create it if it's not cached.
+     * If another thread is already rendering the same derivative, waits
+     * for it instead.
+     *
+     * @param renderer Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public Entry getOrRender(final String key, final Renderer renderer) throws IOException {
+        Entry entry = get(key);
+
+        if (entry != null) {
+            return entry;
+        }
+
+        FutureTask<Entry> render = new FutureTask<Entry>(new Callable<Entry>() {
+
+            @Override
+            public Entry call() throws IOException {
+                return render(key, renderer);
+            }
+        });
+
+        FutureTask<Entry> existing = renders.putIfAbsent(key, render);
+
+        if (existing != null) {
+            render = existing;
+
+        } else {
+            try {
+                render.run();
+            } finally {
+                renders.remove(key, render);
+            }
+        }
+
+        try {
+            return render.get();
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the image to be rendered!", error);
+
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private Entry render(String key, Renderer renderer) throws IOException {
+        Entry entry = get(key);
+
+        if (entry != null) {
+            return entry;
+        }
+
+        IoUtils.createDirectories(directory);
+
+        File temporary = File.createTempFile("render", TEMPORARY_SUFFIX, directory);
+
+        try {
+            String type;
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(temporary));
+
+            try {
+                type = renderer.render(output);
+            } finally {
+                output.close();
+            }
+
+            File file = new File(directory, key + "." + type);
+
+            IoUtils.rename(temporary, file);
+
+            entry = new Entry(key, type, file);
+
+            synchronized (entries) {
+                add(entry);
+                evict();
+            }
+
+            return entry;
+
+        } finally {
+            if (temporary.exists() && !temporary.delete()) {
+                LOGGER.debug("Can't delete [{}]", temporary);
+            }
+        }
+    }
+
+    // Replaces any existing derivative with the same key, deleting its
+    // file if it's under a different extension because the image format
+    // changed.
+    private void add(Entry entry) {
+        Entry old = entries.put(entry.getKey(), entry);
+
+        if (old != null) {
+            size -= old.getLength();
+
+            File oldFile = old.getFile();
+
+            if (!oldFile.equals(entry.getFile()) && !oldFile.delete() && oldFile.exists()) {
+                LOGGER.warn("Can't delete [{}]", oldFile);
+            }
+        }
+
+        size += entry.getLength();
+    }
+
+    private void remove(Entry entry) {
+        synchronized (entries) {
+            if (entries.get(entry.getKey()) == entry) {
+                entries.remove(entry.getKey());
+                size -= entry.getLength();
+            }
+        }
+    }
+
+    // Deletes the least recently used derivatives until the total size
+    // is within the maximum.
+    private void evict() {
+        for (Iterator<Entry> i = entries.values().iterator(); size > maximumSize && i.hasNext();) {
+            Entry entry = i.next();
+
+            i.remove();
+            size -= entry.getLength();
+
+            if (!entry.getFile().delete() && entry.getFile().exists()) {
+                LOGGER.warn("Can't delete [{}]", entry.getFile());
+            }
+        }
+    }
+
+    /** Renders a derivative for {@link ImageDerivativeCache}. */
+    public interface Renderer {
+
+        /**
+         * Writes the encoded derivative to the given {@code output}.
+         *
+         * @return Image format, such as {@code png}. Never blank.
+         */
+        public String render(OutputStream output) throws IOException;
+    }
+
+    /** Cached derivative in {@link ImageDerivativeCache}. */
+    public static final class Entry {
+
+        private final String key;
+        private final String type;
+        private final File file;
+        private final long length;
+        private final long lastModified;
+
+        private Entry(String key, String type, File file) {
+            this.key = key;
+            this.type = type;
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /** Returns the image format, such as {@code png}. */
+        public String getType() {
+            return type;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.psddev.dari.util;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many image processing jobs can run at once and how much
+ * memory they can use together.
+ *
+ * <p>Each job {@linkplain #run runs} in the calling thread, which blocks
+ * until the job is admitted and finished.</p>
+ *
+ * <p>A job waits for a free slot first, and then for enough of the memory
+ * budget to cover its estimate, which should be
+ * {@linkplain Admission#reserve reserved} as soon as the source
+ * dimensions are known and before the image is decoded. If either wait
+ * takes longer than the queue timeout, the job is rejected with a
+ * {@link RejectedExecutionException}.</p>
+ *
+ * <p>{@link #STATS} measures the jobs that had to queue for a slot and
+ * how long they waited, so the average queue depth is their count
+ * average multiplied by their duration average, along with the memory
+ * waits, the rendering, and the rejections.</p>
+ */
+public class ImageProcessingLimiter {
+
+    /** Time spent queued, waiting for memory, rendering, and rejected. */
+    public static final Stats STATS = new Stats("Image Processing");
+
+    private static final String QUEUE_OPERATION = "Queue";
+    private static final String MEMORY_WAIT_OPERATION = "Memory Wait";
+    private static final String RENDER_OPERATION = "Render";
+    private static final String REJECT_OPERATION = "Reject";
+
+    // Decoded images are reserved in kilobytes so that the budget fits
+    // in the semaphore permits.
+    private static final long BYTES_PER_PERMIT = 1024L;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int maximumConcurrency;
+    private final long memoryBudget;
+    private final long queueTimeout;
+    private final Semaphore slots;
+    private final Semaphore memory;
+    private final int memoryPermits;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    /**
+     * Creates an instance that runs at most the given
+     * {@code maximumConcurrency} number of jobs that use at most the
+     * given {@code memoryBudget} together, and rejects the jobs that
+     * can't start within the given {@code queueTimeout}.
+     *
+     * @param memoryBudget In bytes.
+     * @param queueTimeout In milliseconds.
+     * @throws IllegalArgumentException If {@code maximumConcurrency} or
+     *         {@code memoryBudget} isn't positive.
+     */
+    public ImageProcessingLimiter(int maximumConcurrency, long memoryBudget, long queueTimeout) {
+        if (maximumConcurrency <= 0) {
+            throw new IllegalArgumentException("Maximum concurrency must be positive!");
+
+        } else if (memoryBudget <= 0L) {
+            throw new IllegalArgumentException("Memory budget must be positive!");
+        }
+
+        this.maximumConcurrency = maximumConcurrency;
+        this.memoryBudget = memoryBudget;
+        this.queueTimeout = queueTimeout;
+        this.slots = new Semaphore(maximumConcurrency, true);
+        this.memoryPermits = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, memoryBudget / BYTES_PER_PERMIT));
+        this.memory = new Semaphore(memoryPermits, true);
+    }
+
+    /**
+     * Returns the estimated number of bytes needed to process an image
+     * that's decoded at the given {@code width} and {@code height},
+     * including a working copy of the same size.
+     */
+    public static long estimateBytes(int width, int height) {
+        return 2L * BYTES_PER_PIXEL * width * height;
+    }
+
+    public int getMaximumConcurrency() {
+        return maximumConcurrency;
+    }
+
+    /** Returns the memory budget in bytes. */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /** Returns the queue timeout in milliseconds. */
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /** Returns the number of jobs that are waiting for a slot. */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /** Returns the number of jobs that are running. */
+    public int getActiveCount() {
+        return maximumConcurrency - slots.availablePermits();
+    }
+
+    /** Returns the number of bytes reserved by the running jobs. */
+    public long getReservedBytes() {
+        return (memoryPermits - memory.availablePermits()) * BYTES_PER_PERMIT;
+    }
+
+    /**
+     * Runs the given {@code job} in the current thread once there's a
+     * free slot.
+     *
+     * @param job Can't be {@code null}.
+     * @throws RejectedExecutionException If the job couldn't start
+     *         within the queue timeout.
+     */
+    public <T> T run(final Job<T> job) throws IOException {
+        ErrorUtils.errorIfNull(job, "job");
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+
+        try {
+
+            // Zero timeout rather than tryAcquire() so that the job doesn't
+            // jump ahead of the ones already queued.
+            if (!slots.tryAcquire(0L, TimeUnit.MILLISECONDS)) {
+                Stats.Timer queueTimer = STATS.startTimer();
+                boolean acquired;
+
+                queueDepth.incrementAndGet();
+
+                try {
+                    acquired = slots.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS);
+
+                } finally {
+                    queueDepth.decrementAndGet();
+                }
+
+                if (!acquired) {
+                    queueTimer.stop(REJECT_OPERATION);
+                    throw new RejectedExecutionException(String.format(
+                            "No image processing slot available within [%s] milliseconds!",
+                            queueTimeout));
+                }
+
+                queueTimer.stop(QUEUE_OPERATION);
+            }
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(error);
+        }
+
+        Admission admission = new Admission(deadline);
+        Stats.Timer renderTimer = STATS.startTimer();
+
+        try {
+            return job.process(admission);
+
+        } finally {
+            renderTimer.stop(RENDER_OPERATION);
+            admission.release();
+            slots.release();
+        }
+    }
+
+    /** Image processing job for {@link ImageProcessingLimiter}. */
+    public interface Job<T> {
+
+        /**
+         * Processes the image, using the given {@code admission} to
+         * reserve memory before decoding it.
+         */
+        public T process(Admission admission) throws IOException;
+    }
+
+    /**
+     * Memory reservations for a running {@link Job}, released
+     * automatically when it finishes.
+     */
+    public final class Admission {
+
+        private final long deadline;
+        private int reservedPermits;
+
+        private Admission(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Waits until the given number of {@code bytes} is available in
+         * the memory budget and reserves it. A request for more than the
+         * whole budget waits until the job can have all of it.
+         *
+         * @throws RejectedExecutionException If the memory isn't
+         *         available within the queue timeout.
+         */
+        public void reserve(long bytes) {
+            int permits = (int) Math.min(
+                    memoryPermits - reservedPermits,
+                    (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT);
+
+            if (permits <= 0) {
+                return;
+            }
+
+            Stats.Timer waitTimer = STATS.startTimer();
+            boolean acquired;
+
+            try {
+                acquired = memory.tryAcquire(permits, Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(error);
+            }
+
+            if (!acquired) {
+                waitTimer.stop(REJECT_OPERATION);
+                throw new RejectedExecutionException(String.format(
+                        "Not enough image processing memory for [%s] bytes within [%s] milliseconds!",
+                        bytes, queueTimeout));
+            }
+
+            waitTimer.stop(MEMORY_WAIT_OPERATION);
+            reservedPermits += permits;
+        }
+
+        private void release() {
+            if (reservedPermits > 0) {
+                memory.release(reservedPermits);
+                reservedPermits = 0;
+            }
+        }
+    }
+}
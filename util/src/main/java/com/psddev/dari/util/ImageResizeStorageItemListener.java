@@ -7,15 +7,47 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.imageio.ImageIO;
 
 import org.imgscalr.Scalr;
 
+/**
+ * Saves smaller versions of the images in the storage, so that
+ * {@link #overridePathWithNearestSize} can point to them instead of the
+ * full originals.
+ *
+ * <p>Each original is decoded once, and the sizes in
+ * {@value #SIZES_SETTING} are resized from it largest first, each one
+ * from the previous. They're then encoded and saved concurrently by the
+ * writers in the {@value #EXECUTOR_NAME} executor, which are visible in
+ * {@link TaskDebugServlet}.</p>
+ */
 public class ImageResizeStorageItemListener implements StorageItemListener {
 
+    /** Setting key for the intermediate image sizes. */
+    public static final String SIZES_SETTING = "dari/intermediateImageSizes";
+
+    /**
+     * Setting key for the number of writers that encode and save the
+     * intermediate images.
+     */
+    public static final String WRITERS_SETTING = "dari/intermediateImageWriters";
+
+    /** Name of the executor that runs the writers. */
+    public static final String EXECUTOR_NAME = "Intermediate Image Sizes";
+
+    private static final List<Integer> DEFAULT_SIZES = Arrays.asList(500, 1500);
+
+    private static final List<Writer> WRITERS = new ArrayList<Writer>();
+    private static AsyncQueue<FutureTask<StorageItem>> queue;
+
     @SuppressWarnings("unchecked")
     public static boolean overridePathWithNearestSize(StorageItem item, Integer width, Integer height) {
         Map<String, Object> metadata = item.getMetadata();
@@ -88,10 +120,56 @@ public class ImageResizeStorageItemListener implements StorageItemListener {
                 String imageType = contentType.substring(6);
 
                 List<StorageItem> dimsItems = new ArrayList<StorageItem>();
-                item.getMetadata().put("resizes", dimsItems);
+                List<FutureTask<StorageItem>> saves = new ArrayList<FutureTask<StorageItem>>();
+                BufferedImage source = original;
+
+                // Largest first so that each size is resized from the
+                // previous one instead of the full original.
+                for (int size : getSizes()) {
+                    BufferedImage resized = processSize(item, size, original, source, imageType, saves);
+
+                    if (resized != null) {
+                        source = resized;
+                    }
+                }
+
+                IOException error = null;
+
+                // Smallest first so that overridePathWithNearestSize picks
+                // the nearest one. Help with the saves that the writers
+                // haven't started on yet.
+                for (int i = saves.size() - 1; i >= 0; -- i) {
+                    FutureTask<StorageItem> save = saves.get(i);
+
+                    save.run();
+
+                    try {
+                        dimsItems.add(save.get());
+
+                    } catch (ExecutionException executionError) {
+                        Throwable cause = executionError.getCause();
+
+                        if (error == null) {
+                            error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                        }
+
+                    } catch (InterruptedException interruptedError) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(interruptedError);
+                    }
+                }
 
-                processSize(item, 500, original, imageType, dimsItems);
-                processSize(item, 1500, original, imageType, dimsItems);
+                // Replace the metadata instead of changing it in place,
+                // since the item may be read by another thread while
+                // it's being saved in the background.
+                Map<String, Object> metadata = new CompactMap<String, Object>(item.getMetadata());
+
+                metadata.put("resizes", dimsItems);
+                item.setMetadata(metadata);
+
+                if (error != null) {
+                    throw error;
+                }
             }
         } finally {
             if (data != null) {
@@ -102,7 +180,67 @@ public class ImageResizeStorageItemListener implements StorageItemListener {
         }
     }
 
-    private void processSize(StorageItem item, int newSize, BufferedImage original, String imageType, List<StorageItem> items) throws IOException {
+    // Returns the configured sizes, largest first.
+    private static List<Integer> getSizes() {
+        Object setting = Settings.get(SIZES_SETTING);
+        List<Integer> sizes = new ArrayList<Integer>();
+
+        if (setting instanceof String) {
+            setting = Arrays.asList(((String) setting).split("\\s*,\\s*"));
+        }
+
+        if (setting instanceof Iterable) {
+            for (Object size : (Iterable<?>) setting) {
+                Integer s = ObjectUtils.to(Integer.class, size);
+
+                if (s != null && s > 0 && !sizes.contains(s)) {
+                    sizes.add(s);
+                }
+            }
+
+        } else {
+            sizes.addAll(DEFAULT_SIZES);
+        }
+
+        Collections.sort(sizes, Collections.reverseOrder());
+        return sizes;
+    }
+
+    // Starts the writers, or restarts the ones that were stopped, and
+    // returns the queue that they consume.
+    private static AsyncQueue<FutureTask<StorageItem>> startWriters() {
+        synchronized (WRITERS) {
+
+            // The queue is closed for good when a writer is interrupted
+            // while waiting on it, so replace it along with the writers.
+            if (queue == null || queue.isClosed()) {
+                AsyncQueue<FutureTask<StorageItem>> oldQueue = queue;
+
+                queue = new AsyncQueue<FutureTask<StorageItem>>();
+                WRITERS.clear();
+
+                if (oldQueue != null) {
+                    for (FutureTask<StorageItem> save; (save = oldQueue.remove()) != null; ) {
+                        queue.add(save);
+                    }
+                }
+            }
+
+            int count = Math.max(1, Settings.getOrDefault(int.class, WRITERS_SETTING, Runtime.getRuntime().availableProcessors()));
+
+            while (WRITERS.size() < count) {
+                WRITERS.add(new Writer(queue));
+            }
+
+            for (Writer writer : WRITERS) {
+                writer.submit();
+            }
+
+            return queue;
+        }
+    }
+
+    private BufferedImage processSize(StorageItem item, int newSize, BufferedImage original, BufferedImage source, final String imageType, List<FutureTask<StorageItem>> saves) throws IOException {
         int width = original.getWidth();
         int height = original.getHeight();
         float aspect = (float) width / (float) height;
@@ -115,7 +253,7 @@ public class ImageResizeStorageItemListener implements StorageItemListener {
                 width = Math.round(height * aspect);
             }
 
-            BufferedImage resizedImage = Scalr.resize(original, width, height);
+            final BufferedImage resizedImage = Scalr.resize(source, Scalr.Mode.FIT_EXACT, width, height);
             String url = item.getPath();
             List<String> parts = Arrays.asList(url.split("/"));
 
@@ -126,22 +264,54 @@ public class ImageResizeStorageItemListener implements StorageItemListener {
             pathBuilder.append('/');
             pathBuilder.append(parts.get(parts.size() - 1));
 
-            StorageItem dimsItem = StorageItem.Static.create();
+            final StorageItem dimsItem = StorageItem.Static.create();
             StorageItem.Static.resetListeners(dimsItem);
 
             dimsItem.setPath(pathBuilder.toString());
             dimsItem.setContentType(item.getContentType());
-
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            ImageIO.write(resizedImage, imageType, os);
-            InputStream is = new ByteArrayInputStream(os.toByteArray());
-
             dimsItem.getMetadata().put("width", width);
             dimsItem.getMetadata().put("height", height);
-            dimsItem.setData(is);
-            dimsItem.save();
 
-            items.add(dimsItem);
+            FutureTask<StorageItem> save = new FutureTask<StorageItem>(new Callable<StorageItem>() {
+
+                @Override
+                public StorageItem call() throws IOException {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    ImageIO.write(resizedImage, imageType, os);
+                    InputStream is = new ByteArrayInputStream(os.toByteArray());
+
+                    dimsItem.setData(is);
+                    dimsItem.save();
+                    return dimsItem;
+                }
+            });
+
+            saves.add(save);
+
+            // The caller runs the save itself if the writers can't.
+            try {
+                startWriters().add(save);
+
+            } catch (IllegalStateException error) {
+                // Closed by an interrupted writer in the meantime.
+            }
+
+            return resizedImage;
+        }
+
+        return null;
+    }
+
+    /** Encodes and saves the intermediate sizes in the background. */
+    private static class Writer extends AsyncConsumer<FutureTask<StorageItem>> {
+
+        public Writer(AsyncQueue<FutureTask<StorageItem>> queue) {
+            super(EXECUTOR_NAME, queue);
+        }
+
+        @Override
+        protected void consume(FutureTask<StorageItem> save) {
+            save.run();
         }
     }
 }
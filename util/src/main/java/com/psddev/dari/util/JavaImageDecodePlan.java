@@ -0,0 +1,383 @@
+package com.psddev.dari.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decides how much of the source image {@link JavaImageServlet} needs to
+ * decode, based on the leading crop and resize commands, so that large
+ * originals aren't decoded at full resolution just to make a thumbnail.
+ *
+ * <p>A leading crop is applied as the source region, and a following
+ * resize or thumbnail is used to subsample the source, keeping at least
+ * twice as many pixels as the output so that the final resize still has
+ * enough detail to work with.</p>
+ */
+class JavaImageDecodePlan {
+
+    /** Minimum ratio of decoded pixels to output pixels on each axis. */
+    static final int DETAIL_FACTOR = 2;
+
+    private static final List<String> VALUE_COMMANDS = Arrays.asList(
+            ImageEditor.RESIZE_COMMAND, ImageEditor.CROP_COMMAND, JavaImageEditor.THUMBNAIL_COMMAND,
+            "brightness", "contrast", "flipflop", "rotate", "format");
+
+    private final int cropIndex;
+    private final int cropX;
+    private final int cropY;
+    private final int cropWidth;
+    private final int cropHeight;
+    private final Integer targetWidth;
+    private final Integer targetHeight;
+    private final boolean fill;
+    private final boolean fillArea;
+    private final boolean thumbnail;
+    private boolean cropApplied;
+
+    private JavaImageDecodePlan(int cropIndex, int cropX, int cropY, int cropWidth, int cropHeight, Integer targetWidth, Integer targetHeight, char option, boolean thumbnail) {
+        this.cropIndex = cropIndex;
+        this.cropX = cropX;
+        this.cropY = cropY;
+        this.cropWidth = cropWidth;
+        this.cropHeight = cropHeight;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.fill = thumbnail || option == '!' || option == '^';
+        this.fillArea = option == '^';
+        this.thumbnail = thumbnail;
+    }
+
+    /**
+     * Creates a plan from the given servlet path {@code parameters},
+     * walking them the same way {@link JavaImageServlet} does.
+     *
+     * @return {@code null} if the commands don't allow decoding less
+     *         than the whole image.
+     */
+    public static JavaImageDecodePlan parse(String[] parameters, List<String> basicCommands) {
+        int cropIndex = -1;
+        int[] crop = null;
+
+        for (int i = 0, length = parameters.length; i < length; i += 2) {
+            String command = parameters[i];
+            String value = i + 1 < length ? parameters[i + 1] : "";
+
+            if (!VALUE_COMMANDS.contains(command)) {
+                if (!basicCommands.contains(command)) {
+                    i -= 1;
+                    continue;
+                }
+
+                // Filters before the resize work on the full resolution.
+                break;
+
+            } else if (command.equals("format")) {
+                continue;
+
+            } else if (command.equals(ImageEditor.CROP_COMMAND) && crop == null) {
+                crop = parseCrop(value);
+
+                if (crop == null) {
+                    return null;
+                }
+
+                cropIndex = i;
+
+            } else if (command.equals(ImageEditor.RESIZE_COMMAND) || command.equals(JavaImageEditor.THUMBNAIL_COMMAND)) {
+                boolean thumbnail = command.equals(JavaImageEditor.THUMBNAIL_COMMAND);
+                char option = value.length() > 0 ? value.charAt(value.length() - 1) : ' ';
+                boolean fill = thumbnail || option == '!' || option == '^';
+
+                // Can't tell how much an enlarge would need.
+                if (option == '<') {
+                    break;
+                }
+
+                if ("!>^".indexOf(option) > -1) {
+                    value = value.substring(0, value.length() - 1);
+                }
+
+                String[] wh = value.split("x");
+                Integer width = parseInteger(wh[0]);
+                Integer height = wh.length > 1 ? parseInteger(wh[1]) : null;
+
+                if (width == null && height == null ||
+                        (fill && (width == null || height == null))) {
+                    break;
+                }
+
+                return crop != null ?
+                        new JavaImageDecodePlan(cropIndex, crop[0], crop[1], crop[2], crop[3], width, height, option, thumbnail) :
+                        new JavaImageDecodePlan(-1, 0, 0, 0, 0, width, height, option, thumbnail);
+
+            } else {
+                break;
+            }
+        }
+
+        return crop != null ?
+                new JavaImageDecodePlan(cropIndex, crop[0], crop[1], crop[2], crop[3], null, null, ' ', false) :
+                null;
+    }
+
+    // Parses the crop value the same way as JavaImageServlet, but only
+    // when the size is explicit.
+    private static int[] parseCrop(String value) {
+        try {
+            Integer x = 0;
+            Integer y = 0;
+            String[] size;
+
+            if (value.contains("+")) {
+                int delimiter = value.indexOf("+");
+                String[] xy = value.substring(delimiter + 1).split("\\+");
+
+                x = parseInteger(xy[0]);
+                y = parseInteger(xy[1]);
+                size = value.substring(0, delimiter).split("x");
+
+            } else {
+                size = value.split("x");
+
+                if (size.length > 3) {
+                    x = parseInteger(size[0]);
+                    y = parseInteger(size[1]);
+                    size[0] = size[2];
+                    size[1] = size[3];
+                }
+            }
+
+            Integer width = parseInteger(size[0]);
+            Integer height = size.length > 1 ? parseInteger(size[1]) : null;
+
+            if (width == null || height == null) {
+                return null;
+            }
+
+            return new int[] { x != null ? x : 0, y != null ? y : 0, width, height };
+
+        } catch (RuntimeException error) {
+            return null;
+        }
+    }
+
+    private static Integer parseInteger(String integer) {
+        if (StringUtils.isBlank(integer) || integer.matches("null")) {
+            return null;
+
+        } else {
+            try {
+                return Integer.parseInt(integer);
+            } catch (NumberFormatException error) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the crop command in the parameters if it was
+     * already applied while decoding.
+     *
+     * @return {@code -1} if the crop still needs to be applied.
+     */
+    public int getAppliedCropIndex() {
+        return cropApplied ? cropIndex : -1;
+    }
+
+    /**
+     * Configures the given {@code param} to read the source region and
+     * the subsampling for an image with the given {@code width} and
+     * {@code height}.
+     */
+    void configure(ImageReadParam param, int width, int height) {
+        int regionWidth = width;
+        int regionHeight = height;
+
+        cropApplied = false;
+
+        // Only when the crop would've succeeded on the full image.
+        if (cropIndex > -1 &&
+                cropX >= 0 && cropY >= 0 &&
+                cropX < width && cropY < height &&
+                cropWidth > 0 && cropHeight > 0) {
+            regionWidth = Math.min(cropWidth, width - cropX);
+            regionHeight = Math.min(cropHeight, height - cropY);
+            param.setSourceRegion(new Rectangle(cropX, cropY, regionWidth, regionHeight));
+            cropApplied = true;
+
+        } else if (cropIndex > -1) {
+            return;
+        }
+
+        int subsampling = getSubsampling(regionWidth, regionHeight);
+
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+    }
+
+    /**
+     * Returns how many source pixels can be skipped on each axis for an
+     * image with the given {@code width} and {@code height}, without
+     * changing the size of the resized output.
+     */
+    int getSubsampling(int width, int height) {
+        if (targetWidth == null && targetHeight == null) {
+            return 1;
+        }
+
+        double widthScale = targetWidth != null ? (double) targetWidth / width : Double.NaN;
+        double heightScale = targetHeight != null ? (double) targetHeight / height : Double.NaN;
+        double scale;
+
+        if (targetWidth == null) {
+            scale = heightScale;
+
+        } else if (targetHeight == null) {
+            scale = widthScale;
+
+        } else if (fill) {
+            scale = Math.max(widthScale, heightScale);
+
+        // Scalr fits to the width of landscape images and to the height
+        // of portrait ones.
+        } else {
+            scale = height <= width ? widthScale : heightScale;
+        }
+
+        if (!(scale > 0.0)) {
+            return 1;
+        }
+
+        long expected = getOutputSize(width, height);
+
+        // Rounding the subsampled size can change the aspect ratio
+        // slightly, so use the largest factor that keeps the output size.
+        for (int subsampling = (int) (1.0 / (DETAIL_FACTOR * scale)); subsampling > 1; -- subsampling) {
+            if (getOutputSize((width + subsampling - 1) / subsampling, (height + subsampling - 1) / subsampling) == expected) {
+                return subsampling;
+            }
+        }
+
+        return 1;
+    }
+
+    // Returns the size of the resized output, packed as width and height,
+    // following the same calculations as JavaImageEditor#reSize and
+    // Scalr, or -1 if the output size doesn't depend on the aspect ratio.
+    private long getOutputSize(int width, int height) {
+        if (fill) {
+            if (thumbnail || targetWidth == null || targetHeight == null || !fillArea) {
+                return -1L;
+            }
+
+            float originalRatio = (float) width / (float) height;
+            int potentialWidth = Math.round((float) targetHeight * originalRatio);
+            int potentialHeight = Math.round((float) targetWidth / originalRatio);
+
+            return potentialWidth > targetWidth ?
+                    pack(potentialWidth, targetHeight) :
+                    pack(targetWidth, potentialHeight);
+
+        } else {
+            float ratio = (float) height / (float) width;
+            boolean fitToWidth = targetHeight == null || (targetWidth != null && ratio <= 1.0f);
+
+            return fitToWidth ?
+                    pack(targetWidth, Math.round((float) targetWidth * ratio)) :
+                    pack(Math.round((float) targetHeight / ratio), targetHeight);
+        }
+    }
+
+    private static long pack(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    /**
+     * Reads the image at the given {@code url} according to this plan.
+     *
+     * @return {@code null} if there isn't a reader for the image.
+     */
+    public BufferedImage read(URL url) throws IOException {
+        return read(url, this, null);
+    }
+
+    /**
+     * Reads the image at the given {@code url} according to the given
+     * {@code plan}, reserving the memory needed to decode it through the
+     * given {@code admission} once its dimensions are known.
+     *
+     * @param plan If {@code null}, reads the whole image.
+     * @param admission May be {@code null}.
+     * @return {@code null} if there isn't a reader for the image.
+     */
+    public static BufferedImage read(URL url, JavaImageDecodePlan plan, ImageProcessingLimiter.Admission admission) throws IOException {
+        InputStream input = url.openStream();
+
+        try {
+            ImageInputStream imageInput = ImageIO.createImageInputStream(input);
+
+            if (imageInput == null) {
+                return null;
+            }
+
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+
+                if (!readers.hasNext()) {
+                    return null;
+                }
+
+                ImageReader reader = readers.next();
+
+                try {
+                    reader.setInput(imageInput, true, true);
+
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    int width = reader.getWidth(0);
+                    int height = reader.getHeight(0);
+
+                    if (plan != null) {
+                        plan.configure(param, width, height);
+                    }
+
+                    if (admission != null) {
+                        Rectangle region = param.getSourceRegion();
+                        int subsampling = param.getSourceXSubsampling();
+
+                        if (region != null) {
+                            width = region.width;
+                            height = region.height;
+                        }
+
+                        admission.reserve(ImageProcessingLimiter.estimateBytes(
+                                (width + subsampling - 1) / subsampling,
+                                (height + subsampling - 1) / subsampling));
+                    }
+
+                    return reader.read(0, param);
+
+                } finally {
+                    reader.dispose();
+                }
+
+            } finally {
+                imageInput.close();
+            }
+
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ConvolveOp;
 import java.awt.image.Kernel;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -30,6 +31,36 @@ public class JavaImageEditor extends AbstractImageEditor {
     /** Setting key for quality to use for the output images. */
     private static final String QUALITY_SETTING = "quality";
 
+    /** Setting key for the directory where the rendered images are cached. */
+    private static final String CACHE_DIRECTORY_SETTING = "cacheDirectory";
+
+    /** Setting key for the maximum size of the rendered image cache in bytes. */
+    private static final String CACHE_SIZE_SETTING = "cacheSize";
+
+    /**
+     * Setting key for decoding only the part of the source image that's
+     * needed for the leading crop and resize commands.
+     */
+    private static final String SUBSAMPLING_SETTING = "subsampling";
+
+    /** Setting key for the maximum number of images processed at once. */
+    private static final String PROCESSING_CONCURRENCY_SETTING = "processingConcurrency";
+
+    /**
+     * Setting key for the memory budget in bytes shared by all images that
+     * are being processed.
+     */
+    private static final String PROCESSING_MEMORY_SETTING = "processingMemory";
+
+    /**
+     * Setting key for how long in milliseconds an image can wait to be
+     * processed before the request is rejected.
+     */
+    private static final String PROCESSING_TIMEOUT_SETTING = "processingTimeout";
+
+    private static final long DEFAULT_CACHE_SIZE = 1024L * 1024L * 1024L;
+    private static final long DEFAULT_PROCESSING_TIMEOUT = 10000L;
+
     protected static final String TIFF_READER_CLASS = "com.sun.media.imageioimpl.plugins.tiff.TIFFImageReaderSpi";
     protected static final String THUMBNAIL_COMMAND = "thumbnail";
 
@@ -38,6 +69,9 @@ public class JavaImageEditor extends AbstractImageEditor {
     private String basePath;
     private String sharedSecret;
     private String errorImage;
+    private ImageDerivativeCache derivativeCache;
+    private boolean subsampling = true;
+    private ImageProcessingLimiter processingLimiter;
 
     public Scalr.Method getQuality() {
         return quality;
@@ -82,6 +116,47 @@ public class JavaImageEditor extends AbstractImageEditor {
         this.errorImage = errorImage;
     }
 
+    /**
+     * Returns the cache for the images rendered by
+     * {@link JavaImageServlet}.
+     *
+     * @return May be {@code null} if caching is disabled.
+     */
+    public ImageDerivativeCache getDerivativeCache() {
+        return derivativeCache;
+    }
+
+    public void setDerivativeCache(ImageDerivativeCache derivativeCache) {
+        this.derivativeCache = derivativeCache;
+    }
+
+    /**
+     * Returns {@code true} if {@link JavaImageServlet} should only decode
+     * the pixels of the source image that the leading crop and resize
+     * commands need.
+     */
+    public boolean isSubsampling() {
+        return subsampling;
+    }
+
+    public void setSubsampling(boolean subsampling) {
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * Returns the limiter for the image processing in
+     * {@link JavaImageServlet}.
+     *
+     * @return May be {@code null} if the processing isn't limited.
+     */
+    public ImageProcessingLimiter getProcessingLimiter() {
+        return processingLimiter;
+    }
+
+    public void setProcessingLimiter(ImageProcessingLimiter processingLimiter) {
+        this.processingLimiter = processingLimiter;
+    }
+
     @Override
     public StorageItem edit(StorageItem storageItem, String command, Map<String, Object> options, Object... arguments) {
 
@@ -328,6 +403,27 @@ public class JavaImageEditor extends AbstractImageEditor {
             setErrorImage(ObjectUtils.to(String.class, settings.get("errorImage")));
         }
 
+        if (settings.get(SUBSAMPLING_SETTING) != null) {
+            setSubsampling(ObjectUtils.to(boolean.class, settings.get(SUBSAMPLING_SETTING)));
+        }
+
+        Integer processingConcurrency = ObjectUtils.to(Integer.class, settings.get(PROCESSING_CONCURRENCY_SETTING));
+        Long processingMemory = ObjectUtils.to(Long.class, settings.get(PROCESSING_MEMORY_SETTING));
+        Long processingTimeout = ObjectUtils.to(Long.class, settings.get(PROCESSING_TIMEOUT_SETTING));
+
+        setProcessingLimiter(new ImageProcessingLimiter(
+                processingConcurrency != null ? processingConcurrency : Runtime.getRuntime().availableProcessors(),
+                processingMemory != null ? processingMemory : Runtime.getRuntime().maxMemory() / 4L,
+                processingTimeout != null ? processingTimeout : DEFAULT_PROCESSING_TIMEOUT));
+
+        if (!ObjectUtils.isBlank(settings.get(CACHE_DIRECTORY_SETTING))) {
+            Long cacheSize = ObjectUtils.to(Long.class, settings.get(CACHE_SIZE_SETTING));
+
+            setDerivativeCache(new ImageDerivativeCache(
+                    new File(ObjectUtils.to(String.class, settings.get(CACHE_DIRECTORY_SETTING))),
+                    cacheSize != null ? cacheSize : DEFAULT_CACHE_SIZE));
+        }
+
     }
 
     protected void setBaseUrlFromRequest(HttpServletRequest request) {
@@ -1,12 +1,15 @@
 package com.psddev.dari.util;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -58,6 +61,7 @@ public class JavaImageServlet extends HttpServlet {
             }
 
             //Verify key
+            boolean error = false;
             if (!StringUtils.isBlank(javaImageEditor.getSharedSecret())) {
                 StringBuilder commandsBuilder = new StringBuilder();
                 for (int i = 2; i < parameters.length; i++) {
@@ -75,6 +79,7 @@ public class JavaImageServlet extends HttpServlet {
                     if (!StringUtils.isBlank(javaImageEditor.getErrorImage())) {
                         imageUrl = javaImageEditor.getErrorImage();
                         response.setStatus(500);
+                        error = true;
                     } else {
                         response.sendError(404);
                         return;
@@ -82,287 +87,371 @@ public class JavaImageServlet extends HttpServlet {
                 }
             }
 
-            BufferedImage bufferedImage;
+            ImageDerivativeCache derivativeCache = javaImageEditor.getDerivativeCache();
 
             try {
-                URL url = new URL(imageUrl);
-                URI uri = new URI(url.getProtocol(), url.getAuthority(), url.getPath(), url.getQuery(), url.getRef());
+                if (derivativeCache != null && !error) {
+                    final JavaImageEditor renderEditor = javaImageEditor;
+                    final String[] renderParameters = parameters;
+                    final String renderImageUrl = imageUrl;
+                    final String renderImageType = imageType;
+
+                    writeCached(request, response, derivativeCache.getOrRender(
+                            ImageDerivativeCache.createKey(basePath, imageUrl),
+                            new ImageDerivativeCache.Renderer() {
+
+                        @Override
+                        public String render(OutputStream output) throws IOException {
+                            return writeImage(renderEditor, renderParameters, renderImageUrl, renderImageType, output);
+                        }
+                    }));
 
-                if ((imageUrl.endsWith("tif") || imageUrl.endsWith("tiff")) && ObjectUtils.getClassByName(JavaImageEditor.TIFF_READER_CLASS) != null) {
-                    bufferedImage = JavaImageTiffReader.readTiff(uri.toString());
-                } else {
-                    bufferedImage = ImageIO.read(new URL(uri.toString()));
+                    return;
                 }
-            } catch (URISyntaxException ex) {
-                bufferedImage = null;
-            }
 
-            if (bufferedImage == null) {
-                throw new IOException(String.format("Unable to process image %s", imageUrl));
-            }
+                // Buffer the output so that a slow client doesn't hold on
+                // to the processing slot.
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                String type = writeImage(javaImageEditor, parameters, imageUrl, imageType, buffer);
 
-            Scalr.Method quality = null;
-            for (int i = 0; i < parameters.length; i = i + 2) {
-                String command = parameters[i];
+                response.setContentType("image/" + type);
+                ServletOutputStream out = response.getOutputStream();
+                buffer.writeTo(out);
 
-                if (command.equals(QUALITY_OPTION)) {
-                    String value = parameters[i + 1];
-                    try {
-                        quality = Scalr.Method.valueOf(Scalr.Method.class, value.toUpperCase());
-                    } catch (IllegalArgumentException ex) {
-                        quality = javaImageEditor.findQualityByInteger(Integer.parseInt(value));
-                    }
-                }
+                out.close();
+
+            } catch (RejectedExecutionException rejected) {
+                ImageProcessingLimiter limiter = javaImageEditor.getProcessingLimiter();
+                long retryAfter = limiter != null ? (limiter.getQueueTimeout() + 999L) / 1000L : 1L;
+
+                response.setHeader("Retry-After", String.valueOf(Math.max(1L, retryAfter)));
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             }
+        } else {
+            throw new IOException("No source image provided");
+        }
+    }
 
-            for (int i = 0; i < parameters.length; i = i + 2) {
-                String command = parameters[i];
-                String value = i + 1 < parameters.length ? parameters[i + 1] : "";
-                boolean validComand = true;
-
-                if (command.equals(ImageEditor.RESIZE_COMMAND)) {
-                    String option = null;
-                    Integer width = null;
-                    Integer height = null;
-
-                    if (value.endsWith("!")) {
-                        option = ImageEditor.RESIZE_OPTION_IGNORE_ASPECT_RATIO;
-                    } else if (value.endsWith(">")) {
-                        option = ImageEditor.RESIZE_OPTION_ONLY_SHRINK_LARGER;
-                    } else if (value.endsWith("<")) {
-                        option = ImageEditor.RESIZE_OPTION_ONLY_ENLARGE_SMALLER;
-                    } else if (value.endsWith("^")) {
-                        option = ImageEditor.RESIZE_OPTION_FILL_AREA;
-                    }
-                    if (option != null) {
-                        value = value.substring(0, value.length() - 1);
-                    }
+    // Writes the cached derivative, or only the headers if the client
+    // already has it.
+    private void writeCached(HttpServletRequest request, HttpServletResponse response, ImageDerivativeCache.Entry entry) throws IOException {
+        FileResponder.send(request, response, entry.getFile(), "image/" + entry.getType(), "\"" + entry.getKey() + "\"");
+    }
 
-                    String[] wh = value.split("x");
-                    width = parseInteger(wh[0]);
-                    if (wh.length == 2) {
-                        height = parseInteger(wh[1]);
-                    }
+    // Renders the image within the processing limits of the editor and
+    // writes it to the given output.
+    private String writeImage(final JavaImageEditor javaImageEditor, final String[] parameters, final String imageUrl, final String imageType, final OutputStream output) throws IOException {
+        ImageProcessingLimiter limiter = javaImageEditor.getProcessingLimiter();
+        ImageProcessingLimiter.Job<String> job = new ImageProcessingLimiter.Job<String>() {
 
-                    bufferedImage = javaImageEditor.reSize(bufferedImage, width, height, option, quality);
+            @Override
+            public String process(ImageProcessingLimiter.Admission admission) throws IOException {
+                RenderedImage rendered = renderImage(javaImageEditor, parameters, imageUrl, imageType, admission);
 
-                } else if (command.equals(ImageEditor.CROP_COMMAND)) {
-                    Integer x = 0;
-                    Integer y = 0;
-                    Integer width = null;
-                    Integer height = null;
-                    String[] size;
+                ImageIO.write(rendered.image, rendered.type, output);
+                return rendered.type;
+            }
+        };
 
-                    if (value.contains("+")) {
-                        int delimiter = value.indexOf("+");
-                        String[] xy = value.substring(delimiter + 1).split("\\+");
+        return limiter != null ? limiter.run(job) : job.process(null);
+    }
 
-                        x = parseInteger(xy[0]) != null ? parseInteger(xy[0]) : 0;
-                        y = parseInteger(xy[1]) != null ? parseInteger(xy[1]) : 0;
+    private RenderedImage renderImage(JavaImageEditor javaImageEditor, String[] parameters, String imageUrl, String imageType, ImageProcessingLimiter.Admission admission) throws IOException {
+        BufferedImage bufferedImage;
+        int appliedCropIndex = -1;
 
-                        size = value.substring(0, delimiter).split("x");
+        try {
+            URL url = new URL(imageUrl);
+            URI uri = new URI(url.getProtocol(), url.getAuthority(), url.getPath(), url.getQuery(), url.getRef());
 
-                    } else {
-                        size = value.split("x");
-                        if (size.length > 3) {
-                            x = parseInteger(size[0]) != null ? parseInteger(size[0]) : 0;
-                            y = parseInteger(size[1]) != null ? parseInteger(size[1]) : 0;
-                            size[0] = size[2];
-                            size[1] = size[3];
-                        }
-                    }
+            if ((imageUrl.endsWith("tif") || imageUrl.endsWith("tiff")) && ObjectUtils.getClassByName(JavaImageEditor.TIFF_READER_CLASS) != null) {
+                bufferedImage = JavaImageTiffReader.readTiff(uri.toString());
+            } else {
+                JavaImageDecodePlan decodePlan = javaImageEditor.isSubsampling() ? JavaImageDecodePlan.parse(parameters, BASIC_COMMANDS) : null;
 
-                    width = parseInteger(size[0]);
-                    if (size.length > 1) {
-                        height = parseInteger(size[1]);
-                    }
+                bufferedImage = JavaImageDecodePlan.read(new URL(uri.toString()), decodePlan, admission);
 
-                    bufferedImage = javaImageEditor.crop(bufferedImage, x, y, width, height);
+                if (decodePlan != null) {
+                    appliedCropIndex = decodePlan.getAppliedCropIndex();
+                }
+            }
+        } catch (URISyntaxException ex) {
+            bufferedImage = null;
+        }
 
-                } else if (command.equals(JavaImageEditor.THUMBNAIL_COMMAND)) {
-                    String option = null;
+        if (bufferedImage == null) {
+            throw new IOException(String.format("Unable to process image %s", imageUrl));
+        }
 
-                    if (value.endsWith("!")) {
-                        option = ImageEditor.RESIZE_OPTION_IGNORE_ASPECT_RATIO;
-                    } else if (value.endsWith(">")) {
-                        option = ImageEditor.RESIZE_OPTION_ONLY_SHRINK_LARGER;
-                    } else if (value.endsWith("<")) {
-                        option = ImageEditor.RESIZE_OPTION_ONLY_ENLARGE_SMALLER;
-                    } else if (value.endsWith("^")) {
-                        option = ImageEditor.RESIZE_OPTION_FILL_AREA;
-                    }
-                    if (option != null) {
-                        value = value.substring(0, value.length() - 1);
-                    }
+        Scalr.Method quality = null;
+        for (int i = 0; i < parameters.length; i = i + 2) {
+            String command = parameters[i];
 
-                    String[] wh = value.split("x");
-                    if (ObjectUtils.isBlank(wh) || wh.length < 2) {
-                        continue;
-                    }
-                    Integer width = ObjectUtils.to(Integer.class, wh[0]);
-                    Integer height = ObjectUtils.to(Integer.class, wh[1]);
+            if (command.equals(QUALITY_OPTION)) {
+                String value = parameters[i + 1];
+                try {
+                    quality = Scalr.Method.valueOf(Scalr.Method.class, value.toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    quality = javaImageEditor.findQualityByInteger(Integer.parseInt(value));
+                }
+            }
+        }
 
-                    int resizeHeight =  height;
-                    int resizeWidth = width;
+        for (int i = 0; i < parameters.length; i = i + 2) {
+            String command = parameters[i];
+            String value = i + 1 < parameters.length ? parameters[i + 1] : "";
+            boolean validComand = true;
+
+            if (i == appliedCropIndex) {
+                // Already cropped while decoding.
+
+            } else if (command.equals(ImageEditor.RESIZE_COMMAND)) {
+                String option = null;
+                Integer width = null;
+                Integer height = null;
+
+                if (value.endsWith("!")) {
+                    option = ImageEditor.RESIZE_OPTION_IGNORE_ASPECT_RATIO;
+                } else if (value.endsWith(">")) {
+                    option = ImageEditor.RESIZE_OPTION_ONLY_SHRINK_LARGER;
+                } else if (value.endsWith("<")) {
+                    option = ImageEditor.RESIZE_OPTION_ONLY_ENLARGE_SMALLER;
+                } else if (value.endsWith("^")) {
+                    option = ImageEditor.RESIZE_OPTION_FILL_AREA;
+                }
+                if (option != null) {
+                    value = value.substring(0, value.length() - 1);
+                }
 
-                    if (option == null || !option.equals(ImageEditor.RESIZE_OPTION_IGNORE_ASPECT_RATIO)) {
-                        resizeHeight = (int) ((double) bufferedImage.getHeight() / (double) bufferedImage.getWidth() * (double) width);
-                        resizeWidth  = (int) ((double) bufferedImage.getWidth() / (double) bufferedImage.getHeight() * (double) height);
-                    }
+                String[] wh = value.split("x");
+                width = parseInteger(wh[0]);
+                if (wh.length == 2) {
+                    height = parseInteger(wh[1]);
+                }
 
-                    bufferedImage = javaImageEditor.reSize(bufferedImage, resizeWidth, resizeHeight, option, quality);
-                    if ((width != bufferedImage.getWidth() || height != bufferedImage.getHeight())) {
+                bufferedImage = javaImageEditor.reSize(bufferedImage, width, height, option, quality);
 
-                        //Allows for crop when reSized size is slightly off
-                        if (width > bufferedImage.getWidth() && (width - 2) <= bufferedImage.getWidth()) {
-                            width = bufferedImage.getWidth();
-                        }
+            } else if (command.equals(ImageEditor.CROP_COMMAND)) {
+                Integer x = 0;
+                Integer y = 0;
+                Integer width = null;
+                Integer height = null;
+                String[] size;
 
-                        if (height > bufferedImage.getHeight() && (height - 2) <= bufferedImage.getHeight()) {
-                            height = bufferedImage.getHeight();
-                        }
+                if (value.contains("+")) {
+                    int delimiter = value.indexOf("+");
+                    String[] xy = value.substring(delimiter + 1).split("\\+");
 
-                        int x = 0;
-                        int y = 0;
+                    x = parseInteger(xy[0]) != null ? parseInteger(xy[0]) : 0;
+                    y = parseInteger(xy[1]) != null ? parseInteger(xy[1]) : 0;
 
-                        //center automatic crop
-                        if (bufferedImage.getWidth() > width) {
-                            x = (bufferedImage.getWidth() - width) / 2;
-                        }
-                        if (bufferedImage.getHeight() > height) {
-                            y = (bufferedImage.getHeight() - height) / 2;
-                        }
+                    size = value.substring(0, delimiter).split("x");
 
-                        if (width <= bufferedImage.getWidth() && height <= bufferedImage.getHeight()) {
-                            bufferedImage = javaImageEditor.crop(bufferedImage, x, y, width, height);
-                        }
+                } else {
+                    size = value.split("x");
+                    if (size.length > 3) {
+                        x = parseInteger(size[0]) != null ? parseInteger(size[0]) : 0;
+                        y = parseInteger(size[1]) != null ? parseInteger(size[1]) : 0;
+                        size[0] = size[2];
+                        size[1] = size[3];
                     }
+                }
 
-                } else if (command.equals("grayscale")) {
-                    bufferedImage = javaImageEditor.grayscale(bufferedImage);
+                width = parseInteger(size[0]);
+                if (size.length > 1) {
+                    height = parseInteger(size[1]);
+                }
 
-                } else if (command.equals("brightness")) {
-                    String[] wh = value.split("x");
-                    Double brightness = Double.valueOf(wh[0]);
-                    Double contrast = wh.length > 1 ? Double.valueOf(wh[1]) : 0.0d;
+                bufferedImage = javaImageEditor.crop(bufferedImage, x, y, width, height);
 
-                    if (Math.abs(brightness) < 0) {
-                        brightness *= 100;
-                    }
+            } else if (command.equals(JavaImageEditor.THUMBNAIL_COMMAND)) {
+                String option = null;
 
-                    if (Math.abs(contrast) < 0) {
-                        contrast *= 100;
-                    }
+                if (value.endsWith("!")) {
+                    option = ImageEditor.RESIZE_OPTION_IGNORE_ASPECT_RATIO;
+                } else if (value.endsWith(">")) {
+                    option = ImageEditor.RESIZE_OPTION_ONLY_SHRINK_LARGER;
+                } else if (value.endsWith("<")) {
+                    option = ImageEditor.RESIZE_OPTION_ONLY_ENLARGE_SMALLER;
+                } else if (value.endsWith("^")) {
+                    option = ImageEditor.RESIZE_OPTION_FILL_AREA;
+                }
+                if (option != null) {
+                    value = value.substring(0, value.length() - 1);
+                }
 
-                    bufferedImage = javaImageEditor.brightness(bufferedImage, brightness.intValue(), contrast.intValue());
+                String[] wh = value.split("x");
+                if (ObjectUtils.isBlank(wh) || wh.length < 2) {
+                    continue;
+                }
+                Integer width = ObjectUtils.to(Integer.class, wh[0]);
+                Integer height = ObjectUtils.to(Integer.class, wh[1]);
 
-                } else if (command.equals("sharpen")) {
-                    Integer ammount = null;
-                    try {
-                        ammount = Integer.parseInt(value);
-                    } catch (NumberFormatException ex) {
-                        ammount = 2;
-                    }
-                    bufferedImage = javaImageEditor.sharpen(bufferedImage, ammount);
-
-                } else if (command.equals("blur")) {
-                    int defaultBlur = 1;
-
-                    if (value.contains("x")) {
-                        String[] axywh = value.split("x");
-                        int ammount = defaultBlur;
-                        int sizeOffset = 0;
-                        if (axywh.length > 4) {
-                            ammount = Integer.parseInt(axywh[0]);
-                            sizeOffset = 1;
-                        }
-                        int x = Integer.parseInt(axywh[sizeOffset]);
-                        int y = Integer.parseInt(axywh[sizeOffset + 1]);
-                        int w = Integer.parseInt(axywh[sizeOffset + 2]);
-                        int h = Integer.parseInt(axywh[sizeOffset + 3]);
+                int resizeHeight =  height;
+                int resizeWidth = width;
 
-                        bufferedImage = javaImageEditor.blurArea(bufferedImage, ammount, x, y, w, h);
-                    } else {
-                        Integer ammount = null;
-                        try {
-                            ammount = Integer.parseInt(value);
-                        } catch (NumberFormatException ex) {
-                            ammount = defaultBlur;
-                        }
-                        bufferedImage = javaImageEditor.blur(bufferedImage, ammount);
+                if (option == null || !option.equals(ImageEditor.RESIZE_OPTION_IGNORE_ASPECT_RATIO)) {
+                    resizeHeight = (int) ((double) bufferedImage.getHeight() / (double) bufferedImage.getWidth() * (double) width);
+                    resizeWidth  = (int) ((double) bufferedImage.getWidth() / (double) bufferedImage.getHeight() * (double) height);
+                }
+
+                bufferedImage = javaImageEditor.reSize(bufferedImage, resizeWidth, resizeHeight, option, quality);
+                if ((width != bufferedImage.getWidth() || height != bufferedImage.getHeight())) {
+
+                    //Allows for crop when reSized size is slightly off
+                    if (width > bufferedImage.getWidth() && (width - 2) <= bufferedImage.getWidth()) {
+                        width = bufferedImage.getWidth();
                     }
 
-                } else if (command.equals("contrast")) {
-                    Double contrast = Double.valueOf(value);
-                    if (Math.abs(contrast) < 0) {
-                        contrast *= 100;
+                    if (height > bufferedImage.getHeight() && (height - 2) <= bufferedImage.getHeight()) {
+                        height = bufferedImage.getHeight();
                     }
 
-                    bufferedImage = javaImageEditor.brightness(bufferedImage, 0, contrast.intValue());
+                    int x = 0;
+                    int y = 0;
 
-                } else if (command.equals("flipflop")) {
-                    if (value.equals("horizontal")) {
-                        bufferedImage = javaImageEditor.flipHorizontal(bufferedImage);
-                    } else if (value.equals("vertical")) {
-                        bufferedImage = javaImageEditor.flipVertical(bufferedImage);
+                    //center automatic crop
+                    if (bufferedImage.getWidth() > width) {
+                        x = (bufferedImage.getWidth() - width) / 2;
                     }
-                } else if (command.equals("flipH")) {
-                    bufferedImage = javaImageEditor.flipHorizontal(bufferedImage);
-                } else if (command.equals("flipV")) {
-                    bufferedImage = javaImageEditor.flipVertical(bufferedImage);
-                } else if (command.equals("invert")) {
-                    bufferedImage = javaImageEditor.invert(bufferedImage);
+                    if (bufferedImage.getHeight() > height) {
+                        y = (bufferedImage.getHeight() - height) / 2;
+                    }
+
+                    if (width <= bufferedImage.getWidth() && height <= bufferedImage.getHeight()) {
+                        bufferedImage = javaImageEditor.crop(bufferedImage, x, y, width, height);
+                    }
+                }
 
-                } else if (command.equals("rotate")) {
-                    bufferedImage = javaImageEditor.rotate(bufferedImage, Integer.valueOf(parameters[i + 1]));
+            } else if (command.equals("grayscale")) {
+                bufferedImage = javaImageEditor.grayscale(bufferedImage);
 
-                } else if (command.equals("sepia")) {
-                    bufferedImage = javaImageEditor.sepia(bufferedImage);
+            } else if (command.equals("brightness")) {
+                String[] wh = value.split("x");
+                Double brightness = Double.valueOf(wh[0]);
+                Double contrast = wh.length > 1 ? Double.valueOf(wh[1]) : 0.0d;
 
-                } else if (command.equals("format")) {
-                    imageType = value;
+                if (Math.abs(brightness) < 0) {
+                    brightness *= 100;
+                }
 
-                } else if (command.equals("circle")) {
-                    bufferedImage = javaImageEditor.circle(bufferedImage);
+                if (Math.abs(contrast) < 0) {
+                    contrast *= 100;
+                }
 
-                } else if (command.equals("star")) {
-                    bufferedImage = javaImageEditor.star(bufferedImage);
+                bufferedImage = javaImageEditor.brightness(bufferedImage, brightness.intValue(), contrast.intValue());
 
-                } else if (command.equals("starburst")) {
-                    int size = 5;
-                    int count = 30;
-                    if (value.contains("x")) {
-                        String[] sc = value.split("x");
-                        if (!StringUtils.isBlank(sc[0])) {
-                            size = Integer.parseInt(sc[0]);
-                        }
-                        if (sc.length > 1 && !StringUtils.isBlank(sc[1])) {
-                            count = Integer.parseInt(sc[1]);
-                        }
+            } else if (command.equals("sharpen")) {
+                Integer ammount = null;
+                try {
+                    ammount = Integer.parseInt(value);
+                } catch (NumberFormatException ex) {
+                    ammount = 2;
+                }
+                bufferedImage = javaImageEditor.sharpen(bufferedImage, ammount);
+
+            } else if (command.equals("blur")) {
+                int defaultBlur = 1;
+
+                if (value.contains("x")) {
+                    String[] axywh = value.split("x");
+                    int ammount = defaultBlur;
+                    int sizeOffset = 0;
+                    if (axywh.length > 4) {
+                        ammount = Integer.parseInt(axywh[0]);
+                        sizeOffset = 1;
                     }
-                    bufferedImage = javaImageEditor.starburst(bufferedImage, size, count);
+                    int x = Integer.parseInt(axywh[sizeOffset]);
+                    int y = Integer.parseInt(axywh[sizeOffset + 1]);
+                    int w = Integer.parseInt(axywh[sizeOffset + 2]);
+                    int h = Integer.parseInt(axywh[sizeOffset + 3]);
 
+                    bufferedImage = javaImageEditor.blurArea(bufferedImage, ammount, x, y, w, h);
                 } else {
-                    validComand = false;
+                    Integer ammount = null;
+                    try {
+                        ammount = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        ammount = defaultBlur;
+                    }
+                    bufferedImage = javaImageEditor.blur(bufferedImage, ammount);
                 }
 
-                if (PNG_COMMANDS.contains(command)) {
-                    imageType = "png";
+            } else if (command.equals("contrast")) {
+                Double contrast = Double.valueOf(value);
+                if (Math.abs(contrast) < 0) {
+                    contrast *= 100;
                 }
 
-                //shift offset if a command wasn't found or a basic command has no value
-                if (!validComand || (BASIC_COMMANDS.contains(command) && !StringUtils.isBlank(value) && !value.toLowerCase().equals("true"))) {
-                    i = i - 1;
+                bufferedImage = javaImageEditor.brightness(bufferedImage, 0, contrast.intValue());
+
+            } else if (command.equals("flipflop")) {
+                if (value.equals("horizontal")) {
+                    bufferedImage = javaImageEditor.flipHorizontal(bufferedImage);
+                } else if (value.equals("vertical")) {
+                    bufferedImage = javaImageEditor.flipVertical(bufferedImage);
+                }
+            } else if (command.equals("flipH")) {
+                bufferedImage = javaImageEditor.flipHorizontal(bufferedImage);
+            } else if (command.equals("flipV")) {
+                bufferedImage = javaImageEditor.flipVertical(bufferedImage);
+            } else if (command.equals("invert")) {
+                bufferedImage = javaImageEditor.invert(bufferedImage);
+
+            } else if (command.equals("rotate")) {
+                bufferedImage = javaImageEditor.rotate(bufferedImage, Integer.valueOf(parameters[i + 1]));
+
+            } else if (command.equals("sepia")) {
+                bufferedImage = javaImageEditor.sepia(bufferedImage);
+
+            } else if (command.equals("format")) {
+                imageType = value;
+
+            } else if (command.equals("circle")) {
+                bufferedImage = javaImageEditor.circle(bufferedImage);
+
+            } else if (command.equals("star")) {
+                bufferedImage = javaImageEditor.star(bufferedImage);
+
+            } else if (command.equals("starburst")) {
+                int size = 5;
+                int count = 30;
+                if (value.contains("x")) {
+                    String[] sc = value.split("x");
+                    if (!StringUtils.isBlank(sc[0])) {
+                        size = Integer.parseInt(sc[0]);
+                    }
+                    if (sc.length > 1 && !StringUtils.isBlank(sc[1])) {
+                        count = Integer.parseInt(sc[1]);
+                    }
                 }
+                bufferedImage = javaImageEditor.starburst(bufferedImage, size, count);
+
+            } else {
+                validComand = false;
             }
 
-            response.setContentType("image/" + imageType);
-            ServletOutputStream out = response.getOutputStream();
-            ImageIO.write(bufferedImage, imageType, out);
+            if (PNG_COMMANDS.contains(command)) {
+                imageType = "png";
+            }
 
-            out.close();
-        } else {
-            throw new IOException("No source image provided");
+            //shift offset if a command wasn't found or a basic command has no value
+            if (!validComand || (BASIC_COMMANDS.contains(command) && !StringUtils.isBlank(value) && !value.toLowerCase().equals("true"))) {
+                i = i - 1;
+            }
+        }
+
+        return new RenderedImage(bufferedImage, imageType);
+    }
+
+    private static class RenderedImage {
+
+        public final BufferedImage image;
+        public final String type;
+
+        public RenderedImage(BufferedImage image, String type) {
+            this.image = image;
+            this.type = type;
         }
     }
 
@@ -1,16 +1,20 @@
 package com.psddev.dari.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParseException;
@@ -26,11 +30,25 @@ public class JsonProcessor {
     private static final JsonFactory DEFAULT_JSON_FACTORY;
     private static final Converter DEFAULT_CONVERTER;
 
+    // Buffers that grew larger than this aren't kept around for reuse,
+    // since there's one per thread, and most objects are much smaller.
+    private static final int MAXIMUM_REUSED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ReusableByteArrayOutputStream> REUSABLE_OUTPUT = new ThreadLocal<ReusableByteArrayOutputStream>();
+
     static {
         DEFAULT_JSON_FACTORY = new JsonFactory();
         DEFAULT_JSON_FACTORY.enable(JsonParser.Feature.ALLOW_COMMENTS);
         DEFAULT_JSON_FACTORY.enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES);
         DEFAULT_JSON_FACTORY.enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES);
+
+        // Field names are still canonicalized through the factory's symbol
+        // tables, which are shared by all parsers and are bounded in size,
+        // so there's no need to also put them in the unbounded JVM string
+        // pool. Maps keyed by IDs would otherwise fill it up.
+        DEFAULT_JSON_FACTORY.enable(JsonParser.Feature.CANONICALIZE_FIELD_NAMES);
+        DEFAULT_JSON_FACTORY.disable(JsonParser.Feature.INTERN_FIELD_NAMES);
+
         DEFAULT_CONVERTER = new Converter();
         DEFAULT_CONVERTER.putAllStandardFunctions();
     }
@@ -137,6 +155,50 @@ public class JsonProcessor {
         }
     }
 
+    /**
+     * Parses the JSON bytes in the given range of the given {@code bytes}
+     * into an object without copying them.
+     *
+     * @param bytes If {@code null}, returns {@code null}.
+     */
+    public Object parse(byte[] bytes, int offset, int length) {
+        if (bytes == null) {
+            return null;
+        }
+
+        try {
+            return parseAny(getJsonFactory().createJsonParser(bytes, offset, length));
+        } catch (JsonParseException error) {
+            throw new JsonParsingException("Can't parse JSON bytes!", error);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Parses the remaining JSON bytes in the given {@code buffer} into
+     * an object. The position of the buffer isn't changed.
+     *
+     * @param buffer If {@code null}, returns {@code null}.
+     */
+    public Object parse(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+
+        } else if (buffer.hasArray()) {
+            return parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+        } else {
+            try {
+                return parseAny(getJsonFactory().createJsonParser(new ByteBufferInputStream(buffer.duplicate())));
+            } catch (JsonParseException error) {
+                throw new JsonParsingException("Can't parse JSON bytes!", error);
+            } catch (IOException error) {
+                throw new IllegalStateException(error);
+            }
+        }
+    }
+
     // Parses the given source.
     private Object parseAny(Object source) throws IOException {
         if (source != null) {
@@ -145,7 +207,9 @@ public class JsonProcessor {
             try {
                 JsonFactory factory = getJsonFactory();
 
-                if (source instanceof InputStream) {
+                if (source instanceof JsonParser) {
+                    parser = (JsonParser) source;
+                } else if (source instanceof InputStream) {
                     parser = factory.createJsonParser((InputStream) source);
                 } else if (source instanceof Reader) {
                     parser = factory.createJsonParser((Reader) source);
@@ -226,22 +290,9 @@ public class JsonProcessor {
     /** Generates a JSON string from the given {@code object}. */
     public String generate(Object object) {
         StringWriter writer = new StringWriter();
-        JsonGenerator generator = null;
 
         try {
-            try {
-                generator = getJsonFactory().createJsonGenerator(writer);
-                if (isIndentOutput()) {
-                    generator.useDefaultPrettyPrinter();
-                }
-                writeAny(generator, new IdentityHashMap<Object, Object>(), object);
-
-            } finally {
-                if (generator != null) {
-                    generator.close();
-                }
-            }
-
+            generateAny(getJsonFactory().createJsonGenerator(writer), object);
         } catch (IOException ex) {
             throw new IllegalStateException(ex);
         }
@@ -249,6 +300,64 @@ public class JsonProcessor {
         return writer.toString();
     }
 
+    /**
+     * Generates JSON bytes, encoded in UTF-8, from the given {@code object}
+     * and writes them directly to the given {@code output}, which isn't
+     * closed afterwards.
+     */
+    public void generate(Object object, OutputStream output) throws IOException {
+        JsonGenerator generator = getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8);
+
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generateAny(generator, object);
+    }
+
+    /**
+     * Generates JSON bytes, encoded in UTF-8, from the given {@code object}.
+     * This is equivalent to, but creates less garbage than, encoding the
+     * result of {@link #generate(Object)}, since the bytes are written to
+     * a buffer that's reused by the current thread unless it had to grow
+     * past 64KB.
+     */
+    public byte[] generateBytes(Object object) {
+        ReusableByteArrayOutputStream output = REUSABLE_OUTPUT.get();
+
+        // Don't share the buffer with a nested call from a transformer.
+        if (output != null) {
+            REUSABLE_OUTPUT.remove();
+
+        } else {
+            output = new ReusableByteArrayOutputStream();
+        }
+
+        try {
+            generate(object, output);
+            return output.toByteArray();
+
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+
+        } finally {
+            if (output.getCapacity() <= MAXIMUM_REUSED_BUFFER_SIZE) {
+                output.reset();
+                REUSABLE_OUTPUT.set(output);
+            }
+        }
+    }
+
+    // Writes the given object using the given generator and closes it.
+    private void generateAny(JsonGenerator generator, Object object) throws IOException {
+        try {
+            if (isIndentOutput()) {
+                generator.useDefaultPrettyPrinter();
+            }
+            writeAny(generator, new IdentityHashMap<Object, Object>(), object);
+
+        } finally {
+            generator.close();
+        }
+    }
+
     /**
      * Writes the given object, optionally transforming it using the
      * transformer, to the given generator.
@@ -361,4 +470,49 @@ public class JsonProcessor {
 
         generator.writeEndObject();
     }
+
+    private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+
+        public ReusableByteArrayOutputStream() {
+            super(1024);
+        }
+
+        public int getCapacity() {
+            return buf.length;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+
+            } else {
+                length = Math.min(length, buffer.remaining());
+                buffer.get(bytes, offset, length);
+                return length;
+            }
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
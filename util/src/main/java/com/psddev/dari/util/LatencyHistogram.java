@@ -0,0 +1,162 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory histogram of latencies that can be updated concurrently
+ * without locking or allocating.
+ *
+ * <p>The latencies are counted in logarithmic buckets, each split into
+ * linear sub-buckets, so that any reported value is within about 6% of
+ * the actual one anywhere from a microsecond to over an hour. Histograms
+ * with the same layout can be {@linkplain #merge merged}.</p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 32;
+    private static final long MAX_MICROS = (1L << MAX_MAGNITUDE) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // Values below 2 * SUB_BUCKET_COUNT map to themselves, and the rest
+    // map to SUB_BUCKET_COUNT sub-buckets per power of two.
+    private static int bucketIndex(long micros) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS);
+
+        return (shift << SUB_BUCKET_BITS) + (int) (micros >>> shift);
+    }
+
+    private static long bucketLowerMicros(int index) {
+        if (index < SUB_BUCKET_COUNT * 2) {
+            return index;
+
+        } else {
+            int shift = (index >>> SUB_BUCKET_BITS) - 1;
+
+            return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+        }
+    }
+
+    private static long bucketUpperMicros(int index) {
+        return index + 1 < BUCKET_COUNT ? bucketLowerMicros(index + 1) : MAX_MICROS + 1;
+    }
+
+    /**
+     * Records the given {@code duration}.
+     *
+     * @param duration In nanoseconds. Negative values are ignored.
+     */
+    public void record(long duration) {
+        record(duration, 1L);
+    }
+
+    /**
+     * Records the given {@code duration} the given {@code count} number
+     * of times.
+     *
+     * @param duration In nanoseconds. Negative values are ignored.
+     * @param count Non-positive values are ignored.
+     */
+    public void record(long duration, long count) {
+        if (duration < 0L || count <= 0L) {
+            return;
+        }
+
+        counts.addAndGet(bucketIndex(Math.min(duration / 1000L, MAX_MICROS)), count);
+        total.addAndGet(count);
+
+        for (long oldMax; duration > (oldMax = max.get());) {
+            if (max.compareAndSet(oldMax, duration)) {
+                break;
+            }
+        }
+    }
+
+    /** Adds all counts from the given {@code other} histogram to this one. */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++ i) {
+            long count = other.counts.get(i);
+
+            if (count > 0L) {
+                counts.addAndGet(i, count);
+            }
+        }
+
+        total.addAndGet(other.total.get());
+
+        long otherMax = other.max.get();
+
+        for (long oldMax; otherMax > (oldMax = max.get());) {
+            if (max.compareAndSet(oldMax, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Removes all counts. Recordings that happen concurrently may be
+     * lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++ i) {
+            counts.set(i, 0L);
+        }
+
+        total.set(0L);
+        max.set(0L);
+    }
+
+    /** Returns the number of recorded durations. */
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Returns the maximum recorded duration.
+     *
+     * @return In seconds. {@link Double#NaN} if nothing was recorded.
+     */
+    public double getMax() {
+        return getCount() > 0L ? max.get() / 1e9 : Double.NaN;
+    }
+
+    /**
+     * Returns the duration that the given {@code percentile} of the
+     * recorded durations are at or below.
+     *
+     * @param percentile Between {@code 0.0} and {@code 100.0}.
+     * @return In seconds. {@link Double#NaN} if nothing was recorded.
+     */
+    public double getPercentile(double percentile) {
+        long count = 0L;
+
+        for (int i = 0; i < BUCKET_COUNT; ++ i) {
+            count += counts.get(i);
+        }
+
+        if (count == 0L) {
+            return Double.NaN;
+        }
+
+        long rank = Math.max(1L, (long) Math.ceil(Math.min(Math.max(percentile, 0.0), 100.0) / 100.0 * count));
+        long seen = 0L;
+
+        for (int i = 0; i < BUCKET_COUNT; ++ i) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                double micros = (bucketLowerMicros(i) + bucketUpperMicros(i)) / 2.0;
+
+                return Math.min(micros / 1e6, max.get() / 1e9);
+            }
+        }
+
+        return getMax();
+    }
+}
@@ -1,19 +1,17 @@
 package com.psddev.dari.util;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Map;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * Filter that exposes {@link LocalStorageItem} on the web.
+ * Filter that exposes {@link LocalStorageItem} on the web, with support
+ * for conditional and byte range requests.
  */
 public class LocalStorageFilter extends AbstractFilter {
 
@@ -47,27 +45,19 @@ public class LocalStorageFilter extends AbstractFilter {
             String requestUri = request.getRequestURI();
 
             File f = new File(localStorageRootPath + requestUri);
-            if (f.exists() && !f.isDirectory()) {
-                ServletOutputStream out = response.getOutputStream();
-                String mimeType = ObjectUtils.getContentType(f.getName());
-
-                response.setHeader("Content-Type", mimeType);
-                response.setContentLength((int) f.length());
-
-                BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(f));
-
-                int b;
-                while ((b = inputStream.read()) != -1) {
-                    out.write(b);
-                }
-
-                inputStream.close();
-                out.close();
-
+            if (f.isFile() && isUnderRoot(f)) {
+                FileResponder.send(request, response, f, null, null);
                 return;
             }
         }
 
         chain.doFilter(request, response);
     }
+
+    // Makes sure that the request path doesn't escape the root path.
+    private boolean isUnderRoot(File file) throws IOException {
+        String root = StringUtils.ensureEnd(new File(localStorageRootPath).getCanonicalPath(), File.separator);
+
+        return file.getCanonicalPath().startsWith(root);
+    }
 }
@@ -5,6 +5,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 
 /** Item stored in the local file system. */
@@ -63,6 +66,45 @@ public class LocalStorageItem extends AbstractStorageItem {
         }
     }
 
+    @Override
+    protected MultipartUpload createMultipartUpload() throws IOException {
+        final File file = new File(getRootPath() + "/" + getPath());
+
+        IoUtils.createParentDirectories(file);
+
+        // Chunks are written into a temporary file next to the final one
+        // so that a partial upload is never visible.
+        final File partial = File.createTempFile("upload", ".part", file.getParentFile());
+        final RandomAccessFile output = new RandomAccessFile(partial, "rw");
+        final FileChannel channel = output.getChannel();
+
+        return new MultipartUpload() {
+
+            @Override
+            public void uploadPart(int partNumber, long offset, ByteBuffer data) throws IOException {
+                while (data.hasRemaining()) {
+                    offset += channel.write(data, offset);
+                }
+            }
+
+            @Override
+            public void complete(int partCount) throws IOException {
+                output.close();
+                IoUtils.delete(file);
+                IoUtils.rename(partial, file);
+            }
+
+            @Override
+            public void abort() throws IOException {
+                try {
+                    output.close();
+                } finally {
+                    IoUtils.delete(partial);
+                }
+            }
+        };
+    }
+
     @Override
     public boolean isInStorage() {
         return new File(getRootPath() + "/" + getPath()).exists();
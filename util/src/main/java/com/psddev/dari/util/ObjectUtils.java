@@ -427,6 +427,17 @@ public abstract class ObjectUtils {
         return JSON_PROCESSOR.parse(bytes);
     }
 
+    /**
+     * Parses the JSON bytes in the given range of the given {@code bytes}
+     * into an object.
+     *
+     * @param bytes If {@code null}, returns {@code null}.
+     * @see JsonProcessor#parse(byte[], int, int)
+     */
+    public static Object fromJson(byte[] bytes, int offset, int length) {
+        return JSON_PROCESSOR.parse(bytes, offset, length);
+    }
+
     /**
      * Generates a JSON string based on the given {@code object}.
      *
@@ -436,6 +447,16 @@ public abstract class ObjectUtils {
         return JSON_PROCESSOR.generate(object);
     }
 
+    /**
+     * Generates JSON bytes, encoded in UTF-8, based on the given
+     * {@code object}.
+     *
+     * @see JsonProcessor#generateBytes(Object)
+     */
+    public static byte[] toJsonBytes(Object object) {
+        return JSON_PROCESSOR.generateBytes(object);
+    }
+
     /**
      * Generates a JSON string, indented if the given {@code isIndentOutput}
      * is {@code true}, based on the given {@code object}.
@@ -58,6 +58,15 @@ public class PaginatedResult<E> {
         return count;
     }
 
+    /**
+     * Returns how the {@linkplain #getCount count} was produced.
+     *
+     * @return Never {@code null}.
+     */
+    public CountMode getCountMode() {
+        return CountMode.EXACT;
+    }
+
     public List<E> getItems() {
         return items;
     }
@@ -145,4 +154,26 @@ public class PaginatedResult<E> {
     public boolean getHasPages() {
         return hasPages();
     }
+
+    /** How the count of a paginated result was produced. */
+    public enum CountMode {
+
+        /** Counted all matching items. */
+        EXACT,
+
+        /**
+         * Counted the matching items up to a limit, so the count is only
+         * the lower bound.
+         */
+        CAPPED,
+
+        /**
+         * Estimated from the database statistics, so the count may be off
+         * in either direction.
+         */
+        ESTIMATED,
+
+        /** Counted all matching items at some point in the past. */
+        CACHED
+    }
 }
@@ -87,6 +87,36 @@ public class Profiler {
         return current;
     }
 
+    /**
+     * Adds all root events and event stats from the given
+     * {@code other} profiler, typically one that tracked work done in
+     * another thread, to this one. The events are added as root events
+     * since they may overlap the events in this profiler.
+     *
+     * @param other If {@code null}, does nothing.
+     */
+    public void merge(Profiler other) {
+        if (other == null || other == this) {
+            return;
+        }
+
+        rootEvents.addAll(other.rootEvents);
+
+        for (Map.Entry<String, EventStats> entry : other.eventStats.entrySet()) {
+            String name = entry.getKey();
+            EventStats otherStats = entry.getValue();
+            EventStats stats = eventStats.get(name);
+
+            if (stats == null) {
+                stats = new EventStats();
+                eventStats.put(name, stats);
+            }
+
+            stats.count += otherStats.count;
+            stats.ownDuration += otherStats.ownDuration;
+        }
+    }
+
     /**
      * Returns all events without parents.
      *
@@ -131,7 +161,8 @@ public class Profiler {
         /**
          * Starts tracking an event and associates it with the given
          * {@code objects} if there's a profiler set for the current
-         * thread.
+         * thread. Otherwise, only the event is tracked if there's a
+         * {@link SamplingProfiler} active in the current thread.
          *
          * @param name Can't be blank.
          * @param objects {@code null} is equivalent to an empty array.
@@ -140,6 +171,12 @@ public class Profiler {
             Profiler profiler = getThreadProfiler();
             if (profiler != null) {
                 profiler.startEvent(name, objects);
+
+            } else {
+                SamplingProfiler sampler = SamplingProfiler.Static.getThreadProfiler();
+                if (sampler != null) {
+                    sampler.startEvent(name);
+                }
             }
         }
 
@@ -151,6 +188,12 @@ public class Profiler {
             Profiler profiler = getThreadProfiler();
             if (profiler != null) {
                 profiler.pauseEvent();
+
+            } else {
+                SamplingProfiler sampler = SamplingProfiler.Static.getThreadProfiler();
+                if (sampler != null) {
+                    sampler.pauseEvent();
+                }
             }
         }
 
@@ -162,6 +205,12 @@ public class Profiler {
             Profiler profiler = getThreadProfiler();
             if (profiler != null) {
                 profiler.resumeEvent();
+
+            } else {
+                SamplingProfiler sampler = SamplingProfiler.Static.getThreadProfiler();
+                if (sampler != null) {
+                    sampler.resumeEvent();
+                }
             }
         }
 
@@ -176,6 +225,12 @@ public class Profiler {
             Profiler profiler = getThreadProfiler();
             if (profiler != null) {
                 profiler.stopEvent(objects);
+
+            } else {
+                SamplingProfiler sampler = SamplingProfiler.Static.getThreadProfiler();
+                if (sampler != null) {
+                    sampler.stopEvent();
+                }
             }
         }
     }
@@ -14,6 +14,9 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * Automatically uses {@link Profiler} to keep track of all events
  * that occur during a HTTP request.
+ *
+ * <p>Outside of debug mode, uses {@link SamplingProfiler} instead if
+ * it's enabled.</p>
  */
 public class ProfilerFilter extends AbstractFilter {
 
@@ -30,6 +33,30 @@ public class ProfilerFilter extends AbstractFilter {
         if (Settings.isDebug()) {
             super.doDispatch(request, response, chain);
 
+        } else if (SamplingProfiler.Static.getThreadProfiler() != null) {
+            if (JspUtils.isIncluded(request)) {
+                try {
+                    Profiler.Static.startThreadEvent("JSP Include: " + JspUtils.getCurrentServletPath(request));
+                    chain.doFilter(request, response);
+
+                } finally {
+                    Profiler.Static.stopThreadEvent();
+                }
+
+            } else {
+                chain.doFilter(request, response);
+            }
+
+        } else if (SamplingProfiler.Static.isEnabled() &&
+                SamplingProfiler.Static.startThreadProfiler() != null) {
+            try {
+                Profiler.Static.startThreadEvent("Request");
+                chain.doFilter(request, response);
+
+            } finally {
+                SamplingProfiler.Static.stopThreadProfiler();
+            }
+
         } else {
             chain.doFilter(request, response);
         }
@@ -1,8 +1,7 @@
 package com.psddev.dari.util;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.URL;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletContext;
@@ -40,24 +39,16 @@ public class ResourceFilter extends AbstractFilter {
                     externalPath.substring(externalPathPrefix.length());
 
             ServletContext context = getServletContext();
-            InputStream resourceStream = context.getResourceAsStream("/WEB-INF/" + internalPath);
-            if (resourceStream == null) {
-                resourceStream = context.getResourceAsStream("/WEB-INF/classes/" + internalPath);
-                if (resourceStream == null) {
-                    resourceStream = ObjectUtils.getCurrentClassLoader().getResourceAsStream(internalPath);
+            URL resource = context.getResource("/WEB-INF/" + internalPath);
+            if (resource == null) {
+                resource = context.getResource("/WEB-INF/classes/" + internalPath);
+                if (resource == null) {
+                    resource = ObjectUtils.getCurrentClassLoader().getResource(internalPath);
                 }
             }
 
-            if (resourceStream != null) {
-                try {
-                    OutputStream outputStream = response.getOutputStream();
-                    response.setContentType(ObjectUtils.getContentType(internalPath));
-                    IoUtils.copy(resourceStream, outputStream);
-                    return;
-
-                } finally {
-                    resourceStream.close();
-                }
+            if (resource != null && FileResponder.send(request, response, resource, ObjectUtils.getContentType(internalPath))) {
+                return;
             }
         }
 
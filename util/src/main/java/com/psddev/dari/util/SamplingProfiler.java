@@ -0,0 +1,339 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Low-overhead alternative to {@link Profiler} that's safe to leave on
+ * in production.
+ *
+ * <p>Events are recorded into arrays that are allocated once per thread,
+ * the first time that a request in it is tracked, and only their names
+ * and durations are kept. At the end of a request
+ * that's sampled, either because it's one in every N requests
+ * ({@value #SAMPLE_RATE_SETTING}) or because it took longer than a
+ * number of milliseconds ({@value #SAMPLE_THRESHOLD_SETTING}), the events are
+ * aggregated by name and flushed into the {@link #TOTAL_STATS} and
+ * {@link #OWN_STATS} instances.</p>
+ *
+ * <p>{@link Profiler.Static} methods record into the sampling profiler
+ * for the current thread when there isn't a regular one.</p>
+ *
+ * <p>This class is NOT thread-safe.</p>
+ */
+public class SamplingProfiler {
+
+    /** Setting key for sampling one in every N requests. */
+    public static final String SAMPLE_RATE_SETTING = "dari/profilerSampleRate";
+
+    /**
+     * Setting key for sampling any request that takes longer than the
+     * given number of milliseconds.
+     */
+    public static final String SAMPLE_THRESHOLD_SETTING = "dari/profilerSampleThreshold";
+
+    /** Total time spent in each event, including the sub-events. */
+    public static final Stats TOTAL_STATS = new Stats("Profiler Total Time");
+
+    /** Own time spent in each event, excluding the sub-events. */
+    public static final Stats OWN_STATS = new Stats("Profiler Own Time");
+
+    private static final int MAX_DEPTH = 64;
+    private static final int RING_SIZE = 1024;
+    private static final int TABLE_SIZE = 256;
+    private static final String OTHER_EVENT_NAME = "Other";
+
+    private static final AtomicLong REQUEST_COUNT = new AtomicLong();
+
+    // Only set in the threads that have been sampled, so that the
+    // arrays aren't allocated in every thread that starts an event.
+    private static final ThreadLocal<SamplingProfiler> THREAD_PROFILER = new ThreadLocal<SamplingProfiler>();
+
+    private boolean active;
+    private boolean sampled;
+    private long thresholdNanos;
+    private long start;
+
+    // Events that are currently running, innermost last.
+    private int depth;
+    private final String[] stackNames = new String[MAX_DEPTH];
+    private final long[] stackStarts = new long[MAX_DEPTH];
+    private final long[] stackChildDurations = new long[MAX_DEPTH];
+    private final int[] stackPauseCounts = new int[MAX_DEPTH];
+    private final long[] stackPauseStarts = new long[MAX_DEPTH];
+    private final long[] stackPauseDurations = new long[MAX_DEPTH];
+
+    // Events that stopped since the last fold into the table.
+    private int ringSize;
+    private final String[] ringNames = new String[RING_SIZE];
+    private final long[] ringTotalDurations = new long[RING_SIZE];
+    private final long[] ringOwnDurations = new long[RING_SIZE];
+
+    // Events aggregated by name, using open addressing.
+    private int tableSize;
+    private final String[] tableNames = new String[TABLE_SIZE];
+    private final long[] tableCounts = new long[TABLE_SIZE];
+    private final long[] tableTotalDurations = new long[TABLE_SIZE];
+    private final long[] tableOwnDurations = new long[TABLE_SIZE];
+
+    /** Creates an instance. */
+    protected SamplingProfiler() {
+    }
+
+    /**
+     * Returns {@code true} if this profiler is tracking a request.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Starts tracking an event.
+     *
+     * @param name Can't be blank.
+     */
+    public void startEvent(String name) {
+        if (depth < MAX_DEPTH) {
+            stackNames[depth] = name;
+            stackStarts[depth] = System.nanoTime();
+            stackChildDurations[depth] = 0L;
+            stackPauseCounts[depth] = 0;
+            stackPauseDurations[depth] = 0L;
+        }
+
+        ++ depth;
+    }
+
+    /** Pauses tracking the current event. */
+    public void pauseEvent() {
+        int index = depth - 1;
+
+        if (index >= 0 && index < MAX_DEPTH) {
+            ++ stackPauseCounts[index];
+
+            if (stackPauseCounts[index] == 1) {
+                stackPauseStarts[index] = System.nanoTime();
+            }
+        }
+    }
+
+    /** Resumes tracking the current event. */
+    public void resumeEvent() {
+        int index = depth - 1;
+
+        if (index >= 0 && index < MAX_DEPTH && stackPauseCounts[index] > 0) {
+            -- stackPauseCounts[index];
+
+            if (stackPauseCounts[index] == 0) {
+                stackPauseDurations[index] += System.nanoTime() - stackPauseStarts[index];
+            }
+        }
+    }
+
+    /** Stops tracking the current event. */
+    public void stopEvent() {
+        if (depth == 0) {
+            return;
+        }
+
+        -- depth;
+
+        if (depth >= MAX_DEPTH) {
+            return;
+        }
+
+        long totalDuration = Math.max(0L, System.nanoTime() - stackStarts[depth] - stackPauseDurations[depth]);
+        long ownDuration = Math.max(0L, totalDuration - stackChildDurations[depth]);
+
+        if (depth > 0) {
+            stackChildDurations[depth - 1] += totalDuration;
+
+            // Pauses within a sub-event don't count toward the parent.
+            stackPauseDurations[depth - 1] += stackPauseDurations[depth];
+        }
+
+        if (ringSize == RING_SIZE) {
+            fold();
+        }
+
+        ringNames[ringSize] = stackNames[depth];
+        ringTotalDurations[ringSize] = totalDuration;
+        ringOwnDurations[ringSize] = ownDuration;
+        ++ ringSize;
+
+        stackNames[depth] = null;
+    }
+
+    // Aggregates all events in the ring into the table.
+    private void fold() {
+        for (int i = 0; i < ringSize; ++ i) {
+            int index = tableIndex(ringNames[i]);
+
+            ++ tableCounts[index];
+            tableTotalDurations[index] += ringTotalDurations[i];
+            tableOwnDurations[index] += ringOwnDurations[i];
+            ringNames[i] = null;
+        }
+
+        ringSize = 0;
+    }
+
+    private int tableIndex(String name) {
+        int mask = TABLE_SIZE - 1;
+        int index = name.hashCode() & mask;
+
+        for (String existing; (existing = tableNames[index]) != null; index = (index + 1) & mask) {
+            if (name.equals(existing)) {
+                return index;
+            }
+        }
+
+        // Keep a slot free so that the probing always terminates, and
+        // group the rest of the names together.
+        if (tableSize >= TABLE_SIZE - 2 && !OTHER_EVENT_NAME.equals(name)) {
+            return tableIndex(OTHER_EVENT_NAME);
+        }
+
+        tableNames[index] = name;
+        tableCounts[index] = 0L;
+        tableTotalDurations[index] = 0L;
+        tableOwnDurations[index] = 0L;
+        ++ tableSize;
+
+        return index;
+    }
+
+    private void start(boolean sampled, long thresholdNanos) {
+        this.active = true;
+        this.sampled = sampled;
+        this.thresholdNanos = thresholdNanos;
+        this.start = System.nanoTime();
+    }
+
+    // Stops tracking the request and returns true if it was flushed.
+    private boolean stop() {
+        long duration = System.nanoTime() - start;
+        boolean flush = sampled || (thresholdNanos > 0L && duration >= thresholdNanos);
+
+        while (depth > 0) {
+            stopEvent();
+        }
+
+        if (flush) {
+            fold();
+
+            for (int i = 0; i < TABLE_SIZE; ++ i) {
+                String name = tableNames[i];
+
+                if (name != null) {
+                    TOTAL_STATS.record(name, tableTotalDurations[i] / 1e9, tableCounts[i]);
+                    OWN_STATS.record(name, tableOwnDurations[i] / 1e9, tableCounts[i]);
+                }
+            }
+        }
+
+        clear();
+        return flush;
+    }
+
+    private void clear() {
+        active = false;
+
+        for (int i = 0; i < ringSize; ++ i) {
+            ringNames[i] = null;
+        }
+
+        ringSize = 0;
+
+        if (tableSize > 0) {
+            for (int i = 0; i < TABLE_SIZE; ++ i) {
+                tableNames[i] = null;
+            }
+
+            tableSize = 0;
+        }
+    }
+
+    // Returns the profiler for the current thread without allocating
+    // one, even if it's not tracking a request.
+    static SamplingProfiler getThreadInstance() {
+        return THREAD_PROFILER.get();
+    }
+
+    /** {@link SamplingProfiler} utility methods. */
+    public static final class Static {
+
+        /**
+         * Returns {@code true} if sampling is enabled through either
+         * {@value SamplingProfiler#SAMPLE_RATE_SETTING} or
+         * {@value SamplingProfiler#SAMPLE_THRESHOLD_SETTING}.
+         */
+        public static boolean isEnabled() {
+            return getSampleRate() > 0 || getSampleThreshold() > 0L;
+        }
+
+        private static int getSampleRate() {
+            return Settings.getOrDefault(int.class, SAMPLE_RATE_SETTING, 0);
+        }
+
+        private static long getSampleThreshold() {
+            return Settings.getOrDefault(long.class, SAMPLE_THRESHOLD_SETTING, 0L);
+        }
+
+        /**
+         * Returns the sampling profiler that's tracking a request in the
+         * current thread.
+         *
+         * @return May be {@code null}.
+         */
+        public static SamplingProfiler getThreadProfiler() {
+            SamplingProfiler profiler = THREAD_PROFILER.get();
+
+            return profiler != null && profiler.isActive() ? profiler : null;
+        }
+
+        /**
+         * Starts tracking a request in the current thread if it should
+         * be sampled.
+         *
+         * @return {@code null} if the request shouldn't be sampled or
+         *         if there's already a request being tracked.
+         */
+        public static SamplingProfiler startThreadProfiler() {
+            SamplingProfiler profiler = THREAD_PROFILER.get();
+
+            if (profiler != null && profiler.isActive()) {
+                return null;
+            }
+
+            int rate = getSampleRate();
+            long threshold = getSampleThreshold();
+            boolean sampled = rate > 0 && REQUEST_COUNT.incrementAndGet() % rate == 0;
+
+            // Without a threshold, only the sampled requests need to
+            // be tracked.
+            if (!sampled && threshold <= 0L) {
+                return null;
+            }
+
+            if (profiler == null) {
+                profiler = new SamplingProfiler();
+                THREAD_PROFILER.set(profiler);
+            }
+
+            profiler.start(sampled, threshold * 1000000L);
+            return profiler;
+        }
+
+        /**
+         * Stops tracking the request in the current thread, and flushes
+         * the aggregated events to {@link Stats} if it was sampled.
+         *
+         * @return {@code true} if the events were flushed.
+         */
+        public static boolean stopThreadProfiler() {
+            SamplingProfiler profiler = THREAD_PROFILER.get();
+
+            return profiler != null && profiler.isActive() && profiler.stop();
+        }
+    }
+}
@@ -6,13 +6,12 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.AtomicDouble;
 
 /**
  * Gathers statistics about arbitrary operations.
@@ -92,7 +91,7 @@ public class Stats {
         this.measureInterval = measureInterval;
         this.averageIntervals = Collections.unmodifiableList(newAverageIntervals);
         this.start = System.currentTimeMillis();
-        this.totalMeasurement = getMeasurements().get("Total");
+        this.totalMeasurement = measurements.getUnchecked("Total");
     }
 
     /**
@@ -160,6 +159,22 @@ public class Stats {
         return new Timer();
     }
 
+    /**
+     * Records the given {@code count} number of events of the given
+     * {@code operation} that were timed elsewhere and took the given
+     * {@code duration} altogether.
+     *
+     * @param duration In seconds.
+     */
+    public void record(String operation, double duration, long count) {
+        if (duration >= 0.0) {
+            long end = System.nanoTime();
+
+            totalMeasurement.update(end, duration, count);
+            measurements.getUnchecked(operation).update(end, duration, count);
+        }
+    }
+
     /**
      * Returns the total measurement.
      *
@@ -208,8 +223,8 @@ public class Stats {
                 return 0.0;
 
             } else {
-                getTotalMeasurement().update(end, duration, count);
-                getMeasurements().get(operation).update(end, duration, count);
+                totalMeasurement.update(end, duration, count);
+                measurements.getUnchecked(operation).update(end, duration, count);
                 return duration;
             }
         }
@@ -223,17 +238,27 @@ public class Stats {
     public class Measurement {
 
         private final AtomicLong totalCount = new AtomicLong();
-        private final AtomicDouble totalDuration = new AtomicDouble();
-        private final List<ExponentialMovingAverage> countAverages = new ArrayList<ExponentialMovingAverage>();
-        private final List<ExponentialMovingAverage> durationAverages = new ArrayList<ExponentialMovingAverage>();
+        private final DoubleAdder totalDuration = new DoubleAdder();
+        private final ExponentialMovingAverage[] countAverages;
+        private final ExponentialMovingAverage[] durationAverages;
+        private final LatencyHistogram overallDurationHistogram = new LatencyHistogram();
+        private final HistogramWindow[] durationHistograms;
 
         {
             double keepDuration = getKeepDuration();
             double measureInterval = getMeasureInterval();
-
-            for (double averageInterval : getAverageIntervals()) {
-                countAverages.add(new ExponentialMovingAverage(keepDuration, measureInterval, averageInterval));
-                durationAverages.add(new ExponentialMovingAverage(keepDuration, measureInterval, averageInterval));
+            List<Double> averageIntervals = getAverageIntervals();
+            int size = averageIntervals.size();
+
+            countAverages = new ExponentialMovingAverage[size];
+            durationAverages = new ExponentialMovingAverage[size];
+            durationHistograms = new HistogramWindow[size];
+
+            for (int i = 0; i < size; ++ i) {
+                double averageInterval = averageIntervals.get(i);
+                countAverages[i] = new ExponentialMovingAverage(keepDuration, measureInterval, averageInterval);
+                durationAverages[i] = new ExponentialMovingAverage(keepDuration, measureInterval, averageInterval);
+                durationHistograms[i] = new HistogramWindow(averageInterval);
             }
         }
 
@@ -242,6 +267,15 @@ public class Stats {
             return totalCount.get();
         }
 
+        /**
+         * Returns the overall total duration.
+         *
+         * @return In seconds.
+         */
+        public double getOverallTotalDuration() {
+            return totalDuration.sum();
+        }
+
         /** Returns the overall count average. */
         public double getOverallCountAverage() {
             return getOverallTotalCount() / getUptime();
@@ -249,7 +283,7 @@ public class Stats {
 
         /** Returns the overall duration average. */
         public double getOverallDurationAverage() {
-            return totalDuration.get() / getOverallTotalCount();
+            return totalDuration.sum() / getOverallTotalCount();
         }
 
         /**
@@ -257,7 +291,7 @@ public class Stats {
          * identified by the given {@code intervalIndex}.
          */
         public double getCurrentCountAverage(int intervalIndex) {
-            return countAverages.get(intervalIndex).getCurrentAverage();
+            return countAverages[intervalIndex].getCurrentAverage();
         }
 
         /**
@@ -265,27 +299,104 @@ public class Stats {
          * identified by the given {@code intervalIndex}.
          */
         public double getCurrentDurationAverage(int intervalIndex) {
-            return durationAverages.get(intervalIndex).getCurrentAverage() / getCurrentCountAverage(intervalIndex);
+            return durationAverages[intervalIndex].getCurrentAverage() / getCurrentCountAverage(intervalIndex);
         }
 
         /**
          * Returns all count averages.
          *
          * @return Never {@code null}.
+         * @see #getCountAverageArray
          */
         public Iterable<Double> getCountAverages(int intervalIndex, long begin, long end) {
-            return countAverages.get(intervalIndex).getAverages().subIterable(begin, end);
+            return new TimeSeries.ArrayIterable(getCountAverageArray(intervalIndex, begin, end));
+        }
+
+        /**
+         * Returns a copy of all count averages.
+         *
+         * @return Never {@code null}.
+         */
+        public double[] getCountAverageArray(int intervalIndex, long begin, long end) {
+            return countAverages[intervalIndex].getAverages().subArray(begin, end);
         }
 
         /**
          * Returns all duration averages.
          *
          * @return Never {@code null}.
+         * @see #getDurationAverageArray
          */
         public Iterable<Double> getDurationAverages(int intervalIndex, long begin, long end) {
-            return new DurationIterable(
-                    durationAverages.get(intervalIndex).getAverages().subIterable(begin, end),
-                    countAverages.get(intervalIndex).getAverages().subIterable(begin, end));
+            return new TimeSeries.ArrayIterable(getDurationAverageArray(intervalIndex, begin, end));
+        }
+
+        /**
+         * Returns a copy of all duration averages.
+         *
+         * @return Never {@code null}.
+         */
+        public double[] getDurationAverageArray(int intervalIndex, long begin, long end) {
+            double[] durations = durationAverages[intervalIndex].getAverages().subArray(begin, end);
+            double[] counts = countAverages[intervalIndex].getAverages().subArray(begin, end);
+
+            for (int i = 0, length = durations.length; i < length; ++ i) {
+                durations[i] /= i < counts.length ? counts[i] : 0.0;
+            }
+
+            return durations;
+        }
+
+        /**
+         * Returns the duration that the given {@code percentile} of the
+         * operations took at most over the interval identified by the
+         * given {@code intervalIndex}.
+         *
+         * @param percentile Between {@code 0.0} and {@code 100.0}.
+         * @return In seconds.
+         */
+        public double getDurationPercentile(int intervalIndex, double percentile) {
+            return getDurationHistogram(intervalIndex).getPercentile(percentile);
+        }
+
+        /**
+         * Returns the maximum duration over the interval identified by
+         * the given {@code intervalIndex}.
+         *
+         * @return In seconds.
+         */
+        public double getMaxDuration(int intervalIndex) {
+            return getDurationHistogram(intervalIndex).getMax();
+        }
+
+        /**
+         * Returns a copy of the duration histogram over the interval
+         * identified by the given {@code intervalIndex}.
+         *
+         * @return Never {@code null}.
+         */
+        public LatencyHistogram getDurationHistogram(int intervalIndex) {
+            return durationHistograms[intervalIndex].snapshot(System.nanoTime());
+        }
+
+        /**
+         * Returns the duration that the given {@code percentile} of all
+         * operations took at most.
+         *
+         * @param percentile Between {@code 0.0} and {@code 100.0}.
+         * @return In seconds.
+         */
+        public double getOverallDurationPercentile(double percentile) {
+            return overallDurationHistogram.getPercentile(percentile);
+        }
+
+        /**
+         * Returns the maximum duration of all operations.
+         *
+         * @return In seconds.
+         */
+        public double getOverallMaxDuration() {
+            return overallDurationHistogram.getMax();
         }
 
         /**
@@ -302,61 +413,112 @@ public class Stats {
          */
         protected void update(long end, double duration, long count) {
             totalCount.addAndGet(count);
-            totalDuration.addAndGet(duration);
+            totalDuration.add(duration);
 
-            for (ExponentialMovingAverage countAverage : countAverages) {
-                countAverage.updateAt(end, count);
-            }
+            // The duration covers all operations, so each one is recorded
+            // as taking an equal share of it.
+            long durationNanos = count > 0L ? (long) (duration * 1e9 / count) : 0L;
+
+            overallDurationHistogram.record(durationNanos, count);
 
-            for (ExponentialMovingAverage durationAverage : durationAverages) {
-                durationAverage.updateAt(end, duration);
+            for (int i = 0, length = countAverages.length; i < length; ++ i) {
+                countAverages[i].updateAt(end, count);
+                durationAverages[i].updateAt(end, duration);
+                durationHistograms[i].record(end, durationNanos, count);
             }
         }
     }
 
-    private static class DurationIterable implements Iterable<Double> {
+    /**
+     * Histograms over a sliding time window, split into slots that are
+     * reused in a ring as time passes.
+     */
+    static class HistogramWindow {
+
+        private static final int SLOTS_PER_WINDOW = 5;
 
-        private final Iterable<Double> durations;
-        private final Iterable<Double> counts;
+        private final long slotDuration;
+        private final LatencyHistogram[] slots;
+        private final AtomicLongArray slotEpochs;
 
-        public DurationIterable(Iterable<Double> durations, Iterable<Double> counts) {
-            this.durations = durations;
-            this.counts = counts;
+        /**
+         * Creates an instance that covers at least the given
+         * {@code windowDuration}.
+         *
+         * @param windowDuration In seconds.
+         */
+        public HistogramWindow(double windowDuration) {
+            this.slotDuration = Math.max(1L, (long) (windowDuration * 1e9 / SLOTS_PER_WINDOW));
+            this.slots = new LatencyHistogram[SLOTS_PER_WINDOW + 1];
+            this.slotEpochs = new AtomicLongArray(slots.length);
+
+            for (int i = 0, length = slots.length; i < length; ++ i) {
+                slots[i] = new LatencyHistogram();
+                slotEpochs.set(i, Long.MIN_VALUE);
+            }
         }
 
-        @Override
-        public Iterator<Double> iterator() {
-            return new DurationIterator(durations.iterator(), counts.iterator());
+        /**
+         * Records the given {@code duration} that ended at the given
+         * {@code time}.
+         *
+         * @param time In nanoseconds, from {@link System#nanoTime}.
+         * @param duration In nanoseconds.
+         */
+        public void record(long time, long duration) {
+            record(time, duration, 1L);
         }
-    }
 
-    private static class DurationIterator implements Iterator<Double> {
+        /**
+         * Records the given {@code duration} that ended at the given
+         * {@code time} the given {@code count} number of times.
+         *
+         * @param time In nanoseconds, from {@link System#nanoTime}.
+         * @param duration In nanoseconds.
+         * @param count Non-positive values are ignored.
+         */
+        public void record(long time, long duration, long count) {
+            long epoch = time / slotDuration;
+            int index = (int) (epoch % slots.length);
 
-        private final Iterator<Double> durations;
-        private final Iterator<Double> counts;
+            if (index < 0) {
+                index += slots.length;
+            }
 
-        public DurationIterator(Iterator<Double> durations, Iterator<Double> counts) {
-            this.durations = durations;
-            this.counts = counts;
-        }
+            long slotEpoch = slotEpochs.get(index);
 
-        @Override
-        public boolean hasNext() {
-            return durations.hasNext();
-        }
+            if (slotEpoch != epoch) {
+                if (slotEpoch > epoch) {
+                    return;
 
-        @Override
-        public Double next() {
-            if (hasNext()) {
-                return durations.next() / (counts.hasNext() ? counts.next() : 0.0);
-            } else {
-                throw new NoSuchElementException();
+                } else if (slotEpochs.compareAndSet(index, slotEpoch, epoch)) {
+                    slots[index].reset();
+                }
             }
+
+            slots[index].record(duration, count);
         }
 
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
+        /**
+         * Returns a histogram of the durations recorded within the
+         * window that ends at the given {@code time}.
+         *
+         * @param time In nanoseconds, from {@link System#nanoTime}.
+         * @return Never {@code null}.
+         */
+        public LatencyHistogram snapshot(long time) {
+            LatencyHistogram snapshot = new LatencyHistogram();
+            long epoch = time / slotDuration;
+
+            for (int i = 0, length = slots.length; i < length; ++ i) {
+                long slotEpoch = slotEpochs.get(i);
+
+                if (slotEpoch > epoch - length && slotEpoch <= epoch) {
+                    snapshot.merge(slots[i]);
+                }
+            }
+
+            return snapshot;
         }
     }
 
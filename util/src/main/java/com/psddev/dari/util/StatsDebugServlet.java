@@ -2,7 +2,9 @@ package com.psddev.dari.util;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -10,7 +12,12 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Debug servlet that reports application {@link Stats}. */
+/**
+ * Debug servlet that reports application {@link Stats}.
+ *
+ * <p>With {@code ?format=text}, writes the current measurements in the
+ * plain text exposition format that most metrics scrapers understand.</p>
+ */
 @DebugFilter.Path("stats")
 @SuppressWarnings("serial")
 public class StatsDebugServlet extends HttpServlet {
@@ -20,6 +27,8 @@ public class StatsDebugServlet extends HttpServlet {
         DURATION
     }
 
+    private static final double[] PERCENTILES = { 50.0, 95.0, 99.0 };
+
     @Override
     protected void doGet(
             HttpServletRequest request,
@@ -28,6 +37,12 @@ public class StatsDebugServlet extends HttpServlet {
 
         @SuppressWarnings("all")
         WebPageContext page = new WebPageContext(getServletContext(), request, response);
+
+        if ("text".equals(page.param(String.class, "format"))) {
+            writeText(response);
+            return;
+        }
+
         Type type = page.param(Type.class, "type");
 
         if (type != null) {
@@ -54,23 +69,24 @@ public class StatsDebugServlet extends HttpServlet {
 
                             writer.write("[");
 
+                            double[] averages;
+                            double scale;
+
                             if (Type.COUNT.equals(type)) {
-                                for (Iterator<Double> i = measurement.getCountAverages(page.param(int.class, "interval"), begin, end).iterator(); i.hasNext();) {
-                                    double average = i.next();
-                                    writer.write(Double.isNaN(average) ? "null" : String.valueOf(average));
-                                    if (i.hasNext()) {
-                                        writer.write(",");
-                                    }
-                                }
+                                averages = measurement.getCountAverageArray(page.param(int.class, "interval"), begin, end);
+                                scale = 1.0;
 
                             } else {
-                                for (Iterator<Double> i = measurement.getDurationAverages(0, begin, end).iterator(); i.hasNext();) {
-                                    double average = i.next();
-                                    writer.write(Double.isNaN(average) ? "null" : String.valueOf(average * 5e3));
-                                    if (i.hasNext()) {
-                                        writer.write(",");
-                                    }
+                                averages = measurement.getDurationAverageArray(0, begin, end);
+                                scale = 5e3;
+                            }
+
+                            for (int i = 0, length = averages.length; i < length; ++ i) {
+                                double average = averages[i];
+                                if (i > 0) {
+                                    writer.write(",");
                                 }
+                                writer.write(Double.isNaN(average) ? "null" : String.valueOf(average * scale));
                             }
 
                             writer.write("]");
@@ -239,6 +255,33 @@ public class StatsDebugServlet extends HttpServlet {
                         writeEnd();
                     writeEnd();
 
+                    writeStart("h3").writeHtml("Latency Percentiles").writeEnd();
+                    writeStart("table", "class", "table table-condensed");
+                        writeStart("thead");
+                            writeStart("tr");
+                                writeStart("th").writeHtml("Operation").writeEnd();
+                                for (double averageInterval : stats.getAverageIntervals()) {
+                                    writeStart("th", "colspan", PERCENTILES.length + 1).writeHtml("Over ").writeObject((int) averageInterval).writeHtml("s").writeEnd();
+                                }
+                                writeStart("th", "colspan", PERCENTILES.length + 1).writeHtml("Over All").writeEnd();
+                            writeEnd();
+                            writeStart("tr");
+                                writeStart("th").writeEnd();
+                                for (int j = 0, size = stats.getAverageIntervals().size(); j <= size; ++ j) {
+                                    for (double percentile : PERCENTILES) {
+                                        writeStart("th").writeHtml("p").writeObject((int) percentile).writeEnd();
+                                    }
+                                    writeStart("th").writeHtml("Max").writeEnd();
+                                }
+                            writeEnd();
+                        writeEnd();
+                        writeStart("tbody");
+                            for (Map.Entry<String, Stats.Measurement> entry : stats.getMeasurements().entrySet()) {
+                                writeStatsPercentiles(stats, entry.getKey(), entry.getValue());
+                            }
+                        writeEnd();
+                    writeEnd();
+
                     if (i.hasNext()) {
                         writeElement("hr");
                     }
@@ -264,6 +307,34 @@ public class StatsDebugServlet extends HttpServlet {
                 writeEnd();
             }
 
+            // Writes the latency percentiles of an individual stats measurement.
+            private void writeStatsPercentiles(Stats stats, String operation, Stats.Measurement measurement) throws IOException {
+                writeStart("tr");
+                    writeStart("th").writeHtml(operation).writeEnd();
+                    for (int i = 0, size = stats.getAverageIntervals().size(); i < size; ++ i) {
+                        LatencyHistogram histogram = measurement.getDurationHistogram(i);
+                        for (double percentile : PERCENTILES) {
+                            writeDuration(histogram.getPercentile(percentile));
+                        }
+                        writeDuration(histogram.getMax());
+                    }
+                    for (double percentile : PERCENTILES) {
+                        writeDuration(measurement.getOverallDurationPercentile(percentile));
+                    }
+                    writeDuration(measurement.getOverallMaxDuration());
+                writeEnd();
+            }
+
+            private void writeDuration(double duration) throws IOException {
+                writeStart("td");
+                    if (Double.isNaN(duration)) {
+                        writeStart("span", "class", "label").writeHtml("N/A").writeEnd();
+                    } else {
+                        writeObject(duration * 1e3).writeHtml("ms");
+                    }
+                writeEnd();
+            }
+
             private void writeCountAndDuration(Stats stats, String operation, int intervalIndex, double count, double duration) throws IOException {
                 boolean link = intervalIndex >= 0;
                 String statsName = stats.getName();
@@ -295,4 +366,80 @@ public class StatsDebugServlet extends HttpServlet {
             }
         };
     }
+
+    // Writes all measurements as text, one sample per line.
+    private void writeText(HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; version=0.0.4");
+        writeText(response.getWriter(), Stats.Static.getAll());
+    }
+
+    // Writes the given stats as text, with all samples of a metric
+    // grouped together after its type.
+    static void writeText(PrintWriter writer, List<Stats> allStats) {
+        StringWriter counts = new StringWriter();
+        StringWriter throughputs = new StringWriter();
+        StringWriter latencies = new StringWriter();
+        StringWriter maxLatencies = new StringWriter();
+        PrintWriter countsWriter = new PrintWriter(counts);
+        PrintWriter throughputsWriter = new PrintWriter(throughputs);
+        PrintWriter latenciesWriter = new PrintWriter(latencies);
+        PrintWriter maxLatenciesWriter = new PrintWriter(maxLatencies);
+
+        for (Stats stats : allStats) {
+            List<Double> averageIntervals = stats.getAverageIntervals();
+
+            for (Map.Entry<String, Stats.Measurement> entry : stats.getMeasurements().entrySet()) {
+                Stats.Measurement measurement = entry.getValue();
+                String labels = "stats=\"" + escapeLabel(stats.getName()) + "\",operation=\"" + escapeLabel(entry.getKey()) + "\"";
+                long totalCount = measurement.getOverallTotalCount();
+                double totalDuration = measurement.getOverallTotalDuration();
+
+                writeSample(countsWriter, "dari_stats_count_total", labels, totalCount);
+
+                for (int i = 0, size = averageIntervals.size(); i < size; ++ i) {
+                    String intervalLabels = labels + ",interval=\"" + averageIntervals.get(i).intValue() + "\"";
+                    LatencyHistogram histogram = measurement.getDurationHistogram(i);
+
+                    writeSample(throughputsWriter, "dari_stats_throughput", intervalLabels, measurement.getCurrentCountAverage(i));
+
+                    for (double percentile : PERCENTILES) {
+                        writeSample(latenciesWriter, "dari_stats_latency_seconds", intervalLabels + ",quantile=\"" + (percentile / 100.0) + "\"", histogram.getPercentile(percentile));
+                    }
+
+                    // The quantiles are over the interval, but the sum and
+                    // the count are totals so that they only ever go up.
+                    writeSample(latenciesWriter, "dari_stats_latency_seconds_sum", intervalLabels, totalDuration);
+                    writeSample(latenciesWriter, "dari_stats_latency_seconds_count", intervalLabels, totalCount);
+                    writeSample(maxLatenciesWriter, "dari_stats_latency_max_seconds", intervalLabels, histogram.getMax());
+                }
+            }
+        }
+
+        countsWriter.flush();
+        throughputsWriter.flush();
+        latenciesWriter.flush();
+        maxLatenciesWriter.flush();
+
+        writer.write("# TYPE dari_stats_count_total counter\n");
+        writer.write(counts.toString());
+        writer.write("# TYPE dari_stats_throughput gauge\n");
+        writer.write(throughputs.toString());
+        writer.write("# TYPE dari_stats_latency_seconds summary\n");
+        writer.write(latencies.toString());
+        writer.write("# TYPE dari_stats_latency_max_seconds gauge\n");
+        writer.write(maxLatencies.toString());
+    }
+
+    private static void writeSample(PrintWriter writer, String name, String labels, double value) {
+        writer.write(name);
+        writer.write("{");
+        writer.write(labels);
+        writer.write("} ");
+        writer.write(Double.isNaN(value) ? "NaN" : String.valueOf(value));
+        writer.write("\n");
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
 }
@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
@@ -144,6 +145,25 @@ public interface StorageItem extends SettingsBackedObject {
             }
         }
 
+        /**
+         * Saves the given {@code item} in the background.
+         *
+         * @see StorageItemUploader#submit(StorageItem)
+         */
+        public static Future<StorageItem> saveAsync(StorageItem item) {
+            return StorageItemUploader.submit(item);
+        }
+
+        /**
+         * Saves the given {@code item} in the background, and calls the
+         * given {@code listener} once it's done.
+         *
+         * @see StorageItemUploader#submit(StorageItem, StorageItemListener)
+         */
+        public static Future<StorageItem> saveAsync(StorageItem item, StorageItemListener listener) {
+            return StorageItemUploader.submit(item, listener);
+        }
+
         /**
          * Copies the given {@code item} into the given {@code newStorage}
          * system and returns the newly created item.
@@ -0,0 +1,167 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves storage items in the background so that the callers don't have to
+ * wait for the data to land in the storage.
+ *
+ * <p>The saves are queued and run by a fixed number of uploaders, set by
+ * {@value #UPLOADERS_SETTING}, in the {@value #EXECUTOR_NAME} executor,
+ * which are visible in {@link TaskDebugServlet}. When the queue is full,
+ * {@link #submit} waits for space so that a burst of saves can't buffer
+ * an unbounded amount of data.</p>
+ *
+ * <p>The path, the content type, and the metadata of an item are known
+ * before its data is saved, so an object that refers to the item can be
+ * saved right after {@link #submit} returns. Metadata that the
+ * {@linkplain StorageItemListener listeners} add after the data lands,
+ * such as the intermediate image sizes, is only included if the object
+ * is saved again, which the listener given to
+ * {@link #submit(StorageItem, StorageItemListener)} can do.</p>
+ */
+public final class StorageItemUploader {
+
+    /** Setting key for the number of uploaders. */
+    public static final String UPLOADERS_SETTING = "dari/storageItemUploaders";
+
+    /** Name of the executor that runs the uploaders. */
+    public static final String EXECUTOR_NAME = "Storage Item Uploads";
+
+    private static final Stats STATS = new Stats("Storage Item Uploads");
+    private static final int DEFAULT_UPLOADERS = 4;
+
+    private static final List<Uploader> UPLOADERS = new ArrayList<Uploader>();
+    private static final AtomicInteger PENDING_COUNT = new AtomicInteger();
+    private static AsyncQueue<FutureTask<StorageItem>> queue;
+
+    private StorageItemUploader() {
+    }
+
+    /**
+     * Queues the given {@code item} to be saved in the background.
+     *
+     * <p>The data stream set on the item must stay readable until the
+     * save completes, and the item shouldn't be changed until then.</p>
+     *
+     * @param item Can't be {@code null}.
+     * @param listener May be {@code null}. If not, it's called on the
+     *        uploader thread after the item is saved and its own
+     *        {@linkplain StorageItemListener listeners} have run, before
+     *        the returned future completes.
+     * @return Future that returns the given {@code item} once its data
+     *         is saved.
+     */
+    public static Future<StorageItem> submit(final StorageItem item, final StorageItemListener listener) {
+        ErrorUtils.errorIfNull(item, "item");
+
+        FutureTask<StorageItem> save = new FutureTask<StorageItem>(new Callable<StorageItem>() {
+
+            @Override
+            public StorageItem call() throws Exception {
+                Stats.Timer timer = STATS.startTimer();
+
+                try {
+                    item.save();
+
+                    if (listener != null) {
+                        listener.afterSave(item);
+                    }
+
+                    return item;
+
+                } finally {
+                    timer.stop("Upload");
+                }
+            }
+
+        }) {
+
+            @Override
+            protected void done() {
+                PENDING_COUNT.decrementAndGet();
+            }
+        };
+
+        PENDING_COUNT.incrementAndGet();
+
+        while (true) {
+            try {
+                startUploaders().add(save);
+                return save;
+
+            } catch (IllegalStateException error) {
+                // Closed by an interrupted uploader in the meantime, so
+                // try again with a new queue.
+            }
+        }
+    }
+
+    /**
+     * Queues the given {@code item} to be saved in the background.
+     *
+     * @param item Can't be {@code null}.
+     * @return Future that returns the given {@code item} once its data
+     *         is saved.
+     */
+    public static Future<StorageItem> submit(StorageItem item) {
+        return submit(item, null);
+    }
+
+    /** Returns the number of saves that haven't completed yet. */
+    public static int getPendingCount() {
+        return PENDING_COUNT.get();
+    }
+
+    // Starts the uploaders, or restarts the ones that were stopped, and
+    // returns the queue that they consume.
+    private static AsyncQueue<FutureTask<StorageItem>> startUploaders() {
+        synchronized (UPLOADERS) {
+
+            // The queue is closed for good when an uploader is interrupted
+            // while waiting on it, so replace it along with the uploaders.
+            if (queue == null || queue.isClosed()) {
+                AsyncQueue<FutureTask<StorageItem>> oldQueue = queue;
+
+                queue = new AsyncQueue<FutureTask<StorageItem>>();
+                UPLOADERS.clear();
+
+                if (oldQueue != null) {
+                    for (FutureTask<StorageItem> save; (save = oldQueue.remove()) != null; ) {
+                        queue.add(save);
+                    }
+                }
+            }
+
+            int count = Math.max(1, Settings.getOrDefault(int.class, UPLOADERS_SETTING, DEFAULT_UPLOADERS));
+
+            while (UPLOADERS.size() < count) {
+                UPLOADERS.add(new Uploader(queue));
+            }
+
+            for (Uploader uploader : UPLOADERS) {
+                uploader.submit();
+            }
+
+            return queue;
+        }
+    }
+
+    /** Runs the queued saves. */
+    private static class Uploader extends AsyncConsumer<FutureTask<StorageItem>> {
+
+        public Uploader(AsyncQueue<FutureTask<StorageItem>> queue) {
+            super(EXECUTOR_NAME, queue);
+        }
+
+        @Override
+        protected void consume(FutureTask<StorageItem> save) {
+            save.run();
+        }
+    }
+}
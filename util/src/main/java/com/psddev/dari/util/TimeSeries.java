@@ -7,16 +7,23 @@ import java.util.NoSuchElementException;
  * Bounded series of data points occurring at a predictable interval.
  * While the type argument is a non-primitive {@code Double}, no methods
  * in this class will accept or return a {@code null}.
+ *
+ * <p>The points are kept in a primitive ring buffer. Only one thread
+ * should {@linkplain #add add} at a time, but any number of threads can
+ * read snapshots concurrently without locking.</p>
  */
 public class TimeSeries implements Iterable<Double> {
 
+    private static final double[] EMPTY_POINTS = new double[0];
+
     private final long createTime;
     private final long interval;
     private final int capacity;
     private final double[] points;
-    private int seriesIndex;
-    private int pointIndex;
-    private int size;
+
+    // Number of points ever added. Written after the point itself so
+    // that readers can detect overwrites while copying.
+    private volatile long seriesIndex;
 
     /**
      * Creates an instance that will keep data occuring at the given
@@ -38,31 +45,40 @@ public class TimeSeries implements Iterable<Double> {
 
     /** Adds the given {@code number} to this series. */
     public void add(double number) {
-        points[pointIndex] = number;
-        ++ seriesIndex;
-        ++ pointIndex;
-        if (pointIndex >= capacity) {
-            pointIndex = 0;
-        }
-        if (size < capacity) {
-            ++ size;
+        if (capacity > 0) {
+            long index = seriesIndex;
+            points[(int) (index % capacity)] = number;
+            seriesIndex = index + 1;
         }
     }
 
     /**
-     * Returns an iterable over the data points within the given
-     * {@code fromTime} and {@code toTime}.
+     * Returns a copy of all data points, oldest first.
+     *
+     * @return Never {@code null}.
      */
-    public Iterable<Double> subIterable(long fromTime, long toTime) {
-        return new SnapshotIterable(fromTime, toTime);
+    public double[] toArray() {
+        while (true) {
+            long index = seriesIndex;
+            int size = (int) Math.min(index, capacity);
+            double[] copy = copy(index, size, size == capacity ? (int) (index % capacity) : 0, size);
+
+            if (copy != null) {
+                return copy;
+            }
+        }
     }
 
-    private class SnapshotIterable implements Iterable<Double> {
-
-        private final int iteratorStart;
-        private final int iteratorSize;
-
-        public SnapshotIterable(long fromTime, long toTime) {
+    /**
+     * Returns a copy of the data points within the given
+     * {@code fromTime} and {@code toTime}, oldest first.
+     *
+     * @return Never {@code null}.
+     */
+    public double[] subArray(long fromTime, long toTime) {
+        while (true) {
+            long index = seriesIndex;
+            int size = (int) Math.min(index, capacity);
             long fromDiff = fromTime - createTime;
             long fromIndex = fromDiff / interval;
 
@@ -79,17 +95,66 @@ public class TimeSeries implements Iterable<Double> {
             if (toDiff % interval > 0) {
                 ++ toIndex;
             }
-            if (toIndex > seriesIndex) {
-                toIndex = seriesIndex;
+            if (toIndex > index) {
+                toIndex = index;
+            }
+
+            long copySize = toIndex - fromIndex - 1;
+
+            if (copySize <= 0 || capacity == 0) {
+                return EMPTY_POINTS;
+            }
+
+            double[] copy = copy(
+                    index,
+                    size,
+                    (int) (((size == capacity ? index % capacity : 0) + fromIndex) % capacity),
+                    (int) Math.min(copySize, capacity));
+
+            if (copy != null) {
+                return copy;
             }
+        }
+    }
+
+    // Copies the points starting at the given ring buffer position, or
+    // returns null if the writer may have wrapped around into them in the
+    // meantime. Any add after the series is full could overwrite them.
+    private double[] copy(long index, int seriesSize, int start, int size) {
+        double[] copy = new double[size];
+        int firstSize = Math.min(size, capacity - start);
+
+        System.arraycopy(points, start, copy, 0, firstSize);
+        System.arraycopy(points, 0, copy, firstSize, size - firstSize);
+
+        return seriesIndex - index <= capacity - seriesSize ? copy : null;
+    }
+
+    /**
+     * Returns an iterable over the data points within the given
+     * {@code fromTime} and {@code toTime}.
+     *
+     * @see #subArray
+     */
+    public Iterable<Double> subIterable(long fromTime, long toTime) {
+        return new ArrayIterable(subArray(fromTime, toTime));
+    }
+
+    /**
+     * Adapts the given primitive {@code points} to an {@link Iterable}
+     * that boxes each point lazily.
+     */
+    static class ArrayIterable implements Iterable<Double> {
+
+        private final double[] points;
 
-            iteratorStart = (int) (((size == capacity ? pointIndex : 0) + fromIndex) % capacity);
-            iteratorSize = (int) (toIndex - fromIndex) - 1;
+        public ArrayIterable(double[] points) {
+            this.points = points;
         }
 
         @Override
         public Iterator<Double> iterator() {
-            return new SnapshotIterator(iteratorStart, iteratorSize);
+            return new ArrayIterator(points);
         }
     }
 
@@ -97,23 +162,21 @@ public class TimeSeries implements Iterable<Double> {
 
     @Override
     public Iterator<Double> iterator() {
-        return new SnapshotIterator(size == capacity ? pointIndex : 0, size);
+        return new ArrayIterator(toArray());
     }
 
-    private class SnapshotIterator implements Iterator<Double> {
+    private static class ArrayIterator implements Iterator<Double> {
 
-        private final int start;
-        private final int size;
-        private int startOffset;
+        private final double[] points;
+        private int index;
 
-        public SnapshotIterator(int start, int size) {
-            this.start = start;
-            this.size = size;
+        public ArrayIterator(double[] points) {
+            this.points = points;
         }
 
         @Override
         public boolean hasNext() {
-            return startOffset < size;
+            return index < points.length;
         }
 
         @Override
@@ -122,13 +185,8 @@ public class TimeSeries implements Iterable<Double> {
                 throw new NoSuchElementException();
             }
 
-            int index = start + startOffset;
-            if (index >= capacity) {
-                index -= capacity;
-            }
-
             double number = points[index];
-            ++ startOffset;
+            ++ index;
             return number;
         }
 
@@ -0,0 +1,299 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ChunkedUploadTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private File directory;
+    private HttpServer server;
+    private S3StandIn s3;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("chunks", "");
+        directory.delete();
+        directory.mkdirs();
+
+        s3 = new S3StandIn();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", s3);
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private LocalStorageItem createLocalItem(byte[] data) {
+        LocalStorageItem item = new LocalStorageItem();
+
+        item.setRootPath(directory.getPath());
+        item.setPath("data.bin");
+        item.setChunkSize(CHUNK_SIZE);
+        item.setData(new ByteArrayInputStream(data));
+        return item;
+    }
+
+    private AmazonStorageItem createAmazonItem(byte[] data) {
+        AmazonStorageItem item = new AmazonStorageItem() {
+
+            // The stand-in accepts parts of any size.
+            @Override
+            protected int getMinimumChunkSize() {
+                return CHUNK_SIZE;
+            }
+        };
+
+        item.setAccess("access");
+        item.setSecret("secret");
+        item.setBucket("bucket");
+        item.setEndpoint("http://127.0.0.1:" + server.getAddress().getPort());
+        item.setPath("a/b c.bin");
+        item.setContentType("application/pdf");
+        item.setChunkSize(CHUNK_SIZE);
+        item.setChunkUploads(3);
+        item.setData(new ByteArrayInputStream(data));
+        return item;
+    }
+
+    @Test
+    public void local() throws IOException {
+        byte[] data = createData(CHUNK_SIZE * 10 + 17);
+
+        createLocalItem(data).save();
+
+        assertArrayEquals(data, IoUtils.toByteArray(new File(directory, "data.bin")));
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void local_exactChunks() throws IOException {
+        byte[] data = createData(CHUNK_SIZE * 3);
+
+        createLocalItem(data).save();
+
+        assertArrayEquals(data, IoUtils.toByteArray(new File(directory, "data.bin")));
+    }
+
+    @Test
+    public void local_oneChunk() throws IOException {
+        byte[] data = createData(CHUNK_SIZE - 1);
+
+        createLocalItem(data).save();
+
+        assertArrayEquals(data, IoUtils.toByteArray(new File(directory, "data.bin")));
+    }
+
+    @Test
+    public void amazon() throws IOException {
+        byte[] data = createData(CHUNK_SIZE * 7 + 5);
+
+        s3.failuresBeforeSuccess.put(3, new AtomicInteger(2));
+        createAmazonItem(data).save();
+
+        assertArrayEquals(data, s3.completed.get("/bucket/a/b%20c.bin"));
+        assertEquals("public-read", s3.acl);
+        assertEquals("application/pdf", s3.contentType);
+        assertTrue(s3.authorization.startsWith("AWS access:"));
+    }
+
+    @Test
+    public void amazon_abort() throws IOException {
+        s3.failuresBeforeSuccess.put(2, new AtomicInteger(Integer.MAX_VALUE));
+
+        AmazonStorageItem item = createAmazonItem(createData(CHUNK_SIZE * 4));
+
+        item.setChunkRetries(1);
+
+        try {
+            item.save();
+            fail();
+
+        } catch (IOException error) {
+            // Expected.
+        }
+
+        assertTrue(s3.aborted.get());
+        assertTrue(s3.completed.isEmpty());
+    }
+
+    @Test
+    public void amazon_chunkSizeTooSmall() throws IOException {
+        AmazonStorageItem item = new AmazonStorageItem();
+
+        item.setAccess("access");
+        item.setSecret("secret");
+        item.setBucket("bucket");
+        item.setEndpoint("http://127.0.0.1:" + server.getAddress().getPort());
+        item.setPath("small.bin");
+        item.setChunkSize(CHUNK_SIZE);
+        item.setData(new ByteArrayInputStream(createData(CHUNK_SIZE * 2)));
+
+        try {
+            item.save();
+            fail();
+
+        } catch (IllegalStateException error) {
+            // Expected.
+        }
+
+        assertNull(s3.acl);
+    }
+
+    @Test(expected = SettingsException.class)
+    public void amazon_chunkSizeSetting() {
+        Map<String, Object> settings = new HashMap<String, Object>();
+
+        settings.put(AmazonStorageItem.ACCESS_SETTING, "access");
+        settings.put(AmazonStorageItem.SECRET_SETTING, "secret");
+        settings.put(AmazonStorageItem.BUCKET_SETTING, "bucket");
+        settings.put(AbstractStorageItem.CHUNK_SIZE_SUB_SETTING, CHUNK_SIZE);
+        new AmazonStorageItem().initialize("dari/storage/small", settings);
+    }
+
+    @Test
+    public void pool_bySize() {
+        // Sizes that the other tests don't use.
+        int smallSize = CHUNK_SIZE + 1;
+        int largeSize = CHUNK_SIZE * 2 + 1;
+        ByteBuffer small = ChunkedUpload.acquireBuffer(smallSize);
+        ByteBuffer large = ChunkedUpload.acquireBuffer(largeSize);
+
+        ChunkedUpload.releaseBuffer(small);
+        ChunkedUpload.releaseBuffer(large);
+
+        // Reused even though the other size was released after it.
+        assertSame(small, ChunkedUpload.acquireBuffer(smallSize));
+        assertSame(large, ChunkedUpload.acquireBuffer(largeSize));
+    }
+
+    // Minimal S3 multipart upload API that keeps everything in memory.
+    private static class S3StandIn implements HttpHandler {
+
+        private static final Pattern PART_NUMBER_PATTERN = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+
+        public final Map<Integer, AtomicInteger> failuresBeforeSuccess = new ConcurrentHashMap<Integer, AtomicInteger>();
+        public final Map<Integer, byte[]> parts = new ConcurrentHashMap<Integer, byte[]>();
+        public final Map<String, byte[]> completed = new ConcurrentHashMap<String, byte[]>();
+        public final AtomicBoolean aborted = new AtomicBoolean();
+        public volatile String acl;
+        public volatile String contentType;
+        public volatile String authorization;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                String path = exchange.getRequestURI().getRawPath();
+                String query = exchange.getRequestURI().getRawQuery();
+                byte[] body = IoUtils.toByteArray(exchange.getRequestBody());
+
+                authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+                if ("POST".equals(method) && "uploads".equals(query)) {
+                    acl = exchange.getRequestHeaders().getFirst("x-amz-acl");
+                    contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                    respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>upload1</UploadId></InitiateMultipartUploadResult>");
+
+                } else if ("PUT".equals(method)) {
+                    int partNumber = Integer.parseInt(query.replaceAll("^partNumber=(\\d+)&.*$", "$1"));
+                    AtomicInteger failures = failuresBeforeSuccess.get(partNumber);
+
+                    if (failures != null && failures.getAndDecrement() > 0) {
+                        respond(exchange, 500, "<Error><Code>InternalError</Code></Error>");
+
+                    } else {
+                        parts.put(partNumber, body);
+                        exchange.getResponseHeaders().set("ETag", "\"etag" + partNumber + "\"");
+                        respond(exchange, 200, "");
+                    }
+
+                } else if ("POST".equals(method)) {
+                    ByteArrayOutputStream object = new ByteArrayOutputStream();
+                    Matcher partNumberMatcher = PART_NUMBER_PATTERN.matcher(new String(body, StringUtils.UTF_8));
+
+                    while (partNumberMatcher.find()) {
+                        object.write(parts.get(Integer.parseInt(partNumberMatcher.group(1))));
+                    }
+
+                    completed.put(path, object.toByteArray());
+                    respond(exchange, 200, "<CompleteMultipartUploadResult></CompleteMultipartUploadResult>");
+
+                } else if ("DELETE".equals(method)) {
+                    aborted.set(true);
+                    parts.clear();
+                    respond(exchange, 204, null);
+
+                } else {
+                    respond(exchange, 400, "");
+                }
+
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void respond(HttpExchange exchange, int status, String body) throws IOException {
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+
+            } else {
+                byte[] bytes = body.getBytes(StringUtils.UTF_8);
+                OutputStream output = exchange.getResponseBody();
+
+                exchange.sendResponseHeaders(status, bytes.length);
+                output.write(bytes);
+                output.close();
+            }
+        }
+    }
+}
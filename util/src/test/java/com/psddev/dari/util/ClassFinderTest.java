@@ -0,0 +1,131 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassFinderTest {
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("classes", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void after() throws IOException {
+        delete(directory);
+    }
+
+    private void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        IoUtils.delete(file);
+    }
+
+    @Test
+    public void find() {
+        Set<Class<? extends Base>> classes = new ClassFinder().find(ClassFinderTest.class.getClassLoader(), Base.class);
+
+        assertTrue(classes.contains(Child.class));
+        assertTrue(classes.contains(GrandChild.class));
+        assertFalse(classes.contains(Base.class));
+        assertFalse(classes.contains(Unrelated.class));
+    }
+
+    @Test
+    public void find_interface() {
+        Set<Class<? extends Runnable>> classes = new ClassFinder().find(ClassFinderTest.class.getClassLoader(), Runnable.class);
+
+        assertTrue(classes.contains(GrandChild.class));
+        assertFalse(classes.contains(Child.class));
+    }
+
+    private void copyGrandChild() throws IOException {
+        String path = GrandChild.class.getName().replace('.', '/') + ".class";
+        File classFile = new File(directory, path);
+
+        IoUtils.createParentDirectories(classFile);
+        IoUtils.copy(new File(ClassFinderTest.class.getClassLoader().getResource(path).getFile()), classFile);
+    }
+
+    @Test
+    public void writeIndex() throws IOException {
+        copyGrandChild();
+
+        assertEquals(1, ClassFinder.Indexer.writeIndex(directory));
+        assertEquals(
+                GrandChild.class.getName() + " " + Child.class.getName() + " java.lang.Runnable\n",
+                IoUtils.toString(new File(directory, ClassFinder.INDEX_PATH), StringUtils.UTF_8));
+    }
+
+    @Test
+    public void indexerMain_noSideEffects() throws Exception {
+        copyGrandChild();
+
+        List<URL> urls = new ArrayList<URL>();
+
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            urls.add(new File(path).toURI().toURL());
+        }
+
+        // Runs the indexer the way the build does, in a fresh loader.
+        IsolatedClassLoader loader = new IsolatedClassLoader(urls.toArray(new URL[urls.size()]));
+
+        loader.loadClass(ClassFinder.Indexer.class.getName()).
+                getMethod("main", String[].class).
+                invoke(null, (Object) new String[] { directory.getPath() });
+
+        assertTrue(new File(directory, ClassFinder.INDEX_PATH).exists());
+        assertFalse(loader.isLoaded(CodeUtils.class.getName()));
+        assertFalse(loader.isLoaded(ClassFinder.Static.class.getName()));
+    }
+
+    private static class IsolatedClassLoader extends URLClassLoader {
+
+        public IsolatedClassLoader(URL[] urls) {
+            super(urls, null);
+        }
+
+        public boolean isLoaded(String name) {
+            return findLoadedClass(name) != null;
+        }
+    }
+
+    public static class Base {
+    }
+
+    public static class Child extends Base {
+    }
+
+    public static class GrandChild extends Child implements Runnable {
+
+        @Override
+        public void run() {
+        }
+    }
+
+    public static class Unrelated {
+    }
+}
@@ -0,0 +1,115 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Compares converting through a {@link Converter.Handle}, which
+ * remembers the conversion functions, and through
+ * {@link ObjectUtils#to(Class, Object)}, which uses the handles, with
+ * looking up the function through {@link Converter#getFunction} on every
+ * call, as {@code ObjectUtils.to} used to.
+ *
+ * <p>This isn't run as part of the build since it doesn't match the test
+ * class pattern. Run it on its own with:</p>
+ *
+ * <pre>mvn test -Dtest=ConverterBenchmark</pre>
+ */
+public class ConverterBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 1000000;
+
+    // Keeps the results from being optimized away.
+    private static volatile long sink;
+
+    private final Converter converter = new Converter();
+
+    @Test
+    public void convert() {
+        converter.putAllStandardFunctions();
+
+        report(long.class, "Long", new Object[] { 12L });
+        report(long.class, "Double", new Object[] { 12.5 });
+        report(long.class, "Double, String", new Object[] { 12.5, "13" });
+        report(long.class, "Double, String, Float, Integer", new Object[] { 12.5, "13", 14.5f, 15 });
+        report(UUID.class, "String", new Object[] { "0000014f-7d3e-d6e5-a5ff-fffe6aa80000" });
+
+        // More source types than the handle used to remember.
+        report(long.class, "Double, String, Float, Integer, Short, Byte, BigDecimal, AtomicLong", new Object[] {
+                12.5, "13", 14.5f, 15, (short) 16, (byte) 17, new BigDecimal("18.5"), new AtomicLong(19L) });
+    }
+
+    private void report(Class<?> returnClass, String label, Object[] values) {
+        Converter.Handle handle = converter.getHandle(returnClass);
+
+        for (Object value : values) {
+            assertEquals(lookUp(returnClass, value), handle.convert(value));
+            assertEquals(lookUp(returnClass, value), ObjectUtils.to(returnClass, value));
+        }
+
+        double lookUpTime = measure(returnClass, null, values);
+        double handleTime = measure(returnClass, handle, values);
+        double toTime = measure(returnClass, ObjectUtils.class, values);
+
+        System.out.println(String.format(
+                "Converter to [%s] from [%s]: lookup [%.1f] ns/op, handle [%.1f] ns/op, ObjectUtils.to [%.1f] ns/op",
+                returnClass.getSimpleName(), label, lookUpTime, handleTime, toTime));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object lookUp(Type returnType, Object value) {
+        try {
+            return ((ConversionFunction<Object, Object>) converter.getFunction(value.getClass(), returnType)).convert(converter, returnType, value);
+
+        } catch (Exception error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    // Returns the time of the fastest round in nanoseconds per
+    // conversion, cycling through the given values, using the given
+    // handle, ObjectUtils.to if the given method is ObjectUtils.class, or
+    // a lookup otherwise.
+    private double measure(Class<?> returnClass, Object method, Object[] values) {
+        long fastest = Long.MAX_VALUE;
+        long total = 0L;
+
+        for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; ++ round) {
+            long start = System.nanoTime();
+
+            for (int i = 0; i < ITERATIONS; ++ i) {
+                Object value = values[i % values.length];
+                Object result;
+
+                if (method instanceof Converter.Handle) {
+                    result = ((Converter.Handle) method).convert(value);
+
+                } else if (method == ObjectUtils.class) {
+                    result = ObjectUtils.to(returnClass, value);
+
+                } else {
+                    result = lookUp(returnClass, value);
+                }
+
+                total += result.hashCode();
+            }
+
+            long time = System.nanoTime() - start;
+
+            if (round >= WARM_UP_ROUNDS) {
+                fastest = Math.min(fastest, time);
+            }
+        }
+
+        sink += total;
+        return (double) fastest / ITERATIONS;
+    }
+}
@@ -1,6 +1,7 @@
 package com.psddev.dari.util;
 
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
 import java.util.*;
 
 import org.junit.*;
@@ -272,6 +273,72 @@ public class ConverterTest {
     	assertEquals(expect, output);
     }
 
-}
+    @Test
+    public void getHandle_same() {
+        assertSame(converter.getHandle(long.class), converter.getHandle(long.class));
+    }
 
+    @Test
+    public void getHandle_convert() {
+        Converter.Handle handle = converter.getHandle(long.class);
+
+        assertEquals(12L, handle.convert(12.5));
+        assertEquals(12L, handle.convert(12L));
+        assertEquals(12L, handle.convert("12"));
+        assertEquals(0L, handle.convert(null));
+        assertArrayEquals(new int[] { 1, 2 }, (int[]) converter.getHandle(int[].class).convert(Arrays.asList("1", 2L)));
+    }
 
+    @Test
+    public void getHandle_alternating() {
+        Converter.Handle handle = converter.getHandle(long.class);
+
+        for (int i = 0; i < 3; ++ i) {
+            assertEquals(12L, handle.convert(12.5));
+            assertEquals(13L, handle.convert("13"));
+            assertEquals(14L, handle.convert(14.5f));
+            assertEquals(15L, handle.convert(new BigDecimal("15")));
+            assertEquals(16L, handle.convert(Integer.valueOf(16)));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getHandle_manyTypes() throws Exception {
+        Converter.Handle handle = converter.getHandle(String.class);
+
+        // More source types than the handle remembers.
+        List<Object> values = Arrays.<Object>asList(
+                1, 2L, (short) 3, (byte) 4, 5.5, 6.5f,
+                new BigDecimal("7.5"), new java.math.BigInteger("8"),
+                new java.util.concurrent.atomic.AtomicLong(9L),
+                new java.util.concurrent.atomic.AtomicInteger(10),
+                Boolean.TRUE, 'c', new StringBuilder("sb"), new StringBuffer("sbf"),
+                UUID.randomUUID(), Locale.US, new java.net.URI("http://example.com/"),
+                new java.io.File("file"), new Parent("abc"), new Child("def"));
+
+        for (int round = 0; round < 3; ++ round) {
+            for (Object value : values) {
+                ConversionFunction<Object, Object> function = (ConversionFunction<Object, Object>) converter.getFunction(value.getClass(), String.class);
+
+                assertEquals(function.convert(converter, String.class, value), handle.convert(value));
+            }
+        }
+    }
+
+    @Test
+    public void getHandle_put_function() {
+        Converter.Handle handle = converter.getHandle(String.class);
+
+        assertEquals("pabc", handle.convert(new Parent("abc")));
+
+        converter.putDirectFunction(Parent.class, String.class, new ConversionFunction<Parent, String>() {
+            @Override
+            public String convert(Converter converter, Type returnType, Parent object) {
+                return "custom";
+            }
+        });
+
+        assertEquals("custom", handle.convert(new Parent("abc")));
+    }
+}
@@ -0,0 +1,222 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileResponderTest {
+
+    private File file;
+    private byte[] data;
+
+    @Before
+    public void before() throws IOException {
+        data = new byte[1000];
+
+        for (int i = 0; i < data.length; ++ i) {
+            data[i] = (byte) i;
+        }
+
+        file = File.createTempFile("responder", ".txt");
+
+        FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+
+        FileResponder.clearCache();
+    }
+
+    @After
+    public void after() {
+        file.delete();
+        Settings.setOverride(FileResponder.CACHE_ITEM_SIZE_SETTING, null);
+    }
+
+    private Response send(String method, String... headers) throws IOException {
+        Response response = new Response();
+
+        FileResponder.send(createRequest(method, headers), response.proxy, file, null, null);
+        return response;
+    }
+
+    @Test
+    public void send_whole() throws IOException {
+        Response response = send("GET");
+
+        assertEquals(200, response.status);
+        assertEquals("1000", response.headers.get("Content-Length"));
+        assertEquals("bytes", response.headers.get("Accept-Ranges"));
+        assertArrayEquals(data, response.body.toByteArray());
+    }
+
+    @Test
+    public void send_uncached() throws IOException {
+        Settings.setOverride(FileResponder.CACHE_ITEM_SIZE_SETTING, 10L);
+
+        assertArrayEquals(data, send("GET").body.toByteArray());
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200), send("GET", "Range", "bytes=100-199").body.toByteArray());
+    }
+
+    @Test
+    public void send_head() throws IOException {
+        Response response = send("HEAD");
+
+        assertEquals("1000", response.headers.get("Content-Length"));
+        assertEquals(0, response.body.size());
+    }
+
+    @Test
+    public void send_range() throws IOException {
+        Response response = send("GET", "Range", "bytes=10-19");
+
+        assertEquals(206, response.status);
+        assertEquals("bytes 10-19/1000", response.headers.get("Content-Range"));
+        assertEquals("10", response.headers.get("Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), response.body.toByteArray());
+    }
+
+    @Test
+    public void send_suffixRange() throws IOException {
+        Response response = send("GET", "Range", "bytes=-5");
+
+        assertEquals("bytes 995-999/1000", response.headers.get("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(data, 995, 1000), response.body.toByteArray());
+    }
+
+    @Test
+    public void send_unsatisfiableRange() throws IOException {
+        Response response = send("GET", "Range", "bytes=1000-");
+
+        assertEquals(416, response.status);
+        assertEquals("bytes */1000", response.headers.get("Content-Range"));
+        assertEquals(0, response.body.size());
+    }
+
+    @Test
+    public void send_ifRangeMismatch() throws IOException {
+        Response response = send("GET", "Range", "bytes=10-19", "If-Range", "\"other\"");
+
+        assertEquals(200, response.status);
+        assertNull(response.headers.get("Content-Range"));
+        assertEquals(1000, response.body.size());
+    }
+
+    @Test
+    public void send_notModified() throws IOException {
+        String etag = send("GET").headers.get("ETag");
+        Response response = send("GET", "If-None-Match", etag);
+
+        assertEquals(304, response.status);
+        assertEquals(0, response.body.size());
+    }
+
+    @Test
+    public void parseRange() {
+        assertNull(FileResponder.parseRange(null, 100));
+        assertNull(FileResponder.parseRange("items=0-1", 100));
+        assertNull(FileResponder.parseRange("bytes=0-1,5-6", 100));
+        assertNull(FileResponder.parseRange("bytes=5-1", 100));
+        assertArrayEquals(new long[] { 0, 99 }, FileResponder.parseRange("bytes=0-500", 100));
+        assertArrayEquals(new long[] { 0, 99 }, FileResponder.parseRange("bytes=-500", 100));
+        assertArrayEquals(new long[] { 50, 99 }, FileResponder.parseRange("bytes=50-", 100));
+        assertEquals(0, FileResponder.parseRange("bytes=-0", 100).length);
+    }
+
+    private static HttpServletRequest createRequest(final String method, String... headers) {
+        final Map<String, String> headerMap = new HashMap<String, String>();
+
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            headerMap.put(headers[i], headers[i + 1]);
+        }
+
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                FileResponderTest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] arguments) {
+                String name = m.getName();
+
+                if ("getMethod".equals(name)) {
+                    return method;
+
+                } else if ("getHeader".equals(name)) {
+                    return headerMap.get(arguments[0]);
+
+                } else if ("getDateHeader".equals(name)) {
+                    return -1L;
+
+                } else {
+                    return null;
+                }
+            }
+        });
+    }
+
+    private static class Response implements InvocationHandler {
+
+        public final HttpServletResponse proxy = (HttpServletResponse) Proxy.newProxyInstance(
+                FileResponderTest.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class },
+                this);
+
+        public final Map<String, String> headers = new HashMap<String, String>();
+        public final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        public int status = 200;
+
+        private final ServletOutputStream output = new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        };
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] arguments) {
+            String name = m.getName();
+
+            if ("setStatus".equals(name)) {
+                status = (Integer) arguments[0];
+
+            } else if ("setHeader".equals(name)) {
+                headers.put((String) arguments[0], (String) arguments[1]);
+
+            } else if ("setDateHeader".equals(name)) {
+                headers.put((String) arguments[0], String.valueOf(arguments[1]));
+
+            } else if ("setContentType".equals(name)) {
+                headers.put("Content-Type", (String) arguments[0]);
+
+            } else if ("getOutputStream".equals(name)) {
+                return output;
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageDerivativeCacheTest {
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("derivatives", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void after() {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    private static ImageDerivativeCache.Renderer renderer(final int length, final AtomicInteger count) {
+        return new ImageDerivativeCache.Renderer() {
+
+            @Override
+            public String render(OutputStream output) throws IOException {
+                count.incrementAndGet();
+                output.write(new byte[length]);
+                return "png";
+            }
+        };
+    }
+
+    @Test
+    public void render_then_hit() throws IOException {
+        ImageDerivativeCache cache = new ImageDerivativeCache(directory, 1000L);
+        AtomicInteger count = new AtomicInteger();
+        String key = ImageDerivativeCache.createKey("/abc/resize/100x100/", "http://example.com/a.png");
+
+        assertNull(cache.get(key));
+
+        ImageDerivativeCache.Entry entry = cache.getOrRender(key, renderer(10, count));
+
+        assertEquals("png", entry.getType());
+        assertEquals(10L, entry.getLength());
+        assertTrue(entry.getFile().exists());
+        assertSame(entry, cache.getOrRender(key, renderer(10, count)));
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void evict_least_recently_used() throws IOException {
+        ImageDerivativeCache cache = new ImageDerivativeCache(directory, 250L);
+        AtomicInteger count = new AtomicInteger();
+        ImageDerivativeCache.Entry first = cache.getOrRender("a", renderer(100, count));
+
+        cache.getOrRender("b", renderer(100, count));
+        cache.get("a");
+        cache.getOrRender("c", renderer(100, count));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertTrue(first.getFile().exists());
+        assertEquals(200L, cache.getSize());
+    }
+
+    @Test
+    public void reload_from_directory() throws IOException {
+        new ImageDerivativeCache(directory, 1000L).getOrRender("a", renderer(10, new AtomicInteger()));
+
+        ImageDerivativeCache cache = new ImageDerivativeCache(directory, 1000L);
+
+        assertNotNull(cache.get("a"));
+        assertEquals(10L, cache.getSize());
+    }
+
+    @Test
+    public void reload_typeChanged() throws IOException {
+        ImageDerivativeCache first = new ImageDerivativeCache(directory, 1000L);
+        ImageDerivativeCache second = new ImageDerivativeCache(directory, 1000L);
+        ImageDerivativeCache.Entry png = first.getOrRender("a", renderer(10, new AtomicInteger()));
+
+        png.getFile().setLastModified(System.currentTimeMillis() - 60000L);
+
+        ImageDerivativeCache.Entry jpg = second.getOrRender("a", new ImageDerivativeCache.Renderer() {
+
+            @Override
+            public String render(OutputStream output) throws IOException {
+                output.write(new byte[20]);
+                return "jpg";
+            }
+        });
+
+        ImageDerivativeCache cache = new ImageDerivativeCache(directory, 1000L);
+
+        assertEquals("jpg", cache.get("a").getType());
+        assertEquals(20L, cache.getSize());
+        assertFalse(png.getFile().exists());
+        assertTrue(jpg.getFile().exists());
+    }
+
+    @Test
+    public void deduplicate_concurrent_renders() throws Exception {
+        final ImageDerivativeCache cache = new ImageDerivativeCache(directory, 1000L);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ImageDerivativeCache.Renderer slow = new ImageDerivativeCache.Renderer() {
+
+            @Override
+            public String render(OutputStream output) throws IOException {
+                count.incrementAndGet();
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException error) {
+                    throw new IOException(error);
+                }
+
+                output.write(1);
+                return "jpg";
+            }
+        };
+
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<ImageDerivativeCache.Entry> entries = new ArrayList<ImageDerivativeCache.Entry>();
+
+        for (int i = 0; i < 4; ++ i) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        ImageDerivativeCache.Entry entry = cache.getOrRender("key", slow);
+
+                        synchronized (entries) {
+                            entries.add(entry);
+                        }
+
+                    } catch (IOException error) {
+                        throw new IllegalStateException(error);
+                    }
+                }
+            };
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        started.await();
+        Thread.sleep(100L);
+        release.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, count.get());
+        assertEquals(4, entries.size());
+        assertEquals(1, directory.list().length);
+    }
+}
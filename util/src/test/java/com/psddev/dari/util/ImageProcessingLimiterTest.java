@@ -0,0 +1,231 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ImageProcessingLimiterTest {
+
+    // Starts a job that holds its slot and the given number of bytes until
+    // the release latch opens.
+    private static Thread hold(final ImageProcessingLimiter limiter, final long bytes, final CountDownLatch started, final CountDownLatch release) {
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    limiter.run(new ImageProcessingLimiter.Job<Void>() {
+
+                        @Override
+                        public Void process(ImageProcessingLimiter.Admission admission) {
+                            admission.reserve(bytes);
+                            started.countDown();
+
+                            try {
+                                release.await();
+                            } catch (InterruptedException error) {
+                                Thread.currentThread().interrupt();
+                            }
+
+                            return null;
+                        }
+                    });
+
+                } catch (IOException error) {
+                    throw new IllegalStateException(error);
+                }
+            }
+        };
+
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void run_currentThread() throws IOException {
+        final Thread current = Thread.currentThread();
+
+        assertSame(current, new ImageProcessingLimiter(1, 1024L, 1000L).run(new ImageProcessingLimiter.Job<Thread>() {
+
+            @Override
+            public Thread process(ImageProcessingLimiter.Admission admission) {
+                return Thread.currentThread();
+            }
+        }));
+    }
+
+    @Test
+    public void run() throws IOException {
+        ImageProcessingLimiter limiter = new ImageProcessingLimiter(1, 1024L * 1024L, 1000L);
+
+        assertEquals("foo", limiter.run(new ImageProcessingLimiter.Job<String>() {
+
+            @Override
+            public String process(ImageProcessingLimiter.Admission admission) {
+                admission.reserve(1024L);
+                return "foo";
+            }
+        }));
+
+        assertEquals(0, limiter.getActiveCount());
+        assertEquals(0L, limiter.getReservedBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void run_error() throws IOException {
+        new ImageProcessingLimiter(1, 1024L, 1000L).run(new ImageProcessingLimiter.Job<Void>() {
+
+            @Override
+            public Void process(ImageProcessingLimiter.Admission admission) throws IOException {
+                throw new IOException();
+            }
+        });
+    }
+
+    @Test
+    public void run_rejectSlot() throws Exception {
+        ImageProcessingLimiter limiter = new ImageProcessingLimiter(1, 1024L * 1024L, 50L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(limiter, 0L, started, release);
+
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(1, limiter.getActiveCount());
+
+            try {
+                limiter.run(new ImageProcessingLimiter.Job<Void>() {
+
+                    @Override
+                    public Void process(ImageProcessingLimiter.Admission admission) {
+                        throw new AssertionError();
+                    }
+                });
+
+                throw new AssertionError();
+
+            } catch (RejectedExecutionException error) {
+                // Expected.
+            }
+
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        assertEquals(0, limiter.getActiveCount());
+    }
+
+    @Test
+    public void run_rejectMemory() throws Exception {
+        ImageProcessingLimiter limiter = new ImageProcessingLimiter(2, 1024L * 1024L, 50L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(limiter, 1024L * 1024L, started, release);
+
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(1024L * 1024L, limiter.getReservedBytes());
+
+            try {
+                limiter.run(new ImageProcessingLimiter.Job<Void>() {
+
+                    @Override
+                    public Void process(ImageProcessingLimiter.Admission admission) {
+                        admission.reserve(1L);
+                        throw new AssertionError();
+                    }
+                });
+
+                throw new AssertionError();
+
+            } catch (RejectedExecutionException error) {
+                // Expected.
+            }
+
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        assertEquals(0L, limiter.getReservedBytes());
+    }
+
+    private static long count(String operation) {
+        return ImageProcessingLimiter.STATS.getMeasurements().get(operation).getOverallTotalCount();
+    }
+
+    @Test
+    public void run_stats() throws Exception {
+        final ImageProcessingLimiter limiter = new ImageProcessingLimiter(1, 1024L * 1024L, 5000L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        long queued = count("Queue");
+        long rendered = count("Render");
+        Thread holder = hold(limiter, 0L, started, release);
+
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Thread waiter = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        limiter.run(new ImageProcessingLimiter.Job<Void>() {
+
+                            @Override
+                            public Void process(ImageProcessingLimiter.Admission admission) {
+                                return null;
+                            }
+                        });
+
+                    } catch (IOException error) {
+                        throw new IllegalStateException(error);
+                    }
+                }
+            };
+
+            waiter.start();
+
+            for (int i = 0; i < 100 && limiter.getQueueDepth() == 0; ++ i) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(1, limiter.getQueueDepth());
+            release.countDown();
+            waiter.join();
+
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(queued + 1, count("Queue"));
+        assertEquals(rendered + 2, count("Render"));
+    }
+
+    @Test
+    public void reserve_overBudget() throws IOException {
+        ImageProcessingLimiter limiter = new ImageProcessingLimiter(1, 1024L * 1024L, 50L);
+
+        limiter.run(new ImageProcessingLimiter.Job<Void>() {
+
+            @Override
+            public Void process(ImageProcessingLimiter.Admission admission) {
+                admission.reserve(1024L * 1024L * 1024L);
+                return null;
+            }
+        });
+
+        assertEquals(0L, limiter.getReservedBytes());
+    }
+}
@@ -0,0 +1,121 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageResizeStorageItemListenerTest {
+
+    private static final String STORAGE = "imageResizeTest";
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("storage", "");
+        directory.delete();
+        directory.mkdirs();
+
+        Map<String, Object> storage = new HashMap<String, Object>();
+
+        storage.put("class", LocalStorageItem.class.getName());
+        storage.put(LocalStorageItem.ROOT_PATH_SETTING, directory.getPath());
+        storage.put(AbstractStorageItem.BASE_URL_SUB_SETTING, "http://localhost/");
+
+        Settings.setOverride(StorageItem.SETTING_PREFIX + "/" + STORAGE, storage);
+        Settings.setOverride(StorageItem.DEFAULT_STORAGE_SETTING, STORAGE);
+        Settings.setOverride(ImageResizeStorageItemListener.SIZES_SETTING, "300, 600, 2000");
+    }
+
+    @After
+    public void after() {
+        Settings.setOverride(StorageItem.SETTING_PREFIX + "/" + STORAGE, null);
+        Settings.setOverride(StorageItem.DEFAULT_STORAGE_SETTING, null);
+        Settings.setOverride(ImageResizeStorageItemListener.SIZES_SETTING, null);
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<StorageItem> saveImage(String path) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        ImageIO.write(new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB), "png", output);
+
+        StorageItem item = StorageItem.Static.create();
+
+        item.setPath(path);
+        item.setContentType("image/png");
+        item.setData(new ByteArrayInputStream(output.toByteArray()));
+        item.save();
+
+        return (List<StorageItem>) item.getMetadata().get("resizes");
+    }
+
+    @Test
+    public void afterSave() throws IOException {
+        List<StorageItem> resizes = saveImage("a/b.png");
+
+        assertEquals(2, resizes.size());
+        assertEquals("a/resizes/300/b.png", resizes.get(0).getPath());
+        assertEquals(300, resizes.get(0).getMetadata().get("width"));
+        assertEquals(200, resizes.get(0).getMetadata().get("height"));
+        assertEquals("a/resizes/600/b.png", resizes.get(1).getPath());
+        assertEquals(600, resizes.get(1).getMetadata().get("width"));
+        assertEquals(400, resizes.get(1).getMetadata().get("height"));
+
+        BufferedImage smallest = ImageIO.read(new File(directory, "a/resizes/300/b.png"));
+
+        assertEquals(300, smallest.getWidth());
+        assertEquals(200, smallest.getHeight());
+        assertTrue(new File(directory, "a/resizes/600/b.png").exists());
+    }
+
+    @Test
+    public void afterSave_writersInterrupted() throws Exception {
+        saveImage("a/b.png");
+
+        // Closes the queue that the writers are waiting on.
+        for (Object task : TaskExecutor.Static.getInstance(ImageResizeStorageItemListener.EXECUTOR_NAME).getTasks()) {
+            Thread thread = ((Task) task).getThread();
+
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        Thread.sleep(200);
+
+        List<StorageItem> resizes = saveImage("c/d.png");
+
+        assertNotNull(resizes);
+        assertEquals(2, resizes.size());
+        assertTrue(new File(directory, "c/resizes/300/d.png").exists());
+    }
+}
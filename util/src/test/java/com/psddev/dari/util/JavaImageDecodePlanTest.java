@@ -0,0 +1,105 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JavaImageDecodePlanTest {
+
+    private static final List<String> BASIC_COMMANDS = Arrays.asList("circle", "grayscale", "invert", "sepia", "star", "starburst", "flipH", "flipV", "sharpen", "blur");
+
+    private File file;
+
+    @Before
+    public void before() throws IOException {
+        BufferedImage image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+
+        for (int x = 0; x < 1200; ++ x) {
+            for (int y = 0; y < 800; ++ y) {
+                image.setRGB(x, y, x * 7 + y * 13);
+            }
+        }
+
+        file = File.createTempFile("decode", ".png");
+        ImageIO.write(image, "png", file);
+    }
+
+    @After
+    public void after() {
+        file.delete();
+    }
+
+    private static JavaImageDecodePlan parse(String... parameters) {
+        return JavaImageDecodePlan.parse(parameters, BASIC_COMMANDS);
+    }
+
+    @Test
+    public void parse_none() {
+        assertNull(parse("abcdefg", "2147483647", "grayscale", "resize", "100x100"));
+        assertNull(parse("resize", "100x100<"));
+        assertNull(parse("rotate", "90", "resize", "100x100"));
+    }
+
+    @Test
+    public void subsampling_resize() {
+        JavaImageDecodePlan plan = parse("abcdefg", "2147483647", "resize", "200x200");
+
+        assertNotNull(plan);
+        assertEquals(14, plan.getSubsampling(6000, 4000));
+        assertEquals(1, plan.getSubsampling(300, 300));
+    }
+
+    @Test
+    public void subsampling_resize_fits_width() {
+        JavaImageDecodePlan plan = parse("resize", "200x50");
+
+        assertEquals(14, plan.getSubsampling(6000, 4000));
+    }
+
+    @Test
+    public void subsampling_thumbnail_fills() {
+        JavaImageDecodePlan plan = parse("thumbnail", "200x200");
+
+        assertEquals(10, plan.getSubsampling(6000, 4000));
+    }
+
+    @Test
+    public void read_subsampled() throws IOException {
+        BufferedImage image = parse("resize", "100x100").read(file.toURI().toURL());
+
+        assertEquals(200, image.getWidth());
+        assertEquals(134, image.getHeight());
+    }
+
+    @Test
+    public void read_cropped() throws IOException {
+        JavaImageDecodePlan plan = parse("format", "jpg", "crop", "400x300+100+50", "resize", "200x150");
+        BufferedImage image = plan.read(file.toURI().toURL());
+
+        assertEquals(2, plan.getAppliedCropIndex());
+        assertEquals(400, image.getWidth());
+        assertEquals(300, image.getHeight());
+        assertEquals(ImageIO.read(file).getRGB(100, 50), image.getRGB(0, 0));
+    }
+
+    @Test
+    public void read_crop_out_of_bounds() throws IOException {
+        JavaImageDecodePlan plan = parse("crop", "400x300+5000+50", "resize", "20x15");
+        BufferedImage image = plan.read(file.toURI().toURL());
+
+        assertEquals(-1, plan.getAppliedCropIndex());
+        assertEquals(1200, image.getWidth());
+    }
+}
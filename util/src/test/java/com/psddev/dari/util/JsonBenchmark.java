@@ -0,0 +1,137 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Compares generating and parsing JSON through strings, the way
+ * {@link JsonProcessor} was used before it could work with bytes
+ * directly, with {@link JsonProcessor#generateBytes} and
+ * {@link JsonProcessor#parse(byte[], int, int)}.
+ *
+ * <p>This isn't run as part of the build since it doesn't match the test
+ * class pattern. Run it on its own with:</p>
+ *
+ * <pre>mvn test -Dtest=JsonBenchmark</pre>
+ */
+public class JsonBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 20000;
+
+    // Keeps the results from being optimized away.
+    private static volatile long sink;
+
+    private final JsonProcessor processor = new JsonProcessor();
+
+    @Test
+    public void generateAndParse() {
+        report("small", createRecord(5));
+        report("large", createRecord(200));
+    }
+
+    // Creates the values of a typical record with the given number of
+    // list items.
+    private Map<String, Object> createRecord(int items) {
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        List<Object> list = new ArrayList<Object>();
+
+        record.put("_id", "0000014f-7d3e-d6e5-a5ff-fffe6aa80000");
+        record.put("_type", "0000014f-7d3e-d6e5-a5ff-fffe6aa80001");
+        record.put("name", "Example \u00e9l\u00e8ve");
+        record.put("count", 12345L);
+        record.put("ratio", 0.25);
+        record.put("active", Boolean.TRUE);
+
+        for (int i = 0; i < items; ++ i) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+
+            item.put("_ref", "0000014f-7d3e-d6e5-a5ff-fffe6aa8" + String.format("%04x", i));
+            item.put("label", "Item " + i);
+            item.put("position", i);
+            list.add(item);
+        }
+
+        record.put("items", list);
+        return record;
+    }
+
+    private void report(String label, final Map<String, Object> record) {
+        final byte[] bytes = processor.generateBytes(record);
+
+        assertArrayEquals(processor.generate(record).getBytes(StringUtils.UTF_8), bytes);
+        assertEquals(processor.parse(new String(bytes, StringUtils.UTF_8)), processor.parse(bytes, 0, bytes.length));
+
+        double generateStringTime = measure(new Operation() {
+
+            @Override
+            public long run() {
+                return processor.generate(record).getBytes(StringUtils.UTF_8).length;
+            }
+        });
+
+        double generateBytesTime = measure(new Operation() {
+
+            @Override
+            public long run() {
+                return processor.generateBytes(record).length;
+            }
+        });
+
+        double parseStringTime = measure(new Operation() {
+
+            @Override
+            public long run() {
+                return ((Map<?, ?>) processor.parse(new String(bytes, StringUtils.UTF_8))).size();
+            }
+        });
+
+        double parseBytesTime = measure(new Operation() {
+
+            @Override
+            public long run() {
+                return ((Map<?, ?>) processor.parse(bytes, 0, bytes.length)).size();
+            }
+        });
+
+        System.out.println(String.format(
+                "JSON [%s] (%d bytes): generate string [%.1f] ns/op, bytes [%.1f] ns/op; parse string [%.1f] ns/op, bytes [%.1f] ns/op",
+                label, bytes.length, generateStringTime, generateBytesTime, parseStringTime, parseBytesTime));
+    }
+
+    private interface Operation {
+
+        long run();
+    }
+
+    // Returns the time of the fastest round in nanoseconds per operation.
+    private double measure(Operation operation) {
+        long fastest = Long.MAX_VALUE;
+        long total = 0L;
+
+        for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; ++ round) {
+            long start = System.nanoTime();
+
+            for (int i = 0; i < ITERATIONS; ++ i) {
+                total += operation.run();
+            }
+
+            long time = System.nanoTime() - start;
+
+            if (round >= WARM_UP_ROUNDS) {
+                fastest = Math.min(fastest, time);
+            }
+        }
+
+        sink += total;
+        return (double) fastest / ITERATIONS;
+    }
+}
@@ -1,5 +1,7 @@
 package com.psddev.dari.util;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -131,6 +133,58 @@ public class JsonProcessorTest {
                 processor.generate(object));
     }
 
+    @Test
+    public void test_generateBytes() throws Exception {
+
+        JsonProcessor processor = new JsonProcessor();
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("string", "\u00e9\u4e2d");
+        map.put("list", Arrays.asList(1L, 2.5, true, null));
+
+        String string = processor.generate(map);
+        assertArrayEquals(string.getBytes("UTF-8"), processor.generateBytes(map));
+        assertArrayEquals(string.getBytes("UTF-8"), processor.generateBytes(map));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        processor.generate(map, output);
+        assertArrayEquals(string.getBytes("UTF-8"), output.toByteArray());
+    }
+
+    @Test
+    public void test_generateBytes_large() throws Exception {
+
+        JsonProcessor processor = new JsonProcessor();
+        char[] chars = new char[200 * 1024];
+        Arrays.fill(chars, 'a');
+
+        // Grows past the reused size, then goes back to a small one.
+        String large = new String(chars);
+        assertArrayEquals(processor.generate(large).getBytes("UTF-8"), processor.generateBytes(large));
+        assertArrayEquals("\"b\"".getBytes("UTF-8"), processor.generateBytes("b"));
+        assertArrayEquals("\"c\"".getBytes("UTF-8"), processor.generateBytes("c"));
+    }
+
+    @Test
+    public void test_parse_slice() throws Exception {
+
+        JsonProcessor processor = new JsonProcessor();
+        byte[] bytes = "xx{\"a\":[1,'b']}yy".getBytes("UTF-8");
+        Object expected = processor.parse("{\"a\":[1,'b']}");
+
+        assertEquals(expected, processor.parse(bytes, 2, bytes.length - 4));
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 4);
+        assertEquals(expected, processor.parse(buffer));
+        assertEquals(2, buffer.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(2);
+        direct.limit(bytes.length - 2);
+        assertEquals(expected, processor.parse(direct));
+    }
+
     private static class Class1 {
 
         public String string1;
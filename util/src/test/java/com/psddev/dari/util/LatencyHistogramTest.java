@@ -0,0 +1,108 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private static void assertClose(double expected, double actual) {
+        assertTrue(expected + " != " + actual, Math.abs(expected - actual) <= expected * 0.07);
+    }
+
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0L, histogram.getCount());
+        assertTrue(Double.isNaN(histogram.getPercentile(50.0)));
+        assertTrue(Double.isNaN(histogram.getMax()));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 1000; ++ i) {
+            histogram.record(i * 1000000L);
+        }
+
+        assertEquals(1000L, histogram.getCount());
+        assertClose(0.5, histogram.getPercentile(50.0));
+        assertClose(0.95, histogram.getPercentile(95.0));
+        assertClose(0.99, histogram.getPercentile(99.0));
+        assertEquals(1.0, histogram.getMax(), 0.0);
+        assertTrue(histogram.getPercentile(100.0) <= histogram.getMax());
+    }
+
+    @Test
+    public void merge() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+
+        for (int i = 0; i < 90; ++ i) {
+            fast.record(1000000L);
+        }
+        for (int i = 0; i < 10; ++ i) {
+            slow.record(2000000000L);
+        }
+
+        fast.merge(slow);
+
+        assertEquals(100L, fast.getCount());
+        assertClose(0.001, fast.getPercentile(50.0));
+        assertClose(2.0, fast.getPercentile(95.0));
+        assertEquals(2.0, fast.getMax(), 0.0);
+    }
+
+    @Test
+    public void window_expires() {
+        Stats.HistogramWindow window = new Stats.HistogramWindow(5.0);
+
+        window.record(0L, 1000000L);
+        window.record(1000000000L, 1000000L);
+
+        assertEquals(2L, window.snapshot(1000000000L).getCount());
+        assertEquals(1L, window.snapshot(6500000000L).getCount());
+        assertEquals(0L, window.snapshot(60000000000L).getCount());
+    }
+
+    @Test
+    public void record_count() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(1000000L, 9L);
+        histogram.record(2000000000L, 1L);
+        histogram.record(3000000000L, 0L);
+
+        assertEquals(10L, histogram.getCount());
+        assertClose(0.001, histogram.getPercentile(90.0));
+        assertClose(2.0, histogram.getPercentile(95.0));
+        assertEquals(2.0, histogram.getMax(), 0.0);
+    }
+
+    @Test
+    public void window_count() {
+        Stats.HistogramWindow window = new Stats.HistogramWindow(5.0);
+
+        window.record(0L, 1000000L, 4L);
+
+        assertEquals(4L, window.snapshot(0L).getCount());
+    }
+
+    @Test
+    public void stats_count() {
+        Stats stats = new Stats("LatencyHistogramTest", 3600.0, 1.0, 60.0);
+
+        stats.record("Batch", 2.0, 4L);
+
+        Stats.Measurement measurement = stats.getMeasurements().get("Batch");
+
+        assertEquals(4L, measurement.getOverallTotalCount());
+        assertEquals(2.0, measurement.getOverallTotalDuration(), 0.0);
+        assertEquals(4L, measurement.getDurationHistogram(0).getCount());
+        assertClose(0.5, measurement.getOverallDurationPercentile(50.0));
+        assertEquals(0.5, measurement.getOverallMaxDuration(), 0.0);
+    }
+}
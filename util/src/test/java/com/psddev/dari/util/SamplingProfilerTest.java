@@ -0,0 +1,101 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SamplingProfilerTest {
+
+    @After
+    public void after() {
+        SamplingProfiler.Static.stopThreadProfiler();
+        Settings.setOverride(SamplingProfiler.SAMPLE_RATE_SETTING, null);
+        Settings.setOverride(SamplingProfiler.SAMPLE_THRESHOLD_SETTING, null);
+    }
+
+    @Test
+    public void disabled() {
+        assertFalse(SamplingProfiler.Static.isEnabled());
+        assertNull(SamplingProfiler.Static.startThreadProfiler());
+        assertNull(SamplingProfiler.Static.getThreadProfiler());
+    }
+
+    @Test
+    public void disabled_notAllocated() throws Exception {
+        final AtomicReference<Object> instance = new AtomicReference<Object>("unset");
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                SamplingProfiler.Static.startThreadProfiler();
+                Profiler.Static.startThreadEvent("SamplingProfilerTest Unsampled");
+                Profiler.Static.stopThreadEvent();
+                SamplingProfiler.Static.stopThreadProfiler();
+                instance.set(SamplingProfiler.getThreadInstance());
+            }
+        };
+
+        thread.start();
+        thread.join();
+
+        assertNull(instance.get());
+    }
+
+    @Test
+    public void sampled_flush() {
+        Settings.setOverride(SamplingProfiler.SAMPLE_RATE_SETTING, 1);
+
+        String parent = "SamplingProfilerTest Parent";
+        String child = "SamplingProfilerTest Child";
+
+        assertNotNull(SamplingProfiler.Static.startThreadProfiler());
+
+        Profiler.Static.startThreadEvent(parent);
+        for (int i = 0; i < 3; ++ i) {
+            Profiler.Static.startThreadEvent(child);
+            Profiler.Static.stopThreadEvent();
+        }
+        Profiler.Static.stopThreadEvent();
+
+        assertTrue(SamplingProfiler.Static.stopThreadProfiler());
+        assertNull(SamplingProfiler.Static.getThreadProfiler());
+        assertEquals(1L, SamplingProfiler.TOTAL_STATS.getMeasurements().get(parent).getOverallTotalCount());
+        assertEquals(3L, SamplingProfiler.TOTAL_STATS.getMeasurements().get(child).getOverallTotalCount());
+        assertEquals(3L, SamplingProfiler.OWN_STATS.getMeasurements().get(child).getOverallTotalCount());
+    }
+
+    @Test
+    public void threshold_not_reached() {
+        Settings.setOverride(SamplingProfiler.SAMPLE_THRESHOLD_SETTING, 60000L);
+
+        String name = "SamplingProfilerTest Fast";
+
+        assertNotNull(SamplingProfiler.Static.startThreadProfiler());
+        Profiler.Static.startThreadEvent(name);
+        Profiler.Static.stopThreadEvent();
+
+        assertFalse(SamplingProfiler.Static.stopThreadProfiler());
+        assertEquals(0L, SamplingProfiler.TOTAL_STATS.getMeasurements().get(name).getOverallTotalCount());
+    }
+
+    @Test
+    public void many_names() {
+        Settings.setOverride(SamplingProfiler.SAMPLE_RATE_SETTING, 1);
+        SamplingProfiler.Static.startThreadProfiler();
+
+        for (int i = 0; i < 2000; ++ i) {
+            Profiler.Static.startThreadEvent("SamplingProfilerTest " + (i % 500));
+            Profiler.Static.stopThreadEvent();
+        }
+
+        assertTrue(SamplingProfiler.Static.stopThreadProfiler());
+        assertTrue(SamplingProfiler.TOTAL_STATS.getMeasurements().get("Other").getOverallTotalCount() > 0L);
+    }
+}
@@ -0,0 +1,42 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class StatsDebugServletTest {
+
+    @Test
+    public void writeText() {
+        Stats stats = new Stats("StatsDebugServletTest", 3600.0, 1.0, 60.0);
+
+        stats.record("Batch", 2.0, 4L);
+
+        StringWriter string = new StringWriter();
+        PrintWriter writer = new PrintWriter(string);
+
+        StatsDebugServlet.writeText(writer, Collections.singletonList(stats));
+        writer.flush();
+
+        String text = string.toString();
+        String labels = "{stats=\"StatsDebugServletTest\",operation=\"Batch\",interval=\"60\"";
+        int type = text.indexOf("# TYPE dari_stats_latency_seconds summary\n");
+        int next = text.indexOf("# TYPE", type + 1);
+        String summary = text.substring(type, next < 0 ? text.length() : next);
+
+        assertTrue(text, type >= 0);
+        assertTrue(text, summary.contains("dari_stats_latency_seconds" + labels + ",quantile=\"0.5\"} 0.5"));
+        assertTrue(text, summary.contains("dari_stats_latency_seconds_sum" + labels + "} 2.0\n"));
+        assertTrue(text, summary.contains("dari_stats_latency_seconds_count" + labels + "} 4.0\n"));
+
+        // Each metric is written as one group after its type.
+        assertEquals(4, text.split("# TYPE").length - 1);
+        assertTrue(text, text.lastIndexOf("dari_stats_latency_seconds") < text.indexOf("# TYPE dari_stats_latency_max_seconds"));
+        assertTrue(text, text.lastIndexOf("dari_stats_count_total{") < text.indexOf("# TYPE dari_stats_throughput"));
+    }
+}
@@ -0,0 +1,170 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StorageItemUploaderTest {
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("uploads", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void after() {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    private LocalStorageItem createItem(String path, byte[] data) {
+        LocalStorageItem item = new LocalStorageItem();
+
+        item.setRootPath(directory.getPath());
+        item.setPath(path);
+        item.setData(new ByteArrayInputStream(data));
+        return item;
+    }
+
+    @Test
+    public void submit() throws Exception {
+        byte[] data = "foo".getBytes(StringUtils.UTF_8);
+        StorageItem item = createItem("foo.txt", data);
+        Future<StorageItem> future = StorageItem.Static.saveAsync(item);
+
+        assertSame(item, future.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(data, IoUtils.toByteArray(new File(directory, "foo.txt")));
+    }
+
+    @Test
+    public void submit_listener() throws Exception {
+        final AtomicReference<StorageItem> saved = new AtomicReference<StorageItem>();
+        LocalStorageItem item = createItem("bar.txt", new byte[] { 1, 2, 3 });
+
+        // Runs before the given listener, like the intermediate image sizes.
+        item.registerListener(new StorageItemListener() {
+
+            @Override
+            public void afterSave(StorageItem item) {
+                item.getMetadata().put("width", 100);
+            }
+        });
+
+        Future<StorageItem> future = StorageItem.Static.saveAsync(item, new StorageItemListener() {
+
+            @Override
+            public void afterSave(StorageItem item) {
+                assertEquals(100, item.getMetadata().get("width"));
+                saved.set(item);
+            }
+        });
+
+        assertSame(item, future.get(5, TimeUnit.SECONDS));
+        assertSame(item, saved.get());
+    }
+
+    @Test
+    public void submit_error() throws Exception {
+        final AtomicReference<StorageItem> saved = new AtomicReference<StorageItem>();
+        StorageItem item = new FailingStorageItem();
+
+        Future<StorageItem> future = StorageItemUploader.submit(item, new StorageItemListener() {
+
+            @Override
+            public void afterSave(StorageItem item) {
+                saved.set(item);
+            }
+        });
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+
+        } catch (ExecutionException error) {
+            assertTrue(error.getCause() instanceof IOException);
+        }
+
+        assertNull(saved.get());
+    }
+
+    @Test
+    public void submit_uploadersInterrupted() throws Exception {
+        StorageItemUploader.submit(createItem("first.txt", new byte[] { 1 })).get(5, TimeUnit.SECONDS);
+
+        // Closes the queue that the uploaders are waiting on.
+        for (Object task : TaskExecutor.Static.getInstance(StorageItemUploader.EXECUTOR_NAME).getTasks()) {
+            Thread thread = ((Task) task).getThread();
+
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        Thread.sleep(200);
+
+        StorageItem item = createItem("second.txt", new byte[] { 2 });
+
+        assertSame(item, StorageItemUploader.submit(item).get(5, TimeUnit.SECONDS));
+        assertTrue(new File(directory, "second.txt").exists());
+    }
+
+    @Test
+    public void submit_many() throws Exception {
+        Future<?>[] futures = new Future<?>[20];
+
+        for (int i = 0; i < futures.length; ++ i) {
+            futures[i] = StorageItemUploader.submit(createItem(i + ".txt", new byte[] { (byte) i }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(futures.length, directory.listFiles().length);
+    }
+
+    private static class FailingStorageItem extends AbstractStorageItem {
+
+        @Override
+        protected InputStream createData() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        protected void saveData(InputStream data) throws IOException {
+            throw new IOException();
+        }
+
+        @Override
+        public boolean isInStorage() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimeSeriesTest {
+
+    @Test
+    public void toArray_partial() {
+        TimeSeries series = new TimeSeries(5000L, 1000L);
+
+        series.add(1.0);
+        series.add(2.0);
+
+        assertArrayEquals(new double[] { 1.0, 2.0 }, series.toArray(), 0.0);
+    }
+
+    @Test
+    public void toArray_wrapped() {
+        TimeSeries series = new TimeSeries(3000L, 1000L);
+
+        for (int i = 1; i <= 5; ++ i) {
+            series.add(i);
+        }
+
+        assertArrayEquals(new double[] { 3.0, 4.0, 5.0 }, series.toArray(), 0.0);
+    }
+
+    @Test
+    public void iterator_matches_toArray() {
+        TimeSeries series = new TimeSeries(3000L, 1000L);
+        List<Double> points = new ArrayList<Double>();
+
+        for (int i = 1; i <= 4; ++ i) {
+            series.add(i);
+        }
+
+        for (Double point : series) {
+            points.add(point);
+        }
+
+        assertEquals(3, points.size());
+        assertEquals(2.0, points.get(0), 0.0);
+        assertEquals(4.0, points.get(2), 0.0);
+    }
+
+    @Test
+    public void subArray_empty() {
+        TimeSeries series = new TimeSeries(3000L, 1000L);
+
+        series.add(1.0);
+
+        assertEquals(0, series.subArray(0L, 0L).length);
+    }
+
+    @Test
+    public void exponentialMovingAverage_averages() {
+        ExponentialMovingAverage average = new ExponentialMovingAverage(10.0, 1.0, 1.0);
+        long start = System.nanoTime();
+
+        average.updateAt(start, 10.0);
+        average.updateAt(start + 3000000000L, 0.0);
+
+        assertEquals(3, average.getAverages().toArray().length);
+    }
+}